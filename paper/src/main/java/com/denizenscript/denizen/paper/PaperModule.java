@@ -131,7 +131,7 @@ public class PaperModule {
         if (text == null) {
             return null;
         }
-        return jsonToComponent(FormattedTextHelper.componentToJson(FormattedTextHelper.parse(text, baseColor)));
+        return jsonToComponent(FormattedTextHelper.parseToJson(text, baseColor));
     }
 
     public static String stringifyComponent(Component component) {
@@ -37,13 +37,16 @@ public class AreaEnterExitScriptEventPaperImpl extends AreaEnterExitScriptEvent
         @EventHandler
         public void onEntityMove(EntityMoveEvent event) {
             if (event.getEntity().isValid()) {
-                processNewPosition(new EntityTag(event.getEntity()), event.getTo(), event);
+                handleMove(event.getEntity(), event.getTo(), event);
             }
         }
 
         @EventHandler
         public void onEntityDeath(EntityDeathEvent event) {
-            processNewPosition(new EntityTag(event.getEntity()), null, event);
+            processNewPosition(event.getEntity(), null, event);
+            if (!EntityTag.isPlayer(event.getEntity())) {
+                trackedEntities.remove(event.getEntity().getUniqueId());
+            }
         }
     }
 }
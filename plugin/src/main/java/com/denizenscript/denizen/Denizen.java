@@ -6,7 +6,6 @@ import com.denizenscript.denizen.events.server.ServerPrestartScriptEvent;
 import com.denizenscript.denizen.events.server.ServerStartScriptEvent;
 import com.denizenscript.denizen.objects.InventoryTag;
 import com.denizenscript.denizen.objects.NPCTag;
-import com.denizenscript.denizen.objects.PlayerTag;
 import com.denizenscript.denizen.objects.properties.PropertyRegistry;
 import com.denizenscript.denizen.scripts.commands.BukkitCommandRegistry;
 import com.denizenscript.denizen.scripts.commands.player.ClickableCommand;
@@ -30,6 +29,7 @@ import com.denizenscript.denizencore.utilities.debugging.Debug;
 import com.denizenscript.denizen.utilities.depends.Depends;
 import com.denizenscript.denizen.utilities.entity.DenizenEntityType;
 import com.denizenscript.denizen.utilities.flags.PlayerFlagHandler;
+import com.denizenscript.denizen.utilities.flags.PlayerFlagIndex;
 import com.denizenscript.denizen.utilities.flags.WorldFlagHandler;
 import com.denizenscript.denizen.utilities.implementation.DenizenCoreImplementation;
 import com.denizenscript.denizen.utilities.maps.DenizenMapManager;
@@ -129,6 +129,7 @@ public class Denizen extends JavaPlugin {
         if (!PlayerFlagHandler.dataFolder.exists()) {
             PlayerFlagHandler.dataFolder.mkdir();
         }
+        PlayerFlagIndex.loadOrRebuild();
         DebugInternals.alternateTrimLogic = FormattedTextHelper::bukkitSafeDebugTrimming;
         String javaVersion = System.getProperty("java.version");
         Debug.log("Running on java version: " + javaVersion);
@@ -236,9 +237,7 @@ public class Denizen extends JavaPlugin {
             DenizenEntityType.registerEntityType("FAKE_ARROW", FakeArrow.class);
             DenizenEntityType.registerEntityType("FAKE_PLAYER", FakePlayer.class);
             // Track all player names for quick PlayerTag matching
-            for (OfflinePlayer player : Bukkit.getOfflinePlayers()) {
-                PlayerTag.notePlayer(player);
-            }
+            PlayerNameIndex.load();
         }
         catch (Exception e) {
             Debug.echoError(e);
@@ -476,12 +475,13 @@ public class Denizen extends JavaPlugin {
         hasDisabled = true;
         DenizenCore.shutdown();
         ScoreboardHelper._saveScoreboards();
-        InventoryScriptHelper.savePlayerInventories();
+        InventoryScriptHelper.savePlayerInventories(true);
         triggerRegistry.disableCoreMembers();
         getLogger().log(Level.INFO, " v" + getDescription().getVersion() + " disabled.");
         Bukkit.getServer().getScheduler().cancelTasks(this);
         HandlerList.unregisterAll(this);
         saveSaves(true);
+        PlayerFlagIndex.save();
         worldFlags.shutdown();
     }
 
@@ -534,11 +534,12 @@ public class Denizen extends JavaPlugin {
      * @param lockUntilDone 'true' if the system should sleep and lock the thread until saves are complete. 'false' is saves can happen in the future.
      */
     public void saveSaves(boolean lockUntilDone) {
+        DataPersistenceHelper.flushPendingWrites();
         // Save scoreboards to scoreboards.yml
         ScoreboardHelper._saveScoreboards();
         // Save maps to maps.yml
         DenizenMapManager.saveMaps();
-        InventoryScriptHelper.savePlayerInventories();
+        InventoryScriptHelper.savePlayerInventories(lockUntilDone);
         // Save server flags
         try {
             scoreboardsConfig.save(scoreboardsConfigFile);
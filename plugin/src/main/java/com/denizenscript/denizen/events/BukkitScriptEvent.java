@@ -10,6 +10,7 @@ import com.denizenscript.denizen.tags.BukkitTagContext;
 import com.denizenscript.denizen.utilities.NotedAreaTracker;
 import com.denizenscript.denizen.utilities.implementation.BukkitScriptEntryData;
 import com.denizenscript.denizen.utilities.inventory.SlotHelper;
+import com.denizenscript.denizen.utilities.world.WorldListChangeTracker;
 import com.denizenscript.denizencore.flags.AbstractFlagTracker;
 import com.denizenscript.denizencore.flags.FlaggableObject;
 import com.denizenscript.denizencore.objects.ObjectTag;
@@ -37,7 +38,9 @@ import org.bukkit.scheduler.BukkitRunnable;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 public abstract class BukkitScriptEvent extends ScriptEvent {
 
@@ -579,6 +582,7 @@ public abstract class BukkitScriptEvent extends ScriptEvent {
             }
             registeredHandlers = null;
         }
+        compiledInSwitches.clear();
     }
 
     @Override
@@ -656,10 +660,49 @@ public abstract class BukkitScriptEvent extends ScriptEvent {
         public boolean bool;
     }
 
-    public boolean runInCheck(ScriptPath path, Location location, String innote) {
-        if (!runLocationFlaggedCheck(path, "location_flagged", location)) {
-            return false;
-        }
+    /**
+     * A pre-parsed 'in:<area>' style switch (along with the 'location_flagged' switch) for a single script path.
+     */
+    public static class CompiledInSwitch {
+
+        /**
+         * The NotedAreaTracker modification count this was compiled against. Noting or un-noting any area invalidates the compiled form.
+         */
+        public int noteVersion;
+
+        /**
+         * The WorldListChangeTracker change count this was compiled against. Worlds loading or unloading invalidates the compiled form, as world and inline area inputs depend on them.
+         */
+        public int worldVersion;
+
+        /**
+         * The raw 'location_flagged' switch value, or null if not present.
+         */
+        public String locationFlagged;
+
+        /**
+         * True if the path has no 'in' check at all (only possibly a 'location_flagged' check).
+         */
+        public boolean noAreaCheck;
+
+        /**
+         * The compiled area check, or null if the input couldn't be resolved (a negated unresolvable input compiles to an always-true check, as it matches nothing).
+         */
+        public Predicate<Location> areaCheck;
+    }
+
+    public static ConcurrentHashMap<ScriptPath, ConcurrentHashMap<String, CompiledInSwitch>> compiledInSwitches = new ConcurrentHashMap<>();
+
+    public CompiledInSwitch getCompiledInSwitch(ScriptPath path, String innote) {
+        ConcurrentHashMap<String, CompiledInSwitch> byName = compiledInSwitches.computeIfAbsent(path, k -> new ConcurrentHashMap<>());
+        CompiledInSwitch compiled = byName.get(innote);
+        if (compiled != null && compiled.noteVersion == NotedAreaTracker.modificationCount && compiled.worldVersion == WorldListChangeTracker.changes) {
+            return compiled;
+        }
+        compiled = new CompiledInSwitch();
+        compiled.noteVersion = NotedAreaTracker.modificationCount;
+        compiled.worldVersion = WorldListChangeTracker.changes;
+        compiled.locationFlagged = path.switches.get("location_flagged");
         String inputText = path.switches.get(innote);
         if (inputText == null) {
             int index;
@@ -670,81 +713,108 @@ public abstract class BukkitScriptEvent extends ScriptEvent {
             }
             if (index >= path.eventArgsLower.length) {
                 // No 'in ...' specified
-                return true;
-            }
-            if (location == null) {
-                return false;
+                compiled.noAreaCheck = true;
+                byName.put(innote, compiled);
+                return compiled;
             }
             Deprecations.inAreaSwitchFormat.warn();
             inputText = path.eventArgLowerAt(index + 1);
             if (inputText.equals("notable") || inputText.equals("noted")) {
                 String subit = path.eventArgLowerAt(index + 2);
                 if (subit.equals("cuboid")) {
-                    BoolHolder bool = new BoolHolder();
-                    NotedAreaTracker.forEachAreaThatContains(new LocationTag(location), (a) -> { if (a instanceof CuboidTag) { bool.bool = true; } });
-                    return bool.bool;
+                    compiled.areaCheck = compileAreaTypeCheck(CuboidTag.class);
                 }
                 else if (subit.equals("ellipsoid")) {
-                    BoolHolder bool = new BoolHolder();
-                    NotedAreaTracker.forEachAreaThatContains(new LocationTag(location), (a) -> { if (a instanceof EllipsoidTag) { bool.bool = true; } });
-                    return bool.bool;
+                    compiled.areaCheck = compileAreaTypeCheck(EllipsoidTag.class);
                 }
                 else {
                     Debug.echoError("Invalid event 'IN ...' check [" + getName() + "] ('in notable ???'): '" + path.event + "' for " + path.container.getName());
-                    return false;
                 }
+                byName.put(innote, compiled);
+                return compiled;
             }
         }
-        if (location == null) {
+        boolean negate = inputText.startsWith("!");
+        Predicate<Location> check = compileInCheck(getTagContext(path), getName(), negate ? inputText.substring(1) : inputText, path.event, path.container.getName());
+        if (check == null) {
+            // Failures are cached too, as they can only become valid through a note change or a world loading, which both invalidate the cache
+            compiled.areaCheck = negate ? (location) -> true : null;
+        }
+        else {
+            compiled.areaCheck = negate ? check.negate() : check;
+        }
+        byName.put(innote, compiled);
+        return compiled;
+    }
+
+    public boolean runInCheck(ScriptPath path, Location location, String innote) {
+        CompiledInSwitch compiled = getCompiledInSwitch(path, innote);
+        if (compiled.locationFlagged != null && !coreFlaggedCheck(compiled.locationFlagged, location == null ? null : new LocationTag(location).getFlagTracker())) {
             return false;
         }
-        if (inputText.startsWith("!")) {
-            return !inCheckInternal(getTagContext(path), getName(), location, inputText.substring(1), path.event, path.container.getName());
+        if (compiled.noAreaCheck) {
+            return true;
+        }
+        if (location == null || compiled.areaCheck == null) {
+            return false;
         }
-        return inCheckInternal(getTagContext(path), getName(), location, inputText, path.event, path.container.getName());
+        return compiled.areaCheck.test(location);
+    }
+
+    public static boolean anyAreaContains(Location location, Predicate<AreaContainmentObject> areaCheck) {
+        BoolHolder bool = new BoolHolder();
+        NotedAreaTracker.forEachAreaThatContains(new LocationTag(location), (a) -> { if (!bool.bool && areaCheck.test(a)) { bool.bool = true; } });
+        return bool.bool;
+    }
+
+    public static Predicate<Location> compileAreaTypeCheck(Class<? extends AreaContainmentObject> type) {
+        return (location) -> anyAreaContains(location, type::isInstance);
     }
 
     public static boolean inCheckInternal(TagContext context, String name, Location location, String inputText, String evtLine, String containerName) {
+        Predicate<Location> check = compileInCheck(context, name, inputText, evtLine, containerName);
+        return check != null && check.test(location);
+    }
+
+    /**
+     * Parses an 'in:<area>' style input into a reusable location check, resolving any noted area references up front.
+     * Returns null (after showing an error if relevant) if the input isn't valid.
+     */
+    public static Predicate<Location> compileInCheck(TagContext context, String name, String inputText, String evtLine, String containerName) {
         String lower = CoreUtilities.toLowerCase(inputText);
         if (lower.contains(":")) {
             if (lower.startsWith("world_flagged:")) {
-                return coreFlaggedCheck(inputText.substring("world_flagged:".length()), new WorldTag(location.getWorld()).getFlagTracker());
+                String flagName = inputText.substring("world_flagged:".length());
+                return (location) -> coreFlaggedCheck(flagName, new WorldTag(location.getWorld()).getFlagTracker());
             }
             else if (lower.startsWith("chunk_flagged:")) {
-                return coreFlaggedCheck(inputText.substring("chunk_flagged:".length()), new ChunkTag(location).getFlagTracker());
+                String flagName = inputText.substring("chunk_flagged:".length());
+                return (location) -> coreFlaggedCheck(flagName, new ChunkTag(location).getFlagTracker());
             }
             else if (lower.startsWith("area_flagged:")) {
                 String flagName = inputText.substring("area_flagged:".length());
-                BoolHolder bool = new BoolHolder();
-                NotedAreaTracker.forEachAreaThatContains(new LocationTag(location), (a) -> {
-                    if (a instanceof FlaggableObject && coreFlaggedCheck(flagName, ((FlaggableObject) a).getFlagTracker())) {
-                        bool.bool = true;
-                    }
-                });
-                return bool.bool;
+                return (location) -> anyAreaContains(location, (a) -> a instanceof FlaggableObject && coreFlaggedCheck(flagName, ((FlaggableObject) a).getFlagTracker()));
             }
             else if (lower.startsWith("biome:")) {
-                String biome = inputText.substring("biome:".length());
-                return runGenericCheck(biome, new LocationTag(location).getBiome().name);
+                String biome = lower.substring("biome:".length());
+                MatchHelper matcher = createMatcher(biome);
+                return (location) -> {
+                    String biomeName = CoreUtilities.toLowerCase(new LocationTag(location).getBiome().name);
+                    return biome.equals(biomeName) || matcher.doesMatch(biomeName);
+                };
             }
         }
         if (lower.equals("cuboid")) {
-            BoolHolder bool = new BoolHolder();
-            NotedAreaTracker.forEachAreaThatContains(new LocationTag(location), (a) -> { if (a instanceof CuboidTag) { bool.bool = true; } });
-            return bool.bool;
+            return compileAreaTypeCheck(CuboidTag.class);
         }
         else if (lower.equals("ellipsoid")) {
-            BoolHolder bool = new BoolHolder();
-            NotedAreaTracker.forEachAreaThatContains(new LocationTag(location), (a) -> { if (a instanceof EllipsoidTag) { bool.bool = true; } });
-            return bool.bool;
+            return compileAreaTypeCheck(EllipsoidTag.class);
         }
         else if (lower.equals("polygon")) {
-            BoolHolder bool = new BoolHolder();
-            NotedAreaTracker.forEachAreaThatContains(new LocationTag(location), (a) -> { if (a instanceof PolygonTag) { bool.bool = true; } });
-            return bool.bool;
+            return compileAreaTypeCheck(PolygonTag.class);
         }
         else if (WorldTag.matches(inputText)) {
-            return CoreUtilities.equalsIgnoreCase(location.getWorld().getName(), lower);
+            return (location) -> CoreUtilities.equalsIgnoreCase(location.getWorld().getName(), lower);
         }
         else if (CuboidTag.matches(inputText)) {
             CuboidTag cuboid = CuboidTag.valueOf(inputText, context);
@@ -752,9 +822,9 @@ public abstract class BukkitScriptEvent extends ScriptEvent {
                 if (context.showErrors()) {
                     Debug.echoError("Invalid event 'in:<area>' switch [" + name + "] (invalid cuboid): '" + evtLine + "' for " + containerName);
                 }
-                return false;
+                return null;
             }
-            return cuboid.isInsideCuboid(location);
+            return cuboid::isInsideCuboid;
         }
         else if (EllipsoidTag.matches(inputText)) {
             EllipsoidTag ellipsoid = EllipsoidTag.valueOf(inputText, context);
@@ -762,9 +832,9 @@ public abstract class BukkitScriptEvent extends ScriptEvent {
                 if (context.showErrors()) {
                     Debug.echoError("Invalid event 'in:<area>' switch [" + name + "] (invalid ellipsoid): '" + evtLine + "' for " + containerName);
                 }
-                return false;
+                return null;
             }
-            return ellipsoid.contains(location);
+            return ellipsoid::contains;
         }
         else if (PolygonTag.matches(inputText)) {
             PolygonTag polygon = PolygonTag.valueOf(inputText, context);
@@ -772,27 +842,20 @@ public abstract class BukkitScriptEvent extends ScriptEvent {
                 if (context.showErrors()) {
                     Debug.echoError("Invalid event 'in:<area>' switch [" + name + "] (invalid polygon): '" + evtLine + "' for " + containerName);
                 }
-                return false;
+                return null;
             }
-            return polygon.doesContainLocation(location);
+            return polygon::doesContainLocation;
         }
         else if (isAdvancedMatchable(lower)) {
             MatchHelper matcher = createMatcher(lower);
-            BoolHolder bool = new BoolHolder();
-            NotedAreaTracker.forEachAreaThatContains(new LocationTag(location), (a) -> { if (matcher.doesMatch(a.getNoteName())) { bool.bool = true; } });
-            if (bool.bool) {
-                return true;
-            }
-            if (matcher.doesMatch(CoreUtilities.toLowerCase(location.getWorld().getName()))) {
-                return true;
-            }
-            return false;
+            return (location) -> anyAreaContains(location, (a) -> matcher.doesMatch(a.getNoteName()))
+                    || matcher.doesMatch(CoreUtilities.toLowerCase(location.getWorld().getName()));
         }
         else {
             if (context.showErrors()) {
                 Debug.echoError("Invalid event 'in:<area>' switch [" + name + "] ('in:???') (did you make a typo, or forget to 'note' an object with that name?): '" + evtLine + "' for " + containerName);
             }
-            return false;
+            return null;
         }
     }
 
@@ -1,5 +1,6 @@
 package com.denizenscript.denizen.events.entity;
 
+import com.denizenscript.denizen.Denizen;
 import com.denizenscript.denizen.events.BukkitScriptEvent;
 import com.denizenscript.denizen.objects.*;
 import com.denizenscript.denizen.utilities.NotedAreaTracker;
@@ -13,14 +14,19 @@ import com.denizenscript.denizencore.objects.notable.Notable;
 import com.denizenscript.denizencore.objects.notable.NoteManager;
 import com.denizenscript.denizencore.scripts.ScriptEntryData;
 import com.denizenscript.denizencore.utilities.CoreUtilities;
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
 import org.bukkit.event.Event;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDeathEvent;
 import org.bukkit.event.entity.EntityTeleportEvent;
 import org.bukkit.event.player.*;
 import org.bukkit.event.vehicle.VehicleMoveEvent;
+import org.bukkit.scheduler.BukkitTask;
 
 import java.util.*;
 
@@ -35,6 +41,7 @@ public class AreaEnterExitScriptEvent extends BukkitScriptEvent implements Liste
     // @Triggers when an entity enters or exits a noted area (cuboid, ellipsoid, or polygon). On Spigot servers, only fires for players. Paper is required for other mob types.
     //
     // @Warning cancelling this event will have different results depending on the cause. Teleporting the entity away 1 tick later might be safer.
+    // If the Denizen config option to batch area checks per tick is enabled, movement-caused events fire at the end of the tick and cannot cancel the movement.
     //
     // @Cancellable true
     //
@@ -179,7 +186,21 @@ public class AreaEnterExitScriptEvent extends BukkitScriptEvent implements Liste
         exactTracked = needsMatchers ? null : exacts.toArray(new String[0]);
         matchers = needsMatchers ? matchList.toArray(new MatchHelper[0]) : null;
         flagTracked = flags.size() > 0 ? flags.toArray(new String[0]) : null;
+        matcherGeneration++;
         registerCorrectClass();
+        if (batchPerTick) {
+            tickTask = Bukkit.getScheduler().runTaskTimer(Denizen.getInstance(), this::onTick, 1, 1);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+        }
+        pendingMoves.clear();
+        super.destroy();
     }
 
     public boolean doTrackAll = false;
@@ -187,23 +208,86 @@ public class AreaEnterExitScriptEvent extends BukkitScriptEvent implements Liste
     public String[] flagTracked = null;
     public MatchHelper[] matchers = null;
     public boolean onlyTrackPlayers = true;
-    public static HashMap<UUID, HashSet<AreaContainmentObject>> entitiesInArea = new HashMap<>();
+    public BukkitTask tickTask;
+
+    public static boolean batchPerTick = false;
+
+    public static int matcherGeneration = 0;
+
+    /**
+     * Tracking data for a single entity: the areas it's currently in, and the candidate areas near its current 16x16x16 cell.
+     * The candidate list is only rebuilt when the entity moves into a different cell, or when areas/matchers change.
+     */
+    public static class EntityAreaState {
+
+        public Entity entity;
+
+        public EntityTag entityTag;
+
+        public final Set<AreaContainmentObject> inAreas = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        public World cellWorld;
+
+        public int cellX, cellY, cellZ, areaVersion = -1, matcherVersion = -1;
+
+        public NotedAreaTracker.TrackedArea[] candidates;
+
+        /**
+         * For each candidate, whether it only matches by flag (and so needs a flag check on entry).
+         */
+        public boolean[] needsFlagCheck;
+
+        public EntityTag getEntityTag() {
+            if (entityTag == null || entityTag.getBukkitEntity() != entity) {
+                entityTag = new EntityTag(entity);
+            }
+            return entityTag;
+        }
+
+        public boolean isCandidate(AreaContainmentObject area) {
+            for (NotedAreaTracker.TrackedArea candidate : candidates) {
+                if (candidate.area == area) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public static class PendingMove {
+
+        public Entity entity;
+
+        public Location to;
+
+        public Event cause;
+    }
+
+    public static HashMap<UUID, EntityAreaState> trackedEntities = new HashMap<>();
+
+    public static LinkedHashMap<UUID, PendingMove> pendingMoves = new LinkedHashMap<>();
+
+    /**
+     * Counts newly tracked entities, to occasionally sweep out states that aren't in any area.
+     * States of entities in an area are kept until death or quit (not on chunk unload), so an unloaded entity doesn't re-enter its area when it loads again.
+     */
+    public int sweepTicker = 0;
 
     @Override
     public void cancellationChanged() {
         if (cancelled) {
-            HashSet<AreaContainmentObject> inAreas = entitiesInArea.get(currentEntity.getUUID());
+            EntityAreaState state = trackedEntities.get(currentEntity.getUUID());
             if (isEntering) {
-                inAreas.remove(area);
+                state.inAreas.remove(area);
             }
             else {
-                inAreas.add(area);
+                state.inAreas.add(area);
             }
         }
         super.cancellationChanged();
     }
 
-    public boolean anyMatch(String name, FlaggableObject flaggable) {
+    public boolean anyNameMatch(String name) {
         if (doTrackAll) {
             return true;
         }
@@ -214,10 +298,17 @@ public class AreaEnterExitScriptEvent extends BukkitScriptEvent implements Liste
                 }
             }
         }
+        return false;
+    }
+
+    public boolean anyFlagMatch(FlaggableObject flaggable) {
         if (flagTracked != null) {
+            AbstractFlagTracker tracker = flaggable.getFlagTracker();
+            if (tracker == null) {
+                return false;
+            }
             for (String flag : flagTracked) {
-                AbstractFlagTracker tracker = flaggable.getFlagTracker();
-                if (tracker != null && tracker.hasFlag(flag)) {
+                if (tracker.hasFlag(flag)) {
                     return true;
                 }
             }
@@ -225,69 +316,160 @@ public class AreaEnterExitScriptEvent extends BukkitScriptEvent implements Liste
         return false;
     }
 
-    public void processSingle(AreaContainmentObject obj, EntityTag entity, HashSet<AreaContainmentObject> inAreas, Location pos, Event eventCause) {
-        boolean containedNow = pos != null && obj.doesContainLocation(pos);
-        boolean wasContained = inAreas != null && inAreas.contains(obj);
-        if (containedNow == wasContained) {
-            return;
+    public void buildCandidates(EntityAreaState state, World world, int cellX, int cellY, int cellZ) {
+        ArrayList<NotedAreaTracker.TrackedArea> candidates = new ArrayList<>();
+        ArrayList<Boolean> flagChecks = new ArrayList<>();
+        int lowX = cellX << 4, lowY = cellY << 4, lowZ = cellZ << 4;
+        int highX = lowX + 15, highY = lowY + 15, highZ = lowZ + 15;
+        if (exactTracked != null) {
+            for (String name : exactTracked) {
+                Notable obj = NoteManager.getSavedObject(name);
+                if (!(obj instanceof AreaContainmentObject)) {
+                    Debug.echoError("Invalid area enter/exit event area '" + name + "'");
+                    continue;
+                }
+                AreaContainmentObject area = (AreaContainmentObject) obj;
+                NotedAreaTracker.TrackedArea tracked = new NotedAreaTracker.TrackedArea(area);
+                if (area.getWorld().getName().equals(world.getName()) && tracked.intersects(lowX, lowY, lowZ, highX, highY, highZ)) {
+                    candidates.add(tracked);
+                    flagChecks.add(false);
+                }
+            }
         }
-        if (inAreas == null) {
-            inAreas = new HashSet<>();
-            entitiesInArea.put(entity.getUUID(), inAreas);
+        else {
+            NotedAreaTracker.forEachAreaIntersecting(world.getName(), lowX, lowY, lowZ, highX, highY, highZ, (tracked) -> {
+                if (!(tracked.area instanceof FlaggableObject)) {
+                    return;
+                }
+                if (anyNameMatch(tracked.area.getNoteName())) {
+                    candidates.add(tracked);
+                    flagChecks.add(false);
+                }
+                else if (flagTracked != null) {
+                    candidates.add(tracked);
+                    flagChecks.add(true);
+                }
+            });
         }
+        state.candidates = candidates.toArray(new NotedAreaTracker.TrackedArea[0]);
+        state.needsFlagCheck = new boolean[flagChecks.size()];
+        for (int i = 0; i < state.needsFlagCheck.length; i++) {
+            state.needsFlagCheck[i] = flagChecks.get(i);
+        }
+        state.cellWorld = world;
+        state.cellX = cellX;
+        state.cellY = cellY;
+        state.cellZ = cellZ;
+        state.areaVersion = NotedAreaTracker.modificationCount;
+        state.matcherVersion = matcherGeneration;
+    }
+
+    public void processSingle(AreaContainmentObject obj, EntityAreaState state, boolean containedNow, Location pos, Event eventCause) {
         if (containedNow) {
-            inAreas.add(obj);
+            state.inAreas.add(obj);
         }
         else {
-            inAreas.remove(obj);
+            state.inAreas.remove(obj);
         }
-        currentEntity = entity;
+        currentEntity = state.getEntityTag();
         isEntering = containedNow;
         area = obj;
         to = pos;
         fire(eventCause);
     }
 
-    private final static List<AreaContainmentObject> reusableClearList = new ArrayList<>();
-
     public void processNewPosition(EntityTag entity, Location pos, Event eventCause) {
-        if (onlyTrackPlayers && !entity.isPlayer()) {
+        processNewPosition(entity.getBukkitEntity(), pos, eventCause);
+    }
+
+    public void processNewPosition(Entity entity, Location pos, Event eventCause) {
+        if (onlyTrackPlayers && !EntityTag.isPlayer(entity)) {
             return;
         }
-        HashSet<AreaContainmentObject> inAreas = entitiesInArea.get(entity.getUUID());
-        if (doTrackAll || matchers != null || flagTracked != null) {
-            if (pos != null) {
-                NotedAreaTracker.forEachAreaThatContains(new LocationTag(pos), (a) -> {
-                    if (a instanceof FlaggableObject && anyMatch(a.getNoteName(), (FlaggableObject) a)) {
-                        processSingle(a, entity, inAreas, pos, eventCause);
-                    }
-                });
-            }
-            if (inAreas != null) {
-                reusableClearList.addAll(inAreas);
-                for (AreaContainmentObject area : reusableClearList) {
-                    if (area.getNoteName() == null) {
-                        inAreas.remove(area);
-                    }
-                    else {
-                        processSingle(area, entity, inAreas, pos, eventCause);
-                    }
-                }
-                reusableClearList.clear();
+        UUID id = entity.getUniqueId();
+        pendingMoves.remove(id);
+        EntityAreaState state = trackedEntities.get(id);
+        if (pos == null) {
+            if (state == null || state.inAreas.isEmpty()) {
+                return;
             }
+            state.entity = entity;
+            for (AreaContainmentObject area : new ArrayList<>(state.inAreas)) {
+                processSingle(area, state, false, null, eventCause);
+            }
+            return;
         }
-        else {
-            for (String name : exactTracked) {
-                Notable obj = NoteManager.getSavedObject(name);
-                if (!(obj instanceof AreaContainmentObject)) {
-                    Debug.echoError("Invalid area enter/exit event area '" + name + "'");
+        if (state == null) {
+            if (sweepTicker++ > 1000) {
+                sweepTicker = 0;
+                trackedEntities.values().removeIf(old -> old.inAreas.isEmpty());
+            }
+            state = new EntityAreaState();
+            trackedEntities.put(id, state);
+        }
+        state.entity = entity;
+        int x = pos.getBlockX(), y = pos.getBlockY(), z = pos.getBlockZ();
+        World world = pos.getWorld();
+        boolean rebuilt = false;
+        if (state.candidates == null || state.cellWorld != world || state.cellX != (x >> 4) || state.cellY != (y >> 4) || state.cellZ != (z >> 4)
+                || state.areaVersion != NotedAreaTracker.modificationCount || state.matcherVersion != matcherGeneration) {
+            buildCandidates(state, world, x >> 4, y >> 4, z >> 4);
+            rebuilt = true;
+        }
+        NotedAreaTracker.TrackedArea[] candidates = state.candidates;
+        for (int i = 0; i < candidates.length; i++) {
+            NotedAreaTracker.TrackedArea candidate = candidates[i];
+            boolean wasContained = state.inAreas.contains(candidate.area);
+            boolean containedNow = candidate.contains(x, y, z)
+                    && (wasContained || !state.needsFlagCheck[i] || anyFlagMatch((FlaggableObject) candidate.area))
+                    && candidate.area.doesContainLocation(pos);
+            if (containedNow != wasContained) {
+                processSingle(candidate.area, state, containedNow, pos, eventCause);
+            }
+        }
+        if (rebuilt && !state.inAreas.isEmpty()) {
+            // Areas not near the new cell can't contain the new position, so anything left over has been exited (or unnoted)
+            for (AreaContainmentObject area : new ArrayList<>(state.inAreas)) {
+                if (state.isCandidate(area)) {
                     continue;
                 }
-                processSingle((AreaContainmentObject) obj, entity, inAreas, pos, eventCause);
+                if (area.getNoteName() == null) {
+                    state.inAreas.remove(area);
+                }
+                else {
+                    processSingle(area, state, false, pos, eventCause);
+                }
             }
         }
-        if (inAreas != null && inAreas.isEmpty()) {
-            entitiesInArea.remove(entity.getUUID());
+    }
+
+    /**
+     * Handles a movement, either immediately or (if batching is enabled) at the end of the tick, using only the latest position.
+     */
+    public void handleMove(Entity entity, Location to, Event eventCause) {
+        if (!batchPerTick || tickTask == null) {
+            processNewPosition(entity, to, eventCause);
+            return;
+        }
+        if (onlyTrackPlayers && !EntityTag.isPlayer(entity)) {
+            return;
+        }
+        PendingMove move = pendingMoves.computeIfAbsent(entity.getUniqueId(), k -> new PendingMove());
+        move.entity = entity;
+        move.to = to.clone();
+        move.cause = eventCause;
+    }
+
+    public void onTick() {
+        if (pendingMoves.isEmpty()) {
+            return;
+        }
+        ArrayList<PendingMove> moves = new ArrayList<>(pendingMoves.values());
+        pendingMoves.clear();
+        for (PendingMove move : moves) {
+            if (move.entity.isValid()) {
+                processNewPosition(move.entity, move.to, move.cause);
+            }
         }
     }
 
@@ -295,13 +477,21 @@ public class AreaEnterExitScriptEvent extends BukkitScriptEvent implements Liste
 
         @EventHandler
         public void onQuit(PlayerQuitEvent event) {
-            processNewPosition(new EntityTag(event.getPlayer()), null, event);
-            entitiesInArea.remove(event.getPlayer().getUniqueId());
+            processNewPosition(event.getPlayer(), null, event);
+            trackedEntities.remove(event.getPlayer().getUniqueId());
+        }
+
+        @EventHandler
+        public void onDeath(EntityDeathEvent event) {
+            // Players keep their state until they quit, as they respawn with the same identity
+            if (!(event.getEntity() instanceof Player)) {
+                trackedEntities.remove(event.getEntity().getUniqueId());
+            }
         }
 
         @EventHandler
         public void onJoin(PlayerJoinEvent event) {
-            processNewPosition(new EntityTag(event.getPlayer()), event.getPlayer().getLocation(), event);
+            processNewPosition(event.getPlayer(), event.getPlayer().getLocation(), event);
         }
 
         @EventHandler
@@ -309,24 +499,24 @@ public class AreaEnterExitScriptEvent extends BukkitScriptEvent implements Liste
             if (LocationTag.isSameBlock(event.getFrom(), event.getTo())) {
                 return;
             }
-            processNewPosition(new EntityTag(event.getPlayer()), event.getTo(), event);
+            handleMove(event.getPlayer(), event.getTo(), event);
         }
 
         @EventHandler
         public void onTeleport(PlayerTeleportEvent event) {
-            processNewPosition(new EntityTag(event.getPlayer()), event.getTo(), event);
+            processNewPosition(event.getPlayer(), event.getTo(), event);
         }
 
         @EventHandler
         public void onTeleport(EntityTeleportEvent event) {
             if (!onlyTrackPlayers) {
-                processNewPosition(new EntityTag(event.getEntity()), event.getTo(), event);
+                processNewPosition(event.getEntity(), event.getTo(), event);
             }
         }
 
         @EventHandler
         public void onWorldChange(PlayerChangedWorldEvent event) {
-            processNewPosition(new EntityTag(event.getPlayer()), event.getPlayer().getLocation(), event);
+            processNewPosition(event.getPlayer(), event.getPlayer().getLocation(), event);
         }
 
         @EventHandler
@@ -335,11 +525,11 @@ public class AreaEnterExitScriptEvent extends BukkitScriptEvent implements Liste
                 return;
             }
             if (!onlyTrackPlayers) {
-                processNewPosition(new EntityTag(event.getVehicle()), event.getTo(), event);
+                handleMove(event.getVehicle(), event.getTo(), event);
             }
             for (Entity entity : event.getVehicle().getPassengers()) {
                 if (!onlyTrackPlayers || EntityTag.isPlayer(entity)) {
-                    processNewPosition(new EntityTag(entity), event.getTo(), event);
+                    handleMove(entity, event.getTo(), event);
                 }
             }
         }
@@ -138,6 +138,12 @@ public abstract class NMSHandler {
 
     public abstract boolean containerHas(PersistentDataContainer container, String key);
 
+    /**
+     * Returns the raw NMS tag stored under the key, or null if none.
+     * A write to the key always replaces the tag instance, so identity comparison can be used to tell whether the value changed.
+     */
+    public abstract Object containerGetRaw(PersistentDataContainer container, String key);
+
     public abstract String containerGetString(PersistentDataContainer container, String key);
 
     public UUID getBossbarUUID(BossBar bar) {
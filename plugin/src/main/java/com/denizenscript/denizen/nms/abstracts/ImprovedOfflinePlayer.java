@@ -33,6 +33,8 @@ package com.denizenscript.denizen.nms.abstracts;
  *
  */
 
+import com.denizenscript.denizen.Denizen;
+import com.denizenscript.denizen.nms.NMSHandler;
 import com.denizenscript.denizen.nms.util.jnbt.*;
 import com.denizenscript.denizen.utilities.Settings;
 import com.denizenscript.denizencore.DenizenCore;
@@ -48,30 +50,150 @@ import org.bukkit.inventory.PlayerInventory;
 import org.bukkit.util.Vector;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public abstract class ImprovedOfflinePlayer {
 
     public static void invalidateNow(UUID id) {
+        ImprovedOfflinePlayer evicted = evictedUnsaved.get(id);
+        if (evicted != null) {
+            evicted.flushSaves();
+        }
         ImprovedOfflinePlayer player = offlinePlayers.remove(id);
         if (player != null) {
-            if (player.inventory != null) {
-                player.setInventory(player.inventory);
+            player.applyInventories();
+            if (player.modified) {
+                player.saveToFile();
             }
-            if (player.enderchest != null) {
-                player.setEnderChest(player.enderchest);
+            // Make sure any write-behind save is on disk before the server reads the file
+            player.flushSaves();
+        }
+    }
+
+    /**
+     * Cached offline player data, least recently used first. Main thread only.
+     * Past the max size, the least recently used data is dropped, saving it in the background first if it was modified.
+     */
+    public static Map<UUID, ImprovedOfflinePlayer> offlinePlayers = new LinkedHashMap<UUID, ImprovedOfflinePlayer>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, ImprovedOfflinePlayer> eldest) {
+            if (size() <= Settings.worldPlayerDataMaxCachedPlayers) {
+                return false;
             }
+            ImprovedOfflinePlayer player = eldest.getValue();
+            player.applyInventories();
             if (player.modified) {
-                player.saveToFile();
+                evictedUnsaved.put(player.player, player);
+                player.saveAsync();
             }
+            return true;
         }
+    };
+
+    /**
+     * Data dropped from the cache that still has a background save pending, so it isn't re-read from file before the save is written.
+     */
+    public static final Map<UUID, ImprovedOfflinePlayer> evictedUnsaved = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the cached data for a player, loading it from file (on the current thread) if it isn't cached or the cache is outdated.
+     */
+    public static ImprovedOfflinePlayer getOrLoad(UUID id) {
+        ImprovedOfflinePlayer result = offlinePlayers.get(id);
+        if (result == null) {
+            result = evictedUnsaved.get(id);
+            if (result != null) {
+                offlinePlayers.put(id, result);
+                return result;
+            }
+        }
+        if (result == null || result.isOutdated()) {
+            result = NMSHandler.playerHelper.getOfflineData(id);
+            if (result != null) {
+                offlinePlayers.put(id, result);
+            }
+        }
+        return result;
     }
 
-    public static Map<UUID, ImprovedOfflinePlayer> offlinePlayers = new HashMap<>();
+    public static final int PRELOAD_BATCH_SIZE = 16;
+
+    /**
+     * Loads data for any of the given players that isn't already cached, off the main thread, then runs the callback on the main thread once all are cached.
+     * Players are read in batches across multiple async tasks, so large requests read ahead in parallel.
+     */
+    public static void preloadAsync(Collection<UUID> ids, Runnable callback) {
+        List<UUID> toLoad = new ArrayList<>();
+        for (UUID id : ids) {
+            ImprovedOfflinePlayer cached = offlinePlayers.get(id);
+            if ((cached == null || cached.isOutdated()) && Bukkit.getPlayer(id) == null) {
+                toLoad.add(id);
+            }
+        }
+        if (toLoad.isEmpty()) {
+            callback.run();
+            return;
+        }
+        int batches = (toLoad.size() + PRELOAD_BATCH_SIZE - 1) / PRELOAD_BATCH_SIZE;
+        AtomicInteger remaining = new AtomicInteger(batches);
+        for (int batch = 0; batch < batches; batch++) {
+            List<UUID> batchIds = toLoad.subList(batch * PRELOAD_BATCH_SIZE, Math.min(toLoad.size(), (batch + 1) * PRELOAD_BATCH_SIZE));
+            DenizenCore.runAsync(() -> {
+                List<ImprovedOfflinePlayer> loaded = new ArrayList<>(batchIds.size());
+                for (UUID id : batchIds) {
+                    try {
+                        ImprovedOfflinePlayer evicted = evictedUnsaved.get(id);
+                        if (evicted != null) {
+                            evicted.flushSaves();
+                        }
+                        ImprovedOfflinePlayer player = NMSHandler.playerHelper.getOfflineData(id);
+                        if (player != null) {
+                            loaded.add(player);
+                        }
+                    }
+                    catch (Throwable ex) {
+                        Debug.echoError(ex);
+                    }
+                }
+                Bukkit.getScheduler().runTask(Denizen.getInstance(), () -> {
+                    for (ImprovedOfflinePlayer player : loaded) {
+                        ImprovedOfflinePlayer cached = offlinePlayers.get(player.player);
+                        // Don't replace data that was loaded (and possibly changed) in the meantime, or that of a player who has since logged in
+                        if ((cached == null ? !evictedUnsaved.containsKey(player.player) : cached.isOutdated()) && Bukkit.getPlayer(player.player) == null) {
+                            offlinePlayers.put(player.player, player);
+                        }
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        callback.run();
+                    }
+                });
+            });
+        }
+    }
+
+    /**
+     * Applies any open inventories back to the data, then saves all modified data in the background.
+     * If 'lockUntilDone' is true, waits for all saves to be written before returning.
+     */
+    public static void saveAll(boolean lockUntilDone) {
+        for (ImprovedOfflinePlayer player : offlinePlayers.values()) {
+            player.applyInventories();
+            if (player.modified) {
+                player.saveAsync();
+            }
+            if (lockUntilDone) {
+                player.flushSaves();
+            }
+        }
+        if (lockUntilDone) {
+            for (ImprovedOfflinePlayer player : new ArrayList<>(evictedUnsaved.values())) {
+                player.flushSaves();
+            }
+        }
+    }
 
     public UUID player;
     public File file;
@@ -82,6 +204,67 @@ public abstract class ImprovedOfflinePlayer {
     public boolean modified = false;
     public long timeLastLoaded;
 
+    /**
+     * The latest data waiting to be written by a background save, if any. Multiple saves before the write happens are coalesced into one.
+     */
+    public final AtomicReference<CompoundTag> queuedSave = new AtomicReference<>();
+
+    /**
+     * Held while writing the file, so writes for the same player never overlap.
+     */
+    public final Object saveLock = new Object();
+
+    /**
+     * Returns true if the data is old enough that it should be re-read from file. Never true for data with changes that aren't yet written.
+     */
+    public boolean isOutdated() {
+        return !modified && queuedSave.get() == null && timeLastLoaded + Settings.worldPlayerDataMaxCacheTicks < DenizenCore.currentTimeMonotonicMillis;
+    }
+
+    public void applyInventories() {
+        if (inventory != null) {
+            setInventory(inventory);
+        }
+        if (enderchest != null) {
+            setEnderChest(enderchest);
+        }
+    }
+
+    /**
+     * Queues the current data to be written in the background.
+     */
+    public void saveAsync() {
+        if (!exists) {
+            return;
+        }
+        modified = false;
+        if (queuedSave.getAndSet(compound) == null) {
+            DenizenCore.runAsync(this::writeQueuedSave);
+        }
+    }
+
+    public void writeQueuedSave() {
+        synchronized (saveLock) {
+            CompoundTag tag = queuedSave.getAndSet(null);
+            if (tag != null) {
+                if (CoreConfiguration.debugVerbose) {
+                    Debug.verboseLog("[Verbose] async-saving player data for " + player);
+                }
+                saveInternal(tag);
+            }
+            if (queuedSave.get() == null) {
+                evictedUnsaved.remove(player, this);
+            }
+        }
+    }
+
+    /**
+     * Writes any queued background save now, waiting for any write already in progress.
+     */
+    public void flushSaves() {
+        writeQueuedSave();
+    }
+
     public void markModified() {
         if (CoreConfiguration.debugVerbose) {
             Debug.verboseLog("[Verbose] player data modified for " + player + ", wasModified=" + modified + ", delay=" + Settings.worldPlayerDataSaveDelay);
@@ -93,14 +276,7 @@ public abstract class ImprovedOfflinePlayer {
         if (!modified && Settings.worldPlayerDataSaveDelay < 60 * 60 * 24) {
             DenizenCore.schedule(new OneTimeSchedulable(() -> {
                 if (modified && offlinePlayers.get(player) == this) {
-                    modified = false;
-                    CompoundTag tag = compound;
-                    if (CoreConfiguration.debugVerbose) {
-                        Debug.verboseLog("[Verbose] async-saving player data for " + player);
-                    }
-                    DenizenCore.runAsync(() -> {
-                        saveInternal(tag);
-                    });
+                    saveAsync();
                 }
             }, Settings.worldPlayerDataSaveDelay));
         }
@@ -170,8 +346,8 @@ public abstract class ImprovedOfflinePlayer {
 
     public void saveToFile() {
         if (exists && modified) {
-            modified = false;
-            saveInternal(compound);
+            saveAsync();
+            flushSaves();
         }
     }
 
@@ -7,6 +7,7 @@ import org.bukkit.Color;
 import org.bukkit.Instrument;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.*;
 import org.bukkit.block.data.BlockData;
 import org.bukkit.inventory.ItemStack;
@@ -96,4 +97,16 @@ public interface BlockHelper {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Sets many blocks within a single 16x16x16 chunk section at once, with no physics or neighbor updates.
+     * Positions are section-relative, packed as (y << 8) | (z << 4) | x.
+     */
+    default void setBlocksInSection(World world, int chunkX, int sectionY, int chunkZ, short[] positions, BlockData[] data, int count) {
+        int baseX = chunkX << 4, baseY = sectionY << 4, baseZ = chunkZ << 4;
+        for (int i = 0; i < count; i++) {
+            int packed = positions[i];
+            world.getBlockAt(baseX + (packed & 15), baseY + ((packed >> 8) & 15), baseZ + ((packed >> 4) & 15)).setBlockData(data[i], false);
+        }
+    }
+
 }
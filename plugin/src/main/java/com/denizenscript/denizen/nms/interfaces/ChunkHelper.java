@@ -4,6 +4,8 @@ import com.denizenscript.denizen.nms.abstracts.BiomeNMS;
 import org.bukkit.Chunk;
 import org.bukkit.World;
 
+import java.util.BitSet;
+
 public interface ChunkHelper {
 
     default void refreshChunkSections(Chunk chunk) {
@@ -23,4 +25,12 @@ public interface ChunkHelper {
     default void setAllBiomes(Chunk chunk, BiomeNMS biome) {
         throw new UnsupportedOperationException();
     }
+
+    /**
+     * Returns, for each section of the chunk (bottom to top), whether its block palette contains any material whose ordinal is in the given set.
+     * A 'true' only means the section might contain such a block. Returns null if unknown, in which case every section must be checked.
+     */
+    default boolean[] getSectionsMaybeContaining(Chunk chunk, BitSet materials) {
+        return null;
+    }
 }
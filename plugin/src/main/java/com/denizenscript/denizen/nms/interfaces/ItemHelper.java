@@ -45,6 +45,27 @@ public abstract class ItemHelper {
 
     public abstract CompoundTag getNbtData(ItemStack itemStack);
 
+    /**
+     * Returns the NBT tag at the given path of keys within the item's NBT (eg "Denizen", "flags"), or null if there is none.
+     * Unlike getNbtData, this reads the item's live NMS data without copying it (when the item has any), and only converts the returned tag.
+     */
+    public abstract Tag getNbtTag(ItemStack itemStack, String... path);
+
+    /**
+     * Returns the string at the given path of keys within the item's NBT, or null if there isn't a string there. Copies and converts nothing.
+     */
+    public abstract String getNbtString(ItemStack itemStack, String... path);
+
+    /**
+     * Returns the string at the given path of keys within the item's NBT, 'nonStringValue' if there's a tag there that isn't a string, or null if there's nothing there.
+     */
+    public abstract String getNbtStringOrDefault(ItemStack itemStack, String nonStringValue, String... path);
+
+    /**
+     * Returns the string value of each of the given top-level keys of the item's NBT (null where there isn't a string), resolving the item's NBT only once.
+     */
+    public abstract String[] getNbtStrings(ItemStack itemStack, String... keys);
+
     public abstract ItemStack setNbtData(ItemStack itemStack, CompoundTag compoundTag);
 
     public abstract void registerSmithingRecipe(String keyName, ItemStack result, ItemStack[] baseItem, boolean baseExact, ItemStack[] upgradeItem, boolean upgradeExact, ItemStack[] templateItem, boolean templateExact);
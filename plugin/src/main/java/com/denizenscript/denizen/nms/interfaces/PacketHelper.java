@@ -3,6 +3,7 @@ package com.denizenscript.denizen.nms.interfaces;
 import com.denizenscript.denizen.nms.util.jnbt.CompoundTag;
 import com.denizenscript.denizen.utilities.maps.MapImage;
 import com.denizenscript.denizencore.objects.core.ColorTag;
+import com.denizenscript.denizencore.objects.core.MapTag;
 import org.bukkit.Bukkit;
 import org.bukkit.EntityEffect;
 import org.bukkit.Location;
@@ -129,6 +130,10 @@ public interface PacketHelper {
 
     int getPacketStats(Player player, boolean sent);
 
+    default MapTag getPacketHandlerTimings() {
+        return null;
+    }
+
     default void setMapData(MapCanvas canvas, byte[] bytes, int x, int y, MapImage image) {
         int width = image.width, height = image.height;
         for (int x2 = 0; x2 < width; ++x2) {
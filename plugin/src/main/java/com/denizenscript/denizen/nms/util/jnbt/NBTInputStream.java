@@ -64,6 +64,108 @@ public final class NBTInputStream implements Closeable {
         return readNamedTag(0);
     }
 
+    /**
+     * Reads the type ID of the next tag, for manually streaming through a compound's entries.
+     * Must be followed by {@link #readTagName()} unless the type is {@link NBTConstants#TYPE_END}.
+     *
+     * @return The tag type ID.
+     * @throws IOException if an I/O error occurs.
+     */
+    public int readTagType() throws IOException {
+        return is.readByte() & 0xFF;
+    }
+
+    /**
+     * Reads the name of a tag, after its type ID.
+     *
+     * @return The tag name.
+     * @throws IOException if an I/O error occurs.
+     */
+    public String readTagName() throws IOException {
+        int nameLength = is.readShort() & 0xFFFF;
+        byte[] nameBytes = new byte[nameLength];
+        is.readFully(nameBytes);
+        return new String(nameBytes, NBTConstants.CHARSET);
+    }
+
+    /**
+     * Reads the payload of a tag (that is not the root tag) given its type.
+     *
+     * @param type the type
+     * @return the tag
+     * @throws IOException if an I/O error occurs.
+     */
+    public Tag readPayload(int type) throws IOException {
+        return readTagPayload(type, 1);
+    }
+
+    /**
+     * Skips past the payload of a tag given its type, without building any tag objects.
+     *
+     * @param type the type
+     * @throws IOException if an I/O error occurs.
+     */
+    public void skipPayload(int type) throws IOException {
+        switch (type) {
+            case NBTConstants.TYPE_END:
+                break;
+            case NBTConstants.TYPE_BYTE:
+                is.skipNBytes(1);
+                break;
+            case NBTConstants.TYPE_SHORT:
+                is.skipNBytes(2);
+                break;
+            case NBTConstants.TYPE_INT:
+            case NBTConstants.TYPE_FLOAT:
+                is.skipNBytes(4);
+                break;
+            case NBTConstants.TYPE_LONG:
+            case NBTConstants.TYPE_DOUBLE:
+                is.skipNBytes(8);
+                break;
+            case NBTConstants.TYPE_BYTE_ARRAY:
+                is.skipNBytes(is.readInt());
+                break;
+            case NBTConstants.TYPE_STRING:
+                is.skipNBytes(is.readShort() & 0xFFFF);
+                break;
+            case NBTConstants.TYPE_LIST:
+                int childType = is.readByte();
+                int length = is.readInt();
+                for (int i = 0; i < length; i++) {
+                    skipPayload(childType);
+                }
+                break;
+            case NBTConstants.TYPE_COMPOUND:
+                while (true) {
+                    int childTagType = readTagType();
+                    if (childTagType == NBTConstants.TYPE_END) {
+                        break;
+                    }
+                    is.skipNBytes(is.readShort() & 0xFFFF);
+                    skipPayload(childTagType);
+                }
+                break;
+            case NBTConstants.TYPE_INT_ARRAY:
+                is.skipNBytes(is.readInt() * 4L);
+                break;
+            case NBTConstants.TYPE_LONG_ARRAY:
+                is.skipNBytes(is.readInt() * 8L);
+                break;
+            default:
+                throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    /**
+     * Gets the underlying data stream, for manually streaming through large payloads (such as byte arrays) without fully loading them.
+     *
+     * @return the data stream
+     */
+    public DataInputStream getDataStream() {
+        return is;
+    }
+
     /**
      * Reads an NBT from the stream.
      *
@@ -76,6 +76,39 @@ public final class NBTOutputStream implements Closeable {
         writeTagPayload(tag);
     }
 
+    /**
+     * Writes just the type ID and name of a tag, for manually streaming the payload afterward.
+     * A compound started this way must be closed with {@link #writeEndTag()}.
+     *
+     * @param type The tag type ID.
+     * @param name The tag name.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeTagHeader(int type, String name) throws IOException {
+        byte[] nameBytes = name.getBytes(NBTConstants.CHARSET);
+        os.writeByte(type);
+        os.writeShort(nameBytes.length);
+        os.write(nameBytes);
+    }
+
+    /**
+     * Writes the end marker of a manually streamed compound.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeEndTag() throws IOException {
+        os.writeByte(NBTConstants.TYPE_END);
+    }
+
+    /**
+     * Gets the underlying data stream, for manually streaming large payloads (such as byte arrays).
+     *
+     * @return the data stream
+     */
+    public DataOutputStream getDataStream() {
+        return os;
+    }
+
     /**
      * Writes tag payload.
      *
@@ -1,27 +1,47 @@
 package com.denizenscript.denizen.npc.traits;
 
+import com.denizenscript.denizen.utilities.flags.BinaryFlagTracker;
+import com.denizenscript.denizen.utilities.flags.NPCFlagIndex;
 import com.denizenscript.denizencore.flags.SavableMapFlagTracker;
+import com.denizenscript.denizencore.objects.core.MapTag;
 import com.denizenscript.denizencore.utilities.CoreConfiguration;
 import com.denizenscript.denizencore.utilities.text.StringHolder;
 import com.google.common.collect.Iterators;
+import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.persistence.Persist;
 import net.citizensnpcs.api.persistence.PersistenceLoader;
 import net.citizensnpcs.api.persistence.Persister;
 import net.citizensnpcs.api.trait.Trait;
 import net.citizensnpcs.api.util.DataKey;
 
+import java.util.ArrayList;
 import java.util.Map;
 
 public class DenizenFlagsTrait extends Trait {
 
     @Persist("full_flag_data")
-    public SavableMapFlagTracker fullFlagData = new SavableMapFlagTracker();
+    public SavableMapFlagTracker fullFlagData = new IndexedFlagTracker();
 
+    /**
+     * Flag tracker that reflects its changes into the NPCFlagIndex, once linked to its NPC.
+     */
+    public static class IndexedFlagTracker extends SavableMapFlagTracker {
+
+        public NPC npc;
+
+        @Override
+        public void setRootMap(String key, MapTag map) {
+            super.setRootMap(key, map);
+            if (npc != null) {
+                NPCFlagIndex.onFlagChanged(npc, key, map == null ? -1 : BinaryFlagTracker.getExpirationMillis(map));
+            }
+        }
+    }
 
     public static class MapTagFlagTrackerPersister implements Persister<SavableMapFlagTracker> {
         @Override
         public SavableMapFlagTracker create(DataKey dataKey) {
-            SavableMapFlagTracker toRet = new SavableMapFlagTracker();
+            SavableMapFlagTracker toRet = new IndexedFlagTracker();
             for (DataKey key : dataKey.getSubKeys()) {
                 SavableMapFlagTracker.SaveOptimizedFlag flag = new SavableMapFlagTracker.SaveOptimizedFlag();
                 flag.string = key.getString("");
@@ -52,4 +72,36 @@ public class DenizenFlagsTrait extends Trait {
     public DenizenFlagsTrait() {
         super("denizen_flags");
     }
+
+    /**
+     * Links the flag tracker to this NPC and indexes all its current flags.
+     */
+    public void linkIndex() {
+        if (!(fullFlagData instanceof IndexedFlagTracker) || ((IndexedFlagTracker) fullFlagData).npc == npc) {
+            return;
+        }
+        NPCFlagIndex.removeAll(npc);
+        ((IndexedFlagTracker) fullFlagData).npc = npc;
+        for (String key : new ArrayList<>(fullFlagData.listAllFlags())) {
+            MapTag map = fullFlagData.getRootMap(key);
+            if (map != null) {
+                NPCFlagIndex.onFlagChanged(npc, key, BinaryFlagTracker.getExpirationMillis(map));
+            }
+        }
+    }
+
+    @Override
+    public void load(DataKey key) {
+        linkIndex();
+    }
+
+    @Override
+    public void onAttach() {
+        linkIndex();
+    }
+
+    @Override
+    public void onRemove() {
+        NPCFlagIndex.removeAll(npc);
+    }
 }
@@ -5,6 +5,7 @@ import com.denizenscript.denizen.objects.NPCTag;
 import com.denizenscript.denizen.objects.PlayerTag;
 import com.denizenscript.denizen.scripts.commands.npc.EngageCommand;
 import com.denizenscript.denizen.scripts.triggers.AbstractTrigger;
+import com.denizenscript.denizen.scripts.triggers.core.ProximityTrigger;
 import com.denizenscript.denizen.utilities.Settings;
 import com.denizenscript.denizencore.objects.core.ElementTag;
 import com.denizenscript.denizencore.objects.ObjectTag;
@@ -63,6 +64,14 @@ public class TriggerTrait extends Trait implements Listener {
                 trigger.getValue().timesUsed++;
             }
         }
+        updateProximityTracking();
+    }
+
+    public void updateProximityTracking() {
+        ProximityTrigger proximityTrigger = Denizen.getInstance().triggerRegistry.get(ProximityTrigger.class);
+        if (proximityTrigger != null) {
+            proximityTrigger.updateTracking(npc);
+        }
     }
 
     @Override
@@ -86,6 +95,7 @@ public class TriggerTrait extends Trait implements Listener {
             Denizen.getInstance().triggerRegistry.get(triggerName).timesUsed++;
             enabled.put(triggerName.toUpperCase(), toggle);
             properly_set.put(triggerName.toUpperCase(), true);
+            updateProximityTracking();
             return triggerName + " trigger is now " + (toggle ? "enabled." : "disabled.");
         }
         else {
@@ -101,11 +111,13 @@ public class TriggerTrait extends Trait implements Listener {
         if (enabled.containsKey(triggerName.toUpperCase())) {
             if (enabled.get(triggerName.toUpperCase())) {
                 enabled.put(triggerName.toUpperCase(), false);
+                updateProximityTracking();
                 return triggerName + " trigger is now disabled.";
             }
             else {
                 enabled.put(triggerName.toUpperCase(), true);
                 properly_set.put(triggerName.toUpperCase(), true);
+                updateProximityTracking();
                 return triggerName + " trigger is now enabled.";
             }
         }
@@ -143,6 +155,7 @@ public class TriggerTrait extends Trait implements Listener {
 
     public void setLocalRadius(String triggerName, int value) {
         radius.put(triggerName.toUpperCase(), value);
+        updateProximityTracking();
     }
 
     public double getRadius(String triggerName) {
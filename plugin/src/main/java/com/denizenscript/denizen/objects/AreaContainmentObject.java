@@ -2,6 +2,8 @@ package com.denizenscript.denizen.objects;
 
 import com.denizenscript.denizen.events.BukkitScriptEvent;
 import com.denizenscript.denizen.nms.NMSHandler;
+import com.denizenscript.denizen.utilities.Settings;
+import com.denizenscript.denizen.utilities.blocks.BlockCursor;
 import com.denizenscript.denizen.utilities.blocks.SpawnableHelper;
 import com.denizenscript.denizen.utilities.depends.Depends;
 import com.denizenscript.denizen.utilities.flags.LocationFlagSearchHelper;
@@ -59,7 +61,15 @@ public interface AreaContainmentObject extends ObjectTag {
 
     ListTag getShell();
 
-    ListTag getBlocks(Predicate<Location> test);
+    /**
+     * Returns a lazy cursor over the block coordinates within the area, which doesn't allocate per block.
+     */
+    BlockCursor getBlockCursor();
+
+    default ListTag getBlocks(Predicate<Location> test) {
+        WorldTag world = getWorld();
+        return getBlockCursor().collect(world.getName(), world.getWorld(), test, Settings.blockTagsMaxBlocks());
+    }
 
     AreaContainmentObject withWorld(WorldTag world);
 
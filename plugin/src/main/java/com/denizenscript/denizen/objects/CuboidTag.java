@@ -1,6 +1,7 @@
 package com.denizenscript.denizen.objects;
 
 import com.denizenscript.denizen.utilities.NotedAreaTracker;
+import com.denizenscript.denizen.utilities.blocks.BlockCursor;
 import com.denizenscript.denizencore.tags.TagManager;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
 import com.denizenscript.denizencore.flags.AbstractFlagTracker;
@@ -27,7 +28,6 @@ import org.bukkit.util.Vector;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.function.Predicate;
 
 public class CuboidTag implements ObjectTag, Cloneable, Notable, Adjustable, AreaContainmentObject, FlaggableObject {
 
@@ -464,71 +464,13 @@ public class CuboidTag implements ObjectTag, Cloneable, Notable, Adjustable, Are
     }
 
     @Override
-    public ListTag getBlocks(Predicate<Location> test) {
-        List<LocationTag> locs = getBlocks_internal(test);
-        ListTag list = new ListTag();
-        for (LocationTag loc : locs) {
-            list.addObject(loc);
-        }
-        return list;
-    }
-
-    public List<LocationTag> getBlocks_internal(Predicate<Location> test) {
-        if (test == null) {
-            return getBlockLocationsUnfiltered(true);
-        }
-        int yMin = getWorld().getWorld().getMinHeight(), yMax = getWorld().getWorld().getMaxHeight();
-        int max = Settings.blockTagsMaxBlocks();
-        LocationTag loc;
-        List<LocationTag> list = new ArrayList<>();
-        int index = 0;
-        for (LocationPair pair : pairs) {
-            LocationTag loc_1 = pair.low;
-            int y_distance = pair.yDistance();
-            int z_distance = pair.zDistance();
-            int x_distance = pair.xDistance();
-            for (int x = 0; x != x_distance + 1; x++) {
-                for (int y = 0; y != y_distance + 1; y++) {
-                    if (loc_1.getY() + y < yMin || loc_1.getY() + y > yMax) {
-                        continue;
-                    }
-                    for (int z = 0; z != z_distance + 1; z++) {
-                        loc = new LocationTag(loc_1.clone().add(x, y, z));
-                        if (index++ > max) {
-                            return list;
-                        }
-                        if (test.test(loc)) {
-                            list.add(loc);
-                        }
-                    }
-                }
-            }
-        }
-        return list;
-    }
-
-    public List<LocationTag> getBlockLocationsUnfiltered(boolean doMax) {
-        int max = doMax ? Settings.blockTagsMaxBlocks() : Integer.MAX_VALUE;
-        List<LocationTag> list = new ArrayList<>();
-        int index = 0;
-        for (LocationPair pair : pairs) {
-            LocationTag loc_1 = pair.low;
-            int y_distance = pair.yDistance();
-            int z_distance = pair.zDistance();
-            int x_distance = pair.xDistance();
-            for (int x = 0; x <= x_distance; x++) {
-                for (int y = 0; y <= y_distance; y++) {
-                    for (int z = 0; z <= z_distance; z++) {
-                        LocationTag loc = new LocationTag(loc_1.clone().add(x, y, z));
-                        list.add(loc);
-                        if (index++ > max) {
-                            return list;
-                        }
-                    }
-                }
-            }
+    public BlockCursor getBlockCursor() {
+        int[][] boxes = new int[pairs.size()][];
+        for (int i = 0; i < boxes.length; i++) {
+            LocationPair pair = pairs.get(i);
+            boxes[i] = new int[] { pair.low.getBlockX(), pair.low.getBlockY(), pair.low.getBlockZ(), pair.high.getBlockX(), pair.high.getBlockY(), pair.high.getBlockZ() };
         }
-        return list;
+        return new BlockCursor.CuboidCursor(boxes);
     }
 
     public final Collection<Entity> getEntitiesPossiblyWithin() {
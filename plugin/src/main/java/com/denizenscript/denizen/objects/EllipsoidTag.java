@@ -1,6 +1,7 @@
 package com.denizenscript.denizen.objects;
 
 import com.denizenscript.denizen.utilities.NotedAreaTracker;
+import com.denizenscript.denizen.utilities.blocks.BlockCursor;
 import com.denizenscript.denizencore.tags.TagManager;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
 import com.denizenscript.denizencore.flags.AbstractFlagTracker;
@@ -20,9 +21,7 @@ import com.denizenscript.denizencore.utilities.YamlConfiguration;
 import org.bukkit.Location;
 import org.bukkit.util.Vector;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Predicate;
 
 public class EllipsoidTag implements ObjectTag, Notable, Cloneable, AreaContainmentObject, FlaggableObject, Adjustable {
 
@@ -141,19 +140,8 @@ public class EllipsoidTag implements ObjectTag, Notable, Cloneable, AreaContainm
     public AbstractFlagTracker flagTracker = null;
 
     @Override
-    public ListTag getBlocks(Predicate<Location> test) {
-        return getCuboidBoundary().getBlocks(test == null ? this::contains : (l) -> (test.test(l) && contains(l)));
-    }
-
-    public List<LocationTag> getBlockLocationsUnfiltered(boolean doMax) {
-        List<LocationTag> initial = getCuboidBoundary().getBlockLocationsUnfiltered(doMax);
-        List<LocationTag> locations = new ArrayList<>();
-        for (LocationTag loc : initial) {
-            if (contains(loc)) {
-                locations.add(loc);
-            }
-        }
-        return locations;
+    public BlockCursor getBlockCursor() {
+        return getCuboidBoundary().getBlockCursor().filter(this::contains);
     }
 
     @Override
@@ -200,9 +188,13 @@ public class EllipsoidTag implements ObjectTag, Notable, Cloneable, AreaContainm
         if (test.getWorld() == null || !test.getWorld().getName().equals(center.getWorld().getName())) {
             return false;
         }
-        double xbase = test.getX() - center.getX();
-        double ybase = test.getY() - center.getY();
-        double zbase = test.getZ() - center.getZ();
+        return contains(test.getX(), test.getY(), test.getZ());
+    }
+
+    public boolean contains(double x, double y, double z) {
+        double xbase = x - center.getX();
+        double ybase = y - center.getY();
+        double zbase = z - center.getZ();
         return ((xbase * xbase) / (size.getX() * size.getX())
                 + (ybase * ybase) / (size.getY() * size.getY())
                 + (zbase * zbase) / (size.getZ() * size.getZ()) <= 1);
@@ -13,9 +13,10 @@ import com.denizenscript.denizen.objects.properties.material.MaterialDistance;
 import com.denizenscript.denizen.objects.properties.material.MaterialHalf;
 import com.denizenscript.denizen.scripts.commands.world.SwitchCommand;
 import com.denizenscript.denizen.utilities.*;
+import com.denizenscript.denizen.utilities.blocks.BlockSearch;
 import com.denizenscript.denizen.utilities.blocks.SpawnableHelper;
-import com.denizenscript.denizen.utilities.flags.DataPersistenceFlagTracker;
 import com.denizenscript.denizen.utilities.flags.LocationFlagSearchHelper;
+import com.denizenscript.denizen.utilities.flags.LocationFlagTracker;
 import com.denizenscript.denizen.utilities.world.PathFinder;
 import com.denizenscript.denizen.utilities.world.WorldListChangeTracker;
 import com.denizenscript.denizencore.flags.AbstractFlagTracker;
@@ -467,7 +468,7 @@ public class LocationTag extends org.bukkit.Location implements VectorObject, Ob
         if (getWorld() == null) {
             return null;
         }
-        return new DataPersistenceFlagTracker(getChunk(), "flag_tracker_" + getBlockX() + "_" + getBlockY() + "_" + getBlockZ() + "_");
+        return new LocationFlagTracker(getChunk(), getBlockX(), getBlockY(), getBlockZ());
     }
 
     @Override
@@ -2683,6 +2684,8 @@ public class LocationTag extends org.bukkit.Location implements VectorObject, Ob
         // Returns a list of blocks within a radius, with an optional search parameter for the block material.
         // Note: current implementation measures the center of nearby block's distance from the exact given location.
         // Result list is sorted by closeness (1 = closest, 2 = next closest, ... last = farthest).
+        // For large searches, consider the ~waitable <@link command findblocks>, which can scan without blocking the server.
+        // Blocks in unloaded chunks are skipped.
         // -->
         tagProcessor.registerTag(ListTag.class, "find_blocks", (attribute, object) -> {
             String matcher = attribute.hasParam() ? attribute.getParam() : null;
@@ -2691,34 +2694,13 @@ public class LocationTag extends org.bukkit.Location implements VectorObject, Ob
             }
             double radius = attribute.getDoubleContext(2);
             attribute.fulfill(1);
-            ListTag found = new ListTag();
-            int max = Settings.blockTagsMaxBlocks();
-            int index = 0;
-            Location tstart = object.getBlockLocation();
-            double tstartY = tstart.getY();
-            int radiusInt = (int) Math.ceil(radius);
-            fullloop:
-            for (int y = -radiusInt; y <= radiusInt; y++) {
-                double newY = y + tstartY;
-                if (!Utilities.isLocationYSafe(newY, object.getWorld())) {
-                    continue;
-                }
-                for (int x = -radiusInt; x <= radiusInt; x++) {
-                    for (int z = -radiusInt; z <= radiusInt; z++) {
-                        index++;
-                        if (index > max) {
-                            break fullloop;
-                        }
-                        if (Utilities.checkLocation(object, tstart.clone().add(x + 0.5, y + 0.5, z + 0.5), radius)) {
-                            if (matcher == null || new LocationTag(tstart.clone().add(x, y, z)).tryAdvancedMatcher(matcher)) {
-                                found.addObject(new LocationTag(tstart.clone().add(x, y, z)));
-                            }
-                        }
-                    }
-                }
+            if (object.getWorld() == null) {
+                attribute.echoError("LocationTag trying to read block, but cannot because no world is specified.");
+                return null;
             }
-            found.objectForms.sort((loc1, loc2) -> object.compare((LocationTag) loc1, (LocationTag) loc2));
-            return found;
+            BlockSearch search = new BlockSearch(object, radius, matcher, Settings.blockTagsMaxBlocks());
+            search.runSync();
+            return search.buildList(0);
         });
 
         // <--[tag]
@@ -2738,47 +2720,19 @@ public class LocationTag extends org.bukkit.Location implements VectorObject, Ob
             }
             attribute.fulfill(1);
             double radius = attribute.getDoubleParam();
-            ListTag found = new ListTag();
-            int max = Settings.blockTagsMaxBlocks();
-            int index = 0;
             if (!object.isChunkLoadedSafe()) {
                 attribute.echoError("LocationTag trying to read block, but cannot because the chunk is unloaded. Use the 'chunkload' command to ensure the chunk is loaded.");
                 return null;
             }
-            double minPossibleX = object.getX() - radius;
-            double minPossibleZ = object.getZ() - radius;
-            double maxPossibleX = object.getX() + radius;
-            double maxPossibleZ = object.getZ() + radius;
-            int minChunkX = (int) Math.floor(minPossibleX / 16);
-            int minChunkZ = (int) Math.floor(minPossibleZ / 16);
-            int maxChunkX = (int) Math.ceil(maxPossibleX / 16);
-            int maxChunkZ = (int) Math.ceil(maxPossibleZ / 16);
-            ChunkTag testChunk = new ChunkTag(object);
-            Location refLoc = object.clone();
-            fullLoop:
-            for (int x = minChunkX; x <= maxChunkX; x++) {
-                testChunk.chunkX = x;
-                for (int z = minChunkZ; z <= maxChunkZ; z++) {
-                    testChunk.chunkZ = z;
-                    testChunk.cachedChunk = null;
-                    if (testChunk.isLoadedSafe()) {
-                        for (BlockState block : testChunk.getChunkForTag(attribute).getTileEntities()) {
-                            if (index++ > max) {
-                                break fullLoop;
-                            }
-                            Location current = block.getLocation(refLoc).add(0.5, 0.5, 0.5);
-                            if (Utilities.checkLocation(object, current, radius)) {
-                                LocationTag actualLoc = new LocationTag(current);
-                                if (matcher == null || actualLoc.tryAdvancedMatcher(matcher)) {
-                                    found.addObject(actualLoc);
-                                }
-                            }
-                        }
-                    }
-                }
+            BlockSearch search = new BlockSearch(object, radius, matcher, Settings.blockTagsMaxBlocks());
+            NMSHandler.chunkHelper.changeChunkServerThread(object.getWorld());
+            try {
+                search.scanTileEntities();
             }
-            found.objectForms.sort((loc1, loc2) -> object.compare((LocationTag) loc1, (LocationTag) loc2));
-            return found;
+            finally {
+                NMSHandler.chunkHelper.restoreServerThread(object.getWorld());
+            }
+            return search.buildList(0.5);
         });
 
         // <--[tag]
@@ -3117,6 +3071,8 @@ public class LocationTag extends org.bukkit.Location implements VectorObject, Ob
         // @description
         // Returns a full list of points along the path from this location to the given location.
         // Uses a max range of 100 blocks from the start.
+        // See <@link command findpath> for the rules on which blocks can be walked through.
+        // For long paths, consider the ~waitable <@link command findpath>, which can search without blocking the server.
         // -->
         tagProcessor.registerTag(ListTag.class, "find_path", (attribute, object) -> {
             if (!attribute.hasParam()) {
@@ -56,6 +56,7 @@ import org.bukkit.scoreboard.Team;
 import org.bukkit.util.RayTraceResult;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PlayerTag implements ObjectTag, Adjustable, EntityFormObject, FlaggableObject {
 
@@ -79,7 +80,7 @@ public class PlayerTag implements ObjectTag, Adjustable, EntityFormObject, Flagg
     // A PlayerTag represents a player in the game.
     //
     // This object type is flaggable.
-    // Flags on this object type will be stored in the file "plugins/Denizen/player_flags/(UUID).dat",
+    // Flags on this object type will be stored in the binary file "plugins/Denizen/player_flags/(UUID).dfb" (with recent changes in "(UUID).dfl"),
     // with automatic loading only when the player is online and caching for interacting with offline player flags.
     //
     // -->
@@ -97,7 +98,9 @@ public class PlayerTag implements ObjectTag, Adjustable, EntityFormObject, Flagg
         }
     }
 
-    static Map<String, UUID> playerNames = new HashMap<>();
+    static Map<String, UUID> playerNames = new ConcurrentHashMap<>();
+
+    static Set<UUID> playerIds = ConcurrentHashMap.newKeySet();
 
     /**
      * Notes that the player exists, for easy PlayerTag valueOf handling.
@@ -107,13 +110,15 @@ public class PlayerTag implements ObjectTag, Adjustable, EntityFormObject, Flagg
             Debug.echoError("Null named player " + player + " - may be file corruption, or player data imported from non-bukkit server?");
             return;
         }
-        if (!playerNames.containsKey(CoreUtilities.toLowerCase(player.getName()))) {
-            playerNames.put(CoreUtilities.toLowerCase(player.getName()), player.getUniqueId());
+        String lowName = CoreUtilities.toLowerCase(player.getName());
+        playerIds.add(player.getUniqueId());
+        if (playerNames.putIfAbsent(lowName, player.getUniqueId()) == null) {
+            PlayerNameIndex.onNameAdded(lowName);
         }
     }
 
     public static boolean isNoted(OfflinePlayer player) {
-        return playerNames.containsValue(player.getUniqueId());
+        return playerIds.contains(player.getUniqueId());
     }
 
     public static Map<String, UUID> getAllPlayers() {
@@ -254,14 +259,7 @@ public class PlayerTag implements ObjectTag, Adjustable, EntityFormObject, Flagg
     }
 
     public ImprovedOfflinePlayer getNBTEditor() {
-        ImprovedOfflinePlayer result = ImprovedOfflinePlayer.offlinePlayers.get(uuid);
-        if (result == null || (!result.modified && result.timeLastLoaded + Settings.worldPlayerDataMaxCacheTicks < DenizenCore.currentTimeMonotonicMillis)) {
-            result = NMSHandler.playerHelper.getOfflineData(uuid);
-            if (result != null) {
-                ImprovedOfflinePlayer.offlinePlayers.put(uuid, result);
-            }
-        }
-        return result;
+        return ImprovedOfflinePlayer.getOrLoad(uuid);
     }
 
     @Override
@@ -2308,8 +2306,8 @@ public class PlayerTag implements ObjectTag, Adjustable, EntityFormObject, Flagg
             ListTag list = new ListTag();
             FakeBlock.FakeBlockMap map = FakeBlock.blocks.get(object.getUUID());
             if (map != null) {
-                for (LocationTag loc : map.byLocation.keySet()) {
-                    list.addObject(loc.clone());
+                for (FakeBlock block : map.getAllBlocks()) {
+                    list.addObject(block.location.clone());
                 }
             }
             return list;
@@ -2330,7 +2328,7 @@ public class PlayerTag implements ObjectTag, Adjustable, EntityFormObject, Flagg
             LocationTag input = attribute.paramAsType(LocationTag.class);
             FakeBlock.FakeBlockMap map = FakeBlock.blocks.get(object.getUUID());
             if (map != null) {
-                FakeBlock block = map.byLocation.get(input);
+                FakeBlock block = map.get(input);
                 if (block != null) {
                     return block.material;
                 }
@@ -3335,11 +3333,13 @@ public class PlayerTag implements ObjectTag, Adjustable, EntityFormObject, Flagg
         // To hide a specific entity from the player, use <@link mechanism PlayerTag.hide_entity>.
         // To remove hide sets, use <@link mechanism PlayerTag.unhide_entities>.
         // Note that dynamic matchables like 'entity_flagged' will behave in unexpected ways when dynamically changing.
+        // Matchers are checked once per entity when the player is first sent that entity, and again only after any entity hide is changed.
         // -->
         if (mechanism.matches("hide_entities") && mechanism.hasValue()) {
             HideEntitiesHelper.PlayerHideMap map = HideEntitiesHelper.getPlayerMapFor(getUUID());
             String hideMe = mechanism.getValue().asString();
             map.matchersHidden.add(hideMe);
+            HideEntitiesHelper.onHidesChanged();
             if (isOnline()) {
                 for (Entity ent : getPlayerEntity().getWorld().getEntities()) {
                     if (new EntityTag(ent).tryAdvancedMatcher(hideMe) && map.shouldHide(ent)) {
@@ -3360,6 +3360,7 @@ public class PlayerTag implements ObjectTag, Adjustable, EntityFormObject, Flagg
             HideEntitiesHelper.PlayerHideMap map = HideEntitiesHelper.getPlayerMapFor(getUUID());
             String unhideMe = mechanism.getValue().asString();
             map.matchersHidden.remove(unhideMe);
+            HideEntitiesHelper.onHidesChanged();
             if (map.matchersHidden.isEmpty() && map.entitiesHidden.isEmpty() && map.overridinglyShow.isEmpty()) {
                 HideEntitiesHelper.playerHides.remove(getUUID());
             }
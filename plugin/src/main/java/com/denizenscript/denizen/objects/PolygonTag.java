@@ -3,6 +3,7 @@ package com.denizenscript.denizen.objects;
 import com.denizenscript.denizen.nms.NMSHandler;
 import com.denizenscript.denizen.utilities.NotedAreaTracker;
 import com.denizenscript.denizen.utilities.Settings;
+import com.denizenscript.denizen.utilities.blocks.BlockCursor;
 import com.denizenscript.denizencore.flags.AbstractFlagTracker;
 import com.denizenscript.denizencore.flags.FlaggableObject;
 import com.denizenscript.denizencore.flags.SavableMapFlagTracker;
@@ -387,28 +388,31 @@ public class PolygonTag implements ObjectTag, Cloneable, Notable, Adjustable, Ar
     }
 
     @Override
-    public ListTag getBlocks(Predicate<Location> test) {
-        return getBlocksInternal(test, preferInclusive);
+    public BlockCursor getBlockCursor() {
+        return getBlockCursor(preferInclusive);
     }
 
-    public ListTag getBlocksInternal(Predicate<Location> test, boolean inclusive) {
-        int max = Settings.blockTagsMaxBlocks();
-        ListTag addTo = new ListTag();
+    /**
+     * Returns a cursor over each layer of the flat block shell, from yMin up to (but not including) yMax.
+     * Locations are offset to the horizontal block center, and to the fractional part of yMin, to match the flat shell.
+     */
+    public BlockCursor getBlockCursor(boolean inclusive) {
         List<LocationTag> flatShell = generateFlatBlockShell(yMin, inclusive);
-        for (double y = yMin; y < yMax; y++) {
-            for (LocationTag loc : flatShell) {
-                LocationTag newLoc = loc.clone();
-                newLoc.setY(y);
-                if (test == null || test.test(newLoc)) {
-                    addTo.addObject(newLoc);
-                }
-            }
-            max -= flatShell.size();
-            if (max <= 0) {
-                return addTo;
-            }
+        int[] columns = new int[flatShell.size() * 2];
+        for (int i = 0; i < flatShell.size(); i++) {
+            columns[i * 2] = flatShell.get(i).getBlockX();
+            columns[i * 2 + 1] = flatShell.get(i).getBlockZ();
         }
-        return addTo;
+        int lowY = (int) Math.floor(yMin);
+        BlockCursor cursor = new BlockCursor.LayeredCursor(columns, lowY, lowY + (int) Math.ceil(yMax - yMin) - 1);
+        cursor.offsetX = 0.5;
+        cursor.offsetY = yMin - lowY;
+        cursor.offsetZ = 0.5;
+        return cursor;
+    }
+
+    public ListTag getBlocksInternal(Predicate<Location> test, boolean inclusive) {
+        return getBlockCursor(inclusive).collect(world.getName(), world.getWorld(), test, Settings.blockTagsMaxBlocks());
     }
 
     public void addOutline2D(double y, ListTag addTo) {
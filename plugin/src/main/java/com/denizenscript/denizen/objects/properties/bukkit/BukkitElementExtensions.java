@@ -426,7 +426,7 @@ public class BukkitElementExtensions {
         // Inverts <@link tag ElementTag.from_raw_json>.
         // -->
         ElementTag.tagProcessor.registerStaticTag(ElementTag.class, "to_raw_json", (attribute, object) -> {
-            return new ElementTag(FormattedTextHelper.componentToJson(FormattedTextHelper.parse(object.asString(), ChatColor.WHITE)));
+            return new ElementTag(FormattedTextHelper.parseToJson(object.asString(), ChatColor.WHITE));
         });
 
         // <--[tag]
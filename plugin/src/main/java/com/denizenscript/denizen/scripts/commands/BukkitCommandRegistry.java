@@ -139,6 +139,7 @@ public class BukkitCommandRegistry {
         registerCommand(OpenTradesCommand.class);
         registerCommand(OxygenCommand.class);
         registerCommand(PermissionCommand.class);
+        registerCommand(PreloadPlayersCommand.class);
         registerCommand(ResourcePackCommand.class);
         registerCommand(ShowFakeCommand.class);
         registerCommand(SidebarCommand.class);
@@ -161,6 +162,8 @@ public class BukkitCommandRegistry {
         registerCommand(CreateWorldCommand.class);
         registerCommand(DropCommand.class);
         registerCommand(ExplodeCommand.class);
+        registerCommand(FindBlocksCommand.class);
+        registerCommand(FindPathCommand.class);
         registerCommand(FireworkCommand.class);
         registerCommand(GameRuleCommand.class);
         registerCommand(LightCommand.class);
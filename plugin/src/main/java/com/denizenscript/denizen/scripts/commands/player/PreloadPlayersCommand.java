@@ -0,0 +1,63 @@
+package com.denizenscript.denizen.scripts.commands.player;
+
+import com.denizenscript.denizen.nms.abstracts.ImprovedOfflinePlayer;
+import com.denizenscript.denizen.objects.PlayerTag;
+import com.denizenscript.denizencore.scripts.ScriptEntry;
+import com.denizenscript.denizencore.scripts.commands.AbstractCommand;
+import com.denizenscript.denizencore.scripts.commands.Holdable;
+import com.denizenscript.denizencore.scripts.commands.generator.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class PreloadPlayersCommand extends AbstractCommand implements Holdable {
+
+    public PreloadPlayersCommand() {
+        setName("preloadplayers");
+        setSyntax("preloadplayers [<player>|...]");
+        setRequiredArguments(1, 1);
+        isProcedural = false;
+        autoCompile();
+    }
+
+    // <--[command]
+    // @Name PreloadPlayers
+    // @Syntax preloadplayers [<player>|...]
+    // @Required 1
+    // @Maximum 1
+    // @Short Loads the saved data of offline players in the background, so later reads of their inventories and other data don't block the server.
+    // @Group player
+    //
+    // @Description
+    // Reads the player data files (inventory, enderchest, location, etc.) of the given offline players off the main thread, and caches them.
+    // Tags and mechanisms that read or edit offline player data, such as <@link tag PlayerTag.inventory>, will then use the cached data rather than reading the file on the spot.
+    //
+    // Online players, and offline players that are already cached, are skipped.
+    // Large lists are split into batches that are read in parallel.
+    //
+    // The preloadplayers command is ~waitable. Refer to <@link language ~waitable>.
+    // When waited for, the queue continues once all the given players are loaded.
+    //
+    // The number of players cached at once is limited by the "World player data max cached players" config option.
+    // If more players are preloaded than that, the least recently used ones are dropped again.
+    //
+    // @Usage
+    // Use to sum up the diamonds held by all players who have ever joined, without stalling the server.
+    // - ~preloadplayers <server.offline_players>
+    // - define total 0
+    // - foreach <server.offline_players> as:target:
+    //     - define total:+:<[target].inventory.quantity_item[diamond]>
+    // -->
+
+    public static void autoExecute(ScriptEntry scriptEntry,
+                                   @ArgName("players") @ArgLinear @ArgSubType(PlayerTag.class) List<PlayerTag> players) {
+        List<UUID> ids = new ArrayList<>(players.size());
+        for (PlayerTag player : players) {
+            if (!player.isOnline()) {
+                ids.add(player.getUUID());
+            }
+        }
+        ImprovedOfflinePlayer.preloadAsync(ids, () -> scriptEntry.setFinished(true));
+    }
+}
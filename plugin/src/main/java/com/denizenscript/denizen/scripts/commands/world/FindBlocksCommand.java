@@ -0,0 +1,66 @@
+package com.denizenscript.denizen.scripts.commands.world;
+
+import com.denizenscript.denizen.objects.LocationTag;
+import com.denizenscript.denizen.utilities.Settings;
+import com.denizenscript.denizen.utilities.blocks.BlockSearch;
+import com.denizenscript.denizencore.exceptions.InvalidArgumentsRuntimeException;
+import com.denizenscript.denizencore.scripts.ScriptEntry;
+import com.denizenscript.denizencore.scripts.commands.AbstractCommand;
+import com.denizenscript.denizencore.scripts.commands.Holdable;
+import com.denizenscript.denizencore.scripts.commands.generator.*;
+
+public class FindBlocksCommand extends AbstractCommand implements Holdable {
+
+    public FindBlocksCommand() {
+        setName("findblocks");
+        setSyntax("findblocks [<location>] [radius:<#.#>] (matching:<matcher>)");
+        setRequiredArguments(2, 3);
+        isProcedural = false;
+        autoCompile();
+    }
+
+    // <--[command]
+    // @Name FindBlocks
+    // @Syntax findblocks [<location>] [radius:<#.#>] (matching:<matcher>)
+    // @Required 2
+    // @Maximum 3
+    // @Short Finds blocks within a radius, optionally off the main thread.
+    // @Group world
+    //
+    // @Description
+    // Finds all blocks within the radius of the given location, optionally only those that match a material matcher.
+    // This is the same search as <@link tag LocationTag.find_blocks.within>, and likewise is limited by the 'blocks max' setting in the Denizen config.
+    //
+    // The findblocks command is ~waitable. Refer to <@link language ~waitable>.
+    // When waited for, chunks are captured on the main thread, but the blocks themselves are scanned asynchronously, which avoids lag from large searches.
+    // Matchers that depend on the exact location (like 'block_flagged:' or 'location_in:') are still checked on the main thread after the scan.
+    // Blocks in unloaded chunks are not searched, and chunks are not loaded by this command.
+    //
+    // @Tags
+    // <entry[saveName].found_blocks> returns a ListTag of all blocks found, sorted by closeness (1 = closest, 2 = next closest, ... last = farthest).
+    //
+    // @Usage
+    // Use to find all diamond ore within 50 blocks of the player, without freezing the server while searching.
+    // - ~findblocks <player.location> radius:50 matching:diamond_ore|deepslate_diamond_ore save:ores
+    // - narrate "Found <entry[ores].found_blocks.size> ores."
+    // -->
+
+    public static void autoExecute(ScriptEntry scriptEntry,
+                                   @ArgName("location") @ArgLinear LocationTag location,
+                                   @ArgName("radius") @ArgPrefixed double radius,
+                                   @ArgName("matching") @ArgPrefixed @ArgDefaultNull String matcher) {
+        if (location.getWorld() == null) {
+            throw new InvalidArgumentsRuntimeException("Location must have a world.");
+        }
+        BlockSearch search = new BlockSearch(location, radius, matcher, Settings.blockTagsMaxBlocks());
+        if (scriptEntry.shouldWaitFor()) {
+            search.runAsync(() -> {
+                scriptEntry.saveObject("found_blocks", search.buildList(0));
+                scriptEntry.setFinished(true);
+            });
+            return;
+        }
+        search.runSync();
+        scriptEntry.saveObject("found_blocks", search.buildList(0));
+    }
+}
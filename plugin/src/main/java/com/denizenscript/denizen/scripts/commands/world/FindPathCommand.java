@@ -0,0 +1,69 @@
+package com.denizenscript.denizen.scripts.commands.world;
+
+import com.denizenscript.denizen.objects.LocationTag;
+import com.denizenscript.denizen.utilities.world.PathFinder;
+import com.denizenscript.denizencore.exceptions.InvalidArgumentsRuntimeException;
+import com.denizenscript.denizencore.objects.core.ListTag;
+import com.denizenscript.denizencore.scripts.ScriptEntry;
+import com.denizenscript.denizencore.scripts.commands.AbstractCommand;
+import com.denizenscript.denizencore.scripts.commands.Holdable;
+import com.denizenscript.denizencore.scripts.commands.generator.*;
+
+import java.util.List;
+
+public class FindPathCommand extends AbstractCommand implements Holdable {
+
+    public FindPathCommand() {
+        setName("findpath");
+        setSyntax("findpath [<location>] [to:<location>]");
+        setRequiredArguments(2, 2);
+        isProcedural = false;
+        autoCompile();
+    }
+
+    // <--[command]
+    // @Name FindPath
+    // @Syntax findpath [<location>] [to:<location>]
+    // @Required 2
+    // @Maximum 2
+    // @Short Finds a walkable path between two locations, optionally off the main thread.
+    // @Group world
+    //
+    // @Description
+    // Finds a walkable path from one location to another, using the same path finder as <@link tag LocationTag.find_path>.
+    // Uses a max range of 100 blocks from the start.
+    // Paths need solid ground and two blocks of head room, can pass through doors, trapdoors, and carpets, and can wade through water but not swim across it.
+    // Fences, walls and fence gates can't be stepped up onto, and lava is always avoided.
+    //
+    // The findpath command is ~waitable. Refer to <@link language ~waitable>.
+    // When waited for, the nearby chunks are captured on the main thread, but the path itself is searched asynchronously, which avoids lag from long or impossible paths.
+    //
+    // Paths found that way are remembered for a few seconds, so repeated waited requests between the same points are instant, as long as nothing has since blocked the path.
+    // When not waited for, the search reads the world directly, the same as the tag.
+    //
+    // @Tags
+    // <entry[saveName].path> returns a ListTag of the points along the path, or an empty list if no path was found.
+    //
+    // @Usage
+    // Use to find a path from the player to a noted location, then show it with debugblocks.
+    // - ~findpath <player.location> to:<location[town_square]> save:route
+    // - debugblock <entry[route].path> players:<player>
+    // -->
+
+    public static void autoExecute(ScriptEntry scriptEntry,
+                                   @ArgName("location") @ArgLinear LocationTag start,
+                                   @ArgName("to") @ArgPrefixed LocationTag dest) {
+        if (start.getWorld() == null || start.getWorld() != dest.getWorld()) {
+            throw new InvalidArgumentsRuntimeException("Both locations must be in the same world.");
+        }
+        if (scriptEntry.shouldWaitFor()) {
+            PathFinder.getPathAsync(start, dest, path -> {
+                scriptEntry.saveObject("path", new ListTag(path));
+                scriptEntry.setFinished(true);
+            });
+            return;
+        }
+        List<LocationTag> path = PathFinder.getPath(start, dest);
+        scriptEntry.saveObject("path", new ListTag(path));
+    }
+}
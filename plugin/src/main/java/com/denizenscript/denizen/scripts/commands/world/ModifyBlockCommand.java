@@ -3,6 +3,7 @@ package com.denizenscript.denizen.scripts.commands.world;
 import com.denizenscript.denizen.Denizen;
 import com.denizenscript.denizen.objects.*;
 import com.denizenscript.denizen.utilities.Utilities;
+import com.denizenscript.denizen.utilities.blocks.BlockCursor;
 import com.denizenscript.denizen.utilities.command.TabCompleteHelper;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
 import com.denizenscript.denizen.nms.NMSHandler;
@@ -81,6 +82,7 @@ public class ModifyBlockCommand extends AbstractCommand implements Listener, Hol
     // Optionally, specify 'max_delay_ms' to control how many milliseconds the 'delayed' set can run for in any given tick (defaults to 50).
     //
     // Note that specifying a list of locations will take more time in parsing than in the actual block modification.
+    // Cuboids and ellipsoids are instead read one block at a time as the edit proceeds, so even very large areas don't need to be held in memory.
     //
     // Optionally, specify a script to be ran after the delayed edits finish. (Doesn't fire if delayed is not set.)
     //
@@ -118,19 +120,19 @@ public class ModifyBlockCommand extends AbstractCommand implements Listener, Hol
     public void parseArgs(ScriptEntry scriptEntry) throws InvalidArgumentsException {
         for (Argument arg : scriptEntry) {
             if (arg.matchesArgumentType(CuboidTag.class)
-                    && !scriptEntry.hasObject("locations")
+                    && !scriptEntry.hasObject("area")
                     && !scriptEntry.hasObject("location_list")
                     && (arg.startsWith("cu@") || !arg.getRawValue().contains("|"))) {
-                scriptEntry.addObject("locations", arg.asType(CuboidTag.class).getBlockLocationsUnfiltered(false));
+                scriptEntry.addObject("area", arg.asType(CuboidTag.class));
             }
             else if (arg.matchesArgumentType(EllipsoidTag.class)
-                    && !scriptEntry.hasObject("locations")
+                    && !scriptEntry.hasObject("area")
                     && !scriptEntry.hasObject("location_list")
                     && (arg.startsWith("ellipsoid@") || !arg.getRawValue().contains("|"))) {
-                scriptEntry.addObject("locations", arg.asType(EllipsoidTag.class).getBlockLocationsUnfiltered(false));
+                scriptEntry.addObject("area", arg.asType(EllipsoidTag.class));
             }
             else if (arg.matchesArgumentList(LocationTag.class)
-                    && !scriptEntry.hasObject("locations")
+                    && !scriptEntry.hasObject("area")
                     && !scriptEntry.hasObject("location_list")) {
                 scriptEntry.addObject("location_list", arg.asType(ListTag.class));
             }
@@ -196,7 +198,7 @@ public class ModifyBlockCommand extends AbstractCommand implements Listener, Hol
         if (!scriptEntry.hasObject("materials")) {
             throw new InvalidArgumentsException("Missing material argument!");
         }
-        if (!scriptEntry.hasObject("locations") && !scriptEntry.hasObject("location_list")) {
+        if (!scriptEntry.hasObject("area") && !scriptEntry.hasObject("location_list")) {
             throw new InvalidArgumentsException("Missing location argument!");
         }
         scriptEntry.defaultObject("radius", new ElementTag(0))
@@ -217,6 +219,50 @@ public class ModifyBlockCommand extends AbstractCommand implements Listener, Hol
         }
     }
 
+    /**
+     * Streams the input locations, either lazily from an area's block cursor (so large areas are never fully materialized), or from a plain location list.
+     */
+    public static class LocationSource {
+
+        public BlockCursor cursor;
+
+        public String worldName;
+
+        public ListTag list;
+
+        public int listIndex = 0;
+
+        public boolean peeked = false, hasMore = false;
+
+        public LocationSource(AreaContainmentObject area, ListTag list) {
+            if (area != null) {
+                cursor = area.getBlockCursor();
+                worldName = area.getWorld().getName();
+            }
+            this.list = list;
+        }
+
+        public boolean hasNext() {
+            if (cursor != null) {
+                if (!peeked) {
+                    hasMore = cursor.next();
+                    peeked = true;
+                }
+                return hasMore;
+            }
+            return listIndex < list.size();
+        }
+
+        public LocationTag next(ScriptEntry entry) {
+            if (cursor != null) {
+                hasNext();
+                peeked = false;
+                return cursor.toLocationTag(worldName);
+            }
+            return getLocAt(list, listIndex++, entry);
+        }
+    }
+
     public static boolean isLocationBad(ScriptEntry entry, LocationTag loc) {
         if (loc == null) {
             Debug.echoError(entry, "Input is not a valid LocationTag");
@@ -232,7 +278,7 @@ public class ModifyBlockCommand extends AbstractCommand implements Listener, Hol
     @Override
     public void execute(final ScriptEntry scriptEntry) {
         final ListTag materials = scriptEntry.getObjectTag("materials");
-        final List<LocationTag> locations = (List<LocationTag>) scriptEntry.getObject("locations");
+        final AreaContainmentObject area = scriptEntry.getObjectTag("area");
         final ListTag location_list = scriptEntry.getObjectTag("location_list");
         final ElementTag physics = scriptEntry.getElement("physics");
         final ItemTag natural = scriptEntry.getObjectTag("natural");
@@ -257,7 +303,7 @@ public class ModifyBlockCommand extends AbstractCommand implements Listener, Hol
         }
         if (scriptEntry.dbCallShouldDebug()) {
             Debug.report(scriptEntry, getName(), materials, physics, radiusElement, heightElement, depthElement, natural,
-                    delayed, maxDelayMs, script, percents, source, (locations == null ? location_list : db("locations", locations)));
+                    delayed, maxDelayMs, script, percents, source, (area == null ? location_list : area));
         }
         Player sourcePlayer = source == null ? null : source.getPlayerEntity();
         final boolean doPhysics = physics.asBoolean();
@@ -272,11 +318,12 @@ public class ModifyBlockCommand extends AbstractCommand implements Listener, Hol
             }
         }
         final List<Float> percs = percentages;
-        if (locations == null && location_list == null) {
+        if (area == null && location_list == null) {
             Debug.echoError("Must specify a valid location!");
             return;
         }
-        if ((location_list != null && location_list.isEmpty()) || (locations != null && locations.isEmpty())) {
+        final LocationSource locations = new LocationSource(area, location_list);
+        if (!locations.hasNext()) {
             return;
         }
         if (materialList.isEmpty()) {
@@ -284,48 +331,41 @@ public class ModifyBlockCommand extends AbstractCommand implements Listener, Hol
             return;
         }
         no_physics = !doPhysics;
+        final LocationTag firstLoc = locations.next(scriptEntry);
         if (delayed.asBoolean()) {
             final long maxDelay = maxDelayMs.asLong();
             new BukkitRunnable() {
                 int index = 0;
+                LocationTag nextLoc = firstLoc;
+                boolean hasNext = true;
                 @Override
                 public void run() {
                     try {
                         long start = CoreUtilities.monotonicMillis();
-                        LocationTag loc;
-                        if (locations != null) {
-                            loc = locations.get(0);
-                        }
-                        else {
-                            loc = getLocAt(location_list, 0, scriptEntry);
-                        }
-                        if (isLocationBad(scriptEntry, loc)) {
+                        if (isLocationBad(scriptEntry, firstLoc)) {
                             scriptEntry.setFinished(true);
                             cancel();
                             return;
                         }
-                        boolean was_static = preSetup(loc);
-                        while ((locations != null && locations.size() > index) || (location_list != null && location_list.size() > index)) {
-                            LocationTag nLoc;
-                            if (locations != null) {
-                                nLoc = locations.get(index);
-                            }
-                            else {
-                                nLoc = getLocAt(location_list, index, scriptEntry);
-                            }
-                            if (isLocationBad(scriptEntry, nLoc)) {
+                        boolean was_static = preSetup(firstLoc);
+                        while (hasNext) {
+                            if (isLocationBad(scriptEntry, nextLoc)) {
                                 scriptEntry.setFinished(true);
                                 cancel();
                                 return;
                             }
-                            handleLocation(nLoc, index, materialList, doPhysics, natural, radius, height, depth, percs, sourcePlayer, scriptEntry);
+                            handleLocation(nextLoc, index, materialList, doPhysics, natural, radius, height, depth, percs, sourcePlayer, scriptEntry);
                             index++;
+                            hasNext = locations.hasNext();
+                            if (hasNext) {
+                                nextLoc = locations.next(scriptEntry);
+                            }
                             if (CoreUtilities.monotonicMillis() - start > maxDelay) {
                                 break;
                             }
                         }
-                        postComplete(loc, was_static);
-                        if ((locations != null && locations.size() == index) || (location_list != null && location_list.size() == index)) {
+                        postComplete(firstLoc, was_static);
+                        if (!hasNext) {
                             if (script != null) {
                                 ScriptUtilities.createAndStartQueue(script.getContainer(), null, scriptEntry.entryData, null, null, null, null, null, scriptEntry);
                             }
@@ -340,38 +380,24 @@ public class ModifyBlockCommand extends AbstractCommand implements Listener, Hol
             }.runTaskTimer(Denizen.getInstance(), 1, 1);
         }
         else {
-            LocationTag loc;
-            if (locations != null) {
-                loc = locations.get(0);
-            }
-            else {
-                loc = getLocAt(location_list, 0, scriptEntry);
-            }
-            if (isLocationBad(scriptEntry, loc)) {
+            if (isLocationBad(scriptEntry, firstLoc)) {
                 return;
             }
-            boolean was_static = preSetup(loc);
+            boolean was_static = preSetup(firstLoc);
             int index = 0;
-            if (locations != null) {
-                for (LocationTag obj : locations) {
-                    if (isLocationBad(scriptEntry, obj)) {
-                        return;
-                    }
-                    handleLocation(obj, index, materialList, doPhysics, natural, radius, height, depth, percentages, sourcePlayer, scriptEntry);
-                    index++;
+            LocationTag loc = firstLoc;
+            while (true) {
+                if (isLocationBad(scriptEntry, loc)) {
+                    return;
                 }
-            }
-            else {
-                for (int i = 0; i < location_list.size(); i++) {
-                    LocationTag obj = getLocAt(location_list, i, scriptEntry);
-                    if (isLocationBad(scriptEntry, obj)) {
-                        return;
-                    }
-                    handleLocation(obj, index, materialList, doPhysics, natural, radius, height, depth, percentages, sourcePlayer, scriptEntry);
-                    index++;
+                handleLocation(loc, index, materialList, doPhysics, natural, radius, height, depth, percentages, sourcePlayer, scriptEntry);
+                index++;
+                if (!locations.hasNext()) {
+                    break;
                 }
+                loc = locations.next(scriptEntry);
             }
-            postComplete(loc, was_static);
+            postComplete(firstLoc, was_static);
             scriptEntry.setFinished(true);
         }
     }
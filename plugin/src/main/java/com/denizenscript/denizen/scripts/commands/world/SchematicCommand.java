@@ -119,6 +119,8 @@ public class SchematicCommand extends AbstractCommand implements Holdable, Liste
     // <schematic[<name>].block[<location>]>
     // <schematic[<name>].origin>
     // <schematic[<name>].blocks>
+    // <schematic[<name>].paste_progress>
+    // <schematic[<name>].paste_rate>
     // <schematic[<name>].exists>
     // <schematic[<name>].cuboid[<origin_location>]>
     // <schematic.list>
@@ -360,40 +362,43 @@ public class SchematicCommand extends AbstractCommand implements Holdable, Liste
                     }
                 }
                 File schemFile = f;
+                Consumer<Exception> showError = (ex) -> {
+                    Runnable show = () -> {
+                        Debug.echoError(scriptEntry, "Error loading schematic file " + name.asString() + ".");
+                        Debug.echoError(scriptEntry, ex);
+                    };
+                    if (delayed) {
+                        Bukkit.getScheduler().runTask(Denizen.instance, show);
+                    }
+                    else {
+                        show.run();
+                    }
+                    scriptEntry.setFinished(true);
+                };
                 Runnable loadRunnable = () -> {
                     try {
                         InputStream fs = new FileInputStream(schemFile);
                         CuboidBlockSet newSet;
                         newSet = SpongeSchematicHelper.fromSpongeStream(fs);
                         fs.close();
-                        Runnable storeSchem = () -> {
-                            schematics.put(name.asString().toUpperCase(), newSet);
-                            scriptEntry.setFinished(true);
-                        };
-                        if (delayed) {
-                            Bukkit.getScheduler().runTask(Denizen.instance, storeSchem);
-                        }
-                        else {
-                            storeSchem.run();
-                        }
+                        schematics.put(name.asString().toUpperCase(), newSet);
+                        scriptEntry.setFinished(true);
                     }
                     catch (Exception ex) {
-                        Runnable showError = () -> {
-                            Debug.echoError(scriptEntry, "Error loading schematic file " + name.asString() + ".");
-                            Debug.echoError(scriptEntry, ex);
-                        };
-                        if (delayed) {
-                            Bukkit.getScheduler().runTask(Denizen.instance, showError);
-                        }
-                        else {
-                            showError.run();
-                        }
-                        scriptEntry.setFinished(true);
-                        return;
+                        showError.accept(ex);
                     }
                 };
                 if (delayed) {
-                    Bukkit.getScheduler().runTaskAsynchronously(Denizen.instance, loadRunnable);
+                    SpongeSchematicHelper.loadSpongeFileAsync(schemFile).whenComplete((newSet, ex) -> {
+                        if (ex != null) {
+                            showError.accept(ex instanceof Exception ? (Exception) ex : new RuntimeException(ex));
+                            return;
+                        }
+                        Bukkit.getScheduler().runTask(Denizen.instance, () -> {
+                            schematics.put(name.asString().toUpperCase(), newSet);
+                            scriptEntry.setFinished(true);
+                        });
+                    });
                 }
                 else {
                     loadRunnable.run();
@@ -510,6 +515,7 @@ public class SchematicCommand extends AbstractCommand implements Holdable, Liste
                         Debug.echoError("Cannot paste schematic: schematic is currently processing another instruction.");
                         return;
                     }
+                    final CuboidBlockSet original = set;
                     Consumer<CuboidBlockSet> pasteRunnable = (schematic) -> {
                         if (delayed) {
                             schematic.readingProcesses++;
@@ -532,6 +538,8 @@ public class SchematicCommand extends AbstractCommand implements Holdable, Liste
                             }
                             scriptEntry.setFinished(true);
                         }
+                        // Rotated pastes run on a copy, so track progress on the loaded schematic too
+                        original.lastPaste = schematic.lastPaste;
                     };
                     if (angle != null) {
                         final CuboidBlockSet newSet = set.duplicate();
@@ -715,7 +723,33 @@ public class SchematicCommand extends AbstractCommand implements Holdable, Liste
         // Returns the number of blocks in the schematic.
         // -->
         if (attribute.startsWith("blocks")) {
-            event.setReplacedObject(new ElementTag(set.blocks.length)
+            event.setReplacedObject(new ElementTag(set.getBlockCount())
+                    .getObjectAttribute(attribute.fulfill(1)));
+            return;
+        }
+
+        // <--[tag]
+        // @attribute <schematic[<name>].paste_progress>
+        // @returns ElementTag(Decimal)
+        // @description
+        // Returns the progress of the most recent paste of the schematic, as a decimal from 0 to 1.
+        // Returns 1 if the schematic has never been pasted, or was last pasted with a 'mask' or 'fake_to'.
+        // -->
+        if (attribute.startsWith("paste_progress")) {
+            event.setReplacedObject(new ElementTag(set.lastPaste == null ? 1 : set.lastPaste.getProgress())
+                    .getObjectAttribute(attribute.fulfill(1)));
+            return;
+        }
+
+        // <--[tag]
+        // @attribute <schematic[<name>].paste_rate>
+        // @returns ElementTag(Decimal)
+        // @description
+        // Returns the speed of the most recent paste of the schematic (whether still in progress or finished), in blocks per second.
+        // Returns 0 if the schematic has never been pasted, or was last pasted with a 'mask' or 'fake_to'.
+        // -->
+        if (attribute.startsWith("paste_rate")) {
+            event.setReplacedObject(new ElementTag(set.lastPaste == null ? 0 : set.lastPaste.getBlocksPerSecond())
                     .getObjectAttribute(attribute.fulfill(1)));
             return;
         }
@@ -4,10 +4,12 @@ import com.denizenscript.denizen.Denizen;
 import com.denizenscript.denizen.events.world.TimeChangeScriptEvent;
 import com.denizenscript.denizen.nms.NMSHandler;
 import com.denizenscript.denizen.objects.*;
+import com.denizenscript.denizen.utilities.DataPersistenceHelper;
 import com.denizenscript.denizen.utilities.ScoreboardHelper;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
 import com.denizenscript.denizen.utilities.Settings;
 import com.denizenscript.denizen.utilities.flags.DataPersistenceFlagTracker;
+import com.denizenscript.denizen.utilities.flags.LocationFlagIndex;
 import com.denizenscript.denizencore.utilities.CoreConfiguration;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -21,6 +23,10 @@ import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.EntitiesUnloadEvent;
+import org.bukkit.event.world.WorldSaveEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.scoreboard.Scoreboard;
 
 import java.util.HashMap;
@@ -100,6 +106,7 @@ public class BukkitWorldScriptHelper implements Listener {
 
     @EventHandler
     public void playerQuit(PlayerQuitEvent event) {
+        DataPersistenceHelper.flushPendingWrites();
         NMSHandler.packetHelper.removeNoCollideTeam(event.getPlayer(), null);
     }
 
@@ -111,6 +118,27 @@ public class BukkitWorldScriptHelper implements Listener {
         new DataPersistenceFlagTracker(event.getChunk()).doTotalClean();
     }
 
+    @EventHandler
+    public void chunkUnloadEvent(ChunkUnloadEvent event) {
+        DataPersistenceHelper.flushPendingWrites();
+        LocationFlagIndex.invalidate(event.getChunk());
+    }
+
+    @EventHandler
+    public void entitiesUnloadEvent(EntitiesUnloadEvent event) {
+        DataPersistenceHelper.flushPendingWrites();
+    }
+
+    @EventHandler
+    public void worldSaveEvent(WorldSaveEvent event) {
+        DataPersistenceHelper.flushPendingWrites();
+    }
+
+    @EventHandler
+    public void worldUnloadEvent(WorldUnloadEvent event) {
+        LocationFlagIndex.invalidateWorld(event.getWorld());
+    }
+
     public static void cleanAllWorldChunkFlags() {
         for (World world : Bukkit.getWorlds()) {
             for (Chunk chunk : world.getLoadedChunks()) {
@@ -3,8 +3,6 @@ package com.denizenscript.denizen.scripts.containers.core;
 import com.denizenscript.denizen.Denizen;
 import com.denizenscript.denizen.nms.abstracts.ImprovedOfflinePlayer;
 import com.denizenscript.denizen.objects.InventoryTag;
-import com.denizenscript.denizen.utilities.Settings;
-import com.denizenscript.denizencore.DenizenCore;
 import com.denizenscript.denizencore.objects.core.ScriptTag;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
@@ -37,18 +35,12 @@ public class InventoryScriptHelper implements Listener {
 
     private final static List<UUID> toClearOfflinePlayers = new ArrayList<>();
 
-    public static void savePlayerInventories() {
+    public static void savePlayerInventories(boolean lockUntilDone) {
+        // TODO: optimize - remove inventories when no longer in use?
+        ImprovedOfflinePlayer.saveAll(lockUntilDone);
         for (ImprovedOfflinePlayer player : ImprovedOfflinePlayer.offlinePlayers.values()) {
-            if (player.inventory != null) { // TODO: optimize - remove inventories when no longer in use?
-                player.setInventory(player.inventory);
-            }
-            if (player.enderchest != null) {
-                player.setEnderChest(player.enderchest);
-            }
-            if (player.modified) {
-                player.saveToFile();
-            }
-            if (player.timeLastLoaded + Settings.worldPlayerDataMaxCacheTicks < DenizenCore.currentTimeMonotonicMillis) {
+            // Data with a background save still pending is kept until it's written, so it can't be re-read stale from file
+            if (player.isOutdated()) {
                 toClearOfflinePlayers.add(player.player);
             }
         }
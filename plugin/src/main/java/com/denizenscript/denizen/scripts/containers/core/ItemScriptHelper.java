@@ -2,7 +2,6 @@ package com.denizenscript.denizen.scripts.containers.core;
 
 import com.denizenscript.denizen.Denizen;
 import com.denizenscript.denizen.nms.NMSVersion;
-import com.denizenscript.denizen.nms.util.jnbt.CompoundTag;
 import com.denizenscript.denizen.objects.EntityTag;
 import com.denizenscript.denizen.objects.MaterialTag;
 import com.denizenscript.denizen.objects.PlayerTag;
@@ -381,17 +380,22 @@ public class ItemScriptHelper implements Listener {
         return getItemScriptNameText(item) != null;
     }
 
+    /**
+     * The item script name key, then the legacy hashed key, read together so the item's NBT is only resolved once.
+     */
+    public static final String[] ITEM_SCRIPT_KEYS = new String[] { "DenizenItemScript", "Denizen Item Script" };
+
     public static String getItemScriptNameText(ItemStack item) {
         if (item == null) {
             return null;
         }
-        CompoundTag tag = NMSHandler.itemHelper.getNbtData(item);
-        String scriptName = tag.getString("DenizenItemScript");
+        String[] keys = NMSHandler.itemHelper.getNbtStrings(item, ITEM_SCRIPT_KEYS);
+        String scriptName = keys[0];
         if (scriptName != null && !scriptName.equals("")) {
             return scriptName;
         }
         // NOTE: Legacy hashed format
-        String nbt = tag.getString("Denizen Item Script");
+        String nbt = keys[1];
         if (nbt != null && !nbt.equals("")) {
             ItemScriptContainer container = item_scripts_by_hash_id.get(nbt);
             if (container != null) {
@@ -405,13 +409,13 @@ public class ItemScriptHelper implements Listener {
         if (item == null) {
             return null;
         }
-        CompoundTag tag = NMSHandler.itemHelper.getNbtData(item);
-        String scriptName = tag.getString("DenizenItemScript");
+        String[] keys = NMSHandler.itemHelper.getNbtStrings(item, ITEM_SCRIPT_KEYS);
+        String scriptName = keys[0];
         if (scriptName != null && !scriptName.equals("")) {
             return item_scripts.get(scriptName);
         }
         // NOTE: Legacy hashed format
-        String nbt = tag.getString("Denizen Item Script");
+        String nbt = keys[1];
         if (nbt != null && !nbt.equals("")) {
             return item_scripts_by_hash_id.get(nbt);
         }
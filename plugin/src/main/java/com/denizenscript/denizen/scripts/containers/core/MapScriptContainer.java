@@ -60,6 +60,8 @@ public class MapScriptContainer extends ScriptContainer {
     //             # Optionally add width/height numbers.
     //             width: 128
     //             height: 128
+    //             # Optionally set to true to dither the image, for smoother gradients within the limited map colors. Defaults to false.
+    //             dither: false
     //
     //         2:
     //             type: text
@@ -135,6 +137,7 @@ public class MapScriptContainer extends ScriptContainer {
                         int width = Integer.parseInt(objectSection.getString("width", "0"));
                         int height = Integer.parseInt(objectSection.getString("height", "0"));
                         added = new MapImage(renderer, x, y, visible, shouldDebug(), image, width, height);
+                        ((MapImage) added).dither = objectSection.getString("dither", "false").equalsIgnoreCase("true");
                         break;
                     case "text":
                         if (!objectSection.contains("text")) {
@@ -6,13 +6,20 @@ import com.denizenscript.denizen.npc.traits.TriggerTrait;
 import com.denizenscript.denizen.objects.NPCTag;
 import com.denizenscript.denizen.objects.PlayerTag;
 import com.denizenscript.denizen.scripts.triggers.AbstractTrigger;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.event.NPCDespawnEvent;
+import net.citizensnpcs.api.event.NPCRemoveEvent;
+import net.citizensnpcs.api.event.NPCSpawnEvent;
 import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.npc.NPCRegistry;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerQuitEvent;
 
@@ -83,6 +90,150 @@ public class ProximityTrigger extends AbstractTrigger implements Listener {
     // -->
     int taskID = -1;
 
+    /**
+     * A spawned NPC with the proximity trigger enabled, with its trigger settings cached so they aren't re-read every pass.
+     */
+    public static class TrackedNPC {
+
+        public NPC citizen;
+
+        public NPCTag npc;
+
+        public UUID uuid;
+
+        public TriggerTrait triggerTrait;
+
+        public double radius;
+
+        public World world;
+
+        public double x, y, z;
+
+        public int cellX, cellZ;
+
+        public boolean removed;
+
+        public TrackedNPC(NPC citizen) {
+            this.citizen = citizen;
+            this.npc = new NPCTag(citizen);
+            this.uuid = citizen.getUniqueId();
+        }
+    }
+
+    /**
+     * All proximity-enabled NPCs of a single world, bucketed into square cells by their location at the start of the current pass.
+     */
+    public static class WorldGrid {
+
+        public Long2ObjectOpenHashMap<List<TrackedNPC>> cells = new Long2ObjectOpenHashMap<>();
+
+        public double maxRadius;
+    }
+
+    public static final int CELL_SIZE = 16, CELL_SHIFT = 4;
+
+    /**
+     * How many passes between full rescans of all NPC registries, to catch any NPCs missed by the spawn/despawn events or trait changes.
+     */
+    public static final int RESCAN_PASSES = 20;
+
+    public static long cellKey(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * NPC UUID to tracked NPC, for all spawned NPCs with this trigger enabled.
+     */
+    public Map<UUID, TrackedNPC> trackedNPCs = new HashMap<>();
+
+    public Map<World, WorldGrid> grids = new HashMap<>();
+
+    public int passesUntilRescan = 0;
+
+    public void stopTracking(NPC citizen) {
+        TrackedNPC tracked = trackedNPCs.remove(citizen.getUniqueId());
+        if (tracked != null) {
+            tracked.removed = true;
+        }
+    }
+
+    /**
+     * Starts, updates, or stops tracking an NPC based on its current state. Should be called whenever the NPC's proximity trigger settings change.
+     */
+    public void updateTracking(NPC citizen) {
+        TriggerTrait triggerTrait = citizen.isSpawned() ? citizen.getTraitNullable(TriggerTrait.class) : null;
+        if (triggerTrait == null || !triggerTrait.isEnabled(name)) {
+            stopTracking(citizen);
+            return;
+        }
+        TrackedNPC tracked = trackedNPCs.computeIfAbsent(citizen.getUniqueId(), k -> new TrackedNPC(citizen));
+        tracked.triggerTrait = triggerTrait;
+        tracked.radius = triggerTrait.getRadius(name);
+    }
+
+    public void rescanAll() {
+        for (TrackedNPC tracked : trackedNPCs.values()) {
+            tracked.removed = true;
+        }
+        trackedNPCs.clear();
+        for (NPCRegistry registry : CitizensAPI.getNPCRegistries()) {
+            for (NPC citizensNPC : registry) {
+                if (citizensNPC != null && citizensNPC.isSpawned() && citizensNPC.hasTrait(TriggerTrait.class)) {
+                    updateTracking(citizensNPC);
+                }
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onNPCSpawn(NPCSpawnEvent event) {
+        // The NPC isn't marked as spawned until after the event
+        Bukkit.getScheduler().runTask(Denizen.getInstance(), () -> updateTracking(event.getNPC()));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onNPCDespawn(NPCDespawnEvent event) {
+        stopTracking(event.getNPC());
+    }
+
+    @EventHandler
+    public void onNPCRemove(NPCRemoveEvent event) {
+        stopTracking(event.getNPC());
+    }
+
+    /**
+     * Rebuilds the per-world grids from the current location of each tracked NPC, which keeps up with NPC movement.
+     */
+    public void rebuildGrids() {
+        grids.clear();
+        Iterator<TrackedNPC> iterator = trackedNPCs.values().iterator();
+        while (iterator.hasNext()) {
+            TrackedNPC tracked = iterator.next();
+            Entity entity = tracked.citizen.getEntity();
+            if (entity == null || !tracked.citizen.isSpawned()) {
+                tracked.removed = true;
+                iterator.remove();
+                continue;
+            }
+            Location location = entity.getLocation();
+            tracked.world = location.getWorld();
+            tracked.x = location.getX();
+            tracked.y = location.getY();
+            tracked.z = location.getZ();
+            tracked.cellX = location.getBlockX() >> CELL_SHIFT;
+            tracked.cellZ = location.getBlockZ() >> CELL_SHIFT;
+            WorldGrid grid = grids.computeIfAbsent(tracked.world, k -> new WorldGrid());
+            long key = cellKey(tracked.cellX, tracked.cellZ);
+            List<TrackedNPC> cell = grid.cells.get(key);
+            if (cell == null) {
+                cell = new ArrayList<>();
+                grid.cells.put(key, cell);
+            }
+            cell.add(tracked);
+            grid.maxRadius = Math.max(grid.maxRadius, tracked.radius);
+        }
+    }
+
     @Override
     public void onEnable() {
         Bukkit.getServer().getPluginManager().registerEvents(this, Denizen.getInstance());
@@ -90,49 +241,96 @@ public class ProximityTrigger extends AbstractTrigger implements Listener {
             if (timesUsed == 0) { // skip if not in use
                 return;
             }
-            Collection<? extends Player> allPlayers = Bukkit.getOnlinePlayers();
-            for (NPCRegistry registry : CitizensAPI.getNPCRegistries()) {
-                for (NPC citizensNPC : registry) {
-                    if (citizensNPC == null || !citizensNPC.isSpawned()) {
-                        continue;
-                    }
-                    if (!citizensNPC.hasTrait(TriggerTrait.class) || !citizensNPC.getOrAddTrait(TriggerTrait.class).isEnabled(name)) {
+            if (passesUntilRescan-- <= 0) {
+                passesUntilRescan = RESCAN_PASSES;
+                rescanAll();
+            }
+            rebuildGrids();
+            for (Player bukkitPlayer : Bukkit.getOnlinePlayers()) {
+                processPlayer(bukkitPlayer);
+            }
+        }, 5, 5);
+    }
+
+    /**
+     * Processes all NPCs a player is near or is currently within proximity of.
+     */
+    public void processPlayer(Player bukkitPlayer) {
+        Location playerLocation = bukkitPlayer.getLocation();
+        World world = playerLocation.getWorld();
+        WorldGrid grid = grids.get(world);
+        int lowX = 0, highX = -1, lowZ = 0, highZ = -1;
+        PlayerTag player = null;
+        if (grid != null) {
+            // NPCs can only be entered within their radius, and never beyond the max proximity distance
+            int range = (int) Math.ceil(Math.min(grid.maxRadius, maxProximityDistance));
+            lowX = (playerLocation.getBlockX() - range) >> CELL_SHIFT;
+            highX = (playerLocation.getBlockX() + range) >> CELL_SHIFT;
+            lowZ = (playerLocation.getBlockZ() - range) >> CELL_SHIFT;
+            highZ = (playerLocation.getBlockZ() + range) >> CELL_SHIFT;
+            for (int cellX = lowX; cellX <= highX; cellX++) {
+                for (int cellZ = lowZ; cellZ <= highZ; cellZ++) {
+                    List<TrackedNPC> cell = grid.cells.get(cellKey(cellX, cellZ));
+                    if (cell == null) {
                         continue;
                     }
-                    NPCTag npc = new NPCTag(citizensNPC);
-                    TriggerTrait triggerTrait = npc.getTriggerTrait();
-                    for (Player bukkitPlayer : allPlayers) {
-                        tryProcessSinglePair(npc, triggerTrait, bukkitPlayer);
+                    for (TrackedNPC tracked : cell) {
+                        player = tryProcessSinglePair(tracked, bukkitPlayer, player, playerLocation);
                     }
                 }
             }
-        }, 5, 5);
-    }
-
-    public final void tryProcessSinglePair(NPCTag npc, TriggerTrait triggerTrait, Player bukkitPlayer) {
-        boolean exitedProximity = hasExitedProximityOf(bukkitPlayer, npc);
-        if (!npc.getWorld().equals(bukkitPlayer.getWorld()) && exitedProximity) {
-            return;
         }
-        if (!isCloseEnough(bukkitPlayer, npc) && exitedProximity) {
+        Set<UUID> inside = proximityTracker.get(bukkitPlayer.getUniqueId());
+        if (inside == null) {
             return;
         }
-        PlayerTag player = PlayerTag.mirrorBukkitPlayer(bukkitPlayer);
-        double radius = triggerTrait.getRadius(name);
-        Location npcLocation = npc.getLocation();
+        // NPCs the player is within proximity of but that weren't in range of the grid search still need to fire their exit
+        for (UUID id : new ArrayList<>(inside)) {
+            TrackedNPC tracked = trackedNPCs.get(id);
+            if (tracked == null || tracked.world == null) {
+                continue;
+            }
+            if (tracked.world == world && tracked.cellX >= lowX && tracked.cellX <= highX && tracked.cellZ >= lowZ && tracked.cellZ <= highZ) {
+                continue;
+            }
+            player = tryProcessSinglePair(tracked, bukkitPlayer, player, playerLocation);
+        }
+    }
+
+    /**
+     * Processes a single NPC/player pair, returning the PlayerTag for the player (created only if needed).
+     */
+    public final PlayerTag tryProcessSinglePair(TrackedNPC tracked, Player bukkitPlayer, PlayerTag player, Location playerLocation) {
+        if (tracked.removed || !tracked.citizen.isSpawned()) {
+            return player;
+        }
+        boolean exitedProximity = hasExitedProximityOf(bukkitPlayer, tracked.uuid);
+        double radius = tracked.radius;
         double distance;
-        if (npcLocation.getWorld() != player.getWorld()) {
+        if (tracked.world != playerLocation.getWorld()) {
+            if (exitedProximity) {
+                return player;
+            }
             distance = radius + 1;
         }
         else {
-            distance = npcLocation.distance(player.getLocation());
+            double x = tracked.x - playerLocation.getX(), y = tracked.y - playerLocation.getY(), z = tracked.z - playerLocation.getZ();
+            double distanceSquared = x * x + y * y + z * z;
+            if (exitedProximity && (distanceSquared > radius * radius || distanceSquared > maxProximityDistance * maxProximityDistance)) {
+                return player;
+            }
+            distance = Math.sqrt(distanceSquared);
+        }
+        if (player == null) {
+            player = PlayerTag.mirrorBukkitPlayer(bukkitPlayer);
         }
+        NPCTag npc = tracked.npc;
         if (!exitedProximity) {
             if (distance >= radius) {
-                if (!triggerTrait.triggerCooldownOnly(this, player)) {
-                    return;
+                if (!tracked.triggerTrait.triggerCooldownOnly(this, player)) {
+                    return player;
                 }
-                exitProximityOf(bukkitPlayer, npc);
+                exitProximityOf(bukkitPlayer, tracked.uuid);
                 npc.action("exit proximity", player);
                 parseAll(npc, player, "EXIT");
             }
@@ -141,14 +339,15 @@ public class ProximityTrigger extends AbstractTrigger implements Listener {
                 parseAll(npc, player, "MOVE");
             }
         }
-        else if (distance <= radius) {
-            if (!triggerTrait.triggerCooldownOnly(this, player)) {
-                return;
+        else {
+            if (!tracked.triggerTrait.triggerCooldownOnly(this, player)) {
+                return player;
             }
-            enterProximityOf(bukkitPlayer, npc);
+            enterProximityOf(bukkitPlayer, tracked.uuid);
             npc.action("enter proximity", player);
             parseAll(npc, player, "ENTRY");
         }
+        return player;
     }
 
     public void parseAll(NPCTag npc, PlayerTag player, String id) {
@@ -188,22 +387,8 @@ public class ProximityTrigger extends AbstractTrigger implements Listener {
     @Override
     public void onDisable() {
         Bukkit.getScheduler().cancelTask(taskID);
-    }
-
-    /**
-     * Checks if the Player in Proximity is close enough to be calculated.
-     *
-     * @param player the Player
-     * @param npc    the NPC
-     * @return true if within maxProximityDistance in all directions
-     */
-    private boolean isCloseEnough(Player player, NPCTag npc) {
-        Location pLoc = player.getLocation();
-        Location nLoc = npc.getLocation();
-        if (pLoc.getWorld() != nLoc.getWorld() || pLoc.distanceSquared(nLoc) > maxProximityDistance * maxProximityDistance) {
-            return false;
-        }
-        return true;
+        trackedNPCs.clear();
+        grids.clear();
     }
 
     /**
@@ -214,14 +399,14 @@ public class ProximityTrigger extends AbstractTrigger implements Listener {
     //
     // Ensures that a Player who has entered proximity of an NPC also fires Exit Proximity.
     //
-    private boolean hasExitedProximityOf(Player player, NPCTag npc) {
+    private boolean hasExitedProximityOf(Player player, UUID npc) {
         // If Player hasn't entered proximity, it's not in the Map. Return true, must be exited.
         Set<UUID> existing = proximityTracker.get(player.getUniqueId());
         if (existing == null) {
             return true;
         }
         // If Player has no entry for this NPC, return true.
-        if (!existing.contains(npc.getCitizen().getUniqueId())) {
+        if (!existing.contains(npc)) {
             return true;
         }
         // Entry is present, NPC has not yet triggered exit proximity.
@@ -233,11 +418,11 @@ public class ProximityTrigger extends AbstractTrigger implements Listener {
      * proximity will be called.
      *
      * @param player the Player
-     * @param npc    the NPC
+     * @param npc    the NPC's UUID
      */
-    private void enterProximityOf(Player player, NPCTag npc) {
+    private void enterProximityOf(Player player, UUID npc) {
         Set<UUID> npcs = proximityTracker.computeIfAbsent(player.getUniqueId(), k -> new HashSet<>());
-        npcs.add(npc.getCitizen().getUniqueId());
+        npcs.add(npc);
     }
 
     /**
@@ -245,14 +430,14 @@ public class ProximityTrigger extends AbstractTrigger implements Listener {
      * a Player can enter proximity again.
      *
      * @param player the Player
-     * @param npc    the NPC
+     * @param npc    the NPC's UUID
      */
-    private void exitProximityOf(Player player, NPCTag npc) {
+    private void exitProximityOf(Player player, UUID npc) {
         Set<UUID> npcs = proximityTracker.get(player.getUniqueId());
         if (npcs == null) {
             return;
         }
-        npcs.remove(npc.getCitizen().getUniqueId());
+        npcs.remove(npc);
         if (npcs.isEmpty()) {
             proximityTracker.remove(player.getUniqueId());
         }
@@ -13,6 +13,10 @@ import com.denizenscript.denizen.scripts.containers.core.CommandScriptHelper;
 import com.denizenscript.denizen.scripts.containers.core.ItemScriptHelper;
 import com.denizenscript.denizen.utilities.*;
 import com.denizenscript.denizen.utilities.depends.Depends;
+import com.denizenscript.denizen.utilities.entity.EntityAttachmentHelper;
+import com.denizenscript.denizen.utilities.flags.NPCFlagIndex;
+import com.denizenscript.denizen.utilities.flags.PlayerFlagHandler;
+import com.denizenscript.denizen.utilities.flags.PlayerFlagIndex;
 import com.denizenscript.denizen.utilities.inventory.SlotHelper;
 import com.denizenscript.denizencore.DenizenCore;
 import com.denizenscript.denizencore.events.ScriptEvent;
@@ -33,8 +37,6 @@ import com.denizenscript.denizencore.utilities.CoreUtilities;
 import com.denizenscript.denizencore.utilities.Deprecations;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
 import com.denizenscript.denizencore.utilities.text.StringHolder;
-import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import net.citizensnpcs.api.CitizensAPI;
 import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.npc.NPCRegistry;
@@ -1182,23 +1184,11 @@ public class ServerTagBase extends PseudoObjectTagBase<ServerTagBase> {
         // input 'bobb' returns player object for 'bobby', and input 'b' returns player object for 'bo'.
         // -->
         tagProcessor.registerTag(PlayerTag.class, ElementTag.class, "match_player", (attribute, object, input) -> {
-            Player matchPlayer = null;
             String matchInput = input.asLowerString();
             if (matchInput.isEmpty()) {
                 return null;
             }
-            for (Player player : Bukkit.getOnlinePlayers()) {
-                String nameLow = CoreUtilities.toLowerCase(player.getName());
-                if (nameLow.equals(matchInput)) {
-                    matchPlayer = player;
-                    break;
-                }
-                else if (nameLow.contains(matchInput)) {
-                    if (matchPlayer == null || nameLow.startsWith(matchInput)) {
-                        matchPlayer = player;
-                    }
-                }
-            }
+            Player matchPlayer = PlayerNameIndex.matchOnlinePlayer(matchInput);
             return matchPlayer != null ? new PlayerTag(matchPlayer) : null;
         });
 
@@ -1209,34 +1199,16 @@ public class ServerTagBase extends PseudoObjectTagBase<ServerTagBase> {
         // Returns any player (online or offline) that best matches the input name.
         // EG, in a group of 'bo', 'bob', and 'bobby'... input 'bob' returns player object for 'bob',
         // input 'bobb' returns player object for 'bobby', and input 'b' returns player object for 'bo'.
+        // Names that start with the input are preferred over names that merely contain it, and shorter names are preferred over longer ones.
         // When both an online player and an offline player match the name search, the online player will be returned.
         // -->
         tagProcessor.registerTag(PlayerTag.class, ElementTag.class, "match_offline_player", (attribute, object, input) -> {
-            PlayerTag matchPlayer = null;
             String matchInput = input.asLowerString();
             if (matchInput.isEmpty()) {
                 return null;
             }
-            for (Map.Entry<String, UUID> entry : PlayerTag.getAllPlayers().entrySet()) {
-                String nameLow = CoreUtilities.toLowerCase(entry.getKey());
-                if (nameLow.equals(matchInput)) {
-                    matchPlayer = new PlayerTag(entry.getValue());
-                    break;
-                }
-                else if (nameLow.contains(matchInput)) {
-                    PlayerTag newMatch = new PlayerTag(entry.getValue());
-                    if (matchPlayer == null) {
-                        matchPlayer = newMatch;
-                    }
-                    else if (newMatch.isOnline() && !matchPlayer.isOnline()) {
-                        matchPlayer = newMatch;
-                    }
-                    else if (nameLow.startsWith(matchInput) && (newMatch.isOnline() == matchPlayer.isOnline())) {
-                        matchPlayer = newMatch;
-                    }
-                }
-            }
-            return matchPlayer;
+            UUID matchPlayer = PlayerNameIndex.matchPlayer(matchInput);
+            return matchPlayer != null ? new PlayerTag(matchPlayer) : null;
         });
 
         // <--[tag]
@@ -1269,7 +1241,8 @@ public class ServerTagBase extends PseudoObjectTagBase<ServerTagBase> {
         // @returns ListTag(PlayerTag)
         // @description
         // Returns a list of all players (online or offline) with a specified flag set.
-        // Warning: this will cause the player flag cache to temporarily fill with ALL historical playerdata.
+        // This is answered from an index of which players hold which flags, so only players that hold the flag have their flags loaded (and only when checking a sub-flag, like "my_flag.sub_key").
+        // While the index is being built (shortly after startup, if the server previously shut down uncleanly), this will instead cause the player flag cache to temporarily fill with ALL historical playerdata.
         // Can use "!<flag_name>" style to only return players *without* the flag.
         // -->
         tagProcessor.registerTag(ListTag.class, ElementTag.class, "players_flagged", (attribute, object, input) -> {
@@ -1281,6 +1254,9 @@ public class ServerTagBase extends PseudoObjectTagBase<ServerTagBase> {
                 want = false;
                 flag = flag.substring(1);
             }
+            if (PlayerFlagIndex.ready) {
+                return PlayerFlagIndex.getPlayersFlagged(flag, want);
+            }
             for (UUID playerId : PlayerTag.getAllPlayers().values()) {
                 PlayerTag player = new PlayerTag(playerId);
                 if (player.getFlagTracker().hasFlag(flag) == want) {
@@ -1603,6 +1579,38 @@ public class ServerTagBase extends PseudoObjectTagBase<ServerTagBase> {
             return recentTPS;
         });
 
+        // <--[tag]
+        // @attribute <server.packet_handler_timings>
+        // @returns MapTag
+        // @description
+        // Returns a map of each internal outgoing packet handler (named like "fake_blocks/ClientboundBlockUpdatePacket")
+        // to a map of 'calls', 'total_nanos', and 'average_nanos', counted since server start.
+        // Handlers are skipped (and not counted) while their feature isn't in use.
+        // Only available on 1.20 and above.
+        // -->
+        tagProcessor.registerTag(MapTag.class, "packet_handler_timings", (attribute, object) -> {
+            return NMSHandler.packetHelper.getPacketHandlerTimings();
+        });
+
+        // <--[tag]
+        // @attribute <server.attachment_stats>
+        // @returns MapTag
+        // @description
+        // Returns a map of statistics about entity attachments (from <@link command attach>):
+        // 'active' is the number of attachments currently registered,
+        // 'last_tick_nanos' is how long the most recent attachment tick took,
+        // and 'average_tick_nanos' is the average tick time since server start.
+        // This covers the per-tick processing (validity checks, forced resyncs, and server sync), not the packet rewriting - see <@link tag server.packet_handler_timings> for that.
+        // -->
+        tagProcessor.registerTag(MapTag.class, "attachment_stats", (attribute, object) -> {
+            MapTag result = new MapTag();
+            result.putObject("active", new ElementTag(EntityAttachmentHelper.activeAttachments.size()));
+            result.putObject("last_tick_nanos", new ElementTag(EntityAttachmentHelper.lastTickNanos));
+            long ticksRun = EntityAttachmentHelper.ticksRun.sum();
+            result.putObject("average_tick_nanos", new ElementTag(ticksRun == 0 ? 0 : EntityAttachmentHelper.totalTickNanos.sum() / ticksRun));
+            return result;
+        });
+
         // <--[tag]
         // @attribute <server.port>
         // @returns ElementTag(Number)
@@ -1797,22 +1805,42 @@ public class ServerTagBase extends PseudoObjectTagBase<ServerTagBase> {
         // @returns MapTag
         // @description
         // Generates a report about noted area tracking.
+        // Each world has keys 'size' (areas in the tree), 'pending' (areas not yet placed in the tree), 'depth' (tree depth), and 'tree' (nested maps of node bounds and children).
         // This tag is strictly for internal debugging reasons.
         // -->
         tagProcessor.registerTag(MapTag.class, "area_notes_debug", (attribute, object) -> {
             MapTag worlds = new MapTag();
             for (Map.Entry<String, NotedAreaTracker.PerWorldSet> set : NotedAreaTracker.worlds.entrySet()) {
                 MapTag worldData = new MapTag();
-                worldData.putObject("global", new ListTag(set.getValue().globalSet.list, trackedArea -> trackedArea.area));
-                worldData.putObject("x50", areaNotesDebug(set.getValue().sets50));
-                worldData.putObject("x50_offset", areaNotesDebug(set.getValue().sets50_offset));
-                worldData.putObject("x200", areaNotesDebug(set.getValue().sets200));
-                worldData.putObject("x200_offset", areaNotesDebug(set.getValue().sets200_offset));
+                worldData.putObject("size", new ElementTag(set.getValue().size));
+                worldData.putObject("pending", new ListTag(set.getValue().pending, trackedArea -> trackedArea.area));
+                worldData.putObject("depth", new ElementTag(set.getValue().depth()));
+                worldData.putObject("tree", areaNotesDebug(set.getValue().root));
                 worlds.putObject(set.getKey(), worldData);
             }
             return worlds;
         });
 
+        // <--[tag]
+        // @attribute <server.player_flag_cache_stats>
+        // @returns MapTag
+        // @description
+        // Generates a report about the player flag cache.
+        // Keys are 'size', 'max_size', 'hits', 'misses', 'loads', 'load_time' (the total time spent loading flag files, as a DurationTag), and 'evictions'.
+        // This tag is strictly for internal debugging reasons.
+        // -->
+        tagProcessor.registerTag(MapTag.class, "player_flag_cache_stats", (attribute, object) -> {
+            MapTag stats = new MapTag();
+            stats.putObject("size", new ElementTag(PlayerFlagHandler.playerFlagTrackerCache.size()));
+            stats.putObject("max_size", new ElementTag(PlayerFlagHandler.cacheMaxSize));
+            stats.putObject("hits", new ElementTag(PlayerFlagHandler.cacheHits.get()));
+            stats.putObject("misses", new ElementTag(PlayerFlagHandler.cacheMisses.get()));
+            stats.putObject("loads", new ElementTag(PlayerFlagHandler.cacheLoads.get()));
+            stats.putObject("load_time", new DurationTag(PlayerFlagHandler.cacheLoadNanos.get() / 1_000_000_000.0));
+            stats.putObject("evictions", new ElementTag(PlayerFlagHandler.cacheEvictions.get()));
+            return stats;
+        });
+
         // <--[mechanism]
         // @object server
         // @name clean_flags
@@ -2307,19 +2335,12 @@ public class ServerTagBase extends PseudoObjectTagBase<ServerTagBase> {
         tagProcessor.registerTag(ListTag.class, ElementTag.class, "npcs_flagged", (attribute, object, input) -> {
             listDeprecateWarn(attribute);
             String flag = input.asString();
-            ListTag npcs = new ListTag();
             boolean want = true;
             if (flag.startsWith("!")) {
                 want = false;
                 flag = flag.substring(1);
             }
-            for (NPC npc : CitizensAPI.getNPCRegistry()) {
-                NPCTag npcTag = new NPCTag(npc);
-                if (npcTag.hasFlag(flag) == want) {
-                    npcs.addObject(npcTag);
-                }
-            }
-            return npcs;
+            return NPCFlagIndex.getNPCsFlagged(flag, want);
         }, "list_npcs_flagged");
 
         // <--[tag]
@@ -2399,11 +2420,19 @@ public class ServerTagBase extends PseudoObjectTagBase<ServerTagBase> {
         }, deprecatedVariants);
     }
 
-    private static MapTag areaNotesDebug(Int2ObjectOpenHashMap<NotedAreaTracker.AreaSet> set) {
+    private static MapTag areaNotesDebug(NotedAreaTracker.Node node) {
         MapTag out = new MapTag();
-        for (Int2ObjectMap.Entry<NotedAreaTracker.AreaSet> pair : set.int2ObjectEntrySet()) {
-            out.putObject(String.valueOf(pair.getIntKey()), new ListTag(pair.getValue().list, trackedArea -> trackedArea.area));
+        out.putObject("bounds", new ElementTag(node.lowX + "," + node.lowY + "," + node.lowZ + " -> " + node.highX + "," + node.highY + "," + node.highZ));
+        ListTag children = new ListTag(node.children.size());
+        for (NotedAreaTracker.Box child : node.children) {
+            if (node.isLeaf) {
+                children.addObject(((NotedAreaTracker.TrackedArea) child).area);
+            }
+            else {
+                children.addObject(areaNotesDebug((NotedAreaTracker.Node) child));
+            }
         }
+        out.putObject(node.isLeaf ? "areas" : "nodes", children);
         return out;
     }
 
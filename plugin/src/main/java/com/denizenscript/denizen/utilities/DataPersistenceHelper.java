@@ -6,13 +6,22 @@ import com.denizenscript.denizencore.utilities.debugging.Debug;
 import com.denizenscript.denizencore.objects.ObjectFetcher;
 import com.denizenscript.denizencore.objects.ObjectTag;
 import com.denizenscript.denizencore.utilities.CoreUtilities;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.NamespacedKey;
 import org.bukkit.entity.Entity;
 import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
 import org.bukkit.persistence.PersistentDataHolder;
 import org.bukkit.persistence.PersistentDataType;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * Helper class for PersistentDataContainers.
@@ -43,12 +52,187 @@ public class DataPersistenceHelper {
 
     public static final DenizenObjectType PERSISTER_TYPE = new DenizenObjectType();
 
+    public static class CachedValue {
+
+        /**
+         * The raw NMS tag the value was decoded from (or written as), used to detect changes made outside of this helper.
+         */
+        public Object raw;
+
+        public ObjectTag value;
+
+        /**
+         * If true, 'value' has not been written to the container yet.
+         */
+        public boolean pendingWrite;
+    }
+
+    /**
+     * The cached values of a single holder, keyed by a stable identity (see getHolderKey), along with the most recent holder instance seen for that identity.
+     */
+    public static class HolderCache {
+
+        public PersistentDataHolder holder;
+
+        public HashMap<String, CachedValue> values = new HashMap<>();
+    }
+
+    public static final int MAX_CACHED_HOLDERS = 4096;
+
+    /**
+     * Decoded values, per holder, per key name. Bounded to the most recently used holders: any holder dropped from the cache has its pending writes written first.
+     * Only used from the main thread.
+     */
+    public static LinkedHashMap<Object, HolderCache> decodedCache = new LinkedHashMap<Object, HolderCache>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, HolderCache> eldest) {
+            if (size() <= MAX_CACHED_HOLDERS) {
+                return false;
+            }
+            HolderCache pending = pendingWrites.remove(eldest.getKey());
+            if (pending != null) {
+                writePending(pending);
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Holders with values that have been changed in the cache but not yet written to their container.
+     */
+    public static HashMap<Object, HolderCache> pendingWrites = new HashMap<>();
+
+    public static boolean deferWrites = false;
+
+    public static boolean flushScheduled = false;
+
+    /**
+     * Small per-world IDs, so a chunk's world and coordinates can be packed into a single long.
+     */
+    public static Object2IntOpenHashMap<UUID> worldIds = new Object2IntOpenHashMap<>();
+
+    static {
+        worldIds.defaultReturnValue(-1);
+    }
+
+    /**
+     * Returns a key that identifies the holder across wrapper instances: Bukkit creates a new chunk object for every lookup, so chunks are keyed by their world and coordinates packed into a long, and entities by their UUID.
+     */
+    public static Object getHolderKey(PersistentDataHolder holder) {
+        if (holder instanceof Entity) {
+            return ((Entity) holder).getUniqueId();
+        }
+        if (holder instanceof Chunk) {
+            Chunk chunk = (Chunk) holder;
+            UUID worldUUID = chunk.getWorld().getUID();
+            long worldId = worldIds.getInt(worldUUID);
+            if (worldId == -1) {
+                worldId = worldIds.size();
+                worldIds.put(worldUUID, (int) worldId);
+            }
+            return (worldId << 48) | ((chunk.getX() & 0xFFFFFFL) << 24) | (chunk.getZ() & 0xFFFFFFL);
+        }
+        return holder;
+    }
+
+    public static HolderCache getCacheFor(PersistentDataHolder holder, boolean create) {
+        if (!Bukkit.isPrimaryThread()) {
+            return null;
+        }
+        Object key = getHolderKey(holder);
+        HolderCache cache = decodedCache.get(key);
+        if (cache == null) {
+            if (!create) {
+                return null;
+            }
+            cache = new HolderCache();
+            decodedCache.put(key, cache);
+        }
+        cache.holder = holder;
+        return cache;
+    }
+
+    public static void writePending(HolderCache holderCache) {
+        PersistentDataContainer container = holderCache.holder.getPersistentDataContainer();
+        for (Map.Entry<String, CachedValue> entry : holderCache.values.entrySet()) {
+            CachedValue cached = entry.getValue();
+            if (!cached.pendingWrite) {
+                continue;
+            }
+            container.set(new NamespacedKey(Denizen.getInstance(), entry.getKey()), PERSISTER_TYPE, cached.value);
+            cached.raw = NMSHandler.instance.containerGetRaw(container, "denizen:" + entry.getKey());
+            cached.pendingWrite = false;
+        }
+    }
+
+    public static void flushPendingWrites() {
+        flushScheduled = false;
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+        ArrayList<HolderCache> toWrite = new ArrayList<>(pendingWrites.values());
+        pendingWrites.clear();
+        for (HolderCache holderCache : toWrite) {
+            writePending(holderCache);
+        }
+    }
+
     public static void removeDenizenKey(PersistentDataHolder holder, String keyName) {
+        HolderCache cache = getCacheFor(holder, false);
+        if (cache != null) {
+            CachedValue cached = cache.values.remove(keyName);
+            if (cached != null) {
+                // Make sure a deferred write can't put the removed key back
+                cached.pendingWrite = false;
+            }
+        }
         holder.getPersistentDataContainer().remove(new NamespacedKey(Denizen.getInstance(), keyName));
     }
 
     public static void setDenizenKey(PersistentDataHolder holder, String keyName, ObjectTag keyValue) {
+        setDenizenKey(holder, keyName, keyValue, false);
+    }
+
+    /**
+     * Sets the key. If 'shared' is true, the given instance is cached as-is rather than copied, so the caller must not modify it afterward without setting it again.
+     */
+    public static void setDenizenKey(PersistentDataHolder holder, String keyName, ObjectTag keyValue, boolean shared) {
+        HolderCache cache = getCacheFor(holder, true);
+        if (cache == null) {
+            holder.getPersistentDataContainer().set(new NamespacedKey(Denizen.getInstance(), keyName), PERSISTER_TYPE, keyValue);
+            return;
+        }
+        CachedValue cached = cache.values.computeIfAbsent(keyName, k -> new CachedValue());
+        cached.value = shared ? keyValue : keyValue.duplicate();
+        cached.pendingWrite = false;
         holder.getPersistentDataContainer().set(new NamespacedKey(Denizen.getInstance(), keyName), PERSISTER_TYPE, keyValue);
+        cached.raw = NMSHandler.instance.containerGetRaw(holder.getPersistentDataContainer(), "denizen:" + keyName);
+    }
+
+    /**
+     * Like setDenizenKey, but when enabled in config and the key already exists, only updates the cache and writes the value to the container at the end of the tick.
+     * This way a value that is changed many times in a tick is only stringified once.
+     * Keys that don't exist yet are always written immediately, so that key listings stay accurate.
+     * See setDenizenKey for 'shared'.
+     */
+    public static void setDenizenKeyDeferred(PersistentDataHolder holder, String keyName, ObjectTag keyValue, boolean shared) {
+        if (!deferWrites) {
+            setDenizenKey(holder, keyName, keyValue, shared);
+            return;
+        }
+        HolderCache cache = getCacheFor(holder, true);
+        if (cache == null || !hasDenizenKey(holder, keyName)) {
+            setDenizenKey(holder, keyName, keyValue, shared);
+            return;
+        }
+        CachedValue cached = cache.values.computeIfAbsent(keyName, k -> new CachedValue());
+        cached.value = shared ? keyValue : keyValue.duplicate();
+        cached.pendingWrite = true;
+        pendingWrites.put(getHolderKey(holder), cache);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            Bukkit.getScheduler().runTask(Denizen.getInstance(), DataPersistenceHelper::flushPendingWrites);
+        }
     }
 
     public static boolean hasDenizenKey(PersistentDataHolder holder, String keyName) {
@@ -56,12 +240,43 @@ public class DataPersistenceHelper {
     }
 
     public static ObjectTag getDenizenKey(PersistentDataHolder holder, String keyName) {
+        return getDenizenKey(holder, keyName, false);
+    }
+
+    /**
+     * Gets the key's value. If 'shared' is true, the cached instance itself is returned rather than a copy.
+     * Only for callers that always write any change back through setDenizenKey (like the flag tracker), as the cache would otherwise be out of sync with the container.
+     */
+    public static ObjectTag getDenizenKey(PersistentDataHolder holder, String keyName, boolean shared) {
         try {
-            String str = NMSHandler.instance.containerGetString(holder.getPersistentDataContainer(), "denizen:" + keyName);
+            HolderCache cache = getCacheFor(holder, true);
+            CachedValue cached = cache == null ? null : cache.values.get(keyName);
+            if (cached != null && cached.pendingWrite) {
+                return shared ? cached.value : cached.value.duplicate();
+            }
+            PersistentDataContainer container = holder.getPersistentDataContainer();
+            String fullKey = "denizen:" + keyName;
+            Object raw = cache == null ? null : NMSHandler.instance.containerGetRaw(container, fullKey);
+            if (cached != null && raw != null && cached.raw == raw) {
+                return shared ? cached.value : cached.value.duplicate();
+            }
+            String str = NMSHandler.instance.containerGetString(container, fullKey);
             if (str == null) {
+                if (cached != null) {
+                    cache.values.remove(keyName);
+                }
                 return null;
             }
-            return ObjectFetcher.pickObjectFor(str, CoreUtilities.noDebugContext);
+            ObjectTag value = ObjectFetcher.pickObjectFor(str, CoreUtilities.noDebugContext);
+            if (cache != null && raw != null) {
+                if (cached == null) {
+                    cached = new CachedValue();
+                    cache.values.put(keyName, cached);
+                }
+                cached.raw = raw;
+                cached.value = shared ? value : value.duplicate();
+            }
+            return value;
         }
         catch (IllegalArgumentException ex) {
             if (holder instanceof Entity) {
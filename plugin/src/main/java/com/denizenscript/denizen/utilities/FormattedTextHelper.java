@@ -15,7 +15,10 @@ import net.md_5.bungee.api.chat.*;
 import net.md_5.bungee.api.chat.hover.content.*;
 import net.md_5.bungee.chat.*;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 public class FormattedTextHelper {
 
@@ -429,12 +432,108 @@ public class FormattedTextHelper {
         return new BaseComponent[] { root };
     }
 
+    public static class ParseKey {
+
+        public String text;
+
+        public ChatColor baseColor;
+
+        public boolean cleanBase;
+
+        public ParseKey(String text, ChatColor baseColor, boolean cleanBase) {
+            this.text = text;
+            this.baseColor = baseColor;
+            this.cleanBase = cleanBase;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ParseKey)) {
+                return false;
+            }
+            ParseKey key = (ParseKey) other;
+            return cleanBase == key.cleanBase && text.equals(key.text) && Objects.equals(baseColor, key.baseColor);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode() * 31 + (cleanBase ? 1 : 0);
+        }
+    }
+
+    public static final int MAX_CACHED_PARSES = 1024, MAX_CACHED_PARSE_LENGTH = 2048;
+
+    /**
+     * Recently parsed text, as the same formatted messages tend to be sent over and over.
+     * Cached components are never handed out directly, as callers may modify them - see 'parse'.
+     * Synchronized on itself, as text can be parsed off the main thread (eg in async chat).
+     */
+    public static final LinkedHashMap<ParseKey, BaseComponent[]> parseCache = new LinkedHashMap<ParseKey, BaseComponent[]>(128, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ParseKey, BaseComponent[]> eldest) {
+            return size() > MAX_CACHED_PARSES;
+        }
+    };
+
+    /**
+     * Recently converted formatted text to JSON. Strings are immutable, so these are returned directly. Synchronized on itself.
+     */
+    public static final LinkedHashMap<ParseKey, String> jsonCache = new LinkedHashMap<ParseKey, String>(128, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ParseKey, String> eldest) {
+            return size() > MAX_CACHED_PARSES;
+        }
+    };
+
+    /**
+     * Returns true if the text is plain enough that parsing it is cheaper than a cache lookup.
+     */
+    public static boolean isPlainText(String str) {
+        return str.indexOf(ChatColor.COLOR_CHAR) == -1 && !str.contains("://");
+    }
+
+    public static BaseComponent[] duplicate(BaseComponent[] components) {
+        BaseComponent[] result = new BaseComponent[components.length];
+        for (int i = 0; i < components.length; i++) {
+            result[i] = components[i].duplicate();
+        }
+        return result;
+    }
+
+    public static void clearCache() {
+        synchronized (parseCache) {
+            parseCache.clear();
+        }
+        synchronized (jsonCache) {
+            jsonCache.clear();
+        }
+    }
+
     public static BaseComponent[] parse(String str, ChatColor baseColor, boolean cleanBase) {
         if (str == null) {
             return null;
         }
+        boolean cacheable = str.length() <= MAX_CACHED_PARSE_LENGTH && !isPlainText(str);
+        ParseKey key = null;
+        if (cacheable) {
+            key = new ParseKey(str, baseColor, cleanBase);
+            BaseComponent[] cached;
+            synchronized (parseCache) {
+                cached = parseCache.get(key);
+            }
+            if (cached != null) {
+                return duplicate(cached);
+            }
+        }
         try {
-            return parseInternal(str, baseColor, cleanBase, false);
+            BaseComponent[] result = parseInternal(str, baseColor, cleanBase, false);
+            if (cacheable) {
+                BaseComponent[] copy = duplicate(result);
+                synchronized (parseCache) {
+                    parseCache.put(key, copy);
+                }
+            }
+            return result;
         }
         catch (Throwable ex) {
             Debug.echoError(ex);
@@ -442,6 +541,34 @@ public class FormattedTextHelper {
         return new BaseComponent[]{new TextComponent(str)};
     }
 
+    /**
+     * Equivalent to 'componentToJson(parse(str, baseColor, cleanBase))', but caches the resultant JSON.
+     */
+    public static String parseToJson(String str, ChatColor baseColor, boolean cleanBase) {
+        if (str == null) {
+            return null;
+        }
+        if (str.length() > MAX_CACHED_PARSE_LENGTH) {
+            return componentToJson(parse(str, baseColor, cleanBase));
+        }
+        ParseKey key = new ParseKey(str, baseColor, cleanBase);
+        String result;
+        synchronized (jsonCache) {
+            result = jsonCache.get(key);
+        }
+        if (result == null) {
+            result = componentToJson(parse(str, baseColor, cleanBase));
+            synchronized (jsonCache) {
+                jsonCache.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    public static String parseToJson(String str, ChatColor baseColor) {
+        return parseToJson(str, baseColor, true);
+    }
+
     public static BaseComponent[] parseInternal(String str, ChatColor baseColor, boolean cleanBase, boolean optimize) {
         str = CoreUtilities.clearNBSPs(str);
         int firstChar = str.indexOf(ChatColor.COLOR_CHAR);
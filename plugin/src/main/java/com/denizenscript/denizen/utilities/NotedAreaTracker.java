@@ -4,44 +4,80 @@ import com.denizenscript.denizen.objects.AreaContainmentObject;
 import com.denizenscript.denizen.objects.CuboidTag;
 import com.denizenscript.denizen.objects.LocationTag;
 import com.denizenscript.denizencore.utilities.CoreUtilities;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 
 /**
- * Special helper class that tracks noted areas in a way that allows for very rapid "get all areas containing" checks, within the confines of the scales that Minecraft normally operates at.
- * This divides all notes first into one distinct set per world, and then within worlds it will sub-divide into 5 sets:
- * The "global" set, a 50x50 set, a 200x200 set, and both those sets again but with a half-width offset.
- * Any area that fits within a 50x50 grid gets added to the 50x50 grid... any area below 50x50 in scale that doesn't fit the grid will likely fit the offset grid instead.
- * If the 50x50 grids can't be fit, the 200x200 grids are tried. If those fail, the global set is used.
- * Note that vertical position (Y coordinate) is entirely ignored.
- * Because most noted areas are likely to fit into one of these grids, any lookups can confine themselves to only looking at the Areas defined within the same grid cell.
+ * Special helper class that tracks noted areas in a way that allows for very rapid "get all areas containing" checks.
+ * This divides all notes first into one distinct set per world, and then within each world stores them in a 3D R-tree keyed by their block-aligned bounding boxes (including Y).
+ * Lookups only descend into tree nodes whose bounds contain the location, so large, overlapping, or vertically stacked areas stay cheap to check regardless of scale.
+ * Areas added in bulk (eg when notes load) are held aside and then packed into the tree at once (Sort-Tile-Recursive) on the next lookup, while individual notes/unnotes are inserted/removed incrementally.
  * This uses multiple layers of imperfect checks before doing the final exact-containment check, as the imperfect checks are significantly faster to run, especially for complex area shapes like polygons.
  */
 public class NotedAreaTracker {
 
-    public static final class TrackedArea {
+    public static final int MAX_CHILDREN = 16, MIN_CHILDREN = 6;
+
+    /**
+     * A block-aligned 3D box, inclusive on both ends.
+     */
+    public static abstract class Box {
+
+        public int lowX, lowY, lowZ, highX, highY, highZ;
+
+        public final boolean contains(int x, int y, int z) {
+            return x >= lowX && x <= highX && y >= lowY && y <= highY && z >= lowZ && z <= highZ;
+        }
+
+        public final boolean intersects(int lowX, int lowY, int lowZ, int highX, int highY, int highZ) {
+            return lowX <= this.highX && highX >= this.lowX && lowY <= this.highY && highY >= this.lowY && lowZ <= this.highZ && highZ >= this.lowZ;
+        }
+
+        public final boolean containsBox(Box other) {
+            return other.lowX >= lowX && other.highX <= highX && other.lowY >= lowY && other.highY <= highY && other.lowZ >= lowZ && other.highZ <= highZ;
+        }
+
+        public final double volume() {
+            return (highX - lowX + 1.0) * (highY - lowY + 1.0) * (highZ - lowZ + 1.0);
+        }
+
+        public final double volumeIncluding(Box other) {
+            return (Math.max(highX, other.highX) - Math.min(lowX, other.lowX) + 1.0)
+                    * (Math.max(highY, other.highY) - Math.min(lowY, other.lowY) + 1.0)
+                    * (Math.max(highZ, other.highZ) - Math.min(lowZ, other.lowZ) + 1.0);
+        }
+
+        public final void expandToInclude(Box other) {
+            lowX = Math.min(lowX, other.lowX);
+            lowY = Math.min(lowY, other.lowY);
+            lowZ = Math.min(lowZ, other.lowZ);
+            highX = Math.max(highX, other.highX);
+            highY = Math.max(highY, other.highY);
+            highZ = Math.max(highZ, other.highZ);
+        }
+    }
+
+    public static final class TrackedArea extends Box {
 
         public TrackedArea(AreaContainmentObject area) {
             CuboidTag boundary = area.getCuboidBoundary();
             LocationTag low = boundary.getLow(0), high = boundary.getHigh(0);
             this.area = area;
             lowX = low.getBlockX();
+            lowY = low.getBlockY();
             lowZ = low.getBlockZ();
             highX = high.getBlockX();
+            highY = high.getBlockY();
             highZ = high.getBlockZ();
         }
 
         public final AreaContainmentObject area;
 
-        public final int lowX, lowZ, highX, highZ;
-
-        public boolean mightContain(int x, int z) {
-            return x >= lowX && x <= highX && z >= lowZ && z <= highZ;
-        }
-
         @Override
         public int hashCode() {
             return area.hashCode();
@@ -53,87 +89,364 @@ public class NotedAreaTracker {
                 return false;
             }
             TrackedArea compareTo = (TrackedArea) other;
-            return lowX == compareTo.lowX && lowZ == compareTo.lowZ && highX == compareTo.highX && highZ == compareTo.highZ && area.equals(compareTo.area);
+            return lowX == compareTo.lowX && lowY == compareTo.lowY && lowZ == compareTo.lowZ && highX == compareTo.highX && highY == compareTo.highY && highZ == compareTo.highZ && area.equals(compareTo.area);
         }
     }
 
-    public static final class AreaSet {
+    /**
+     * A node of the R-tree. Children are TrackedAreas for leaf nodes, or other Nodes otherwise.
+     */
+    public static final class Node extends Box {
 
-        public AreaSet(int type, int index) {
-            this.type = type;
-            this.index = index;
+        public Node(boolean isLeaf) {
+            this.isLeaf = isLeaf;
+            clearBounds();
         }
 
-        public final ArrayList<TrackedArea> list = new ArrayList<>();
+        public final boolean isLeaf;
 
-        public final int index;
+        public Node parent;
 
-        public final int type;
+        public final ArrayList<Box> children = new ArrayList<>(MAX_CHILDREN + 1);
 
-        public boolean isEmpty() {
-            return list.isEmpty();
+        public void clearBounds() {
+            lowX = lowY = lowZ = Integer.MAX_VALUE;
+            highX = highY = highZ = Integer.MIN_VALUE;
+        }
+
+        public void recalculate() {
+            clearBounds();
+            for (int i = 0; i < children.size(); i++) {
+                expandToInclude(children.get(i));
+            }
+        }
+
+        public void addChild(Box child) {
+            children.add(child);
+            if (!isLeaf) {
+                ((Node) child).parent = this;
+            }
+            expandToInclude(child);
         }
     }
 
     public static final class PerWorldSet {
 
-        public final AreaSet globalSet = new AreaSet(0, 0);
+        public Node root = new Node(true);
+
+        public int size = 0;
 
-        public final Int2ObjectOpenHashMap<AreaSet> sets50 = new Int2ObjectOpenHashMap<>(), sets50_offset = new Int2ObjectOpenHashMap<>(), sets200 = new Int2ObjectOpenHashMap<>(), sets200_offset = new Int2ObjectOpenHashMap<>();
+        /**
+         * Areas added since the last lookup, not yet placed in the tree.
+         */
+        public final ArrayList<TrackedArea> pending = new ArrayList<>();
 
-        public static boolean doesFit(TrackedArea area, int scale, int offset) {
-            int lowX = (area.lowX + offset) / scale, lowZ = (area.lowZ + offset) / scale, highX = (area.highX + offset) / scale, highZ = (area.highZ + offset) / scale;
-            return lowX == highX && lowZ == highZ;
+        public boolean isEmpty() {
+            return size == 0 && pending.isEmpty();
         }
 
-        public static int getIndex(int x, int z, int scale, int offset) {
-            // Index is unique "enough", these lists don't need to be perfect, and an int key is significantly faster than constructing an exact coordinate object.
-            int cleanX = (x + offset) / scale, cleanZ = (z + offset) / scale;
-            return cleanX + (cleanZ << 16);
+        public void add(TrackedArea area) {
+            pending.add(area);
         }
 
-        public AreaSet getOrGenSetFor(Int2ObjectOpenHashMap<AreaSet> sets, int type, TrackedArea area, int scale, int offset, boolean generate) {
-            int index = getIndex(area.lowX, area.lowZ, scale, offset);
-            AreaSet set = sets.get(index);
-            if (set == null && generate) {
-                set = new AreaSet(type, index);
-                sets.put(index, set);
+        public boolean remove(TrackedArea area) {
+            if (pending.remove(area)) {
+                return true;
+            }
+            Node leaf = findLeaf(root, area);
+            if (leaf == null) {
+                return false;
+            }
+            leaf.children.remove(area);
+            size--;
+            condenseTree(leaf);
+            if (!root.isLeaf && root.children.size() == 1) {
+                root = (Node) root.children.get(0);
+                root.parent = null;
             }
-            return set;
+            return true;
         }
 
-        public AreaSet bestSetFor(TrackedArea area, boolean generate) {
-            if (doesFit(area, 50, 0)) {
-                return getOrGenSetFor(sets50, 1, area, 50, 0, generate);
+        /**
+         * Places any pending areas into the tree, either incrementally or by rebuilding the whole tree when the pending set is large.
+         */
+        public void flushPending() {
+            if (pending.isEmpty()) {
+                return;
             }
-            else if (doesFit(area, 50, 25)) {
-                return getOrGenSetFor(sets50_offset, 2, area, 50, 25, generate);
+            if (pending.size() > size) {
+                ArrayList<TrackedArea> all = new ArrayList<>(size + pending.size());
+                collectAreas(root, all);
+                all.addAll(pending);
+                pending.clear();
+                bulkLoad(all);
+                return;
             }
-            else if (doesFit(area, 200, 0)) {
-                return getOrGenSetFor(sets200, 3, area, 200, 0, generate);
+            for (TrackedArea area : pending) {
+                insert(area);
             }
-            else if (doesFit(area, 200, 100)) {
-                return getOrGenSetFor(sets200_offset, 4, area, 200, 100, generate);
+            pending.clear();
+        }
+
+        public void insert(TrackedArea area) {
+            Node leaf = chooseLeaf(area);
+            leaf.addChild(area);
+            size++;
+            adjustTree(leaf, leaf.children.size() > MAX_CHILDREN ? split(leaf) : null);
+        }
+
+        public Node chooseLeaf(Box box) {
+            Node node = root;
+            while (!node.isLeaf) {
+                Node best = null;
+                double bestEnlargement = Double.MAX_VALUE, bestVolume = Double.MAX_VALUE;
+                for (int i = 0; i < node.children.size(); i++) {
+                    Node child = (Node) node.children.get(i);
+                    double volume = child.volume();
+                    double enlargement = child.volumeIncluding(box) - volume;
+                    if (enlargement < bestEnlargement || (enlargement == bestEnlargement && volume < bestVolume)) {
+                        best = child;
+                        bestEnlargement = enlargement;
+                        bestVolume = volume;
+                    }
+                }
+                node = best;
             }
-            return globalSet;
+            return node;
         }
 
-        public boolean isEmpty() {
-            return globalSet.isEmpty() && sets50.isEmpty() && sets50_offset.isEmpty() && sets200.isEmpty() && sets200_offset.isEmpty();
+        public void adjustTree(Node node, Node sibling) {
+            while (true) {
+                node.recalculate();
+                Node parent = node.parent;
+                if (parent == null) {
+                    if (sibling != null) {
+                        Node newRoot = new Node(false);
+                        newRoot.addChild(node);
+                        newRoot.addChild(sibling);
+                        root = newRoot;
+                    }
+                    return;
+                }
+                if (sibling != null) {
+                    parent.addChild(sibling);
+                    sibling = parent.children.size() > MAX_CHILDREN ? split(parent) : null;
+                }
+                node = parent;
+            }
         }
 
-        public void remove(AreaSet set) {
-            switch (set.type) {
-                case 1: sets50.remove(set.index); break;
-                case 2: sets50_offset.remove(set.index); break;
-                case 3: sets200.remove(set.index); break;
-                case 4: sets200_offset.remove(set.index); break;
+        /**
+         * Quadratic split: moves roughly half of the node's children into a new sibling node, which is returned.
+         */
+        public Node split(Node node) {
+            ArrayList<Box> remaining = new ArrayList<>(node.children);
+            node.children.clear();
+            node.clearBounds();
+            Node sibling = new Node(node.isLeaf);
+            int seedA = 0, seedB = 1;
+            double worstWaste = -Double.MAX_VALUE;
+            for (int i = 0; i < remaining.size(); i++) {
+                Box a = remaining.get(i);
+                for (int j = i + 1; j < remaining.size(); j++) {
+                    Box b = remaining.get(j);
+                    double waste = a.volumeIncluding(b) - a.volume() - b.volume();
+                    if (waste > worstWaste) {
+                        worstWaste = waste;
+                        seedA = i;
+                        seedB = j;
+                    }
+                }
+            }
+            node.addChild(remaining.get(seedA));
+            sibling.addChild(remaining.get(seedB));
+            remaining.remove(seedB);
+            remaining.remove(seedA);
+            while (!remaining.isEmpty()) {
+                if (node.children.size() + remaining.size() == MIN_CHILDREN) {
+                    for (Box box : remaining) {
+                        node.addChild(box);
+                    }
+                    break;
+                }
+                if (sibling.children.size() + remaining.size() == MIN_CHILDREN) {
+                    for (Box box : remaining) {
+                        sibling.addChild(box);
+                    }
+                    break;
+                }
+                int bestIndex = 0;
+                double bestDifference = -1, growA = 0, growB = 0;
+                for (int i = 0; i < remaining.size(); i++) {
+                    Box box = remaining.get(i);
+                    double a = node.volumeIncluding(box) - node.volume(), b = sibling.volumeIncluding(box) - sibling.volume();
+                    if (Math.abs(a - b) > bestDifference) {
+                        bestDifference = Math.abs(a - b);
+                        bestIndex = i;
+                        growA = a;
+                        growB = b;
+                    }
+                }
+                Box box = remaining.remove(bestIndex);
+                boolean toNode = growA < growB || (growA == growB && (node.volume() < sibling.volume() || (node.volume() == sibling.volume() && node.children.size() <= sibling.children.size())));
+                (toNode ? node : sibling).addChild(box);
+            }
+            return sibling;
+        }
+
+        public static Node findLeaf(Node node, TrackedArea area) {
+            if (node.isLeaf) {
+                return node.children.contains(area) ? node : null;
+            }
+            for (int i = 0; i < node.children.size(); i++) {
+                Node child = (Node) node.children.get(i);
+                if (child.containsBox(area)) {
+                    Node result = findLeaf(child, area);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+            }
+            return null;
+        }
+
+        public void condenseTree(Node node) {
+            ArrayList<TrackedArea> orphans = new ArrayList<>();
+            while (node.parent != null) {
+                Node parent = node.parent;
+                if (node.children.size() < MIN_CHILDREN) {
+                    parent.children.remove(node);
+                    collectAreas(node, orphans);
+                }
+                else {
+                    node.recalculate();
+                }
+                node = parent;
+            }
+            node.recalculate();
+            if (!root.isLeaf && root.children.isEmpty()) {
+                root = new Node(true);
+            }
+            size -= orphans.size();
+            for (TrackedArea orphan : orphans) {
+                insert(orphan);
+            }
+        }
+
+        public static void collectAreas(Node node, List<TrackedArea> output) {
+            for (int i = 0; i < node.children.size(); i++) {
+                Box child = node.children.get(i);
+                if (node.isLeaf) {
+                    output.add((TrackedArea) child);
+                }
+                else {
+                    collectAreas((Node) child, output);
+                }
+            }
+        }
+
+        /**
+         * Replaces the tree with one packed from the given areas via Sort-Tile-Recursive.
+         */
+        public void bulkLoad(List<TrackedArea> areas) {
+            size = areas.size();
+            if (areas.isEmpty()) {
+                root = new Node(true);
+                return;
+            }
+            List<? extends Box> level = areas;
+            boolean isLeaf = true;
+            while (true) {
+                List<Node> nodes = packLevel(level, isLeaf);
+                if (nodes.size() == 1) {
+                    root = nodes.get(0);
+                    root.parent = null;
+                    return;
+                }
+                level = nodes;
+                isLeaf = false;
+            }
+        }
+
+        public static List<Node> packLevel(List<? extends Box> boxes, boolean isLeaf) {
+            ArrayList<Box> sorted = new ArrayList<>(boxes);
+            int nodeCount = (sorted.size() + MAX_CHILDREN - 1) / MAX_CHILDREN;
+            int slices = Math.max(1, (int) Math.ceil(Math.cbrt(nodeCount)));
+            ArrayList<Node> output = new ArrayList<>(nodeCount);
+            sorted.sort(Comparator.comparingLong(centerX));
+            int slabSize = (sorted.size() + slices - 1) / slices;
+            for (int slabStart = 0; slabStart < sorted.size(); slabStart += slabSize) {
+                List<Box> slab = sorted.subList(slabStart, Math.min(sorted.size(), slabStart + slabSize));
+                slab.sort(Comparator.comparingLong(centerY));
+                int stripSize = (slab.size() + slices - 1) / slices;
+                for (int stripStart = 0; stripStart < slab.size(); stripStart += stripSize) {
+                    List<Box> strip = slab.subList(stripStart, Math.min(slab.size(), stripStart + stripSize));
+                    strip.sort(Comparator.comparingLong(centerZ));
+                    for (int nodeStart = 0; nodeStart < strip.size(); nodeStart += MAX_CHILDREN) {
+                        Node node = new Node(isLeaf);
+                        for (int i = nodeStart; i < Math.min(strip.size(), nodeStart + MAX_CHILDREN); i++) {
+                            node.addChild(strip.get(i));
+                        }
+                        output.add(node);
+                    }
+                }
+            }
+            return output;
+        }
+
+        public static final ToLongFunction<Box> centerX = box -> (long) box.lowX + box.highX, centerY = box -> (long) box.lowY + box.highY, centerZ = box -> (long) box.lowZ + box.highZ;
+
+        public int depth() {
+            int depth = 1;
+            for (Node node = root; !node.isLeaf; node = (Node) node.children.get(0)) {
+                depth++;
+            }
+            return depth;
+        }
+
+        public static void forEachInNodeIntersecting(Node node, int lowX, int lowY, int lowZ, int highX, int highY, int highZ, Consumer<TrackedArea> action) {
+            ArrayList<Box> children = node.children;
+            for (int i = 0; i < children.size(); i++) {
+                Box child = children.get(i);
+                if (!child.intersects(lowX, lowY, lowZ, highX, highY, highZ)) {
+                    continue;
+                }
+                if (node.isLeaf) {
+                    action.accept((TrackedArea) child);
+                }
+                else {
+                    forEachInNodeIntersecting((Node) child, lowX, lowY, lowZ, highX, highY, highZ, action);
+                }
+            }
+        }
+
+        public static void forEachInNodeThatContains(Node node, int x, int y, int z, LocationTag location, Consumer<AreaContainmentObject> action) {
+            ArrayList<Box> children = node.children;
+            for (int i = 0; i < children.size(); i++) {
+                Box child = children.get(i);
+                if (!child.contains(x, y, z)) {
+                    continue;
+                }
+                if (node.isLeaf) {
+                    AreaContainmentObject area = ((TrackedArea) child).area;
+                    if (area.doesContainLocation(location)) {
+                        action.accept(area);
+                    }
+                }
+                else {
+                    forEachInNodeThatContains((Node) child, x, y, z, location, action);
+                }
             }
         }
     }
 
     public static HashMap<String, PerWorldSet> worlds = new HashMap<>();
 
+    /**
+     * Incremented whenever any area is added or removed, so that users can tell when results they cached may be outdated.
+     */
+    public static int modificationCount = 0;
+
     /**
      * Call to add an area into the tracker.
      */
@@ -144,9 +457,8 @@ public class NotedAreaTracker {
             set = new PerWorldSet();
             worlds.put(worldName, set);
         }
-        TrackedArea tracker = new TrackedArea(area);
-        AreaSet areaSet = set.bestSetFor(tracker, true);
-        areaSet.list.add(tracker);
+        set.add(new TrackedArea(area));
+        modificationCount++;
     }
 
     /**
@@ -158,44 +470,35 @@ public class NotedAreaTracker {
         if (set == null) {
             return;
         }
-        TrackedArea tracker = new TrackedArea(area);
-        AreaSet areaSet = set.bestSetFor(tracker, false);
-        if (areaSet == null) {
-            return;
-        }
-        areaSet.list.remove(tracker);
-        if (areaSet.isEmpty()) {
-            set.remove(areaSet);
-            if (set.isEmpty()) {
-                worlds.remove(worldName);
-            }
+        set.remove(new TrackedArea(area));
+        modificationCount++;
+        if (set.isEmpty()) {
+            worlds.remove(worldName);
         }
     }
 
-    public static void forEachAreaInSetThatContains(int x, int z, LocationTag location, AreaSet set, Consumer<AreaContainmentObject> action) {
+    /**
+     * Call to run an action over every Area that contains a given location.
+     */
+    public static void forEachAreaThatContains(LocationTag location, Consumer<AreaContainmentObject> action) {
+        PerWorldSet set = worlds.get(CoreUtilities.toLowerCase(location.getWorldName()));
         if (set == null) {
             return;
         }
-        for (TrackedArea area : set.list) {
-            if (area.mightContain(x, z) && area.area.doesContainLocation(location)) {
-                action.accept(area.area);
-            }
-        }
+        set.flushPending();
+        PerWorldSet.forEachInNodeThatContains(set.root, location.getBlockX(), location.getBlockY(), location.getBlockZ(), location, action);
     }
 
     /**
-     * Call to run an action over every Area that contains a given location.
+     * Call to run an action over every tracked area whose bounding box intersects the given block-aligned box (inclusive) in the given world.
+     * The action must still check exact containment itself.
      */
-    public static void forEachAreaThatContains(LocationTag location, Consumer<AreaContainmentObject> action) {
-        int x = location.getBlockX(), z = location.getBlockZ();
-        PerWorldSet set = worlds.get(CoreUtilities.toLowerCase(location.getWorldName()));
+    public static void forEachAreaIntersecting(String worldName, int lowX, int lowY, int lowZ, int highX, int highY, int highZ, Consumer<TrackedArea> action) {
+        PerWorldSet set = worlds.get(CoreUtilities.toLowerCase(worldName));
         if (set == null) {
             return;
         }
-        forEachAreaInSetThatContains(x, z, location, set.globalSet, action);
-        forEachAreaInSetThatContains(x, z, location, set.sets50.get(PerWorldSet.getIndex(x, z, 50, 0)), action);
-        forEachAreaInSetThatContains(x, z, location, set.sets50_offset.get(PerWorldSet.getIndex(x, z, 50, 25)), action);
-        forEachAreaInSetThatContains(x, z, location, set.sets200.get(PerWorldSet.getIndex(x, z, 200, 0)), action);
-        forEachAreaInSetThatContains(x, z, location, set.sets200_offset.get(PerWorldSet.getIndex(x, z, 200, 100)), action);
+        set.flushPending();
+        PerWorldSet.forEachInNodeIntersecting(set.root, lowX, lowY, lowZ, highX, highY, highZ, action);
     }
 }
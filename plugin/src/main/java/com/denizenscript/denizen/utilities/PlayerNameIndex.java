@@ -0,0 +1,272 @@
+package com.denizenscript.denizen.utilities;
+
+import com.denizenscript.denizen.Denizen;
+import com.denizenscript.denizen.objects.PlayerTag;
+import com.denizenscript.denizencore.utilities.CoreUtilities;
+import com.denizenscript.denizencore.utilities.debugging.Debug;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+import java.util.*;
+
+/**
+ * Sorted index of all known (lowercased) player names, for fast exact, prefix, and substring name matching without scanning and allocating per player.
+ * Names noted after the last rebuild are kept in a small pending list, which is folded into a fresh snapshot once it grows large enough.
+ * Snapshots are always built off the main thread. Until the first one is published, queries fall back to scanning the player name map directly.
+ * Queries are safe from any thread.
+ */
+public class PlayerNameIndex {
+
+    /**
+     * An immutable view of the index. 'names' is sorted, with 'ids' in matching order.
+     * 'joined' is every name in order separated by newlines, with 'starts' holding the index of each name within it, for substring searches.
+     */
+    public static class Snapshot {
+
+        public final String[] names;
+
+        public final UUID[] ids;
+
+        public final String joined;
+
+        public final int[] starts;
+
+        public Snapshot(String[] names, UUID[] ids) {
+            this.names = names;
+            this.ids = ids;
+            this.starts = new int[names.length];
+            StringBuilder builder = new StringBuilder(names.length * 12);
+            for (int i = 0; i < names.length; i++) {
+                starts[i] = builder.length();
+                builder.append(names[i]).append('\n');
+            }
+            this.joined = builder.toString();
+        }
+    }
+
+    public static final int MAX_PENDING = 512;
+
+    public static volatile Snapshot snapshot = new Snapshot(new String[0], new UUID[0]);
+
+    /**
+     * Names noted since the last snapshot was built. Synchronized on itself.
+     */
+    public static final List<String> pending = new ArrayList<>();
+
+    /**
+     * Whether the initial bulk load of all offline players has completed.
+     */
+    public static volatile boolean loaded = false;
+
+    /**
+     * Whether the first snapshot (including every player noted by the bulk load) has been published.
+     */
+    public static volatile boolean snapshotReady = false;
+
+    public static boolean rebuildQueued = false;
+
+    /**
+     * Called when a new name is added to the player name map.
+     */
+    public static void onNameAdded(String lowName) {
+        if (!loaded) {
+            // Will be included in the rebuild that follows the bulk load
+            return;
+        }
+        synchronized (pending) {
+            pending.add(lowName);
+            if (pending.size() < MAX_PENDING || rebuildQueued) {
+                return;
+            }
+            rebuildQueued = true;
+        }
+        Bukkit.getScheduler().runTaskAsynchronously(Denizen.getInstance(), PlayerNameIndex::rebuild);
+    }
+
+    public static void rebuild() {
+        int pendingCount;
+        synchronized (pending) {
+            pendingCount = pending.size();
+        }
+        List<Map.Entry<String, UUID>> entries = new ArrayList<>(PlayerTag.getAllPlayers().entrySet());
+        entries.sort(Map.Entry.comparingByKey());
+        String[] names = new String[entries.size()];
+        UUID[] ids = new UUID[entries.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = entries.get(i).getKey();
+            ids[i] = entries.get(i).getValue();
+        }
+        snapshot = new Snapshot(names, ids);
+        snapshotReady = true;
+        synchronized (pending) {
+            pending.subList(0, Math.min(pendingCount, pending.size())).clear();
+            rebuildQueued = false;
+        }
+    }
+
+    /**
+     * Notes every offline player, then builds the index off the main thread. Must be called on the main thread, before anything can look up players.
+     */
+    public static void load() {
+        long start = CoreUtilities.monotonicMillis();
+        try {
+            for (OfflinePlayer player : Bukkit.getOfflinePlayers()) {
+                PlayerTag.notePlayer(player);
+            }
+        }
+        catch (Throwable ex) {
+            Debug.echoError(ex);
+        }
+        synchronized (pending) {
+            rebuildQueued = true;
+        }
+        loaded = true;
+        Bukkit.getScheduler().runTaskAsynchronously(Denizen.getInstance(), () -> {
+            rebuild();
+            Debug.log("Indexed " + snapshot.names.length + " player names in " + (CoreUtilities.monotonicMillis() - start) + "ms.");
+        });
+    }
+
+    /**
+     * Returns true if the name contains the (lowercased) input, ignoring case, without allocating.
+     */
+    public static boolean containsIgnoreCase(String name, String input) {
+        int max = name.length() - input.length();
+        for (int i = 0; i <= max; i++) {
+            if (name.regionMatches(true, i, input, 0, input.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether candidate name 'a' is a better match than 'b' of the same kind: shorter names first, then alphabetically.
+     */
+    public static boolean isBetter(String a, String b) {
+        if (b == null) {
+            return true;
+        }
+        if (a.length() != b.length()) {
+            return a.length() < b.length();
+        }
+        return a.compareToIgnoreCase(b) < 0;
+    }
+
+    /**
+     * Returns the online player that best matches the input: an exact name, then the shortest name starting with the input, then the shortest name containing it.
+     */
+    public static Player matchOnlinePlayer(String lowInput) {
+        Player bestPrefix = null, bestContains = null;
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            String name = player.getName();
+            if (name.length() < lowInput.length()) {
+                continue;
+            }
+            if (name.length() == lowInput.length() && name.equalsIgnoreCase(lowInput)) {
+                return player;
+            }
+            if (name.regionMatches(true, 0, lowInput, 0, lowInput.length())) {
+                if (isBetter(name, bestPrefix == null ? null : bestPrefix.getName())) {
+                    bestPrefix = player;
+                }
+            }
+            else if (bestPrefix == null && containsIgnoreCase(name, lowInput)) {
+                if (isBetter(name, bestContains == null ? null : bestContains.getName())) {
+                    bestContains = player;
+                }
+            }
+        }
+        return bestPrefix != null ? bestPrefix : bestContains;
+    }
+
+    /**
+     * Returns the UUID of the best matching known player by scanning every name, for use before the first snapshot is ready.
+     */
+    public static UUID matchLinear(String lowInput) {
+        String bestPrefix = null, bestContains = null;
+        UUID bestPrefixId = null, bestContainsId = null;
+        for (Map.Entry<String, UUID> entry : PlayerTag.getAllPlayers().entrySet()) {
+            String name = entry.getKey();
+            if (name.startsWith(lowInput)) {
+                if (isBetter(name, bestPrefix)) {
+                    bestPrefix = name;
+                    bestPrefixId = entry.getValue();
+                }
+            }
+            else if (bestPrefix == null && name.contains(lowInput) && isBetter(name, bestContains)) {
+                bestContains = name;
+                bestContainsId = entry.getValue();
+            }
+        }
+        return bestPrefixId != null ? bestPrefixId : bestContainsId;
+    }
+
+    /**
+     * Returns the UUID of the player (online or offline) that best matches the input.
+     * An exact name match wins, then any matching online player takes priority over offline players.
+     * Within each group, the shortest name starting with the input wins, then the shortest name containing it.
+     */
+    public static UUID matchPlayer(String lowInput) {
+        UUID exact = PlayerTag.getAllPlayers().get(lowInput);
+        if (exact != null) {
+            return exact;
+        }
+        Player online = matchOnlinePlayer(lowInput);
+        if (online != null) {
+            return online.getUniqueId();
+        }
+        if (!snapshotReady) {
+            return matchLinear(lowInput);
+        }
+        Snapshot current = snapshot;
+        String[] names = current.names;
+        String best = null;
+        UUID bestId = null;
+        int index = Arrays.binarySearch(names, lowInput);
+        for (int i = index < 0 ? -index - 1 : index; i < names.length && names[i].startsWith(lowInput); i++) {
+            if (isBetter(names[i], best)) {
+                best = names[i];
+                bestId = current.ids[i];
+            }
+        }
+        String[] pendingNames;
+        synchronized (pending) {
+            pendingNames = pending.toArray(new String[0]);
+        }
+        for (String name : pendingNames) {
+            if (name.startsWith(lowInput) && isBetter(name, best)) {
+                best = name;
+                bestId = PlayerTag.getAllPlayers().get(name);
+            }
+        }
+        if (bestId != null) {
+            return bestId;
+        }
+        if (lowInput.indexOf('\n') != -1) {
+            return null;
+        }
+        int position = current.joined.indexOf(lowInput);
+        while (position != -1) {
+            int nameIndex = Arrays.binarySearch(current.starts, position);
+            if (nameIndex < 0) {
+                nameIndex = -nameIndex - 2;
+            }
+            if (isBetter(names[nameIndex], best)) {
+                best = names[nameIndex];
+                bestId = current.ids[nameIndex];
+            }
+            // Skip the rest of this name, as it can only match once for our purposes
+            int next = nameIndex + 1 < names.length ? current.starts[nameIndex + 1] : current.joined.length();
+            position = current.joined.indexOf(lowInput, next);
+        }
+        for (String name : pendingNames) {
+            if (name.contains(lowInput) && isBetter(name, best)) {
+                best = name;
+                bestId = PlayerTag.getAllPlayers().get(name);
+            }
+        }
+        return bestId;
+    }
+}
@@ -1,6 +1,7 @@
 package com.denizenscript.denizen.utilities;
 
 import com.denizenscript.denizen.Denizen;
+import com.denizenscript.denizen.events.entity.AreaEnterExitScriptEvent;
 import com.denizenscript.denizen.objects.PolygonTag;
 import com.denizenscript.denizen.scripts.commands.entity.RemoveCommand;
 import com.denizenscript.denizen.tags.core.CustomColorTagBase;
@@ -82,6 +83,7 @@ public class Settings {
         nullifySkullSkinIds = config.getBoolean("Tags.Nullify skull skin ids", false);
         worldPlayerDataSaveDelay = (float) DurationTag.valueOf(config.getString("Save world player file delay", "10s"), CoreUtilities.basicContext).getSeconds();
         worldPlayerDataMaxCacheTicks = DurationTag.valueOf(config.getString("World player data max cache", "1h"), CoreUtilities.basicContext).getTicks();
+        worldPlayerDataMaxCachedPlayers = config.getInt("World player data max cached players", 1000);
         cache_overrideHelp = config.getBoolean("Debug.Override help", true);
         cache_useDefaultScriptPath = config.getBoolean("Scripts location.Use default script folder", true);
         cache_showExHelp = config.getBoolean("Debug.Ex command help", true);
@@ -119,14 +121,18 @@ public class Settings {
         cache_chatGloballyIfUninteractable = config.getBoolean("Triggers.Chat.Appears globally.If NPC uninteractable", true);
         cache_worldScriptChatEventAsynchronous = config.getBoolean("Scripts.World.Events.On player chats.Use asynchronous event", false);
         cache_worldScriptTimeEventFrequency = DurationTag.valueOf(config.getString("Scripts.World.Events.On time changes.Frequency of check", "250t"), CoreUtilities.basicContext);
+        AreaEnterExitScriptEvent.batchPerTick = config.getBoolean("Scripts.World.Events.On entity enters or exits area.Batch per tick", false);
         cache_blockTagsMaxBlocks = config.getInt("Tags.Block tags.Max blocks", 1000000);
         cache_chatHistoryMaxMessages = config.getInt("Tags.Chat history.Max messages", 10);
         cache_packetInterception = config.getBoolean("Packets.Interception", true);
         cache_packetInterceptAutoInit = config.getBoolean("Packets.Auto init", false);
         cache_commandScriptAutoInit = config.getBoolean("Scripts.Command.Auto init", false);
+        DataPersistenceHelper.deferWrites = config.getBoolean("Saves.Defer entity and chunk flag writes", false);
         PlayerFlagHandler.cacheTimeoutSeconds = config.getLong("Saves.Offline player cache timeout", 300);
+        PlayerFlagHandler.cacheMaxSize = config.getInt("Saves.Offline player cache max size", 1000);
         PlayerFlagHandler.asyncPreload = config.getBoolean("Saves.Load async on login", true);
         PlayerFlagHandler.saveOnlyWhenWorldSaveOn = config.getBoolean("Saves.Only save if world save is on", false);
+        PlayerFlagHandler.logCompactionThreshold = config.getInt("Saves.Player flag log compaction threshold", 1000);
         RemoveCommand.alwaysWarnOnMassRemove = config.getBoolean("Commands.Remove.Always warn on mass delete", false);
         ConfigurationSection colorSection = config.getConfigurationSection("Colors");
         if (colorSection != null) {
@@ -149,6 +155,8 @@ public class Settings {
 
     public static long worldPlayerDataMaxCacheTicks = 20 * 60 * 60;
 
+    public static int worldPlayerDataMaxCachedPlayers = 1000;
+
     public static boolean cache_overrideHelp,
             cache_showExHelp, cache_showExDebug, cache_canRecordStats,
             cache_defaultDebugMode, cache_healthTraitEnabledByDefault, cache_healthTraitAnimatedDeathEnabled,
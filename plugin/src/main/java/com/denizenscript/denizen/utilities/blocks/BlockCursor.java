@@ -0,0 +1,195 @@
+package com.denizenscript.denizen.utilities.blocks;
+
+import com.denizenscript.denizen.objects.LocationTag;
+import com.denizenscript.denizencore.objects.core.ListTag;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.function.Predicate;
+
+/**
+ * A lazy cursor over a set of block coordinates, such as the blocks within an area.
+ * Call 'next()' until it returns false, reading the current block from the 'x', 'y', and 'z' fields. Nothing is allocated per block.
+ * The offsets are added when converting to a location, for areas that historically report block locations off the block corner.
+ */
+public abstract class BlockCursor {
+
+    public int x, y, z;
+
+    public double offsetX, offsetY, offsetZ;
+
+    /**
+     * Advances to the next block, returning false once there are no more blocks.
+     */
+    public abstract boolean next();
+
+    /**
+     * Packs block coordinates into a single long, in the same layout as vanilla block positions (26 bits X, 26 bits Z, 12 bits Y).
+     */
+    public static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    public static int unpackY(long packed) {
+        return (int) (packed << 52 >> 52);
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) (packed << 26 >> 38);
+    }
+
+    public long getPacked() {
+        return pack(x, y, z);
+    }
+
+    public Location setLocation(Location location) {
+        location.setX(x + offsetX);
+        location.setY(y + offsetY);
+        location.setZ(z + offsetZ);
+        return location;
+    }
+
+    public LocationTag toLocationTag(String worldName) {
+        return new LocationTag(x + offsetX, y + offsetY, z + offsetZ, worldName);
+    }
+
+    /**
+     * Collects the remaining blocks into a list of locations, skipping blocks outside the world's height range or that fail the (optional) test.
+     * Stops after 'max' blocks have been visited.
+     */
+    public ListTag collect(String worldName, World world, Predicate<Location> test, int max) {
+        int yMin = world == null ? Integer.MIN_VALUE : world.getMinHeight(), yMax = world == null ? Integer.MAX_VALUE : world.getMaxHeight();
+        ListTag result = new ListTag();
+        if (test != null && world == null) {
+            return result;
+        }
+        Location testLocation = new Location(world, 0, 0, 0);
+        int index = 0;
+        while (next()) {
+            if (index++ > max) {
+                break;
+            }
+            if (y < yMin || y > yMax) {
+                continue;
+            }
+            if (test != null && !test.test(setLocation(testLocation))) {
+                continue;
+            }
+            result.addObject(toLocationTag(worldName));
+        }
+        return result;
+    }
+
+    @FunctionalInterface
+    public interface CoordinatePredicate {
+        boolean test(int x, int y, int z);
+    }
+
+    /**
+     * Returns a cursor over only the blocks of this cursor that pass the test.
+     */
+    public BlockCursor filter(CoordinatePredicate test) {
+        BlockCursor base = this;
+        BlockCursor result = new BlockCursor() {
+            @Override
+            public boolean next() {
+                while (base.next()) {
+                    if (test.test(base.x, base.y, base.z)) {
+                        x = base.x;
+                        y = base.y;
+                        z = base.z;
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+        result.offsetX = offsetX;
+        result.offsetY = offsetY;
+        result.offsetZ = offsetZ;
+        return result;
+    }
+
+    /**
+     * Iterates one or more boxes of blocks, each given as {lowX, lowY, lowZ, highX, highY, highZ} (inclusive), with X outermost and Z innermost.
+     */
+    public static class CuboidCursor extends BlockCursor {
+
+        public int[][] boxes;
+
+        public int box = -1;
+
+        public CuboidCursor(int[][] boxes) {
+            this.boxes = boxes;
+        }
+
+        @Override
+        public boolean next() {
+            if (box >= 0 && box < boxes.length) {
+                int[] current = boxes[box];
+                if (++z <= current[5]) {
+                    return true;
+                }
+                z = current[2];
+                if (++y <= current[4]) {
+                    return true;
+                }
+                y = current[1];
+                if (++x <= current[3]) {
+                    return true;
+                }
+            }
+            while (++box < boxes.length) {
+                int[] current = boxes[box];
+                if (current[0] <= current[3] && current[1] <= current[4] && current[2] <= current[5]) {
+                    x = current[0];
+                    y = current[1];
+                    z = current[2];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Iterates a fixed set of (X, Z) columns across a range of Y layers, with Y outermost. Columns are given as alternating X and Z values.
+     */
+    public static class LayeredCursor extends BlockCursor {
+
+        public int[] columns;
+
+        public int minY, maxY;
+
+        public int column = -2;
+
+        public LayeredCursor(int[] columns, int minY, int maxY) {
+            this.columns = columns;
+            this.minY = minY;
+            this.maxY = maxY;
+            y = minY;
+        }
+
+        @Override
+        public boolean next() {
+            if (columns.length == 0) {
+                return false;
+            }
+            column += 2;
+            if (column >= columns.length) {
+                column = 0;
+                y++;
+            }
+            if (y > maxY) {
+                return false;
+            }
+            x = columns[column];
+            z = columns[column + 1];
+            return true;
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package com.denizenscript.denizen.utilities.blocks;
+
+import com.denizenscript.denizen.Denizen;
+import com.denizenscript.denizen.nms.NMSHandler;
+import com.denizenscript.denizen.objects.LocationTag;
+import com.denizenscript.denizen.objects.MaterialTag;
+import com.denizenscript.denizencore.objects.core.ListTag;
+import com.denizenscript.denizencore.utilities.CoreUtilities;
+import com.denizenscript.denizencore.utilities.debugging.Debug;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Searches the blocks within a radius of a center point, for the 'find_blocks' style tags and the 'findblocks' command.
+ * The material matcher is compiled once into a bitset of accepted material ordinals, so chunk sections can be skipped entirely based on their block palette,
+ * and the remaining blocks are read from chunk snapshots, which allows the scan to run off the main thread.
+ * Results are sorted by distance with a bucket sort over the squared distance, rather than a comparator sort.
+ * Small synchronous searches skip the snapshots and just read the blocks directly, as capturing would cost more than it saves.
+ * Unloaded chunks are never loaded by a search, and are skipped.
+ */
+public class BlockSearch {
+
+    public static final Material[] MATERIALS = Material.values();
+
+    /**
+     * Compiled material bitsets by matcher text. Matchers that read flags aren't cached, as their result can change at any time.
+     */
+    public static final HashMap<String, BitSet> compiledMatchers = new HashMap<>();
+
+    public static final int MAX_CACHED_MATCHERS = 256;
+
+    /**
+     * Synchronous searches covering at most this many blocks read the world directly rather than capturing chunk snapshots.
+     */
+    public static final int DIRECT_SCAN_MAX_BLOCKS = 4096;
+
+    /**
+     * Splits a matcher into its individual lowercased parts, dropping the '|' and '&&' separators and any '!' negation, as applied by the core matcher.
+     */
+    public static List<String> getMatcherParts(String matcher) {
+        List<String> parts = new ArrayList<>();
+        for (String alternative : CoreUtilities.split(CoreUtilities.toLowerCase(matcher), '|')) {
+            int start = 0;
+            while (true) {
+                int next = alternative.indexOf("&&", start);
+                String part = (next == -1 ? alternative.substring(start) : alternative.substring(start, next)).trim();
+                while (part.startsWith("!")) {
+                    part = part.substring(1);
+                }
+                parts.add(part);
+                if (next == -1) {
+                    break;
+                }
+                start = next + 2;
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Returns true if the matcher can't be decided from a block's material alone, ie any part of it is one of the LocationTag-specific matchers.
+     */
+    public static boolean isLocationDependent(String matcher) {
+        for (String part : getMatcherParts(matcher)) {
+            if (part.equals("location") || part.startsWith("block_flagged:") || part.startsWith("location_in:")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if any part of the matcher checks material flags, which can change at any time.
+     */
+    public static boolean isFlagDependent(String matcher) {
+        for (String part : getMatcherParts(matcher)) {
+            if (part.startsWith("material_flagged:")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compiles a material matcher into the set of matching material ordinals. Must be called on the main thread.
+     */
+    public static BitSet compileMaterialMatcher(String matcher) {
+        BitSet result = compiledMatchers.get(matcher);
+        if (result != null) {
+            return result;
+        }
+        result = new BitSet(MATERIALS.length);
+        for (Material material : MATERIALS) {
+            if (material.isBlock() && !material.isLegacy() && new MaterialTag(material).tryAdvancedMatcher(matcher)) {
+                result.set(material.ordinal());
+            }
+        }
+        if (!isFlagDependent(matcher)) {
+            if (compiledMatchers.size() >= MAX_CACHED_MATCHERS) {
+                compiledMatchers.clear();
+            }
+            compiledMatchers.put(matcher, result);
+        }
+        return result;
+    }
+
+    public static class ChunkScan {
+
+        public int chunkX, chunkZ;
+
+        public ChunkSnapshot snapshot;
+
+        /**
+         * For each section of the chunk (bottom to top), whether it may contain a matching block. Null if every section must be scanned.
+         */
+        public boolean[] sections;
+    }
+
+    public World world;
+
+    public int minSectionY;
+
+    public double centerX, centerY, centerZ, radius;
+
+    public int minY, maxY, maxBlocks;
+
+    public String matcher;
+
+    /**
+     * The accepted material ordinals, or null if any material is accepted (either because there's no matcher, or because the matcher is location dependent).
+     */
+    public BitSet materials;
+
+    public ArrayList<ChunkScan> chunks = new ArrayList<>();
+
+    public int count;
+
+    public int[] resultX = new int[64], resultY = new int[64], resultZ = new int[64];
+
+    public double[] resultDistance = new double[64];
+
+    public BlockSearch(Location center, double radius, String matcher, int maxBlocks) {
+        world = center.getWorld();
+        centerX = center.getX();
+        centerY = center.getY();
+        centerZ = center.getZ();
+        this.radius = radius;
+        this.matcher = matcher;
+        this.maxBlocks = maxBlocks;
+        minSectionY = world.getMinHeight() >> 4;
+        minY = Math.max(world.getMinHeight(), (int) Math.floor(centerY - radius));
+        maxY = Math.min(world.getMaxHeight() - 1, (int) Math.floor(centerY + radius));
+        if (matcher != null && !isLocationDependent(matcher)) {
+            materials = compileMaterialMatcher(matcher);
+        }
+    }
+
+    /**
+     * Returns the squared horizontal distance from the center to the nearest block center within the given chunk.
+     */
+    public double chunkDistanceSquared(int chunkX, int chunkZ) {
+        double nearestX = Math.max((chunkX << 4) + 0.5, Math.min((chunkX << 4) + 15.5, centerX));
+        double nearestZ = Math.max((chunkZ << 4) + 0.5, Math.min((chunkZ << 4) + 15.5, centerZ));
+        return (nearestX - centerX) * (nearestX - centerX) + (nearestZ - centerZ) * (nearestZ - centerZ);
+    }
+
+    public void addResult(int x, int y, int z, double distanceSquared) {
+        if (count == resultX.length) {
+            resultX = Arrays.copyOf(resultX, count * 2);
+            resultY = Arrays.copyOf(resultY, count * 2);
+            resultZ = Arrays.copyOf(resultZ, count * 2);
+            resultDistance = Arrays.copyOf(resultDistance, count * 2);
+        }
+        resultX[count] = x;
+        resultY[count] = y;
+        resultZ[count] = z;
+        resultDistance[count++] = distanceSquared;
+    }
+
+    /**
+     * Returns the number of blocks within the chunk that are inside the search radius and height range.
+     */
+    public int countInRange(int chunkX, int chunkZ) {
+        double radiusSquared = radius * radius;
+        int total = 0;
+        for (int localX = 0; localX < 16; localX++) {
+            double dx = (chunkX << 4) + localX + 0.5 - centerX;
+            for (int localZ = 0; localZ < 16; localZ++) {
+                double dz = (chunkZ << 4) + localZ + 0.5 - centerZ;
+                double remaining = radiusSquared - dx * dx - dz * dz;
+                if (remaining <= 0) {
+                    continue;
+                }
+                double halfHeight = Math.sqrt(remaining);
+                int low = Math.max(minY, (int) Math.ceil(centerY - 0.5 - halfHeight));
+                int high = Math.min(maxY, (int) Math.floor(centerY - 0.5 + halfHeight));
+                if (high >= low) {
+                    total += high - low + 1;
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Gathers chunk snapshots for every section that might contain a match. Chunks that aren't loaded are skipped, and capturing stops once the captured chunks cover 'maxBlocks' blocks.
+     * Must be called on the main thread.
+     */
+    public void capture() {
+        if (minY > maxY) {
+            return;
+        }
+        double radiusSquared = radius * radius;
+        int minChunkX = (int) Math.floor(centerX - radius) >> 4, maxChunkX = (int) Math.floor(centerX + radius) >> 4;
+        int minChunkZ = (int) Math.floor(centerZ - radius) >> 4, maxChunkZ = (int) Math.floor(centerZ + radius) >> 4;
+        long covered = 0;
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                if (chunkDistanceSquared(chunkX, chunkZ) >= radiusSquared || !world.isChunkLoaded(chunkX, chunkZ)) {
+                    continue;
+                }
+                if (covered >= maxBlocks) {
+                    return;
+                }
+                covered += countInRange(chunkX, chunkZ);
+                ChunkScan scan = new ChunkScan();
+                scan.chunkX = chunkX;
+                scan.chunkZ = chunkZ;
+                if (matcher == null) {
+                    chunks.add(scan);
+                    continue;
+                }
+                Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+                if (materials != null) {
+                    scan.sections = NMSHandler.chunkHelper.getSectionsMaybeContaining(chunk, materials);
+                    if (scan.sections != null && !anySectionInRange(scan.sections)) {
+                        continue;
+                    }
+                }
+                scan.snapshot = chunk.getChunkSnapshot(false, false, false);
+                chunks.add(scan);
+            }
+        }
+    }
+
+    /**
+     * Scans the blocks in range by reading them from the world directly, skipping unloaded chunks. Must be called on the main thread.
+     */
+    public void scanDirect() {
+        if (minY > maxY) {
+            return;
+        }
+        double radiusSquared = radius * radius;
+        int minX = (int) Math.floor(centerX - radius), maxX = (int) Math.floor(centerX + radius);
+        int minZ = (int) Math.floor(centerZ - radius), maxZ = (int) Math.floor(centerZ + radius);
+        int examined = 0;
+        for (int x = minX; x <= maxX; x++) {
+            double dx = x + 0.5 - centerX;
+            for (int z = minZ; z <= maxZ; z++) {
+                double dz = z + 0.5 - centerZ;
+                if (dx * dx + dz * dz >= radiusSquared || !world.isChunkLoaded(x >> 4, z >> 4)) {
+                    continue;
+                }
+                for (int y = minY; y <= maxY; y++) {
+                    double dy = y + 0.5 - centerY;
+                    double distanceSquared = dx * dx + dy * dy + dz * dz;
+                    if (distanceSquared >= radiusSquared) {
+                        continue;
+                    }
+                    if (++examined > maxBlocks) {
+                        return;
+                    }
+                    if (matcher == null || materials == null || materials.get(world.getBlockAt(x, y, z).getType().ordinal())) {
+                        addResult(x, y, z, distanceSquared);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the whole search on the current (main) thread, reading blocks directly for small searches or through snapshots for larger ones.
+     */
+    public void runSync() {
+        double volume = 4.0 / 3.0 * Math.PI * radius * radius * radius;
+        if (Math.min(volume, maxBlocks) <= DIRECT_SCAN_MAX_BLOCKS) {
+            scanDirect();
+        }
+        else {
+            capture();
+            scan();
+        }
+    }
+
+    public boolean anySectionInRange(boolean[] sections) {
+        for (int sectionY = minY >> 4; sectionY <= maxY >> 4; sectionY++) {
+            int index = sectionY - minSectionY;
+            if (index >= 0 && index < sections.length && sections[index]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scans the captured chunks for matching blocks. Only reads snapshots, so is safe to call from any thread.
+     */
+    public void scan() {
+        double radiusSquared = radius * radius;
+        int examined = 0;
+        for (ChunkScan chunk : chunks) {
+            int baseX = chunk.chunkX << 4, baseZ = chunk.chunkZ << 4;
+            for (int sectionY = minY >> 4; sectionY <= maxY >> 4; sectionY++) {
+                int sectionIndex = sectionY - minSectionY;
+                if (chunk.sections != null && (sectionIndex < 0 || sectionIndex >= chunk.sections.length || !chunk.sections[sectionIndex])) {
+                    continue;
+                }
+                int lowY = Math.max(minY, sectionY << 4), highY = Math.min(maxY, (sectionY << 4) + 15);
+                for (int y = lowY; y <= highY; y++) {
+                    double dy = y + 0.5 - centerY;
+                    for (int localX = 0; localX < 16; localX++) {
+                        double dx = baseX + localX + 0.5 - centerX;
+                        for (int localZ = 0; localZ < 16; localZ++) {
+                            double dz = baseZ + localZ + 0.5 - centerZ;
+                            double distanceSquared = dx * dx + dy * dy + dz * dz;
+                            if (distanceSquared >= radiusSquared) {
+                                continue;
+                            }
+                            if (++examined > maxBlocks) {
+                                return;
+                            }
+                            if (chunk.snapshot == null || materials == null || materials.get(chunk.snapshot.getBlockType(localX, y, localZ).ordinal())) {
+                                addResult(baseX + localX, y, baseZ + localZ, distanceSquared);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Scans tile entities of loaded chunks directly, as they're already tracked individually. Must be called on the main thread.
+     */
+    public void scanTileEntities() {
+        double radiusSquared = radius * radius;
+        int minChunkX = (int) Math.floor(centerX - radius) >> 4, maxChunkX = (int) Math.floor(centerX + radius) >> 4;
+        int minChunkZ = (int) Math.floor(centerZ - radius) >> 4, maxChunkZ = (int) Math.floor(centerZ + radius) >> 4;
+        int examined = 0;
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                if (!world.isChunkLoaded(chunkX, chunkZ) || chunkDistanceSquared(chunkX, chunkZ) >= radiusSquared) {
+                    continue;
+                }
+                for (BlockState state : world.getChunkAt(chunkX, chunkZ).getTileEntities()) {
+                    if (examined++ > maxBlocks) {
+                        return;
+                    }
+                    double dx = state.getX() + 0.5 - centerX, dy = state.getY() + 0.5 - centerY, dz = state.getZ() + 0.5 - centerZ;
+                    double distanceSquared = dx * dx + dy * dy + dz * dz;
+                    if (distanceSquared < radiusSquared && (materials == null || materials.get(state.getType().ordinal()))) {
+                        addResult(state.getX(), state.getY(), state.getZ(), distanceSquared);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns result indices ordered by distance, closest first.
+     * Results are spread into buckets by squared distance, which keeps buckets small as the volume of each distance shell grows only slowly, and each bucket is then insertion sorted.
+     */
+    public int[] sortedOrder() {
+        int bucketCount = Math.max(1, Math.min(count, 65536));
+        double scale = radius <= 0 ? 0 : bucketCount / (radius * radius);
+        int[] bucketStarts = new int[bucketCount + 1];
+        int[] bucketOf = new int[count];
+        for (int i = 0; i < count; i++) {
+            int bucket = Math.min(bucketCount - 1, (int) (resultDistance[i] * scale));
+            bucketOf[i] = bucket;
+            bucketStarts[bucket + 1]++;
+        }
+        for (int i = 0; i < bucketCount; i++) {
+            bucketStarts[i + 1] += bucketStarts[i];
+        }
+        int[] fill = Arrays.copyOf(bucketStarts, bucketCount);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[fill[bucketOf[i]]++] = i;
+        }
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            for (int i = bucketStarts[bucket] + 1; i < bucketStarts[bucket + 1]; i++) {
+                int value = order[i];
+                double distance = resultDistance[value];
+                int j = i - 1;
+                while (j >= bucketStarts[bucket] && resultDistance[order[j]] > distance) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = value;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Builds the sorted result list. Location dependent matchers are applied here, so this must be called on the main thread.
+     */
+    public ListTag buildList(double offset) {
+        boolean checkLocation = matcher != null && materials == null;
+        ListTag result = new ListTag();
+        for (int index : sortedOrder()) {
+            LocationTag location = new LocationTag(world, resultX[index] + offset, resultY[index] + offset, resultZ[index] + offset);
+            if (!checkLocation || location.tryAdvancedMatcher(matcher)) {
+                result.addObject(location);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs the snapshot scan off the main thread, then calls back on the main thread.
+     */
+    public void runAsync(Runnable onComplete) {
+        capture();
+        Bukkit.getScheduler().runTaskAsynchronously(Denizen.getInstance(), () -> {
+            try {
+                scan();
+            }
+            catch (Throwable ex) {
+                Debug.echoError(ex);
+            }
+            Bukkit.getScheduler().runTask(Denizen.getInstance(), onComplete);
+        });
+    }
+}
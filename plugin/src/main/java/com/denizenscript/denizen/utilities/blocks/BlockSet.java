@@ -23,7 +23,7 @@ public interface BlockSet {
         public DurationTag fakeDuration;
     }
 
-    FullBlockData[] getBlocks();
+    int getBlockCount();
 
     void setBlocksDelayed(final Runnable runme, final InputParams input, long maxDelayMs);
 
@@ -0,0 +1,270 @@
+package com.denizenscript.denizen.utilities.blocks;
+
+import com.denizenscript.denizen.Denizen;
+import com.denizenscript.denizen.nms.NMSHandler;
+import com.denizenscript.denizen.nms.util.jnbt.CompoundTag;
+import com.denizenscript.denizen.scripts.commands.world.SchematicCommand;
+import com.denizenscript.denizencore.objects.core.MapTag;
+import com.denizenscript.denizencore.utilities.CoreUtilities;
+import com.denizenscript.denizencore.utilities.debugging.Debug;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pastes a CuboidBlockSet by grouping it into destination chunk sections.
+ * Section payloads are computed in parallel (off the main thread when delayed), then each section is applied in a single main-thread step via the NMS bulk section write.
+ * Only usable when the paste doesn't depend on the existing world state (ie no mask) and isn't a fake paste.
+ */
+public class ChunkSectionPaster {
+
+    public static boolean canPaste(BlockSet.InputParams input) {
+        return input.mask == null && input.fakeTo == null;
+    }
+
+    public static class SectionPayload {
+
+        public int chunkX, sectionY, chunkZ;
+
+        public short[] positions = new short[64];
+
+        public BlockData[] data = new BlockData[64];
+
+        public int count;
+
+        public Int2ObjectOpenHashMap<CompoundTag> tileEntities;
+
+        public Int2ObjectOpenHashMap<MapTag> flags;
+
+        public void add(int packed, BlockData blockData) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+                data = Arrays.copyOf(data, count * 2);
+            }
+            positions[count] = (short) packed;
+            data[count++] = blockData;
+        }
+    }
+
+    public CuboidBlockSet set;
+
+    public World world;
+
+    public int originX, originY, originZ, minY, maxY;
+
+    /**
+     * For each palette entry of the block set, whether blocks of that type are skipped.
+     */
+    public boolean[] skipPaletteId;
+
+    public ArrayList<long[]> sections = new ArrayList<>();
+
+    public final ConcurrentLinkedQueue<SectionPayload> ready = new ConcurrentLinkedQueue<>();
+
+    public volatile boolean computeDone = false;
+
+    public volatile int sectionsApplied = 0;
+
+    public volatile long blocksApplied = 0;
+
+    public long startTime, endTime = -1;
+
+    public ChunkSectionPaster(CuboidBlockSet set, BlockSet.InputParams input) {
+        this.set = set;
+        world = input.centerLocation.getWorld();
+        originX = input.centerLocation.getBlockX() - set.center_x;
+        originY = input.centerLocation.getBlockY() - set.center_y;
+        originZ = input.centerLocation.getBlockZ() - set.center_z;
+        minY = Math.max(originY, world.getMinHeight());
+        maxY = Math.min(originY + set.y_length - 1, world.getMaxHeight() - 1);
+        skipPaletteId = new boolean[set.blocks.palette.size()];
+        for (int i = 0; i < skipPaletteId.length; i++) {
+            Material material = set.blocks.palette.get(i).getMaterial();
+            skipPaletteId[i] = material == Material.STRUCTURE_VOID || (input.noAir && material == Material.AIR);
+        }
+        if (minY <= maxY) {
+            for (int chunkX = originX >> 4; chunkX <= (originX + set.x_width - 1) >> 4; chunkX++) {
+                for (int chunkZ = originZ >> 4; chunkZ <= (originZ + set.z_height - 1) >> 4; chunkZ++) {
+                    for (int sectionY = minY >> 4; sectionY <= maxY >> 4; sectionY++) {
+                        sections.add(new long[] { chunkX, sectionY, chunkZ });
+                    }
+                }
+            }
+        }
+    }
+
+    public int getSectionCount() {
+        return sections.size();
+    }
+
+    /**
+     * Returns the fraction of sections applied so far, from 0 to 1.
+     */
+    public double getProgress() {
+        return sections.isEmpty() ? 1 : sectionsApplied / (double) sections.size();
+    }
+
+    public long getElapsedMillis() {
+        return (endTime == -1 ? CoreUtilities.monotonicMillis() : endTime) - startTime;
+    }
+
+    public double getBlocksPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed <= 0 ? 0 : blocksApplied * 1000.0 / elapsed;
+    }
+
+    public boolean isDone() {
+        return endTime != -1;
+    }
+
+    public SectionPayload computeSection(long[] section) {
+        SectionPayload payload = new SectionPayload();
+        payload.chunkX = (int) section[0];
+        payload.sectionY = (int) section[1];
+        payload.chunkZ = (int) section[2];
+        PalettedBlockArray blocks = set.blocks;
+        boolean hasTileEntities = !blocks.tileEntities.isEmpty(), hasFlags = !blocks.flags.isEmpty();
+        int lowX = Math.max(originX, payload.chunkX << 4), highX = Math.min(originX + set.x_width - 1, (payload.chunkX << 4) + 15);
+        int lowY = Math.max(minY, payload.sectionY << 4), highY = Math.min(maxY, (payload.sectionY << 4) + 15);
+        int lowZ = Math.max(originZ, payload.chunkZ << 4), highZ = Math.min(originZ + set.z_height - 1, (payload.chunkZ << 4) + 15);
+        for (int y = lowY; y <= highY; y++) {
+            for (int z = lowZ; z <= highZ; z++) {
+                int index = set.indexOf(lowX - originX, y - originY, z - originZ);
+                int step = set.z_height * set.y_length;
+                for (int x = lowX; x <= highX; x++, index += step) {
+                    int id = blocks.getId(index);
+                    if (skipPaletteId[id]) {
+                        continue;
+                    }
+                    int packed = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+                    payload.add(packed, blocks.palette.get(id));
+                    if (hasTileEntities) {
+                        CompoundTag tileEntity = blocks.tileEntities.get(index);
+                        if (tileEntity != null) {
+                            if (payload.tileEntities == null) {
+                                payload.tileEntities = new Int2ObjectOpenHashMap<>();
+                            }
+                            payload.tileEntities.put(packed, tileEntity);
+                        }
+                    }
+                    if (hasFlags) {
+                        MapTag flag = blocks.flags.get(index);
+                        if (flag != null) {
+                            if (payload.flags == null) {
+                                payload.flags = new Int2ObjectOpenHashMap<>();
+                            }
+                            payload.flags.put(packed, flag);
+                        }
+                    }
+                }
+            }
+        }
+        return payload;
+    }
+
+    public void computeAll() {
+        sections.parallelStream().forEach(section -> ready.add(computeSection(section)));
+        computeDone = true;
+    }
+
+    public Block blockAt(SectionPayload payload, int packed) {
+        return world.getBlockAt((payload.chunkX << 4) + (packed & 15), (payload.sectionY << 4) + ((packed >> 8) & 15), (payload.chunkZ << 4) + ((packed >> 4) & 15));
+    }
+
+    public void applySection(SectionPayload payload) {
+        if (payload.count > 0) {
+            NMSHandler.blockHelper.setBlocksInSection(world, payload.chunkX, payload.sectionY, payload.chunkZ, payload.positions, payload.data, payload.count);
+        }
+        if (payload.tileEntities != null) {
+            for (Int2ObjectMap.Entry<CompoundTag> entry : payload.tileEntities.int2ObjectEntrySet()) {
+                try {
+                    NMSHandler.blockHelper.setNbtData(blockAt(payload, entry.getIntKey()), entry.getValue());
+                }
+                catch (Throwable ex) {
+                    Debug.echoError(ex);
+                }
+            }
+        }
+        if (payload.flags != null) {
+            for (Int2ObjectMap.Entry<MapTag> entry : payload.flags.int2ObjectEntrySet()) {
+                FullBlockData.applyFlags(blockAt(payload, entry.getIntKey()), entry.getValue());
+            }
+        }
+        blocksApplied += payload.count;
+        sectionsApplied++;
+    }
+
+    /**
+     * Pastes everything immediately. Section payloads are still computed in parallel, but this blocks until done.
+     */
+    public void pasteNow() {
+        startTime = CoreUtilities.monotonicMillis();
+        computeAll();
+        SchematicCommand.noPhys = true;
+        try {
+            SectionPayload payload;
+            while ((payload = ready.poll()) != null) {
+                applySection(payload);
+            }
+        }
+        finally {
+            SchematicCommand.noPhys = false;
+        }
+        endTime = CoreUtilities.monotonicMillis();
+    }
+
+    /**
+     * Computes section payloads off-thread, and applies them on the main thread as they become ready, spending no more than the given time per tick.
+     */
+    public void pasteDelayed(Runnable onComplete, long maxDelayMs) {
+        startTime = CoreUtilities.monotonicMillis();
+        Bukkit.getScheduler().runTaskAsynchronously(Denizen.getInstance(), () -> {
+            try {
+                computeAll();
+            }
+            catch (Throwable ex) {
+                Debug.echoError(ex);
+                computeDone = true;
+            }
+        });
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                long start = CoreUtilities.monotonicMillis();
+                SchematicCommand.noPhys = true;
+                try {
+                    while (CoreUtilities.monotonicMillis() - start <= maxDelayMs) {
+                        // Read the flag before polling, so a payload added right before completion can't be missed
+                        boolean wasDone = computeDone;
+                        SectionPayload payload = ready.poll();
+                        if (payload == null) {
+                            if (!wasDone) {
+                                return;
+                            }
+                            endTime = CoreUtilities.monotonicMillis();
+                            cancel();
+                            SchematicCommand.noPhys = false;
+                            if (onComplete != null) {
+                                onComplete.run();
+                            }
+                            return;
+                        }
+                        applySection(payload);
+                    }
+                }
+                finally {
+                    SchematicCommand.noPhys = false;
+                }
+            }
+        }.runTaskTimer(Denizen.getInstance(), 1, 1);
+    }
+}
@@ -12,6 +12,7 @@ import com.denizenscript.denizencore.objects.core.MapTag;
 import com.denizenscript.denizencore.utilities.CoreUtilities;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Entity;
@@ -30,15 +31,31 @@ public class CuboidBlockSet implements BlockSet {
     public CuboidBlockSet() {
     }
 
-    public void buildImmediate(AreaContainmentObject area, Location center, HashSet<Material> mask, boolean copyFlags) {
+    /**
+     * Sizes the set to the area's bounding box, with every block starting as structure void, and returns a cursor over the blocks that should be copied.
+     * Cuboids are walked directly, other areas walk their bounding box and keep only blocks whose center is inside the area.
+     */
+    public BlockCursor prepareBuild(AreaContainmentObject area, Location center, boolean copyFlags) {
         hasFlags = copyFlags;
         CuboidTag boundary;
-        if (area instanceof CuboidTag && ((CuboidTag) area).pairs.size() == 1) {
-            boundary = (CuboidTag) area;
+        BlockCursor cursor;
+        if (area instanceof CuboidTag) {
+            if (((CuboidTag) area).pairs.size() != 1) {
+                constraint = area;
+            }
+            boundary = area.getCuboidBoundary();
+            cursor = area.getBlockCursor();
         }
         else {
             constraint = area;
             boundary = area.getCuboidBoundary();
+            Location refLoc = boundary.pairs.get(0).low.clone();
+            cursor = boundary.getBlockCursor().filter((x, y, z) -> {
+                refLoc.setX(x + 0.5);
+                refLoc.setY(y + 0.5);
+                refLoc.setZ(z + 0.5);
+                return area.doesContainLocation(refLoc);
+            });
         }
         Location low = boundary.pairs.get(0).low;
         Location high = boundary.pairs.get(0).high;
@@ -48,66 +65,41 @@ public class CuboidBlockSet implements BlockSet {
         center_x = (int) (center.getX() - low.getX());
         center_y = (int) (center.getY() - low.getY());
         center_z = (int) (center.getZ() - low.getZ());
-        blocks = new FullBlockData[x_width * y_length * z_height];
-        int index = 0;
-        double lowX = low.getBlockX() + 0.5, lowY = low.getBlockY() + 0.5, lowZ = low.getBlockZ() + 0.5;
-        Location refLoc = low.clone();
-        for (int x = 0; x < x_width; x++) {
-            for (int y = 0; y < y_length; y++) {
-                for (int z = 0; z < z_height; z++) {
-                    refLoc.setX(lowX + x);
-                    refLoc.setY(lowY + y);
-                    refLoc.setZ(lowZ + z);
-                    FullBlockData block = (constraint == null || constraint.doesContainLocation(refLoc)) ? new FullBlockData(refLoc.getBlock(), copyFlags) : STRUCTURE_VOID;
-                    if (block != STRUCTURE_VOID && mask != null && !mask.contains(block.data.getMaterial())) {
-                        block = STRUCTURE_VOID;
-                    }
-                    blocks[index++] = block;
-                }
-            }
-        }
+        blocks = new PalettedBlockArray(x_width * y_length * z_height);
+        // Palette ID 0, which every block starts as
+        blocks.idFor(STRUCTURE_VOID.data);
+        return cursor;
     }
 
-    public void buildDelayed(AreaContainmentObject area, Location center, HashSet<Material> mask, Runnable runme, long maxDelayMs, boolean copyFlags) {
-        hasFlags = copyFlags;
-        CuboidTag boundary;
-        if (area instanceof CuboidTag && ((CuboidTag) area).pairs.size() == 1) {
-            boundary = (CuboidTag) area;
+    public void copyBlock(World world, int lowX, int lowY, int lowZ, BlockCursor cursor, HashSet<Material> mask, boolean copyFlags) {
+        FullBlockData block = new FullBlockData(world.getBlockAt(cursor.x, cursor.y, cursor.z), copyFlags);
+        if (mask != null && !mask.contains(block.data.getMaterial())) {
+            return;
         }
-        else {
-            constraint = area;
-            boundary = area.getCuboidBoundary();
+        blocks.set(indexOf(cursor.x - lowX, cursor.y - lowY, cursor.z - lowZ), block);
+    }
+
+    public void buildImmediate(AreaContainmentObject area, Location center, HashSet<Material> mask, boolean copyFlags) {
+        BlockCursor cursor = prepareBuild(area, center, copyFlags);
+        Location low = area.getCuboidBoundary().pairs.get(0).low;
+        World world = low.getWorld();
+        int lowX = low.getBlockX(), lowY = low.getBlockY(), lowZ = low.getBlockZ();
+        while (cursor.next()) {
+            copyBlock(world, lowX, lowY, lowZ, cursor, mask, copyFlags);
         }
-        Location low = boundary.pairs.get(0).low;
-        Location high = boundary.pairs.get(0).high;
-        x_width = (int) ((high.getX() - low.getX()) + 1);
-        y_length = (int) ((high.getY() - low.getY()) + 1);
-        z_height = (int) ((high.getZ() - low.getZ()) + 1);
-        center_x = (int) (center.getX() - low.getX());
-        center_y = (int) (center.getY() - low.getY());
-        center_z = (int) (center.getZ() - low.getZ());
-        final long goal = (long)x_width * y_length * z_height;
-        blocks = new FullBlockData[x_width * y_length * z_height];
-        double lowX = low.getBlockX() + 0.5, lowY = low.getBlockY() + 0.5, lowZ = low.getBlockZ() + 0.5;
-        Location refLoc = low.clone();
+    }
+
+    public void buildDelayed(AreaContainmentObject area, Location center, HashSet<Material> mask, Runnable runme, long maxDelayMs, boolean copyFlags) {
+        BlockCursor cursor = prepareBuild(area, center, copyFlags);
+        Location low = area.getCuboidBoundary().pairs.get(0).low;
+        World world = low.getWorld();
+        int lowX = low.getBlockX(), lowY = low.getBlockY(), lowZ = low.getBlockZ();
         new BukkitRunnable() {
-            int index = 0;
             @Override
             public void run() {
                 long start = CoreUtilities.monotonicMillis();
-                while (index < goal) {
-                    long z = index % ((long) z_height);
-                    long y = ((index - z) % ((long)y_length * z_height)) / ((long) z_height);
-                    long x = (index - y - z) / ((long)y_length * z_height);
-                    refLoc.setX(lowX + x);
-                    refLoc.setY(lowY + y);
-                    refLoc.setZ(lowZ + z);
-                    FullBlockData block = (constraint == null || constraint.doesContainLocation(refLoc)) ? new FullBlockData(refLoc.getBlock(), copyFlags) : STRUCTURE_VOID;
-                    if (block != STRUCTURE_VOID && mask != null && !mask.contains(block.data.getMaterial())) {
-                        block = STRUCTURE_VOID;
-                    }
-                    blocks[index] = block;
-                    index++;
+                while (cursor.next()) {
+                    copyBlock(world, lowX, lowY, lowZ, cursor, mask, copyFlags);
                     if (CoreUtilities.monotonicMillis() - start > maxDelayMs) {
                         return;
                     }
@@ -116,14 +108,13 @@ public class CuboidBlockSet implements BlockSet {
                     runme.run();
                 }
                 cancel();
-
             }
         }.runTaskTimer(Denizen.getInstance(), 1, 1);
     }
 
     public AreaContainmentObject constraint = null;
 
-    public FullBlockData[] blocks = null;
+    public PalettedBlockArray blocks = null;
 
     public boolean hasFlags = false;
 
@@ -145,9 +136,14 @@ public class CuboidBlockSet implements BlockSet {
 
     public int readingProcesses = 0;
 
+    /**
+     * The most recent section-based paste of this block set, if any, for progress tracking.
+     */
+    public ChunkSectionPaster lastPaste = null;
+
     public CuboidBlockSet duplicate() {
         CuboidBlockSet result = new CuboidBlockSet();
-        result.blocks = blocks.clone();
+        result.blocks = blocks.duplicate();
         result.hasFlags = hasFlags;
         result.x_width = x_width;
         result.y_length = y_length;
@@ -162,8 +158,8 @@ public class CuboidBlockSet implements BlockSet {
     }
 
     @Override
-    public FullBlockData[] getBlocks() {
-        return blocks;
+    public int getBlockCount() {
+        return blocks.size;
     }
 
     public CuboidTag getCuboid(Location loc) {
@@ -290,19 +286,29 @@ public class CuboidBlockSet implements BlockSet {
 
     @Override
     public void setBlocksDelayed(final Runnable runme, final InputParams input, long maxDelayMs) {
+        if (ChunkSectionPaster.canPaste(input)) {
+            lastPaste = new ChunkSectionPaster(this, input);
+            lastPaste.pasteDelayed(runme, maxDelayMs);
+            return;
+        }
+        lastPaste = null;
         final long goal = (long)x_width * y_length * z_height;
         new BukkitRunnable() {
-            int index = 0;
+            int index = 0, x = 0, y = 0, z = 0;
             @Override
             public void run() {
                 SchematicCommand.noPhys = true;
                 long start = CoreUtilities.monotonicMillis();
                 while (index < goal) {
-                    int z = index % (z_height);
-                    int y = ((index - z) % (y_length * z_height)) / z_height;
-                    int x = (index - y - z) / (y_length * z_height);
-                    setBlockSingle(blocks[index], x, y, z, input);
+                    setBlockSingle(blocks.get(index), x, y, z, input);
                     index++;
+                    if (++z == z_height) {
+                        z = 0;
+                        if (++y == y_length) {
+                            y = 0;
+                            x++;
+                        }
+                    }
                     if (CoreUtilities.monotonicMillis() - start > maxDelayMs) {
                         SchematicCommand.noPhys = false;
                         return;
@@ -319,12 +325,18 @@ public class CuboidBlockSet implements BlockSet {
 
     @Override
     public void setBlocks(InputParams input) {
+        if (ChunkSectionPaster.canPaste(input)) {
+            lastPaste = new ChunkSectionPaster(this, input);
+            lastPaste.pasteNow();
+            return;
+        }
+        lastPaste = null;
         SchematicCommand.noPhys = true;
         int index = 0;
         for (int x = 0; x < x_width; x++) {
             for (int y = 0; y < y_length; y++) {
                 for (int z = 0; z < z_height; z++) {
-                    setBlockSingle(blocks[index], x, y, z, input);
+                    setBlockSingle(blocks.get(index), x, y, z, input);
                     index++;
                 }
             }
@@ -355,7 +367,8 @@ public class CuboidBlockSet implements BlockSet {
 
     public void rotateOne() {
         rotateEntitiesOne();
-        FullBlockData[] bd = new FullBlockData[blocks.length];
+        PalettedBlockArray bd = new PalettedBlockArray(blocks.size);
+        int[] mapping = blocks.transformPaletteInto(bd, FullBlockData::rotateOne);
         int index = 0;
         int cx = center_x;
         center_x = center_z;
@@ -363,7 +376,9 @@ public class CuboidBlockSet implements BlockSet {
         for (int x = 0; x < z_height; x++) {
             for (int y = 0; y < y_length; y++) {
                 for (int z = x_width - 1; z >= 0; z--) {
-                    bd[index++] = blockAt(z, y, x).rotateOne();
+                    int source = indexOf(z, y, x);
+                    bd.set(index, mapping[blocks.getId(source)]);
+                    bd.copyExtras(blocks, source, index++);
                 }
             }
         }
@@ -406,13 +421,16 @@ public class CuboidBlockSet implements BlockSet {
 
     public void flipX() {
         flipEntities(-1, 1);
-        FullBlockData[] bd = new FullBlockData[blocks.length];
+        PalettedBlockArray bd = new PalettedBlockArray(blocks.size);
+        int[] mapping = blocks.transformPaletteInto(bd, FullBlockData::flipX);
         int index = 0;
         center_x = x_width - center_x - 1;
         for (int x = x_width - 1; x >= 0; x--) {
             for (int y = 0; y < y_length; y++) {
                 for (int z = 0; z < z_height; z++) {
-                    bd[index++] = blockAt(x, y, z).flipX();
+                    int source = indexOf(x, y, z);
+                    bd.set(index, mapping[blocks.getId(source)]);
+                    bd.copyExtras(blocks, source, index++);
                 }
             }
         }
@@ -420,13 +438,16 @@ public class CuboidBlockSet implements BlockSet {
     }
 
     public void flipY() {
-        FullBlockData[] bd = new FullBlockData[blocks.length];
+        PalettedBlockArray bd = new PalettedBlockArray(blocks.size);
+        int[] mapping = blocks.transformPaletteInto(bd, FullBlockData::flipY);
         int index = 0;
         center_y = y_length - center_y - 1;
         for (int x = 0; x < x_width; x++) {
             for (int y = y_length - 1; y >= 0; y--) {
                 for (int z = 0; z < z_height; z++) {
-                    bd[index++] = blockAt(x, y, z).flipY();
+                    int source = indexOf(x, y, z);
+                    bd.set(index, mapping[blocks.getId(source)]);
+                    bd.copyExtras(blocks, source, index++);
                 }
             }
         }
@@ -435,20 +456,27 @@ public class CuboidBlockSet implements BlockSet {
 
     public void flipZ() {
         flipEntities(1, -1);
-        FullBlockData[] bd = new FullBlockData[blocks.length];
+        PalettedBlockArray bd = new PalettedBlockArray(blocks.size);
+        int[] mapping = blocks.transformPaletteInto(bd, FullBlockData::flipZ);
         int index = 0;
         center_z = z_height - center_z - 1;
         for (int x = 0; x < x_width; x++) {
             for (int y = 0; y < y_length; y++) {
                 for (int z = z_height - 1; z >= 0; z--) {
-                    bd[index++] = blockAt(x, y, z).flipZ();
+                    int source = indexOf(x, y, z);
+                    bd.set(index, mapping[blocks.getId(source)]);
+                    bd.copyExtras(blocks, source, index++);
                 }
             }
         }
         blocks = bd;
     }
 
+    public int indexOf(int x, int y, int z) {
+        return z + y * z_height + x * z_height * y_length;
+    }
+
     public FullBlockData blockAt(double X, double Y, double Z) {
-        return blocks[(int) (Z + Y * z_height + X * z_height * y_length)];
+        return blocks.get((int) (Z + Y * z_height + X * z_height * y_length));
     }
 }
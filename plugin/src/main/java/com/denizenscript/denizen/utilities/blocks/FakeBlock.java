@@ -8,6 +8,8 @@ import com.denizenscript.denizen.objects.MaterialTag;
 import com.denizenscript.denizen.objects.PlayerTag;
 import com.denizenscript.denizen.utilities.packets.NetworkInterceptHelper;
 import com.denizenscript.denizencore.objects.core.DurationTag;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.scheduler.BukkitRunnable;
@@ -20,33 +22,210 @@ import java.util.*;
  */
 public class FakeBlock {
 
+    /**
+     * Packs section-relative block coordinates the same way chunk packets do for block entities: y << 8 | x << 4 | z.
+     */
+    public static int packSectionPosition(int x, int y, int z) {
+        return ((y & 15) << 8) | ((x & 15) << 4) | (z & 15);
+    }
+
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * An immutable set of fake blocks within a section, as a sorted array of packed section positions alongside a matching array of blocks.
+     */
+    public static class SectionEntries {
+
+        public static final SectionEntries EMPTY = new SectionEntries(new short[0], new FakeBlock[0]);
+
+        public final short[] positions;
+
+        public final FakeBlock[] blocks;
+
+        public final int count;
+
+        public SectionEntries(short[] positions, FakeBlock[] blocks) {
+            this.positions = positions;
+            this.blocks = blocks;
+            this.count = positions.length;
+        }
+
+        public int indexOf(int packed) {
+            return Arrays.binarySearch(positions, 0, count, (short) packed);
+        }
+
+        public FakeBlock get(int packed) {
+            int index = indexOf(packed);
+            return index < 0 ? null : blocks[index];
+        }
+    }
+
+    /**
+     * The fake blocks within one 16x16x16 chunk section.
+     * Changed only on the main thread, but read from packet threads, so changes are copy-on-write: readers take the current 'entries' once and always see a complete, consistent set.
+     */
+    public static class FakeBlockSection {
+
+        public volatile SectionEntries entries = SectionEntries.EMPTY;
+
+        public FakeBlock get(int packed) {
+            return entries.get(packed);
+        }
+
+        public int count() {
+            return entries.count;
+        }
+
+        public void put(int packed, FakeBlock block) {
+            SectionEntries current = entries;
+            int index = current.indexOf(packed);
+            if (index >= 0) {
+                FakeBlock[] blocks = current.blocks.clone();
+                blocks[index] = block;
+                entries = new SectionEntries(current.positions, blocks);
+                return;
+            }
+            index = -index - 1;
+            int count = current.count;
+            short[] positions = new short[count + 1];
+            FakeBlock[] blocks = new FakeBlock[count + 1];
+            System.arraycopy(current.positions, 0, positions, 0, index);
+            System.arraycopy(current.blocks, 0, blocks, 0, index);
+            positions[index] = (short) packed;
+            blocks[index] = block;
+            System.arraycopy(current.positions, index, positions, index + 1, count - index);
+            System.arraycopy(current.blocks, index, blocks, index + 1, count - index);
+            entries = new SectionEntries(positions, blocks);
+        }
+
+        public boolean remove(int packed) {
+            SectionEntries current = entries;
+            int index = current.indexOf(packed);
+            if (index < 0) {
+                return false;
+            }
+            int count = current.count - 1;
+            short[] positions = new short[count];
+            FakeBlock[] blocks = new FakeBlock[count];
+            System.arraycopy(current.positions, 0, positions, 0, index);
+            System.arraycopy(current.blocks, 0, blocks, 0, index);
+            System.arraycopy(current.positions, index + 1, positions, index, count - index);
+            System.arraycopy(current.blocks, index + 1, blocks, index, count - index);
+            entries = count == 0 ? SectionEntries.EMPTY : new SectionEntries(positions, blocks);
+            return true;
+        }
+    }
+
+    public static class FakeChunk {
+
+        public Int2ObjectOpenHashMap<FakeBlockSection> sections = new Int2ObjectOpenHashMap<>();
+
+        public int blockCount;
+
+        public FakeBlockSection getSection(int sectionY) {
+            return sections.get(sectionY);
+        }
+
+        public FakeBlock get(int x, int y, int z) {
+            FakeBlockSection section = sections.get(y >> 4);
+            return section == null ? null : section.get(packSectionPosition(x, y, z));
+        }
+
+        public List<FakeBlock> getBlocks() {
+            List<FakeBlock> result = new ArrayList<>(blockCount);
+            for (FakeBlockSection section : sections.values()) {
+                result.addAll(Arrays.asList(section.entries.blocks));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * All fake blocks shown to a single player, keyed by world name, then packed chunk position, then chunk section.
+     * Keyed by name rather than by World instance so that blocks in a world that has since unloaded can still be found and removed.
+     */
     public static class FakeBlockMap {
 
-        public Map<LocationTag, FakeBlock> byLocation = new HashMap<>();
+        public HashMap<String, Long2ObjectOpenHashMap<FakeChunk>> byWorld = new HashMap<>();
+
+        public int size;
+
+        public FakeChunk getChunk(World world, int chunkX, int chunkZ) {
+            Long2ObjectOpenHashMap<FakeChunk> chunks = byWorld.get(world.getName());
+            return chunks == null ? null : chunks.get(chunkKey(chunkX, chunkZ));
+        }
+
+        public FakeBlock get(World world, int x, int y, int z) {
+            FakeChunk chunk = getChunk(world, x >> 4, z >> 4);
+            return chunk == null ? null : chunk.get(x, y, z);
+        }
+
+        public FakeBlock get(LocationTag location) {
+            World world = location.getWorld();
+            if (world == null) {
+                return null;
+            }
+            return get(world, location.getBlockX(), location.getBlockY(), location.getBlockZ());
+        }
 
-        public Map<ChunkCoordinate, List<FakeBlock>> byChunk = new HashMap<>();
+        public List<FakeBlock> getAllBlocks() {
+            List<FakeBlock> result = new ArrayList<>(size);
+            for (Long2ObjectOpenHashMap<FakeChunk> chunks : byWorld.values()) {
+                for (FakeChunk chunk : chunks.values()) {
+                    result.addAll(chunk.getBlocks());
+                }
+            }
+            return result;
+        }
 
         public FakeBlock getOrAdd(PlayerTag player, LocationTag location) {
-            location = new LocationTag(location.getBlockX(), location.getBlockY(), location.getBlockZ(), location.getWorldName());
-            FakeBlock block = byLocation.get(location);
+            World world = location.getWorld();
+            if (world == null) {
+                return null;
+            }
+            int x = location.getBlockX(), y = location.getBlockY(), z = location.getBlockZ();
+            FakeChunk chunk = byWorld.computeIfAbsent(world.getName(), k -> new Long2ObjectOpenHashMap<>()).computeIfAbsent(chunkKey(x >> 4, z >> 4), k -> new FakeChunk());
+            FakeBlockSection section = chunk.sections.computeIfAbsent(y >> 4, k -> new FakeBlockSection());
+            int packed = packSectionPosition(x, y, z);
+            FakeBlock block = section.get(packed);
             if (block != null) {
                 return block;
             }
-            block = new FakeBlock(player, location);
-            byLocation.put(location, block);
-            List<FakeBlock> chunkBlocks = byChunk.computeIfAbsent(block.chunkCoord, k -> new ArrayList<>());
-            chunkBlocks.add(block);
+            block = new FakeBlock(player, new LocationTag(world, x, y, z));
+            section.put(packed, block);
+            chunk.blockCount++;
+            size++;
             return block;
         }
 
         public void remove(FakeBlock block) {
-            if (byLocation.remove(block.location) != null) {
-                List<FakeBlock> chunkBlocks = byChunk.get(block.chunkCoord);
-                if (chunkBlocks != null) {
-                    chunkBlocks.remove(block);
-                    if (chunkBlocks.isEmpty()) {
-                        byChunk.remove(block.chunkCoord);
-                    }
+            String worldName = block.chunkCoord.worldName;
+            int x = block.location.getBlockX(), y = block.location.getBlockY(), z = block.location.getBlockZ();
+            Long2ObjectOpenHashMap<FakeChunk> chunks = byWorld.get(worldName);
+            if (chunks == null) {
+                return;
+            }
+            long key = chunkKey(x >> 4, z >> 4);
+            FakeChunk chunk = chunks.get(key);
+            if (chunk == null) {
+                return;
+            }
+            FakeBlockSection section = chunk.sections.get(y >> 4);
+            if (section == null || section.get(packSectionPosition(x, y, z)) != block) {
+                return;
+            }
+            section.remove(packSectionPosition(x, y, z));
+            size--;
+            chunk.blockCount--;
+            if (section.count() == 0) {
+                chunk.sections.remove(y >> 4);
+            }
+            if (chunk.blockCount == 0) {
+                chunks.remove(key);
+                if (chunks.isEmpty()) {
+                    byWorld.remove(worldName);
                 }
             }
         }
@@ -59,22 +238,113 @@ public class FakeBlock {
         if (map == null) {
             return null;
         }
-        return map.byLocation.get(location);
+        return map.get(location);
     }
 
-    public static List<FakeBlock> getFakeBlocksFor(UUID id, ChunkCoordinate chunkCoord) {
+    public static FakeBlock getFakeBlockFor(UUID id, World world, int x, int y, int z) {
         FakeBlockMap map = blocks.get(id);
         if (map == null) {
             return null;
         }
-        return map.byChunk.get(chunkCoord);
+        return map.get(world, x, y, z);
+    }
+
+    public static FakeChunk getFakeChunkFor(UUID id, World world, int chunkX, int chunkZ) {
+        FakeBlockMap map = blocks.get(id);
+        if (map == null) {
+            return null;
+        }
+        return map.getChunk(world, chunkX, chunkZ);
+    }
+
+    public static List<FakeBlock> getFakeBlocksFor(UUID id, World world, int chunkX, int chunkZ) {
+        FakeChunk chunk = getFakeChunkFor(id, world, chunkX, chunkZ);
+        return chunk == null ? null : chunk.getBlocks();
+    }
+
+    /**
+     * Expiration of timed fake blocks is handled by a single timer wheel rather than a scheduled task per block.
+     * Each block sits in the bucket for its expiration tick modulo the wheel size, and is checked each time the wheel passes that bucket.
+     */
+    public static final int EXPIRY_WHEEL_SIZE = 256;
+
+    public static final ArrayList<FakeBlock>[] expiryWheel = new ArrayList[EXPIRY_WHEEL_SIZE];
+
+    public static long expiryWheelTick = 0;
+
+    public static BukkitTask expiryWheelTask;
+
+    static {
+        for (int i = 0; i < EXPIRY_WHEEL_SIZE; i++) {
+            expiryWheel[i] = new ArrayList<>();
+        }
+    }
+
+    public static void tickExpiryWheel() {
+        expiryWheelTick++;
+        int bucketIndex = (int) (expiryWheelTick & (EXPIRY_WHEEL_SIZE - 1));
+        ArrayList<FakeBlock> bucket = expiryWheel[bucketIndex];
+        if (!bucket.isEmpty()) {
+            List<FakeBlock> expired = null;
+            int kept = 0;
+            for (int i = 0; i < bucket.size(); i++) {
+                FakeBlock block = bucket.get(i);
+                // Skip blocks that were cancelled, rescheduled into another bucket, or are listed twice
+                if (block.expiryBucket != bucketIndex || block.lastWheelVisit == expiryWheelTick) {
+                    continue;
+                }
+                block.lastWheelVisit = expiryWheelTick;
+                if (block.expiryTick <= expiryWheelTick) {
+                    block.expiryBucket = -1;
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add(block);
+                }
+                else {
+                    bucket.set(kept++, block);
+                }
+            }
+            bucket.subList(kept, bucket.size()).clear();
+            if (expired != null) {
+                for (FakeBlock block : expired) {
+                    block.cancelBlock();
+                }
+            }
+        }
+        if (blocks.isEmpty()) {
+            expiryWheelTask.cancel();
+            expiryWheelTask = null;
+            for (ArrayList<FakeBlock> list : expiryWheel) {
+                list.clear();
+            }
+        }
+    }
+
+    public void scheduleExpiry(long ticks) {
+        expiryTick = expiryWheelTick + ticks;
+        int bucketIndex = (int) (expiryTick & (EXPIRY_WHEEL_SIZE - 1));
+        if (expiryBucket != bucketIndex) {
+            expiryWheel[bucketIndex].add(this);
+            expiryBucket = bucketIndex;
+        }
+        if (expiryWheelTask == null) {
+            expiryWheelTask = new BukkitRunnable() {
+                @Override
+                public void run() {
+                    tickExpiryWheel();
+                }
+            }.runTaskTimer(Denizen.getInstance(), 1, 1);
+        }
     }
 
     public final PlayerTag player;
     public final LocationTag location;
     public final ChunkCoordinate chunkCoord;
-    public MaterialTag material;
-    public BukkitTask currentTask = null;
+    public volatile MaterialTag material;
+    public long expiryTick;
+    public int expiryBucket = -1;
+    public long lastWheelVisit = -1;
 
     private FakeBlock(PlayerTag player, LocationTag location) {
         this.player = player;
@@ -95,6 +365,9 @@ public class FakeBlock {
                 blocks.put(uuid, playerBlocks);
             }
             FakeBlock block = playerBlocks.getOrAdd(player, location);
+            if (block == null) {
+                continue;
+            }
             block.updateBlock(material, duration, sendNow);
         }
     }
@@ -103,7 +376,7 @@ public class FakeBlock {
         for (PlayerTag player : players) {
             FakeBlockMap playerBlocks = blocks.get(player.getPlayerEntity().getUniqueId());
             if (playerBlocks != null) {
-                FakeBlock block = playerBlocks.byLocation.get(location);
+                FakeBlock block = playerBlocks.get(location);
                 if (block != null) {
                     block.cancelBlock();
                 }
@@ -125,18 +398,16 @@ public class FakeBlock {
     }
 
     public void cancelBlock() {
-        if (currentTask != null) {
-            currentTask.cancel();
-            currentTask = null;
-        }
-        material = null;
+        expiryBucket = -1;
         FakeBlockMap mapping = blocks.get(player.getUUID());
         mapping.remove(this);
-        if (mapping.byChunk.isEmpty()) {
+        material = null;
+        if (mapping.size == 0) {
             blocks.remove(player.getUUID());
         }
-        if (player.isOnline()) {
-            scheduleChunkRefresh(location.getWorld(), chunkCoord);
+        World world = location.getWorld();
+        if (player.isOnline() && world != null) {
+            scheduleChunkRefresh(world, chunkCoord);
             if (!NMSHandler.getVersion().isAtLeast(NMSVersion.v1_18)) {
                 player.getPlayerEntity().sendBlockChange(location, location.getBlock().getBlockData());
             }
@@ -144,9 +415,7 @@ public class FakeBlock {
     }
 
     private void updateBlock(MaterialTag material, DurationTag duration, boolean sendNow) {
-        if (currentTask != null) {
-            currentTask.cancel();
-        }
+        expiryBucket = -1;
         this.material = material;
         if (player.hasChunkLoaded(location.getChunk())) {
             if (sendNow || !NMSHandler.getVersion().isAtLeast(NMSVersion.v1_18)) {
@@ -155,13 +424,7 @@ public class FakeBlock {
             scheduleChunkRefresh(location.getWorld(), chunkCoord);
         }
         if (duration != null && duration.getTicks() > 0) {
-            currentTask = new BukkitRunnable() {
-                @Override
-                public void run() {
-                    currentTask = null;
-                    cancelBlock();
-                }
-            }.runTaskLater(Denizen.getInstance(), duration.getTicks());
+            scheduleExpiry(duration.getTicks());
         }
     }
 }
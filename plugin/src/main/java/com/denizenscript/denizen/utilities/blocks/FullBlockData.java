@@ -598,10 +598,14 @@ public class FullBlockData {
             NMSHandler.blockHelper.setNbtData(block, tileEntityData);
         }
         if (flags != null) {
-            MapTagBasedFlagTracker flagMap = (MapTagBasedFlagTracker) new LocationTag(block.getLocation()).getFlagTracker();
-            for (Map.Entry<StringHolder, ObjectTag> entry : flags.entrySet()) {
-                flagMap.setRootMap(entry.getKey().str, entry.getValue().asType(MapTag.class, CoreUtilities.noDebugContext));
-            }
+            applyFlags(block, flags);
+        }
+    }
+
+    public static void applyFlags(Block block, MapTag flags) {
+        MapTagBasedFlagTracker flagMap = (MapTagBasedFlagTracker) new LocationTag(block.getLocation()).getFlagTracker();
+        for (Map.Entry<StringHolder, ObjectTag> entry : flags.entrySet()) {
+            flagMap.setRootMap(entry.getKey().str, entry.getValue().asType(MapTag.class, CoreUtilities.noDebugContext));
         }
     }
 }
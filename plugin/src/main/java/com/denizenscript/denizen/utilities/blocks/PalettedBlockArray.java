@@ -0,0 +1,181 @@
+package com.denizenscript.denizen.utilities.blocks;
+
+import com.denizenscript.denizen.nms.util.jnbt.CompoundTag;
+import com.denizenscript.denizencore.objects.core.MapTag;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.bukkit.block.data.BlockData;
+
+import java.util.ArrayList;
+import java.util.function.UnaryOperator;
+
+/**
+ * Compact storage for a large fixed-size array of blocks, similar to a Minecraft chunk section:
+ * each block is an index into a palette of distinct BlockData values, bit-packed into a long array that widens as the palette grows.
+ * Tile entity data and flags are rare, so they're kept in sparse maps keyed by block index.
+ */
+public class PalettedBlockArray {
+
+    public final int size;
+
+    public final ArrayList<BlockData> palette = new ArrayList<>();
+
+    /**
+     * Shared plain block data for each palette entry, for blocks that don't have tile entity data or flags.
+     */
+    public final ArrayList<FullBlockData> paletteBlocks = new ArrayList<>();
+
+    public final Object2IntOpenHashMap<BlockData> paletteIds = new Object2IntOpenHashMap<>();
+
+    public Int2ObjectOpenHashMap<CompoundTag> tileEntities = new Int2ObjectOpenHashMap<>();
+
+    public Int2ObjectOpenHashMap<MapTag> flags = new Int2ObjectOpenHashMap<>();
+
+    public int bitsPerEntry;
+
+    public int entriesPerLong;
+
+    public long mask;
+
+    public long[] data;
+
+    public PalettedBlockArray(int size) {
+        this.size = size;
+        paletteIds.defaultReturnValue(-1);
+        resize(4);
+    }
+
+    public void resize(int bits) {
+        long[] oldData = data;
+        int oldBits = bitsPerEntry, oldPerLong = entriesPerLong;
+        bitsPerEntry = bits;
+        entriesPerLong = 64 / bits;
+        mask = (1L << bits) - 1;
+        data = new long[(size + entriesPerLong - 1) / entriesPerLong];
+        if (oldData != null) {
+            long oldMask = (1L << oldBits) - 1;
+            for (int i = 0; i < size; i++) {
+                set(i, (int) ((oldData[i / oldPerLong] >>> ((i % oldPerLong) * oldBits)) & oldMask));
+            }
+        }
+    }
+
+    /**
+     * Widens the packed storage if needed to be able to hold the given ID.
+     */
+    public void ensureIdCapacity(int id) {
+        if (id > mask) {
+            resize(32 - Integer.numberOfLeadingZeros(id));
+        }
+    }
+
+    /**
+     * Replaces every stored ID with its mapped value. Used when IDs were stored before the palette was known (eg while streaming a schematic file).
+     */
+    public void remapIds(int[] mapping) {
+        for (int i = 0; i < size; i++) {
+            set(i, mapping[getId(i)]);
+        }
+    }
+
+    /**
+     * Returns the palette ID for the given block data, adding it to the palette if needed.
+     */
+    public int idFor(BlockData blockData) {
+        int id = paletteIds.getInt(blockData);
+        if (id != -1) {
+            return id;
+        }
+        id = palette.size();
+        palette.add(blockData);
+        paletteBlocks.add(new FullBlockData(blockData));
+        paletteIds.put(blockData, id);
+        if (id > mask) {
+            resize(bitsPerEntry + 1);
+        }
+        return id;
+    }
+
+    public int getId(int index) {
+        return (int) ((data[index / entriesPerLong] >>> ((index % entriesPerLong) * bitsPerEntry)) & mask);
+    }
+
+    public void set(int index, int id) {
+        int longIndex = index / entriesPerLong;
+        int shift = (index % entriesPerLong) * bitsPerEntry;
+        data[longIndex] = (data[longIndex] & ~(mask << shift)) | (((long) id & mask) << shift);
+    }
+
+    public BlockData getData(int index) {
+        return palette.get(getId(index));
+    }
+
+    public FullBlockData get(int index) {
+        CompoundTag tileEntity = tileEntities.isEmpty() ? null : tileEntities.get(index);
+        MapTag flag = flags.isEmpty() ? null : flags.get(index);
+        if (tileEntity == null && flag == null) {
+            return paletteBlocks.get(getId(index));
+        }
+        return new FullBlockData(getData(index), tileEntity, flag);
+    }
+
+    public void set(int index, FullBlockData block) {
+        set(index, idFor(block.data));
+        if (block.tileEntityData != null) {
+            tileEntities.put(index, block.tileEntityData);
+        }
+        else if (!tileEntities.isEmpty()) {
+            tileEntities.remove(index);
+        }
+        if (block.flags != null) {
+            flags.put(index, block.flags);
+        }
+        else if (!flags.isEmpty()) {
+            flags.remove(index);
+        }
+    }
+
+    /**
+     * Copies the tile entity data and flags (if any) of one block in another array to a block in this array.
+     */
+    public void copyExtras(PalettedBlockArray from, int fromIndex, int toIndex) {
+        if (!from.tileEntities.isEmpty()) {
+            CompoundTag tileEntity = from.tileEntities.get(fromIndex);
+            if (tileEntity != null) {
+                tileEntities.put(toIndex, tileEntity);
+            }
+        }
+        if (!from.flags.isEmpty()) {
+            MapTag flag = from.flags.get(fromIndex);
+            if (flag != null) {
+                flags.put(toIndex, flag);
+            }
+        }
+    }
+
+    /**
+     * Fills the palette of an empty target array with a transformed copy of this palette, and returns the mapping of old IDs to new IDs.
+     * This allows block transformations (like rotation) to run once per distinct block type rather than once per block.
+     */
+    public int[] transformPaletteInto(PalettedBlockArray target, UnaryOperator<FullBlockData> transform) {
+        int[] mapping = new int[palette.size()];
+        for (int i = 0; i < mapping.length; i++) {
+            mapping[i] = target.idFor(transform.apply(paletteBlocks.get(i)).data);
+        }
+        return mapping;
+    }
+
+    public PalettedBlockArray duplicate() {
+        PalettedBlockArray result = new PalettedBlockArray(size);
+        result.palette.addAll(palette);
+        result.paletteBlocks.addAll(paletteBlocks);
+        result.paletteIds.putAll(paletteIds);
+        result.bitsPerEntry = bitsPerEntry;
+        result.entriesPerLong = entriesPerLong;
+        result.mask = mask;
+        result.data = data.clone();
+        result.tileEntities = new Int2ObjectOpenHashMap<>(tileEntities);
+        result.flags = new Int2ObjectOpenHashMap<>(flags);
+        return result;
+    }
+}
@@ -9,16 +9,16 @@ import com.denizenscript.denizencore.utilities.debugging.Debug;
 import com.denizenscript.denizencore.objects.core.ListTag;
 import com.denizenscript.denizencore.objects.core.MapTag;
 import com.denizenscript.denizencore.utilities.CoreUtilities;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.block.data.BlockData;
-import org.bukkit.util.BlockVector;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -50,84 +50,215 @@ public class SpongeSchematicHelper {
         return data;
     }
 
-    public static class BoolHolder {
-        public boolean bool;
+    /**
+     * A schematic that has been read from file, but whose palette may not be resolved to BlockData yet.
+     * The block set holds raw file palette IDs until {@link #finish()} is called.
+     */
+    public static class SchematicReadResult {
+
+        public CuboidBlockSet set;
+
+        public Int2ObjectOpenHashMap<String> filePalette = new Int2ObjectOpenHashMap<>();
+
+        /**
+         * Returns whether every palette entry has already been parsed, meaning {@link #finish()} is safe to call off the main thread.
+         */
+        public boolean isPaletteCached() {
+            for (String key : filePalette.values()) {
+                if (!blockDataCache.containsKey(key)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Parses any palette entries that aren't already cached. Must be called on the main thread.
+         */
+        public void cachePalette() {
+            for (String key : filePalette.values()) {
+                blockDataCache.computeIfAbsent(key, SpongeSchematicHelper::unstableParseMaterial);
+            }
+        }
+
+        /**
+         * Converts the raw file palette IDs in the block set to resolved block data. Requires the palette to be cached.
+         */
+        public CuboidBlockSet finish() {
+            int maxId = 0;
+            for (int id : filePalette.keySet()) {
+                maxId = Math.max(maxId, id);
+            }
+            int[] mapping = new int[maxId + 1];
+            Arrays.fill(mapping, -1);
+            PalettedBlockArray blocks = set.blocks;
+            for (Int2ObjectMap.Entry<String> entry : filePalette.int2ObjectEntrySet()) {
+                BlockData data = blockDataCache.get(entry.getValue());
+                if (data == null) {
+                    throw new IllegalStateException("Schematic palette entry '" + entry.getValue() + "' was not parsed before use");
+                }
+                mapping[entry.getIntKey()] = blocks.idFor(data);
+            }
+            for (int i = 0; i < blocks.size; i++) {
+                int fileId = blocks.getId(i);
+                if (fileId >= mapping.length || mapping[fileId] == -1) {
+                    throw new IllegalStateException("Schem file blocks tag references unknown palette ID " + fileId);
+                }
+            }
+            blocks.remapIds(mapping);
+            return set;
+        }
     }
 
-    // Referenced from WorldEdit source and Sponge schematic format v2 documentation
-    // Some values are custom and specific to Denizen
+    /**
+     * Reads a Sponge-format schematic, then resolves its palette. Must be called on the main thread (use {@link #loadSpongeFileAsync(File)} from async code).
+     */
     public static CuboidBlockSet fromSpongeStream(InputStream is) {
-        boolean isPrimary = Bukkit.isPrimaryThread();
-        CuboidBlockSet cbs = new CuboidBlockSet();
-        try {
-            NBTInputStream nbtStream = new NBTInputStream(new GZIPInputStream(is));
-            NamedTag rootTag = nbtStream.readNamedTag();
-            nbtStream.close();
-            if (!rootTag.getName().equals("Schematic")) {
-                throw new Exception("Tag 'Schematic' does not exist or is not first!");
+        SchematicReadResult result = readSpongeStream(is);
+        result.cachePalette();
+        return result.finish();
+    }
+
+    /**
+     * Reads a Sponge-format schematic file off the main thread. If any palette entries aren't cached yet, hops to the main thread just to parse them, then finishes off-thread again.
+     * Never blocks on the main thread. The returned future is completed off the main thread.
+     */
+    public static CompletableFuture<CuboidBlockSet> loadSpongeFileAsync(File file) {
+        CompletableFuture<CuboidBlockSet> future = new CompletableFuture<>();
+        Bukkit.getScheduler().runTaskAsynchronously(Denizen.getInstance(), () -> {
+            SchematicReadResult result;
+            try (InputStream is = new FileInputStream(file)) {
+                result = readSpongeStream(is);
             }
-            CompoundTag schematicTag = (CompoundTag) rootTag.getTag();
-            Map<String, Tag> schematic = schematicTag.getValue();
-            if (schematic.containsKey("DenizenEntities")) {
-                String entities = stringifyTag(schematic.get("DenizenEntities"));
-                cbs.entities = ListTag.valueOf(entities, CoreUtilities.errorButNoDebugContext);
+            catch (Throwable ex) {
+                future.completeExceptionally(ex);
+                return;
             }
-            short width = getChildTag(schematic, "Width", ShortTag.class).getValue();
-            short length = getChildTag(schematic, "Length", ShortTag.class).getValue();
-            short height = getChildTag(schematic, "Height", ShortTag.class).getValue();
-            int originX = 0;
-            int originY = 0;
-            int originZ = 0;
-            if (schematic.containsKey("DenizenOffset")) {
-                // Note: "Offset" contains complete nonsense from WE, so just don't touch it.
-                int[] offsetArr = getChildTag(schematic, "DenizenOffset", IntArrayTag.class).getValue();
-                originX = offsetArr[0];
-                originY = offsetArr[1];
-                originZ = offsetArr[2];
+            Runnable finish = () -> {
+                try {
+                    future.complete(result.finish());
+                }
+                catch (Throwable ex) {
+                    future.completeExceptionally(ex);
+                }
+            };
+            if (result.isPaletteCached()) {
+                finish.run();
+                return;
             }
-            cbs.x_width = width;
-            cbs.z_height = length;
-            cbs.y_length = height;
-            cbs.center_x = originX;
-            cbs.center_y = originY;
-            cbs.center_z = originZ;
-            cbs.blocks = new FullBlockData[width * length * height];
-            Map<String, Tag> paletteMap = getChildTag(schematic, "Palette", CompoundTag.class).getValue();
-            HashMap<Integer, BlockData> palette = new HashMap<>(256);
-            List<Map.Entry<Integer, String>> latePairs = isPrimary ? null : new ArrayList<>();
-            for (String key : paletteMap.keySet()) {
-                int id = getChildTag(paletteMap, key, IntTag.class).getValue();
-                if (isPrimary) {
-                    palette.put(id, blockDataCache.computeIfAbsent(key, SpongeSchematicHelper::unstableParseMaterial));
+            Bukkit.getScheduler().runTask(Denizen.getInstance(), () -> {
+                try {
+                    result.cachePalette();
                 }
-                else {
-                    BlockData entry = blockDataCache.get(key);
-                    if (entry != null) {
-                        palette.put(id, entry);
-                    }
-                    else {
-                        latePairs.add(new AbstractMap.SimpleEntry<>(id, key));
-                    }
+                catch (Throwable ex) {
+                    future.completeExceptionally(ex);
+                    return;
                 }
+                Bukkit.getScheduler().runTaskAsynchronously(Denizen.getInstance(), finish);
+            });
+        });
+        return future;
+    }
+
+    /**
+     * Referenced from WorldEdit source and Sponge schematic format v2 documentation. Some values are custom and specific to Denizen.
+     * Reads a Sponge-format schematic by streaming through its NBT, so that the full tag tree (and in particular the large 'BlockData' byte array) is never held in memory.
+     * Block IDs are decoded straight into the block set's packed storage as raw file palette IDs, which must then be resolved with {@link SchematicReadResult#finish()}.
+     * Safe to call from any thread.
+     */
+    public static SchematicReadResult readSpongeStream(InputStream is) {
+        SchematicReadResult result = new SchematicReadResult();
+        CuboidBlockSet cbs = new CuboidBlockSet();
+        result.set = cbs;
+        try (NBTInputStream nbtStream = new NBTInputStream(new BufferedInputStream(new GZIPInputStream(is), 65536))) {
+            if (nbtStream.readTagType() != NBTConstants.TYPE_COMPOUND || !nbtStream.readTagName().equals("Schematic")) {
+                throw new Exception("Tag 'Schematic' does not exist or is not first!");
             }
-            if (!isPrimary && !latePairs.isEmpty()) {
-                BoolHolder bool = new BoolHolder();
-                Bukkit.getScheduler().runTask(Denizen.getInstance(), () -> {
-                    for (Map.Entry<Integer, String> pair : latePairs) {
-                        palette.put(pair.getKey(), blockDataCache.computeIfAbsent(pair.getValue(), SpongeSchematicHelper::unstableParseMaterial));
-                    }
-                    bool.bool = true;
-                });
-                for (int i = 0; i < 1000; i++) {
-                    Thread.sleep(50);
-                    if (bool.bool) {
+            int width = -1, length = -1, height = -1;
+            byte[] earlyBlockData = null;
+            boolean hasBlockData = false;
+            List<Tag> tileEntities = null;
+            Map<String, Tag> flags = null;
+            Map<String, Tag> paletteMap = null;
+            while (true) {
+                int type = nbtStream.readTagType();
+                if (type == NBTConstants.TYPE_END) {
+                    break;
+                }
+                String name = nbtStream.readTagName();
+                switch (name) {
+                    case "Width":
+                    case "Length":
+                    case "Height":
+                        if (type != NBTConstants.TYPE_SHORT) {
+                            throw new Exception(name + " tag is not of tag type " + ShortTag.class.getName());
+                        }
+                        int value = nbtStream.getDataStream().readShort() & 0xFFFF;
+                        if (name.equals("Width")) {
+                            width = value;
+                        }
+                        else if (name.equals("Length")) {
+                            length = value;
+                        }
+                        else {
+                            height = value;
+                        }
+                        break;
+                    case "DenizenOffset":
+                        // Note: "Offset" contains complete nonsense from WE, so just don't touch it.
+                        int[] offsetArr = ((IntArrayTag) nbtStream.readPayload(type)).getValue();
+                        cbs.center_x = offsetArr[0];
+                        cbs.center_y = offsetArr[1];
+                        cbs.center_z = offsetArr[2];
+                        break;
+                    case "DenizenEntities":
+                        cbs.entities = ListTag.valueOf(stringifyTag(nbtStream.readPayload(type)), CoreUtilities.errorButNoDebugContext);
+                        break;
+                    case "Palette":
+                        paletteMap = ((CompoundTag) nbtStream.readPayload(type)).getValue();
+                        break;
+                    case "BlockEntities":
+                        tileEntities = ((JNBTListTag) nbtStream.readPayload(type)).getValue();
+                        break;
+                    case "DenizenFlags":
+                        flags = ((CompoundTag) nbtStream.readPayload(type)).getValue();
+                        break;
+                    case "BlockData":
+                        if (type != NBTConstants.TYPE_BYTE_ARRAY) {
+                            throw new Exception("BlockData tag is not of tag type " + ByteArrayTag.class.getName());
+                        }
+                        hasBlockData = true;
+                        if (width != -1 && length != -1 && height != -1) {
+                            initBlocks(cbs, width, length, height);
+                            readBlockData(cbs, nbtStream.getDataStream(), nbtStream.getDataStream().readInt(), null);
+                        }
+                        else {
+                            // Rare: block data before dimensions, so it has to be held until the dimensions are known
+                            earlyBlockData = ((ByteArrayTag) nbtStream.readPayload(type)).getValue();
+                        }
+                        break;
+                    default:
+                        nbtStream.skipPayload(type);
                         break;
-                    }
                 }
             }
-            Map<BlockVector, Map<String, Tag>> tileEntitiesMap = new HashMap<>();
-            if (schematic.containsKey("BlockEntities")) {
-                List<Tag> tileEntities = getChildTag(schematic, "BlockEntities", JNBTListTag.class).getValue();
+            if (width == -1 || length == -1 || height == -1) {
+                throw new Exception("Schem file is missing a 'Width', 'Length', or 'Height' tag");
+            }
+            if (!hasBlockData) {
+                throw new Exception("Schem file is missing a 'BlockData' tag");
+            }
+            if (paletteMap == null) {
+                throw new Exception("Schem file is missing a 'Palette' tag");
+            }
+            if (earlyBlockData != null) {
+                initBlocks(cbs, width, length, height);
+                readBlockData(cbs, null, earlyBlockData.length, earlyBlockData);
+            }
+            for (String key : paletteMap.keySet()) {
+                result.filePalette.put((int) getChildTag(paletteMap, key, IntTag.class).getValue(), key);
+            }
+            if (tileEntities != null) {
                 for (Tag tag : tileEntities) {
                     if (!(tag instanceof CompoundTag)) {
                         continue;
@@ -137,51 +268,75 @@ public class SpongeSchematicHelper {
                     int x = pos[0];
                     int y = pos[1];
                     int z = pos[2];
-                    BlockVector vec = new BlockVector(x, y, z);
-                    tileEntitiesMap.put(vec, t.getValue());
-                }
-            }
-            byte[] blocks = getChildTag(schematic, "BlockData", ByteArrayTag.class).getValue();
-            int i = 0;
-            int index = 0;
-            while (i < blocks.length) {
-                int value = 0;
-                int varintLength = 0;
-                while (true) {
-                    value |= (blocks[i] & 127) << (varintLength++ * 7);
-                    if (varintLength > 5) {
-                        throw new Exception("Schem file blocks tag data corrupted");
-                    }
-                    if ((blocks[i] & 128) != 128) {
-                        i++;
-                        break;
+                    if (x < 0 || y < 0 || z < 0 || x >= width || y >= height || z >= length) {
+                        continue;
                     }
-                    i++;
-                }
-                FullBlockData block = new FullBlockData(palette.get(value));
-                int y = index / (width * length);
-                int z = (index % (width * length)) / width;
-                int x = (index % (width * length)) % width;
-                int cbsIndex = z + y * cbs.z_height + x * cbs.z_height * cbs.y_length;
-                BlockVector pt = new BlockVector(x, y, z);
-                if (tileEntitiesMap.containsKey(pt)) {
-                    block.tileEntityData = NMSHandler.instance.createCompoundTag(tileEntitiesMap.get(pt));
+                    cbs.blocks.tileEntities.put(cbs.indexOf(x, y, z), t);
                 }
-                cbs.blocks[cbsIndex] = block;
-                index++;
             }
-            if (schematic.containsKey("DenizenFlags")) {
-                Map<String, Tag> flags = getChildTag(schematic, "DenizenFlags", CompoundTag.class).getValue();
+            if (flags != null) {
                 for (Map.Entry<String, Tag> flagData : flags.entrySet()) {
                     int flagIndex = Integer.parseInt(flagData.getKey());
-                    cbs.blocks[flagIndex].flags = MapTag.valueOf(stringifyTag(flagData.getValue()), CoreUtilities.noDebugContext);
+                    cbs.blocks.flags.put(flagIndex, MapTag.valueOf(stringifyTag(flagData.getValue()), CoreUtilities.noDebugContext));
                 }
             }
         }
         catch (Exception e) {
             throw new RuntimeException("Failed to load Sponge-format schematic file", e);
         }
-        return cbs;
+        return result;
+    }
+
+    private static void initBlocks(CuboidBlockSet cbs, int width, int length, int height) {
+        cbs.x_width = width;
+        cbs.z_height = length;
+        cbs.y_length = height;
+        cbs.blocks = new PalettedBlockArray(width * length * height);
+    }
+
+    /**
+     * Decodes the varint block ID stream, either from a data stream or an already-loaded array, directly into the block set's storage.
+     */
+    private static void readBlockData(CuboidBlockSet cbs, DataInputStream input, int byteLength, byte[] loaded) throws Exception {
+        int width = cbs.x_width, length = cbs.z_height;
+        int layerSize = width * length;
+        PalettedBlockArray blocks = cbs.blocks;
+        byte[] buffer = loaded != null ? loaded : new byte[Math.min(byteLength, 65536)];
+        int remaining = byteLength;
+        int value = 0, varintLength = 0, index = 0;
+        while (remaining > 0) {
+            int read;
+            if (loaded != null) {
+                read = loaded.length;
+            }
+            else {
+                read = input.read(buffer, 0, Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new EOFException("Schem file blocks tag data ended early");
+                }
+            }
+            remaining -= read;
+            for (int i = 0; i < read; i++) {
+                byte b = buffer[i];
+                value |= (b & 127) << (varintLength++ * 7);
+                if (varintLength > 5) {
+                    throw new Exception("Schem file blocks tag data corrupted");
+                }
+                if ((b & 128) == 0) {
+                    if (index >= blocks.size) {
+                        throw new Exception("Schem file blocks tag has more blocks than its dimensions allow");
+                    }
+                    int y = index / layerSize;
+                    int z = (index % layerSize) / width;
+                    int x = (index % layerSize) % width;
+                    blocks.ensureIdCapacity(value);
+                    blocks.set(cbs.indexOf(x, y, z), value);
+                    index++;
+                    value = 0;
+                    varintLength = 0;
+                }
+            }
+        }
     }
 
     private static <T extends Tag> T getChildTag(Map<String, Tag> items, String key, Class<T> expected) throws Exception {
@@ -195,70 +350,97 @@ public class SpongeSchematicHelper {
         return expected.cast(tag);
     }
 
+    /**
+     * Writes a Sponge-format schematic, streaming the block data straight from the block set rather than building the full tag tree in memory first.
+     */
     public static void saveToSpongeStream(CuboidBlockSet blockSet, OutputStream os) {
         try {
-            HashMap<String, Tag> schematic = new HashMap<>();
-            schematic.put("Width", new ShortTag((short) (blockSet.x_width)));
-            schematic.put("Length", new ShortTag((short) (blockSet.z_height)));
-            schematic.put("Height", new ShortTag((short) (blockSet.y_length)));
-            schematic.put("DenizenOffset", new IntArrayTag(new int[] {blockSet.center_x, blockSet.center_y, blockSet.center_z}));
-            if (blockSet.entities != null) {
-                schematic.put("DenizenEntities", new ByteArrayTag(blockSet.entities.toString().getBytes(StandardCharsets.UTF_8)));
-            }
+            PalettedBlockArray blocks = blockSet.blocks;
+            // First pass: assign file palette IDs (only for block types actually used) and measure the varint-encoded block data
             Map<String, Tag> palette = new HashMap<>();
-            ByteArrayOutputStream blocksBuffer = new ByteArrayOutputStream((blockSet.x_width) * (blockSet.y_length) * (blockSet.z_height));
-            ArrayList<Tag> tileEntities = new ArrayList<>();
+            int[] fileIds = new int[blocks.palette.size()];
+            Arrays.fill(fileIds, -1);
             int paletteMax = 0;
-            for (int y = 0; y < blockSet.y_length; y++) {
-                for (int z = 0; z < blockSet.z_height; z++) {
-                    for (int x = 0; x < blockSet.x_width; x++) {
-                        int cbsIndex = z + y * blockSet.z_height + x * blockSet.z_height * blockSet.y_length;
-                        FullBlockData bd = blockSet.blocks[cbsIndex];
-                        String dataStr = bd.data.getAsString();
-                        Tag blockIdTag = palette.get(dataStr);
-                        if (blockIdTag == null) {
-                            blockIdTag = new IntTag(paletteMax++);
-                            palette.put(dataStr, blockIdTag);
-                        }
-                        int blockId = ((IntTag) blockIdTag).getValue();
-                        while ((blockId & -128) != 0) {
-                            blocksBuffer.write(blockId & 127 | 128);
-                            blockId >>>= 7;
-                        }
-                        blocksBuffer.write(blockId);
-                        CompoundTag rawTag = bd.tileEntityData;
-                        if (rawTag != null) {
-                            HashMap<String, Tag> values = new HashMap<>(rawTag.getValue());
-                            values.put("Pos", new IntArrayTag(new int[] { x, y, z }));
-                            CompoundTag tileEntityTag = NMSHandler.instance.createCompoundTag(values);
-                            tileEntities.add(tileEntityTag);
-                        }
+            long blockDataLength = 0;
+            for (int i = 0; i < blocks.size; i++) {
+                int localId = blocks.getId(i);
+                int blockId = fileIds[localId];
+                if (blockId == -1) {
+                    String dataStr = blocks.palette.get(localId).getAsString();
+                    Tag blockIdTag = palette.get(dataStr);
+                    if (blockIdTag == null) {
+                        blockIdTag = new IntTag(paletteMax++);
+                        palette.put(dataStr, blockIdTag);
                     }
+                    blockId = ((IntTag) blockIdTag).getValue();
+                    fileIds[localId] = blockId;
                 }
+                blockDataLength += varIntLength(blockId);
             }
-            schematic.put("PaletteMax", new IntTag(paletteMax));
-            schematic.put("Palette", NMSHandler.instance.createCompoundTag(palette));
-            schematic.put("BlockData", new ByteArrayTag(blocksBuffer.toByteArray()));
-            schematic.put("BlockEntities", new JNBTListTag(CompoundTag.class, tileEntities));
+            if (blockDataLength > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Schematic is too large to save");
+            }
+            ArrayList<Tag> tileEntities = new ArrayList<>();
+            for (Int2ObjectMap.Entry<CompoundTag> entry : blocks.tileEntities.int2ObjectEntrySet()) {
+                int cbsIndex = entry.getIntKey();
+                int x = cbsIndex / (blockSet.z_height * blockSet.y_length);
+                int y = (cbsIndex / blockSet.z_height) % blockSet.y_length;
+                int z = cbsIndex % blockSet.z_height;
+                HashMap<String, Tag> values = new HashMap<>(entry.getValue().getValue());
+                values.put("Pos", new IntArrayTag(new int[] { x, y, z }));
+                tileEntities.add(NMSHandler.instance.createCompoundTag(values));
+            }
+            NBTOutputStream stream = new NBTOutputStream(new BufferedOutputStream(new GZIPOutputStream(os), 65536));
+            stream.writeTagHeader(NBTConstants.TYPE_COMPOUND, "Schematic");
+            stream.writeNamedTag("Width", new ShortTag((short) (blockSet.x_width)));
+            stream.writeNamedTag("Length", new ShortTag((short) (blockSet.z_height)));
+            stream.writeNamedTag("Height", new ShortTag((short) (blockSet.y_length)));
+            stream.writeNamedTag("DenizenOffset", new IntArrayTag(new int[] {blockSet.center_x, blockSet.center_y, blockSet.center_z}));
+            if (blockSet.entities != null) {
+                stream.writeNamedTag("DenizenEntities", new ByteArrayTag(blockSet.entities.toString().getBytes(StandardCharsets.UTF_8)));
+            }
+            stream.writeNamedTag("PaletteMax", new IntTag(paletteMax));
+            stream.writeNamedTag("Palette", NMSHandler.instance.createCompoundTag(palette));
+            stream.writeNamedTag("BlockEntities", new JNBTListTag(CompoundTag.class, tileEntities));
             if (blockSet.hasFlags) {
                 Map<String, Tag> flagMap = new HashMap<>();
-                for (int i = 0; i < blockSet.blocks.length; i++) {
-                    if (blockSet.blocks[i].flags != null) {
-                        flagMap.put(String.valueOf(i), new ByteArrayTag(blockSet.blocks[i].flags.toString().getBytes(StandardCharsets.UTF_8)));
-                    }
+                for (Int2ObjectMap.Entry<MapTag> entry : blocks.flags.int2ObjectEntrySet()) {
+                    flagMap.put(String.valueOf(entry.getIntKey()), new ByteArrayTag(entry.getValue().toString().getBytes(StandardCharsets.UTF_8)));
                 }
                 if (!flagMap.isEmpty()) {
-                    schematic.put("DenizenFlags", NMSHandler.instance.createCompoundTag(flagMap));
+                    stream.writeNamedTag("DenizenFlags", NMSHandler.instance.createCompoundTag(flagMap));
                 }
             }
-            CompoundTag schematicTag = NMSHandler.instance.createCompoundTag(schematic);
-            NBTOutputStream stream = new NBTOutputStream(new GZIPOutputStream(os));
-            stream.writeNamedTag("Schematic", schematicTag);
-            os.flush();
+            // Second pass: stream the block data in file order (Y, then Z, then X)
+            stream.writeTagHeader(NBTConstants.TYPE_BYTE_ARRAY, "BlockData");
+            DataOutputStream output = stream.getDataStream();
+            output.writeInt((int) blockDataLength);
+            for (int y = 0; y < blockSet.y_length; y++) {
+                for (int z = 0; z < blockSet.z_height; z++) {
+                    for (int x = 0; x < blockSet.x_width; x++) {
+                        int blockId = fileIds[blocks.getId(blockSet.indexOf(x, y, z))];
+                        while ((blockId & -128) != 0) {
+                            output.write(blockId & 127 | 128);
+                            blockId >>>= 7;
+                        }
+                        output.write(blockId);
+                    }
+                }
+            }
+            stream.writeEndTag();
             stream.close();
         }
         catch (Exception ex) {
             Debug.echoError(ex);
         }
     }
+
+    public static int varIntLength(int value) {
+        int length = 1;
+        while ((value & -128) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
 }
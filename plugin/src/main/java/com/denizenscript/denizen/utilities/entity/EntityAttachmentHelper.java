@@ -9,12 +9,53 @@ import org.bukkit.scheduler.BukkitTask;
 import org.bukkit.util.Vector;
 
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 public class EntityAttachmentHelper {
 
     public static HashMap<UUID, PlayerAttachMap> attachedEntityToData = new HashMap<>();
     public static HashMap<UUID, EntityAttachedToMap> toEntityToData = new HashMap<>();
 
+    /**
+     * Every registered attachment, all processed by a single task once per tick, ordered so that an attachment always runs after the attachment (if any) of the entity it's attached to.
+     */
+    public static ArrayList<AttachmentData> activeAttachments = new ArrayList<>();
+
+    public static boolean attachmentOrderDirty = false;
+
+    public static BukkitTask attachmentTickTask;
+
+    public static volatile long lastTickNanos;
+
+    public static final LongAdder totalTickNanos = new LongAdder(), ticksRun = new LongAdder();
+
+    public static void tickAttachments() {
+        long start = System.nanoTime();
+        if (attachmentOrderDirty) {
+            attachmentOrderDirty = false;
+            for (AttachmentData attachment : activeAttachments) {
+                attachment.depth = attachment.computeDepth();
+            }
+            activeAttachments.sort(Comparator.comparingInt(a -> a.depth));
+        }
+        // Attachments removed mid-tick are skipped here and compacted out afterward, so nothing is removed from the list while iterating it
+        for (int i = 0; i < activeAttachments.size(); i++) {
+            AttachmentData attachment = activeAttachments.get(i);
+            if (attachment.isActive) {
+                attachment.tick();
+            }
+        }
+        activeAttachments.removeIf(attachment -> !attachment.isActive);
+        if (activeAttachments.isEmpty()) {
+            attachmentTickTask.cancel();
+            attachmentTickTask = null;
+        }
+        long tickNanos = System.nanoTime() - start;
+        lastTickNanos = tickNanos;
+        totalTickNanos.add(tickNanos);
+        ticksRun.increment();
+    }
+
     public static class AttachmentData {
 
         public EntityTag attached, to;
@@ -31,16 +72,82 @@ public class EntityAttachmentHelper {
 
         public boolean noRotate, noPitch;
 
-        public BukkitTask checkTask;
-
         public UUID forPlayer;
 
+        public boolean isActive;
+
+        /**
+         * Set when the attachment is removed, so that an attachment removed by its own first tick is never registered.
+         */
+        public boolean isCancelled;
+
+        public int depth;
+
+        /**
+         * Ticks since the last forced resync, and the tick count at which an extra one-off resync is due (or -1 if none).
+         */
+        public int ticksSinceResync, extraResyncAt = -1;
+
+        /**
+         * The positional offset as plain values, copied once at registration so per-packet math doesn't need to allocate.
+         */
+        public double offsetX, offsetY, offsetZ;
+
+        public void cacheOffset() {
+            if (positionalOffset != null) {
+                offsetX = positionalOffset.getX();
+                offsetY = positionalOffset.getY();
+                offsetZ = positionalOffset.getZ();
+            }
+        }
+
         public Vector fixedForOffset(Vector offset, float yaw, float pitch) {
-            if (offsetRelative) {
-                return offset.clone().add(EntityAttachmentHelper.fixOffset(positionalOffset.toVector(), -yaw + yawAngleOffset, pitch + pitchAngleOffset));
+            return fixedForOffset(offset.getX(), offset.getY(), offset.getZ(), yaw, pitch);
+        }
+
+        public Vector fixedForOffset(double x, double y, double z, float yaw, float pitch) {
+            if (!offsetRelative) {
+                return new Vector(x + offsetX, y + offsetY, z + offsetZ);
             }
-            else {
-                return offset.clone().add(positionalOffset.toVector());
+            double yawRad = Math.toRadians(-yaw + yawAngleOffset), pitchRad = Math.toRadians(pitch + pitchAngleOffset);
+            double cosPitch = Math.cos(pitchRad), sinPitch = Math.sin(pitchRad);
+            double y1 = (offsetY * cosPitch) - (offsetZ * sinPitch);
+            double z1 = (offsetY * sinPitch) + (offsetZ * cosPitch);
+            double cosYaw = Math.cos(yawRad), sinYaw = Math.sin(yawRad);
+            return new Vector(x + (offsetX * cosYaw) + (z1 * sinYaw), y + y1, z + (offsetX * -sinYaw) + (z1 * cosYaw));
+        }
+
+        public int computeDepth() {
+            int result = 0;
+            EntityTag current = to;
+            // Walk up the chain of everyone-attachments, capped in case of an attachment loop
+            while (result < 64) {
+                PlayerAttachMap parent = attachedEntityToData.get(current.getUUID());
+                if (parent == null || parent.everyoneAttachment == null) {
+                    break;
+                }
+                current = parent.everyoneAttachment.to;
+                result++;
+            }
+            return result;
+        }
+
+        public void tick() {
+            if (!attached.isValid() || !to.isValid()) {
+                cancelAndRemove();
+                return;
+            }
+            if (ticksSinceResync++ >= 20 * 10) { // Run a forcetele every 10 seconds to guarantee sync
+                visiblePositions.clear();
+                ticksSinceResync = 0;
+            }
+            if (extraResyncAt != -1 && ticksSinceResync >= extraResyncAt) {
+                // Run a forcetele one second after attaching just to guarantee sync for lagging clients
+                visiblePositions.clear();
+                extraResyncAt = -1;
+            }
+            if (syncServer) {
+                doServerSync();
             }
         }
 
@@ -61,35 +168,25 @@ public class EntityAttachmentHelper {
         }
 
         public void startTask() {
-            if (checkTask != null) {
-                checkTask.cancel();
+            cacheOffset();
+            ticksSinceResync = 0;
+            extraResyncAt = 20;
+            isCancelled = false;
+            tick();
+            if (isActive || isCancelled) {
+                return;
             }
-            BukkitRunnable runnable = new BukkitRunnable() {
-                int ticks = 0;
-                @Override
-                public void run() {
-                    if (!attached.isValid() || !to.isValid()) {
-                        cancelAndRemove();
-                        return;
-                    }
-                    if (ticks++ >= 20 * 10) { // Run a forcetele every 10 seconds to guarantee sync
-                        visiblePositions.clear();
-                        ticks = 0;
-                    }
-                    if (syncServer) {
-                        doServerSync();
+            isActive = true;
+            activeAttachments.add(this);
+            attachmentOrderDirty = true;
+            if (attachmentTickTask == null) {
+                attachmentTickTask = new BukkitRunnable() {
+                    @Override
+                    public void run() {
+                        tickAttachments();
                     }
-                }
-            };
-            runnable.run();
-            checkTask = runnable.runTaskTimer(Denizen.getInstance(), 1, 1);
-            new BukkitRunnable() {
-                @Override
-                public void run() {
-                    // Run a forcetele one second later just to guarantee sync for lagging clients
-                    visiblePositions.clear();
-                }
-            }.runTaskLater(Denizen.getInstance(), 20);
+                }.runTaskTimer(Denizen.getInstance(), 1, 1);
+            }
         }
 
         public void removeFrom(PlayerAttachMap map) {
@@ -107,10 +204,9 @@ public class EntityAttachmentHelper {
         }
 
         public void cancelAndRemove() {
-            if (checkTask != null) {
-                checkTask.cancel();
-            }
-            checkTask = null;
+            isActive = false;
+            isCancelled = true;
+            attachmentOrderDirty = true;
             EntityAttachedToMap map = toEntityToData.get(to.getUUID());
             if (map != null) {
                 PlayerAttachMap subMap = map.attachedToMap.get(attached.getUUID());
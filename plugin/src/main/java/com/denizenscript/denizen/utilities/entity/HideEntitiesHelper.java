@@ -4,6 +4,7 @@ import com.denizenscript.denizen.Denizen;
 import com.denizenscript.denizen.nms.NMSHandler;
 import com.denizenscript.denizen.objects.EntityTag;
 import com.denizenscript.denizen.utilities.packets.NetworkInterceptHelper;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
@@ -67,6 +68,65 @@ public class HideEntitiesHelper {
         }
     }
 
+    /**
+     * Per-viewer cache of visibility decisions by entity ID, so the network interceptor only has to resolve and check an entity the first time the viewer is sent it.
+     * Decisions are thrown away whenever any hide changes (see {@link #onHidesChanged()}).
+     * Packets for one connection can be sent from more than one thread, so access is synchronized (each connection has its own instance, so this is uncontended in practice).
+     */
+    public static class ViewerVisibility {
+
+        public static final int MAX_CACHED = 16384;
+
+        public int version = -1;
+
+        public IntOpenHashSet hiddenIds = new IntOpenHashSet();
+
+        public IntOpenHashSet visibleIds = new IntOpenHashSet();
+
+        /**
+         * Returns 1 if the entity is known hidden, 0 if known visible, or -1 if it needs to be checked (and then recorded).
+         */
+        public synchronized int getState(int entityId) {
+            if (version != visibilityVersion) {
+                clear();
+                version = visibilityVersion;
+                return -1;
+            }
+            if (hiddenIds.contains(entityId)) {
+                return 1;
+            }
+            return visibleIds.contains(entityId) ? 0 : -1;
+        }
+
+        /**
+         * Records a decision made against the given {@link #visibilityVersion}. Dropped if any hide changed since, as the decision may be outdated.
+         */
+        public synchronized void record(int entityId, boolean hidden, int decidedVersion) {
+            if (decidedVersion != version || decidedVersion != visibilityVersion) {
+                return;
+            }
+            if (hiddenIds.size() + visibleIds.size() >= MAX_CACHED) {
+                // IDs of long-gone entities build up over time, so just start fresh
+                clear();
+            }
+            (hidden ? hiddenIds : visibleIds).add(entityId);
+        }
+
+        public synchronized void clear() {
+            hiddenIds.clear();
+            visibleIds.clear();
+        }
+    }
+
+    /**
+     * Incremented whenever any hide set changes, to invalidate all {@link ViewerVisibility} caches.
+     */
+    public static volatile int visibilityVersion = 0;
+
+    public static void onHidesChanged() {
+        visibilityVersion++;
+    }
+
     public static HashMap<UUID, PlayerHideMap> playerHides = new HashMap<>();
 
     public static HashSet<UUID> defaultHidden = new HashSet<>();
@@ -96,6 +156,7 @@ public class HideEntitiesHelper {
     public static boolean addHide(UUID player, UUID entity) {
         NetworkInterceptHelper.enable();
         ensurePlayerHiding();
+        onHidesChanged();
         if (player == null) {
             return defaultHidden.add(entity);
         }
@@ -119,6 +180,7 @@ public class HideEntitiesHelper {
 
     public static boolean removeHide(UUID player, UUID entity) {
         NetworkInterceptHelper.enable();
+        onHidesChanged();
         if (player == null) {
             return defaultHidden.remove(entity);
         }
@@ -0,0 +1,445 @@
+package com.denizenscript.denizen.utilities.flags;
+
+import com.denizenscript.denizencore.flags.AbstractFlagTracker;
+import com.denizenscript.denizencore.flags.MapTagBasedFlagTracker;
+import com.denizenscript.denizencore.flags.SavableMapFlagTracker;
+import com.denizenscript.denizencore.objects.ObjectFetcher;
+import com.denizenscript.denizencore.objects.ObjectTag;
+import com.denizenscript.denizencore.objects.core.MapTag;
+import com.denizenscript.denizencore.objects.core.TimeTag;
+import com.denizenscript.denizencore.utilities.CoreUtilities;
+import com.denizenscript.denizencore.utilities.debugging.Debug;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Flag tracker that stores root flags individually in a compact binary file, with per-root-key change tracking.
+ * Changes are written as records appended to a log file next to the base file, which is compacted back into the base file periodically.
+ * Root values that were loaded but never read are kept in their raw saved form, so neither loading nor compacting needs to reparse or restringify them.
+ * Each root flag's expiration time is stored alongside it, so expired flags can be cleaned without parsing anything.
+ * The base file has a generation number that is bumped on each compaction, and the log file records the generation it applies to, so a log left over from before a compaction is never replayed over the newer base.
+ * Files that fail to read are moved aside (with a '.corrupt' suffix) before anything is rewritten, so flags that couldn't be loaded are never silently overwritten.
+ */
+public class BinaryFlagTracker extends MapTagBasedFlagTracker {
+
+    public static final int BASE_MAGIC = 0x44464C47; // 'DFLG'
+
+    public static final int LOG_MAGIC = 0x44464C4C; // 'DFLL'
+
+    public static final byte FORMAT_VERSION = 1;
+
+    public static final byte RECORD_SET = 1, RECORD_REMOVE = 2;
+
+    public static final String BASE_EXTENSION = ".dfb", LOG_EXTENSION = ".dfl", LEGACY_EXTENSION = ".dat";
+
+    public static class RootFlag {
+
+        public String raw;
+
+        public MapTag map;
+
+        /**
+         * The expiration time in millis of a raw (unparsed) flag, or 0 if it doesn't expire.
+         */
+        public long expiration;
+
+        public RootFlag(String raw, long expiration) {
+            this.raw = raw;
+            this.expiration = expiration;
+        }
+
+        public RootFlag(MapTag map) {
+            this.map = map;
+        }
+
+        public long getExpiration() {
+            return map != null ? getExpirationMillis(map) : expiration;
+        }
+
+        public MapTag getMap() {
+            if (map == null) {
+                ObjectTag obj = ObjectFetcher.pickObjectFor(raw, CoreUtilities.noDebugContext);
+                map = obj instanceof MapTag ? (MapTag) obj : new MapTag();
+                // Once handed out, the map may be altered in-place, so the raw form can no longer be trusted
+                raw = null;
+            }
+            return map;
+        }
+
+        public String getRaw() {
+            return raw != null ? raw : map.toString();
+        }
+    }
+
+    /**
+     * A single pending change, already stringified on the thread that made it.
+     */
+    public static class ChangeRecord {
+
+        public String key;
+
+        public String value;
+
+        public long expiration;
+
+        public ChangeRecord(String key, String value, long expiration) {
+            this.key = key;
+            this.value = value;
+            this.expiration = expiration;
+        }
+    }
+
+    /**
+     * A prepared save: either a set of log records to append, or a full snapshot to compact into the base file.
+     * Contains only immutable strings, so it may be written from any thread.
+     */
+    public static class PendingSave {
+
+        public boolean isCompaction;
+
+        /**
+         * The generation of the base file this save is (for a compaction) or applies to (for log records).
+         */
+        public long generation;
+
+        public List<ChangeRecord> records = new ArrayList<>();
+    }
+
+    public HashMap<String, RootFlag> flags = new HashMap<>();
+
+    public LinkedHashSet<String> dirtyKeys = new LinkedHashSet<>();
+
+    public boolean modified = false;
+
+    /**
+     * Set when the whole tracker must be written as a fresh base file on the next save (eg after migrating from a legacy text file).
+     */
+    public boolean needsCompaction = false;
+
+    /**
+     * Number of records currently in the log file.
+     */
+    public int logRecordCount = 0;
+
+    /**
+     * The generation number of the current base file.
+     */
+    public long generation = 0;
+
+    /**
+     * The player this tracker belongs to, if its changes should be reflected in the PlayerFlagIndex.
+     */
+    public UUID indexId;
+
+    /**
+     * Returns the expiration time of a root flag map in millis, or 0 if it doesn't expire.
+     */
+    public static long getExpirationMillis(MapTag map) {
+        ObjectTag expiration = map == null ? null : map.getObject(expirationString);
+        if (expiration == null) {
+            return 0;
+        }
+        TimeTag time = expiration.asType(TimeTag.class, CoreUtilities.noDebugContext);
+        return time == null ? 0 : time.millis();
+    }
+
+    @Override
+    public MapTag getRootMap(String key) {
+        RootFlag flag = flags.get(key);
+        if (flag == null) {
+            return null;
+        }
+        return flag.getMap();
+    }
+
+    @Override
+    public void setRootMap(String key, MapTag map) {
+        if (map == null) {
+            if (flags.remove(key) == null) {
+                return;
+            }
+        }
+        else {
+            flags.put(key, new RootFlag(map));
+        }
+        dirtyKeys.add(key);
+        modified = true;
+        if (indexId != null) {
+            PlayerFlagIndex.onFlagChanged(indexId, key, map == null ? -1 : getExpirationMillis(map));
+        }
+    }
+
+    @Override
+    public Collection<String> listAllFlags() {
+        return flags.keySet();
+    }
+
+    /**
+     * Removes expired flags. Flags still in raw form are only checked against their stored expiration, and are never parsed just to be cleaned.
+     * Expired sub-keys within a flag's value are only cleaned for flags that have already been parsed (reads check sub-key expirations anyway).
+     */
+    @Override
+    public void doTotalClean() {
+        long now = System.currentTimeMillis();
+        for (String key : new ArrayList<>(flags.keySet())) {
+            RootFlag flag = flags.get(key);
+            if (flag.map == null) {
+                long expiration = flag.getExpiration();
+                if (expiration != 0 && expiration < now) {
+                    setRootMap(key, null);
+                }
+                continue;
+            }
+            MapTag map = flag.map;
+            if (isExpired(map.getObject(expirationString))) {
+                setRootMap(key, null);
+                continue;
+            }
+            ObjectTag subValue = map.getObject(valueString);
+            if (subValue instanceof MapTag && doClean((MapTag) subValue)) {
+                setRootMap(key, map);
+            }
+        }
+    }
+
+    /**
+     * Collects the current changes into a save that is safe to write off-thread, and clears the dirty state.
+     * Must be called on the thread that owns this tracker.
+     */
+    public PendingSave prepareSave(int compactionThreshold) {
+        PendingSave save = new PendingSave();
+        save.isCompaction = needsCompaction || logRecordCount + dirtyKeys.size() > Math.max(compactionThreshold, flags.size());
+        if (save.isCompaction) {
+            for (Map.Entry<String, RootFlag> entry : flags.entrySet()) {
+                save.records.add(new ChangeRecord(entry.getKey(), entry.getValue().getRaw(), entry.getValue().getExpiration()));
+            }
+            generation++;
+            logRecordCount = 0;
+            needsCompaction = false;
+        }
+        else {
+            for (String key : dirtyKeys) {
+                RootFlag flag = flags.get(key);
+                save.records.add(flag == null ? new ChangeRecord(key, null, 0) : new ChangeRecord(key, flag.getRaw(), flag.getExpiration()));
+            }
+            logRecordCount += save.records.size();
+        }
+        save.generation = generation;
+        dirtyKeys.clear();
+        modified = false;
+        return save;
+    }
+
+    public static File baseFileFor(File folder, String name) {
+        return new File(folder, name + BASE_EXTENSION);
+    }
+
+    public static File logFileFor(File folder, String name) {
+        return new File(folder, name + LOG_EXTENSION);
+    }
+
+    public static void writeString(DataOutputStream output, String str) throws IOException {
+        byte[] data = str.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(data.length);
+        output.write(data);
+    }
+
+    public static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] data = new byte[length];
+        input.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a prepared save to file. Safe to call from any thread, but saves for the same file must not run concurrently.
+     */
+    public static void writeSave(File folder, String name, PendingSave save) throws IOException {
+        File logFile = logFileFor(folder, name);
+        if (save.isCompaction) {
+            File baseFile = baseFileFor(folder, name);
+            File tempFile = new File(folder, name + BASE_EXTENSION + "~2");
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                output.writeInt(BASE_MAGIC);
+                output.writeByte(FORMAT_VERSION);
+                output.writeLong(save.generation);
+                output.writeInt(save.records.size());
+                for (ChangeRecord record : save.records) {
+                    writeString(output, record.key);
+                    output.writeLong(record.expiration);
+                    writeString(output, record.value);
+                }
+            }
+            Files.move(tempFile.toPath(), baseFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(logFile.toPath());
+            return;
+        }
+        if (save.records.isEmpty()) {
+            return;
+        }
+        boolean isNew = !logFile.exists();
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)))) {
+            if (isNew) {
+                output.writeInt(LOG_MAGIC);
+                output.writeByte(FORMAT_VERSION);
+                output.writeLong(save.generation);
+            }
+            for (ChangeRecord record : save.records) {
+                if (record.value == null) {
+                    output.writeByte(RECORD_REMOVE);
+                    writeString(output, record.key);
+                }
+                else {
+                    output.writeByte(RECORD_SET);
+                    writeString(output, record.key);
+                    output.writeLong(record.expiration);
+                    writeString(output, record.value);
+                }
+            }
+        }
+    }
+
+    public static class StaleLogException extends IOException {
+    }
+
+    public static final String CORRUPT_SUFFIX = ".corrupt";
+
+    /**
+     * Moves a file that failed to read out of the way (replacing any older corrupt copy), so it's kept for manual recovery rather than overwritten by the next save.
+     */
+    public static void moveAside(File file) {
+        File target = new File(file.getPath() + CORRUPT_SUFFIX);
+        try {
+            Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Debug.echoError("Moved unreadable flag file to '" + target.getPath() + "'.");
+        }
+        catch (IOException ex) {
+            Debug.echoError("Failed to move unreadable flag file '" + file.getPath() + "' aside...");
+            Debug.echoError(ex);
+        }
+    }
+
+    /**
+     * Loads the tracker with the given file name from the folder, migrating a legacy text flag file if no binary file exists yet.
+     * Never returns null: a missing file results in an empty tracker.
+     */
+    public static BinaryFlagTracker load(File folder, String name) {
+        BinaryFlagTracker tracker = new BinaryFlagTracker();
+        File baseFile = baseFileFor(folder, name);
+        File logFile = logFileFor(folder, name);
+        if (!baseFile.exists() && !logFile.exists()) {
+            File legacyFile = new File(folder, name + LEGACY_EXTENSION);
+            if (legacyFile.exists()) {
+                tracker.migrateFrom(SavableMapFlagTracker.loadFlagFile(new File(folder, name).getPath(), false));
+            }
+            return tracker;
+        }
+        if (baseFile.exists()) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(baseFile)))) {
+                if (input.readInt() != BASE_MAGIC) {
+                    throw new IOException("Not a binary flag file");
+                }
+                byte version = input.readByte();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("Unsupported binary flag file version " + version);
+                }
+                tracker.generation = input.readLong();
+                int count = input.readInt();
+                for (int i = 0; i < count; i++) {
+                    String key = readString(input);
+                    long expiration = input.readLong();
+                    tracker.flags.put(key, new RootFlag(readString(input), expiration));
+                }
+            }
+            catch (IOException ex) {
+                Debug.echoError("Failed to read binary flag file '" + baseFile.getPath() + "'...");
+                Debug.echoError(ex);
+                // Keep the damaged files, as the log only makes sense on top of the full base. Whatever was readable is written out fresh on next save.
+                moveAside(baseFile);
+                if (logFile.exists()) {
+                    moveAside(logFile);
+                }
+                tracker.needsCompaction = true;
+                tracker.modified = true;
+                return tracker;
+            }
+        }
+        if (logFile.exists()) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+                if (input.readInt() != LOG_MAGIC) {
+                    throw new IOException("Not a binary flag log file");
+                }
+                byte version = input.readByte();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("Unsupported binary flag log version " + version);
+                }
+                if (input.readLong() != tracker.generation) {
+                    throw new StaleLogException();
+                }
+                while (true) {
+                    int type = input.read();
+                    if (type == -1) {
+                        break;
+                    }
+                    String key = readString(input);
+                    if (type == RECORD_SET) {
+                        long expiration = input.readLong();
+                        tracker.flags.put(key, new RootFlag(readString(input), expiration));
+                    }
+                    else if (type == RECORD_REMOVE) {
+                        tracker.flags.remove(key);
+                    }
+                    else {
+                        throw new IOException("Invalid record type " + type);
+                    }
+                    tracker.logRecordCount++;
+                }
+            }
+            catch (StaleLogException ex) {
+                // Left over from before the base file was compacted (eg a crash between writing the base and deleting the log), so the base already has everything in it
+                Debug.log("Binary flag log '" + logFile.getPath() + "' is older than its base file, discarding it.");
+                tracker.needsCompaction = true;
+                tracker.modified = true;
+            }
+            catch (EOFException ex) {
+                // A save was interrupted mid-record, so keep everything before it and rewrite on next save
+                Debug.echoError("Binary flag log '" + logFile.getPath() + "' ends with an incomplete record, ignoring it.");
+                tracker.needsCompaction = true;
+                tracker.modified = true;
+            }
+            catch (IOException ex) {
+                Debug.echoError("Failed to read binary flag log '" + logFile.getPath() + "'...");
+                Debug.echoError(ex);
+                moveAside(logFile);
+                tracker.needsCompaction = true;
+                tracker.modified = true;
+            }
+        }
+        return tracker;
+    }
+
+    /**
+     * Copies all flags from a legacy tracker, and marks this tracker to be fully written in the binary format on next save.
+     */
+    public void migrateFrom(AbstractFlagTracker legacy) {
+        if (!(legacy instanceof MapTagBasedFlagTracker)) {
+            return;
+        }
+        MapTagBasedFlagTracker legacyMap = (MapTagBasedFlagTracker) legacy;
+        for (String key : legacy.listAllFlags()) {
+            MapTag map = legacyMap.getRootMap(key);
+            if (map != null) {
+                flags.put(key, new RootFlag(map));
+            }
+        }
+        needsCompaction = true;
+        modified = true;
+    }
+}
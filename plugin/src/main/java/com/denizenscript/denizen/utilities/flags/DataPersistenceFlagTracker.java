@@ -8,6 +8,7 @@ import com.denizenscript.denizencore.objects.ObjectTag;
 import com.denizenscript.denizencore.objects.core.MapTag;
 import com.denizenscript.denizencore.utilities.AsciiMatcher;
 import com.denizenscript.denizencore.utilities.CoreUtilities;
+import org.bukkit.Chunk;
 import org.bukkit.NamespacedKey;
 import org.bukkit.persistence.PersistentDataHolder;
 import org.bukkit.persistence.PersistentDataType;
@@ -37,7 +38,8 @@ public class DataPersistenceFlagTracker extends MapTagBasedFlagTracker {
 
     @Override
     public MapTag getRootMap(String key) {
-        return (MapTag) DataPersistenceHelper.getDenizenKey(holder, keyPrefix + cleanKeyName(key));
+        // Changes to the map are always written back through setRootMap, so the cached instance can be shared
+        return (MapTag) DataPersistenceHelper.getDenizenKey(holder, keyPrefix + cleanKeyName(key), true);
     }
 
     @Override
@@ -49,7 +51,7 @@ public class DataPersistenceFlagTracker extends MapTagBasedFlagTracker {
         if (map.containsKey(expirationString) || map.getObject(valueString) instanceof MapTag) {
             holder.getPersistentDataContainer().set(expireNeededKey, PersistentDataType.STRING, "true");
         }
-        DataPersistenceHelper.setDenizenKey(holder, keyPrefix + cleanKeyName(key), map);
+        DataPersistenceHelper.setDenizenKeyDeferred(holder, keyPrefix + cleanKeyName(key), map, true);
     }
 
     @Override
@@ -64,24 +66,25 @@ public class DataPersistenceFlagTracker extends MapTagBasedFlagTracker {
         if (!holder.getPersistentDataContainer().has(expireNeededKey, PersistentDataType.STRING)) {
             return;
         }
-        boolean containsAnyToCheck = false;
+        boolean containsAnyToCheck = false, removedAny = false;
         for (NamespacedKey key : holder.getPersistentDataContainer().getKeys()) {
             if (!key.getNamespace().equals("denizen") || !key.getKey().startsWith("flag_")) {
                 continue;
             }
-            ObjectTag map = DataPersistenceHelper.getDenizenKey(holder, key.getKey());
+            ObjectTag map = DataPersistenceHelper.getDenizenKey(holder, key.getKey(), true);
             if (!(map instanceof MapTag)) {
                 continue;
             }
             if (isExpired(((MapTag) map).getObject(expirationString))) {
-                holder.getPersistentDataContainer().remove(key);
+                DataPersistenceHelper.removeDenizenKey(holder, key.getKey());
                 containsAnyToCheck = true;
+                removedAny = true;
                 continue;
             }
             ObjectTag subValue = ((MapTag) map).getObject(valueString);
             if (subValue instanceof MapTag) {
                 if (doClean((MapTag) subValue)) {
-                    holder.getPersistentDataContainer().set(key, DataPersistenceHelper.PERSISTER_TYPE, map);
+                    DataPersistenceHelper.setDenizenKey(holder, key.getKey(), map, true);
                 }
                 containsAnyToCheck = true;
             }
@@ -89,5 +92,8 @@ public class DataPersistenceFlagTracker extends MapTagBasedFlagTracker {
         if (!containsAnyToCheck) {
             holder.getPersistentDataContainer().remove(expireNeededKey);
         }
+        if (removedAny && holder instanceof Chunk) {
+            LocationFlagIndex.invalidate((Chunk) holder);
+        }
     }
 }
@@ -0,0 +1,139 @@
+package com.denizenscript.denizen.utilities.flags;
+
+import com.denizenscript.denizencore.utilities.CoreUtilities;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.bukkit.Chunk;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * In-memory index of which blocks in a chunk have which (root) location flags.
+ * Each chunk's index is built from its PersistentDataContainer keys the first time it's needed,
+ * then kept current by LocationFlagTracker writes until the chunk unloads.
+ * Must only be used from the main thread.
+ */
+public class LocationFlagIndex {
+
+    public static final String KEY_PREFIX = "flag_tracker_";
+
+    public static class ChunkIndex {
+
+        public HashMap<String, IntOpenHashSet> byFlag = new HashMap<>();
+
+        public void add(String flagName, int packedPosition) {
+            byFlag.computeIfAbsent(flagName, k -> new IntOpenHashSet()).add(packedPosition);
+        }
+
+        public void remove(String flagName, int packedPosition) {
+            IntOpenHashSet positions = byFlag.get(flagName);
+            if (positions != null && positions.remove(packedPosition) && positions.isEmpty()) {
+                byFlag.remove(flagName);
+            }
+        }
+
+        /**
+         * Returns a copy of the packed positions flagged with the given root flag name, or null if none.
+         */
+        public int[] get(String flagName) {
+            IntOpenHashSet positions = byFlag.get(flagName);
+            return positions == null ? null : positions.toIntArray();
+        }
+    }
+
+    public static HashMap<UUID, Long2ObjectOpenHashMap<ChunkIndex>> worlds = new HashMap<>();
+
+    /**
+     * Packs chunk-relative block coordinates into a single int. Y keeps its sign.
+     */
+    public static int packPosition(int x, int y, int z) {
+        return (y << 8) | ((x & 15) << 4) | (z & 15);
+    }
+
+    public static int unpackX(int packed) {
+        return (packed >> 4) & 15;
+    }
+
+    public static int unpackY(int packed) {
+        return packed >> 8;
+    }
+
+    public static int unpackZ(int packed) {
+        return packed & 15;
+    }
+
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public static ChunkIndex getIndex(Chunk chunk) {
+        Long2ObjectOpenHashMap<ChunkIndex> world = worlds.computeIfAbsent(chunk.getWorld().getUID(), k -> new Long2ObjectOpenHashMap<>());
+        long key = chunkKey(chunk.getX(), chunk.getZ());
+        ChunkIndex index = world.get(key);
+        if (index == null) {
+            index = buildIndex(chunk);
+            world.put(key, index);
+        }
+        return index;
+    }
+
+    public static ChunkIndex getIndexIfPresent(World world, int chunkX, int chunkZ) {
+        Long2ObjectOpenHashMap<ChunkIndex> worldIndex = worlds.get(world.getUID());
+        if (worldIndex == null) {
+            return null;
+        }
+        return worldIndex.get(chunkKey(chunkX, chunkZ));
+    }
+
+    public static ChunkIndex buildIndex(Chunk chunk) {
+        ChunkIndex index = new ChunkIndex();
+        for (NamespacedKey key : chunk.getPersistentDataContainer().getKeys()) {
+            if (!key.getNamespace().equals("denizen") || !key.getKey().startsWith(KEY_PREFIX)) {
+                continue;
+            }
+            List<String> split = CoreUtilities.split(key.getKey(), '_', 6);
+            if (split.size() != 6) {
+                continue;
+            }
+            try {
+                index.add(split.get(5), packPosition(Integer.parseInt(split.get(2)), Integer.parseInt(split.get(3)), Integer.parseInt(split.get(4))));
+            }
+            catch (NumberFormatException ex) {
+                // Not a location flag key, ignore
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Updates an already-built chunk index for a changed location flag. Chunks that aren't indexed yet are left alone, as they'll be read fresh when first needed.
+     */
+    public static void onFlagChanged(World world, int x, int y, int z, String cleanFlagName, boolean present) {
+        ChunkIndex index = getIndexIfPresent(world, x >> 4, z >> 4);
+        if (index == null) {
+            return;
+        }
+        int packed = packPosition(x, y, z);
+        if (present) {
+            index.add(cleanFlagName, packed);
+        }
+        else {
+            index.remove(cleanFlagName, packed);
+        }
+    }
+
+    public static void invalidate(Chunk chunk) {
+        Long2ObjectOpenHashMap<ChunkIndex> world = worlds.get(chunk.getWorld().getUID());
+        if (world != null) {
+            world.remove(chunkKey(chunk.getX(), chunk.getZ()));
+        }
+    }
+
+    public static void invalidateWorld(World world) {
+        worlds.remove(world.getUID());
+    }
+}
@@ -1,13 +1,8 @@
 package com.denizenscript.denizen.utilities.flags;
 
-import com.denizenscript.denizen.objects.LocationTag;
-import com.denizenscript.denizencore.utilities.CoreUtilities;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
-import org.bukkit.NamespacedKey;
-import org.bukkit.persistence.PersistentDataContainer;
 
-import java.util.List;
 import java.util.function.Consumer;
 
 public class LocationFlagSearchHelper {
@@ -18,19 +13,20 @@ public class LocationFlagSearchHelper {
         if (subKeyIndex != -1) {
             flagName = flagName.substring(0, subKeyIndex);
         }
-        PersistentDataContainer container = chunk.getPersistentDataContainer();
+        int[] positions = LocationFlagIndex.getIndex(chunk).get(flagName);
+        if (positions == null) {
+            return;
+        }
+        int baseX = chunk.getX() << 4, baseZ = chunk.getZ() << 4;
         Location ref = new Location(chunk.getWorld(), 0, 0, 0);
-        for (NamespacedKey key : container.getKeys()) {
-            if (key.getNamespace().equals("denizen") && key.getKey().startsWith("flag_tracker_") && key.getKey().endsWith(flagName)) {
-                List<String> split = CoreUtilities.split(key.getKey(), '_', 6);
-                if (split.size() == 6 && split.get(5).equals(flagName)) {
-                    ref.setX(Integer.parseInt(split.get(2)));
-                    ref.setY(Integer.parseInt(split.get(3)));
-                    ref.setZ(Integer.parseInt(split.get(4)));
-                    if (new LocationTag(ref).getFlagTracker().hasFlag(fullPath)) {
-                        handleLocation.accept(ref);
-                    }
-                }
+        for (int packed : positions) {
+            int x = baseX + LocationFlagIndex.unpackX(packed), y = LocationFlagIndex.unpackY(packed), z = baseZ + LocationFlagIndex.unpackZ(packed);
+            // Still verify against the actual flag, to account for expirations and sub-keys
+            if (new LocationFlagTracker(chunk, x, y, z).hasFlag(fullPath)) {
+                ref.setX(x);
+                ref.setY(y);
+                ref.setZ(z);
+                handleLocation.accept(ref);
             }
         }
     }
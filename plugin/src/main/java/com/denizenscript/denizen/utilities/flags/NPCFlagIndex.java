@@ -0,0 +1,92 @@
+package com.denizenscript.denizen.utilities.flags;
+
+import com.denizenscript.denizen.objects.NPCTag;
+import com.denizenscript.denizencore.objects.core.ListTag;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.npc.NPCRegistry;
+
+import java.util.*;
+
+/**
+ * In-memory index of which NPCs hold which root flags (and when those flags expire).
+ * NPC flags are always in memory, so this needs no file: each NPC's flags are indexed when its flag trait is attached, then kept current by flag tracker writes.
+ * Must only be used from the main thread.
+ */
+public class NPCFlagIndex {
+
+    /**
+     * Root flag name to holders, each mapped to its expiration time in millis (or 0 if it doesn't expire).
+     */
+    public static final HashMap<String, HashMap<NPC, Long>> byFlag = new HashMap<>();
+
+    /**
+     * Called by NPC flag trackers when a root flag is set or removed. An expiration of -1 indicates removal.
+     */
+    public static void onFlagChanged(NPC npc, String key, long expiration) {
+        if (expiration == -1) {
+            HashMap<NPC, Long> holders = byFlag.get(key);
+            if (holders != null && holders.remove(npc) != null && holders.isEmpty()) {
+                byFlag.remove(key);
+            }
+            return;
+        }
+        byFlag.computeIfAbsent(key, k -> new HashMap<>()).put(npc, expiration);
+    }
+
+    public static void removeAll(NPC npc) {
+        Iterator<HashMap<NPC, Long>> iterator = byFlag.values().iterator();
+        while (iterator.hasNext()) {
+            HashMap<NPC, Long> holders = iterator.next();
+            if (holders.remove(npc) != null && holders.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns all NPCs in the given registry that have (or if 'want' is false, don't have) the given flag.
+     * Only NPCs holding the root flag need their flags checked, and only if the flag name has sub-keys.
+     */
+    public static ListTag getNPCsFlagged(NPCRegistry registry, String flag, boolean want) {
+        int dot = flag.indexOf('.');
+        HashMap<NPC, Long> holders = byFlag.get(dot == -1 ? flag : flag.substring(0, dot));
+        ListTag result = new ListTag();
+        long now = System.currentTimeMillis();
+        if (want) {
+            if (holders == null) {
+                return result;
+            }
+            for (Map.Entry<NPC, Long> entry : holders.entrySet()) {
+                NPC npc = entry.getKey();
+                long expiration = entry.getValue();
+                if (npc.getOwningRegistry() != registry || (expiration != 0 && expiration < now)) {
+                    continue;
+                }
+                NPCTag npcTag = new NPCTag(npc);
+                if (dot == -1 || npcTag.hasFlag(flag)) {
+                    result.addObject(npcTag);
+                }
+            }
+            return result;
+        }
+        for (NPC npc : registry) {
+            Long expiration = holders == null ? null : holders.get(npc);
+            if (expiration == null || (expiration != 0 && expiration < now)) {
+                result.addObject(new NPCTag(npc));
+                continue;
+            }
+            if (dot != -1) {
+                NPCTag npcTag = new NPCTag(npc);
+                if (!npcTag.hasFlag(flag)) {
+                    result.addObject(npcTag);
+                }
+            }
+        }
+        return result;
+    }
+
+    public static ListTag getNPCsFlagged(String flag, boolean want) {
+        return getNPCsFlagged(CitizensAPI.getNPCRegistry(), flag, want);
+    }
+}
@@ -4,7 +4,6 @@ import com.denizenscript.denizen.Denizen;
 import com.denizenscript.denizencore.utilities.CoreConfiguration;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
 import com.denizenscript.denizencore.flags.AbstractFlagTracker;
-import com.denizenscript.denizencore.flags.SavableMapFlagTracker;
 import com.denizenscript.denizencore.utilities.CoreUtilities;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
@@ -14,31 +13,50 @@ import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.scheduler.BukkitRunnable;
 
 import java.io.File;
-import java.lang.ref.SoftReference;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Comparator;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PlayerFlagHandler implements Listener {
 
     public static long cacheTimeoutSeconds = 300;
 
+    public static int cacheMaxSize = 1000;
+
     public static boolean asyncPreload = false;
 
     public static boolean saveOnlyWhenWorldSaveOn = false;
 
+    public static int logCompactionThreshold = 1000;
+
+    public static AtomicLong cacheHits = new AtomicLong(), cacheMisses = new AtomicLong(), cacheLoads = new AtomicLong(), cacheLoadNanos = new AtomicLong(), cacheEvictions = new AtomicLong();
+
     public static class CachedPlayerFlag {
 
-        public long lastAccessed;
+        public final UUID id;
+
+        public volatile long lastAccessed;
 
-        public SavableMapFlagTracker tracker;
+        /**
+         * Completes with the loaded tracker. Whichever thread claims the load first (via 'loadClaimed') performs it, any other thread just waits on this.
+         */
+        public final CompletableFuture<BinaryFlagTracker> tracker = new CompletableFuture<>();
 
-        public AtomicBoolean savingNow = new AtomicBoolean(false), loadingNow = new AtomicBoolean(false);
+        public final AtomicBoolean loadClaimed = new AtomicBoolean(false), savingNow = new AtomicBoolean(false);
+
+        public volatile CompletableFuture<Void> currentSave = CompletableFuture.completedFuture(null);
+
+        public CachedPlayerFlag(UUID id) {
+            this.id = id;
+            this.lastAccessed = CoreUtilities.monotonicMillis();
+        }
 
         public boolean shouldExpire() {
             if (cacheTimeoutSeconds == -1) {
@@ -49,239 +67,228 @@ public class PlayerFlagHandler implements Listener {
             }
             return lastAccessed + (cacheTimeoutSeconds * 1000) < CoreUtilities.monotonicMillis();
         }
-    }
-
-    public static File dataFolder;
-
-    public static HashMap<UUID, CachedPlayerFlag> playerFlagTrackerCache = new HashMap<>();
 
-    public static HashMap<UUID, SoftReference<CachedPlayerFlag>> secondaryPlayerFlagTrackerCache = new HashMap<>();
+        public boolean isLoaded() {
+            return tracker.isDone();
+        }
 
-    private static ArrayList<UUID> toClearCache = new ArrayList<>();
+        /**
+         * Returns the tracker if loading has finished, or null if it hasn't (or failed).
+         */
+        public BinaryFlagTracker getIfLoaded() {
+            return tracker.isDone() && !tracker.isCompletedExceptionally() ? tracker.join() : null;
+        }
 
-    public static void cleanSecondaryCache() {
-        toClearCache.clear();
-        for (Map.Entry<UUID, SoftReference<CachedPlayerFlag>> entry : secondaryPlayerFlagTrackerCache.entrySet()) {
-            // NOTE: This call will make the GC think the value is still needed, thus the 10 minute cleanup timer to allow the GC to know these are unimportant
-            if (entry.getValue().get() == null) {
-                toClearCache.add(entry.getKey());
+        /**
+         * Loads the tracker on the current thread, unless another thread already claimed the load.
+         * Returns true if this call performed the load.
+         */
+        public boolean load() {
+            if (!loadClaimed.compareAndSet(false, true)) {
+                return false;
             }
-        }
-        for (UUID id : toClearCache) {
-            secondaryPlayerFlagTrackerCache.remove(id);
+            long start = System.nanoTime();
+            try {
+                BinaryFlagTracker loaded = BinaryFlagTracker.load(dataFolder, id.toString());
+                loaded.indexId = id;
+                tracker.complete(loaded);
+            }
+            catch (Throwable ex) {
+                Debug.echoError(ex);
+                tracker.completeExceptionally(ex);
+            }
+            cacheLoads.incrementAndGet();
+            cacheLoadNanos.addAndGet(System.nanoTime() - start);
+            return true;
         }
     }
 
-    private static int secondaryCleanTicker = 0;
+    public static File dataFolder;
+
+    public static final ConcurrentHashMap<UUID, CachedPlayerFlag> playerFlagTrackerCache = new ConcurrentHashMap<>();
 
     public static void cleanCache() {
         if (cacheTimeoutSeconds == -1) {
             return;
         }
-        if (secondaryCleanTicker++ > 10) {
-            cleanSecondaryCache();
-        }
         long timeNow = CoreUtilities.monotonicMillis();
-        for (Map.Entry<UUID, CachedPlayerFlag> entry : playerFlagTrackerCache.entrySet()) {
-            if (cacheTimeoutSeconds > 0 && entry.getValue().lastAccessed + (cacheTimeoutSeconds * 1000) < timeNow) {
+        List<CachedPlayerFlag> offline = new ArrayList<>();
+        for (CachedPlayerFlag cache : playerFlagTrackerCache.values()) {
+            if (Bukkit.getPlayer(cache.id) != null) {
+                cache.lastAccessed = timeNow;
                 continue;
             }
-            if (Bukkit.getPlayer(entry.getKey()) != null) {
-                entry.getValue().lastAccessed = timeNow;
-                continue;
+            offline.add(cache);
+        }
+        int overCapacity = playerFlagTrackerCache.size() - cacheMaxSize;
+        if (overCapacity > 0) {
+            offline.sort(Comparator.comparingLong(cache -> cache.lastAccessed));
+        }
+        for (CachedPlayerFlag cache : offline) {
+            boolean force = overCapacity-- > 0;
+            if (force || cache.shouldExpire()) {
+                saveThenExpire(cache, force);
             }
-            saveThenExpire(entry.getKey(), entry.getValue());
         }
     }
 
-    public static void saveThenExpire(UUID id, CachedPlayerFlag cache) {
+    public static void expireNow(CachedPlayerFlag cache, boolean force) {
+        BinaryFlagTracker tracker = cache.getIfLoaded();
+        if ((force || cache.shouldExpire()) && (tracker == null || !tracker.modified) && playerFlagTrackerCache.remove(cache.id, cache)) {
+            cacheEvictions.incrementAndGet();
+        }
+    }
+
+    public static void saveThenExpire(CachedPlayerFlag cache, boolean force) {
         if (saveOnlyWhenWorldSaveOn && !Bukkit.getWorlds().get(0).isAutoSave()) {
             return;
         }
-        BukkitRunnable expireTask = new BukkitRunnable() {
-            @Override
-            public void run() {
-                if (cache.shouldExpire()) {
-                    playerFlagTrackerCache.remove(id);
-                    secondaryPlayerFlagTrackerCache.put(id, new SoftReference<>(cache));
-                }
-            }
-        };
-        if (cache.savingNow.get() || cache.loadingNow.get()) {
+        if (!cache.isLoaded() || cache.savingNow.get()) {
             new BukkitRunnable() {
                 @Override
                 public void run() {
-                    CachedPlayerFlag newCache = playerFlagTrackerCache.get(id);
+                    CachedPlayerFlag newCache = playerFlagTrackerCache.get(cache.id);
                     if (newCache != null) {
-                        saveThenExpire(id, newCache);
+                        saveThenExpire(newCache, force);
                     }
                 }
             }.runTaskLater(Denizen.getInstance(), 10);
             return;
         }
-        if (!cache.tracker.modified) {
-            expireTask.runTaskLater(Denizen.getInstance(), 1);
+        BinaryFlagTracker tracker = cache.getIfLoaded();
+        if (tracker == null || !tracker.modified) {
+            Bukkit.getScheduler().runTaskLater(Denizen.getInstance(), () -> expireNow(cache, force), 1);
             return;
         }
-        cache.tracker.modified = false;
-        String text = cache.tracker.toString();
+        BinaryFlagTracker.PendingSave save = tracker.prepareSave(logCompactionThreshold);
         cache.savingNow.set(true);
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                try {
-                    saveFlags(id, text);
-                }
-                catch (Throwable ex) {
-                    Debug.echoError(ex);
-                }
-                cache.savingNow.set(false);
-                expireTask.runTaskLater(Denizen.getInstance(), 1);
-            }
-        }.runTaskAsynchronously(Denizen.getInstance());
+        CompletableFuture<Void> saveFuture = new CompletableFuture<>();
+        cache.currentSave = saveFuture;
+        Bukkit.getScheduler().runTaskAsynchronously(Denizen.getInstance(), () -> {
+            saveFlags(cache.id, tracker, save);
+            cache.savingNow.set(false);
+            saveFuture.complete(null);
+            Bukkit.getScheduler().runTaskLater(Denizen.getInstance(), () -> expireNow(cache, force), 1);
+        });
     }
 
-    public static void loadFlags(UUID id, CachedPlayerFlag cache) {
-        try {
-            cache.tracker = SavableMapFlagTracker.loadFlagFile(new File(dataFolder, id.toString()).getPath(), false);
+    /**
+     * Runs a flag clean on the main thread once the tracker is loaded.
+     */
+    public static void cleanAfterLoad(CachedPlayerFlag cache) {
+        if (CoreConfiguration.skipAllFlagCleanings) {
+            return;
         }
-        finally {
-            cache.loadingNow.set(false);
+        Runnable clean = () -> {
+            BinaryFlagTracker tracker = cache.getIfLoaded();
+            if (tracker != null) {
+                tracker.doTotalClean();
+            }
+        };
+        if (Bukkit.isPrimaryThread()) {
+            clean.run();
+        }
+        else {
+            Bukkit.getScheduler().runTask(Denizen.getInstance(), clean);
         }
     }
 
-    public static AbstractFlagTracker getTrackerFor(UUID id) {
+    public static CachedPlayerFlag getCacheEntry(UUID id) {
         CachedPlayerFlag cache = playerFlagTrackerCache.get(id);
-        if (cache == null) {
-            SoftReference<CachedPlayerFlag> softRef = secondaryPlayerFlagTrackerCache.get(id);
-            if (softRef != null) {
-                cache = softRef.get();
-                if (cache != null) {
-                    cache.lastAccessed = CoreUtilities.monotonicMillis();
-                    if (CoreConfiguration.debugVerbose) {
-                        Debug.echoError("Verbose - (getTrackerFor) flag tracker updated from soft to main for " + id);
-                    }
-                    playerFlagTrackerCache.put(id, cache);
-                    secondaryPlayerFlagTrackerCache.remove(id);
-                    return cache.tracker;
-                }
-            }
-            cache = new CachedPlayerFlag();
-            cache.lastAccessed = CoreUtilities.monotonicMillis();
-            cache.loadingNow.set(true);
-            if (CoreConfiguration.debugVerbose) {
-                Debug.echoError("Verbose - (getTrackerFor) flag tracker created for " + id);
-            }
-            playerFlagTrackerCache.put(id, cache);
-            loadFlags(id, cache);
-            if (cache.tracker != null && !CoreConfiguration.skipAllFlagCleanings) {
-                cache.tracker.doTotalClean();
-            }
+        if (cache != null) {
+            cacheHits.incrementAndGet();
         }
         else {
+            cacheMisses.incrementAndGet();
+            cache = playerFlagTrackerCache.computeIfAbsent(id, CachedPlayerFlag::new);
             if (CoreConfiguration.debugVerbose) {
-                Debug.echoError("Verbose - (getTrackerFor) flag tracker was cached for " + id);
-            }
-            if (cache.loadingNow.get()) {
-                long start = CoreUtilities.monotonicMillis();
-                while (cache.loadingNow.get()) {
-                    if (CoreConfiguration.debugVerbose) {
-                        Debug.echoError("Verbose - (getTrackerFor) flag tracker is loading, so waiting, for " + id + " ... at " + (CoreUtilities.monotonicMillis() - start) + "ms");
-                    }
-                    if (CoreUtilities.monotonicMillis() - start > 15 * 1000) {
-                        Debug.echoError("Flag loading timeout, errors may follow");
-                        playerFlagTrackerCache.remove(id);
-                        return null;
-                    }
-                    try {
-                        Thread.sleep(1);
-                    }
-                    catch (InterruptedException ex) {
-                        Debug.echoError(ex);
-                        return cache.tracker;
-                    }
-                }
+                Debug.echoError("Verbose - (getCacheEntry) flag tracker created for " + id);
             }
         }
-        return cache.tracker;
+        cache.lastAccessed = CoreUtilities.monotonicMillis();
+        return cache;
     }
 
-    public static Future loadAsync(UUID id) { // Note: this method is called sync, but triggers an async load
+    public static AbstractFlagTracker getTrackerFor(UUID id) {
+        CachedPlayerFlag cache = getCacheEntry(id);
+        if (!cache.isLoaded() && cache.load()) {
+            cleanAfterLoad(cache);
+        }
         try {
-            CachedPlayerFlag cache = playerFlagTrackerCache.get(id);
-            if (cache != null) {
-                if (CoreConfiguration.debugVerbose) {
-                    Debug.echoError("Verbose - (loadAsync) flag tracker ignored due to cache for " + id);
-                }
-                return null;
-            }
-            SoftReference<CachedPlayerFlag> softRef = secondaryPlayerFlagTrackerCache.get(id);
-            if (softRef != null) {
-                cache = softRef.get();
-                if (cache != null) {
-                    cache.lastAccessed = CoreUtilities.monotonicMillis();
-                    if (CoreConfiguration.debugVerbose) {
-                        Debug.echoError("Verbose - (loadAsync) flag tracker updated from softref to main for " + id);
-                    }
-                    playerFlagTrackerCache.put(id, cache);
-                    secondaryPlayerFlagTrackerCache.remove(id);
-                    return null;
-                }
-            }
-            CachedPlayerFlag newCache = new CachedPlayerFlag();
-            newCache.lastAccessed = CoreUtilities.monotonicMillis();
-            newCache.loadingNow.set(true);
-            if (CoreConfiguration.debugVerbose) {
-                Debug.echoError("Verbose - (loadAsync) flag tracker created " + id);
-            }
-            playerFlagTrackerCache.put(id, newCache);
-            CompletableFuture future = new CompletableFuture();
-            new BukkitRunnable() {
-                @Override
-                public void run() {
-                    loadFlags(id, newCache);
-                    Bukkit.getScheduler().scheduleSyncDelayedTask(Denizen.instance, () -> {
-                        if (CoreConfiguration.debugVerbose) {
-                            Debug.echoError("Verbose - flag tracker async loaded " + id);
-                        }
-                        if (newCache.tracker != null && !CoreConfiguration.skipAllFlagCleanings) {
-                            newCache.tracker.doTotalClean();
-                        }
-                    });
-                    future.complete(null);
-                }
-            }.runTaskAsynchronously(Denizen.getInstance());
-            return future;
+            // If another thread is mid-load, block until it finishes rather than polling
+            return cache.tracker.get(15, TimeUnit.SECONDS);
+        }
+        catch (TimeoutException ex) {
+            Debug.echoError("Flag loading timeout, errors may follow");
         }
         catch (Throwable ex) {
             Debug.echoError(ex);
-            return null;
         }
+        playerFlagTrackerCache.remove(id, cache);
+        return null;
+    }
+
+    /**
+     * Starts loading the flags for a player off-thread, returning a future that completes once they're available.
+     * Safe to call from any thread.
+     */
+    public static CompletableFuture<BinaryFlagTracker> loadAsync(UUID id) {
+        CachedPlayerFlag cache = getCacheEntry(id);
+        if (!cache.isLoaded()) {
+            Bukkit.getScheduler().runTaskAsynchronously(Denizen.getInstance(), () -> {
+                if (cache.load()) {
+                    if (CoreConfiguration.debugVerbose) {
+                        Debug.echoError("Verbose - flag tracker async loaded " + id);
+                    }
+                    cleanAfterLoad(cache);
+                }
+            });
+        }
+        return cache.tracker;
     }
 
     public static void saveAllNow(boolean lockUntilDone) {
-        for (Map.Entry<UUID, CachedPlayerFlag> entry : playerFlagTrackerCache.entrySet()) {
-            CachedPlayerFlag flags = entry.getValue();
-            if (flags.tracker.modified) {
-                if (!lockUntilDone && flags.savingNow.get() || flags.loadingNow.get()) {
+        for (CachedPlayerFlag cache : playerFlagTrackerCache.values()) {
+            BinaryFlagTracker tracker = cache.getIfLoaded();
+            if (tracker == null || !tracker.modified) {
+                continue;
+            }
+            if (cache.savingNow.get()) {
+                if (!lockUntilDone) {
                     continue;
                 }
-                while (flags.savingNow.get() || flags.loadingNow.get()) {
-                    try {
-                        Thread.sleep(10);
-                    }
-                    catch (InterruptedException ex) {
-                        Debug.echoError(ex);
-                    }
+                try {
+                    cache.currentSave.get(30, TimeUnit.SECONDS);
+                }
+                catch (Throwable ex) {
+                    Debug.echoError(ex);
                 }
-                flags.tracker.modified = false;
-                saveFlags(entry.getKey(), flags.tracker.toString());
             }
+            saveFlags(cache.id, tracker, tracker.prepareSave(logCompactionThreshold));
         }
     }
 
-    public static void saveFlags(UUID id, String flagData) {
-        CoreUtilities.journallingFileSave(new File(dataFolder, id.toString() + ".dat").getPath(), flagData);
+    /**
+     * Writes a save prepared on the main thread. Safe to call from any thread - only does file I/O, and hands any tracker state changes back to the main thread.
+     */
+    public static void saveFlags(UUID id, BinaryFlagTracker tracker, BinaryFlagTracker.PendingSave save) {
+        try {
+            BinaryFlagTracker.writeSave(dataFolder, id.toString(), save);
+        }
+        catch (Throwable ex) {
+            Debug.echoError("Failed to save flags for player " + id + ", will retry as a full save...");
+            Debug.echoError(ex);
+            Runnable retry = () -> {
+                tracker.needsCompaction = true;
+                tracker.modified = true;
+            };
+            if (Bukkit.isPrimaryThread()) {
+                retry.run();
+            }
+            else {
+                Bukkit.getScheduler().runTask(Denizen.getInstance(), retry);
+            }
+        }
     }
 
     @EventHandler
@@ -292,26 +299,15 @@ public class PlayerFlagHandler implements Listener {
         if (!Denizen.hasTickedOnce) {
             return;
         }
-        UUID id = event.getUniqueId();
-        if (!Bukkit.isPrimaryThread()) {
-            Future<Future> future = Bukkit.getScheduler().callSyncMethod(Denizen.getInstance(), () -> {
-                return loadAsync(id);
-            });
-            try {
-                Future newFuture = future.get(15, TimeUnit.SECONDS);
-                if (newFuture != null) {
-                    newFuture.get(15, TimeUnit.SECONDS);
-                }
-            }
-            catch (Throwable ex) {
-                Debug.echoError(ex);
-            }
+        // This event is already off the main thread, so just load here directly
+        CachedPlayerFlag cache = getCacheEntry(event.getUniqueId());
+        if (cache.load()) {
+            cleanAfterLoad(cache);
         }
     }
 
     public static void reloadAllFlagsNow() {
         playerFlagTrackerCache.clear();
-        secondaryPlayerFlagTrackerCache.clear();
         for (Player player : Bukkit.getOnlinePlayers()) {
             getTrackerFor(player.getUniqueId());
         }
@@ -0,0 +1,298 @@
+package com.denizenscript.denizen.utilities.flags;
+
+import com.denizenscript.denizen.Denizen;
+import com.denizenscript.denizen.objects.PlayerTag;
+import com.denizenscript.denizencore.objects.core.ListTag;
+import com.denizenscript.denizencore.utilities.CoreUtilities;
+import com.denizenscript.denizencore.utilities.debugging.Debug;
+import org.bukkit.Bukkit;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of which players hold which root flags (and when those flags expire), so that flag searches across all players don't need to load every player's flag file.
+ * Kept current by BinaryFlagTracker writes, saved to file on shutdown, and rebuilt off-thread from the flag files if the saved index is missing (eg after a crash).
+ * The saved index file is deleted once loaded, so an unclean shutdown always results in a rebuild rather than a stale index.
+ */
+public class PlayerFlagIndex {
+
+    public static final int INDEX_MAGIC = 0x44464C49; // 'DFLI'
+
+    public static final byte FORMAT_VERSION = 1;
+
+    public static final String INDEX_FILE_NAME = "_index.dfi";
+
+    /**
+     * Root flag name to holders, each mapped to its expiration time in millis (or 0 if it doesn't expire).
+     */
+    public static final ConcurrentHashMap<String, ConcurrentHashMap<UUID, Long>> byFlag = new ConcurrentHashMap<>();
+
+    /**
+     * Whether the index is complete. When false (while rebuilding), searches must fall back to reading flag trackers.
+     */
+    public static volatile boolean ready = false;
+
+    public static class Change {
+
+        public UUID id;
+
+        public String key;
+
+        public long expiration;
+
+        public Change(UUID id, String key, long expiration) {
+            this.id = id;
+            this.key = key;
+            this.expiration = expiration;
+        }
+    }
+
+    /**
+     * Changes made while a rebuild is running, to be replayed on top of the rebuilt index. Null when not rebuilding. Synchronized on the class.
+     */
+    public static List<Change> changesDuringRebuild = null;
+
+    public static File getIndexFile() {
+        return new File(PlayerFlagHandler.dataFolder, INDEX_FILE_NAME);
+    }
+
+    /**
+     * Called by flag trackers when a root flag is set or removed. An expiration of -1 indicates removal.
+     * Safe to call from any thread.
+     */
+    public static void onFlagChanged(UUID id, String key, long expiration) {
+        apply(byFlag, id, key, expiration);
+        synchronized (PlayerFlagIndex.class) {
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.add(new Change(id, key, expiration));
+            }
+        }
+    }
+
+    public static void apply(Map<String, ConcurrentHashMap<UUID, Long>> index, UUID id, String key, long expiration) {
+        if (expiration == -1) {
+            ConcurrentHashMap<UUID, Long> holders = index.get(key);
+            if (holders != null) {
+                holders.remove(id);
+                if (holders.isEmpty()) {
+                    index.remove(key, holders);
+                }
+            }
+            return;
+        }
+        index.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(id, expiration);
+    }
+
+    /**
+     * Returns the set of players currently holding the given root flag, skipping (and removing) any that have expired.
+     */
+    public static Set<UUID> getHolders(String rootKey) {
+        ConcurrentHashMap<UUID, Long> holders = byFlag.get(rootKey);
+        if (holders == null) {
+            return Collections.emptySet();
+        }
+        long now = System.currentTimeMillis();
+        Set<UUID> result = new HashSet<>(holders.size());
+        Iterator<Map.Entry<UUID, Long>> iterator = holders.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, Long> entry = iterator.next();
+            long expiration = entry.getValue();
+            if (expiration != 0 && expiration < now) {
+                iterator.remove();
+                continue;
+            }
+            result.add(entry.getKey());
+        }
+        return result;
+    }
+
+    /**
+     * Returns all known players that have (or if 'want' is false, don't have) the given flag.
+     * Only players holding the root flag are ever loaded, and only if the flag name has sub-keys that need checking.
+     */
+    public static ListTag getPlayersFlagged(String flag, boolean want) {
+        int dot = flag.indexOf('.');
+        Set<UUID> holders = getHolders(dot == -1 ? flag : flag.substring(0, dot));
+        ListTag result = new ListTag();
+        if (want) {
+            for (UUID id : holders) {
+                PlayerTag player = new PlayerTag(id);
+                if (dot == -1 || player.getFlagTracker().hasFlag(flag)) {
+                    result.addObject(player);
+                }
+            }
+            return result;
+        }
+        for (UUID id : PlayerTag.getAllPlayers().values()) {
+            if (!holders.contains(id)) {
+                result.addObject(new PlayerTag(id));
+                continue;
+            }
+            if (dot != -1) {
+                PlayerTag player = new PlayerTag(id);
+                if (!player.getFlagTracker().hasFlag(flag)) {
+                    result.addObject(player);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Loads the saved index, or starts a rebuild if there isn't a valid one. Must be called on the main thread during startup.
+     */
+    public static void loadOrRebuild() {
+        File file = getIndexFile();
+        if (file.exists()) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (input.readInt() != INDEX_MAGIC || input.readByte() != FORMAT_VERSION) {
+                    throw new IOException("Not a flag index file");
+                }
+                int flagCount = input.readInt();
+                for (int i = 0; i < flagCount; i++) {
+                    String key = BinaryFlagTracker.readString(input);
+                    int holderCount = input.readInt();
+                    ConcurrentHashMap<UUID, Long> holders = new ConcurrentHashMap<>(holderCount);
+                    for (int h = 0; h < holderCount; h++) {
+                        holders.put(new UUID(input.readLong(), input.readLong()), input.readLong());
+                    }
+                    byFlag.put(key, holders);
+                }
+                ready = true;
+            }
+            catch (IOException ex) {
+                Debug.echoError("Failed to read player flag index, it will be rebuilt...");
+                Debug.echoError(ex);
+                byFlag.clear();
+            }
+            file.delete();
+        }
+        if (!ready) {
+            rebuildAsync();
+        }
+    }
+
+    /**
+     * Rebuilds the index from all player flag files, off the main thread. Must be called on the main thread. Searches fall back to the slow path until this completes.
+     * Players whose flags are already loaded are read from memory (on the main thread) instead, as their files may be mid-save.
+     * Any player loaded after that has its pending save waited on before its file is read.
+     */
+    public static void rebuildAsync() {
+        synchronized (PlayerFlagIndex.class) {
+            if (changesDuringRebuild != null) {
+                return;
+            }
+            changesDuringRebuild = new ArrayList<>();
+        }
+        ready = false;
+        Debug.log("Building player flag index...");
+        long start = CoreUtilities.monotonicMillis();
+        Map<String, ConcurrentHashMap<UUID, Long>> built = new HashMap<>();
+        Set<UUID> fromMemory = new HashSet<>();
+        for (PlayerFlagHandler.CachedPlayerFlag cache : PlayerFlagHandler.playerFlagTrackerCache.values()) {
+            BinaryFlagTracker tracker = cache.getIfLoaded();
+            if (tracker != null) {
+                for (Map.Entry<String, BinaryFlagTracker.RootFlag> entry : tracker.flags.entrySet()) {
+                    apply(built, cache.id, entry.getKey(), entry.getValue().getExpiration());
+                }
+                fromMemory.add(cache.id);
+            }
+        }
+        Bukkit.getScheduler().runTaskAsynchronously(Denizen.getInstance(), () -> {
+            int count = fromMemory.size();
+            String[] files = PlayerFlagHandler.dataFolder.list();
+            Set<String> names = new HashSet<>();
+            if (files != null) {
+                for (String fileName : files) {
+                    int dot = fileName.lastIndexOf('.');
+                    if (dot != -1) {
+                        names.add(fileName.substring(0, dot));
+                    }
+                }
+            }
+            for (String name : names) {
+                UUID id;
+                try {
+                    id = UUID.fromString(name);
+                }
+                catch (IllegalArgumentException ex) {
+                    continue;
+                }
+                if (fromMemory.contains(id)) {
+                    continue;
+                }
+                PlayerFlagHandler.CachedPlayerFlag cache = PlayerFlagHandler.playerFlagTrackerCache.get(id);
+                if (cache != null && cache.savingNow.get()) {
+                    try {
+                        cache.currentSave.get(30, TimeUnit.SECONDS);
+                    }
+                    catch (Throwable ex) {
+                        Debug.echoError(ex);
+                    }
+                }
+                try {
+                    BinaryFlagTracker tracker = BinaryFlagTracker.load(PlayerFlagHandler.dataFolder, name);
+                    for (Map.Entry<String, BinaryFlagTracker.RootFlag> entry : tracker.flags.entrySet()) {
+                        apply(built, id, entry.getKey(), entry.getValue().getExpiration());
+                    }
+                    count++;
+                }
+                catch (Throwable ex) {
+                    Debug.echoError(ex);
+                }
+            }
+            int playerCount = count;
+            Bukkit.getScheduler().runTask(Denizen.getInstance(), () -> {
+                synchronized (PlayerFlagIndex.class) {
+                    byFlag.clear();
+                    byFlag.putAll(built);
+                    for (Change change : changesDuringRebuild) {
+                        apply(byFlag, change.id, change.key, change.expiration);
+                    }
+                    changesDuringRebuild = null;
+                    ready = true;
+                }
+                Debug.log("Built player flag index for " + playerCount + " players in " + (CoreUtilities.monotonicMillis() - start) + "ms.");
+            });
+        });
+    }
+
+    /**
+     * Saves the index to file. Called on shutdown, after all player flags are saved.
+     */
+    public static void save() {
+        if (!ready || PlayerFlagHandler.dataFolder == null) {
+            return;
+        }
+        File file = getIndexFile();
+        File tempFile = new File(PlayerFlagHandler.dataFolder, INDEX_FILE_NAME + "~2");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                output.writeInt(INDEX_MAGIC);
+                output.writeByte(FORMAT_VERSION);
+                List<Map.Entry<String, ConcurrentHashMap<UUID, Long>>> entries = new ArrayList<>(byFlag.entrySet());
+                output.writeInt(entries.size());
+                for (Map.Entry<String, ConcurrentHashMap<UUID, Long>> entry : entries) {
+                    List<Map.Entry<UUID, Long>> holders = new ArrayList<>(entry.getValue().entrySet());
+                    BinaryFlagTracker.writeString(output, entry.getKey());
+                    output.writeInt(holders.size());
+                    for (Map.Entry<UUID, Long> holder : holders) {
+                        output.writeLong(holder.getKey().getMostSignificantBits());
+                        output.writeLong(holder.getKey().getLeastSignificantBits());
+                        output.writeLong(holder.getValue());
+                    }
+                }
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ex) {
+            Debug.echoError("Failed to save player flag index, it will be rebuilt on next startup.");
+            Debug.echoError(ex);
+        }
+    }
+}
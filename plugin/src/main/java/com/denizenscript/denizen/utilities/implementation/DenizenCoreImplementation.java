@@ -1,6 +1,7 @@
 package com.denizenscript.denizen.utilities.implementation;
 
 import com.denizenscript.denizen.Denizen;
+import com.denizenscript.denizen.utilities.FormattedTextHelper;
 import com.denizenscript.denizen.utilities.Settings;
 import com.denizenscript.denizen.events.bukkit.ScriptReloadEvent;
 import com.denizenscript.denizen.objects.*;
@@ -66,6 +67,8 @@ public class DenizenCoreImplementation implements DenizenImplementation {
         // Remove all recipes added by Denizen item scripts
         ItemScriptHelper.removeDenizenRecipes();
         ItemTag.matchHelperCache.clear();
+        // Formatted text can contain item scripts (eg in hover text)
+        FormattedTextHelper.clearCache();
         // Remove all registered commands added by Denizen command scripts
         CommandScriptHelper.removeDenizenCommands();
         // Remove all registered economy scripts if needed
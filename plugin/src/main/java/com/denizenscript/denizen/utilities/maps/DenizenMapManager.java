@@ -87,6 +87,7 @@ public class DenizenMapManager {
                         int width = objectsData.getInt(objectKey + ".width", 0);
                         int height = objectsData.getInt(objectKey + ".height", 0);
                         object = new MapImage(renderer, xTag, yTag, visibilityTag, debug, file, width, height);
+                        ((MapImage) object).dither = objectsData.getBoolean(objectKey + ".dither", false);
                         break;
                     case "TEXT":
                         object = new MapText(xTag, yTag, visibilityTag, debug, objectsData.getString(objectKey + ".text"), objectsData.getString(objectKey + ".color"));
@@ -2,6 +2,7 @@ package com.denizenscript.denizen.utilities.maps;
 
 import com.denizenscript.denizen.Denizen;
 import com.denizenscript.denizen.objects.PlayerTag;
+import com.denizenscript.denizencore.DenizenCore;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
 import org.bukkit.entity.Player;
 import org.bukkit.map.MapCanvas;
@@ -24,6 +25,12 @@ public class DenizenMapRenderer extends MapRenderer {
 
     public boolean hasChanged = true;
 
+    /**
+     * The server time of the last render, used to render non-contextual maps only once per tick.
+     * Non-contextual maps share a single canvas between all viewers, so the first render in a tick is sent to everyone.
+     */
+    public long lastRenderTime = -1;
+
     public DenizenMapRenderer(List<MapRenderer> oldMapRenderers, boolean autoUpdate, boolean contextual) {
         super(contextual);
         this.oldMapRenderers = oldMapRenderers;
@@ -85,8 +92,14 @@ public class DenizenMapRenderer extends MapRenderer {
             mapView.removeRenderer(this);
             return;
         }
-        if (!autoUpdate && !hasChanged && !isContextual()) {
-            return;
+        if (!isContextual()) {
+            if (!autoUpdate && !hasChanged) {
+                return;
+            }
+            if (lastRenderTime == DenizenCore.serverTimeMillis) {
+                return;
+            }
+            lastRenderTime = DenizenCore.serverTimeMillis;
         }
         try {
             while (mapCanvas.getCursors().size() > 0) {
@@ -13,7 +13,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.ImageConsumer;
 import java.lang.reflect.Field;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.UUID;
@@ -30,6 +30,7 @@ public class MapImage extends MapObject {
     public String actualFile = null;
     public boolean disabled = false;
     public DenizenMapRenderer renderer;
+    public boolean dither = false;
 
     public MapImage(DenizenMapRenderer renderer, String xTag, String yTag, String visibilityTag, boolean debug, String fileTag, int width, int height) {
         super(xTag, yTag, visibilityTag, debug);
@@ -48,6 +49,7 @@ public class MapImage extends MapObject {
         data.put("width", width);
         data.put("height", height);
         data.put("image", fileTag);
+        data.put("dither", dither);
         return data;
     }
 
@@ -113,7 +115,7 @@ public class MapImage extends MapObject {
             // Use custom functions to draw image to allow transparency and reduce lag intensely
             byte[] bytes;
             if (cachedImageData == null || image != imageForCache) {
-                bytes = imageToBytes(image, width, height);
+                bytes = imageToBytes(image, width, height, dither);
                 if (bytes == null) {
                     Debug.echoError("Image loading failed (bad imageToBytes) for image " + fileTag);
                     disabled = true;
@@ -150,29 +152,99 @@ public class MapImage extends MapObject {
     }
 
     public static byte[] imageToBytes(Image image, int width, int height) {
+        return imageToBytes(image, width, height, false);
+    }
+
+    public static byte[] imageToBytes(Image image, int width, int height, boolean dither) {
         BufferedImage temp = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
         Graphics2D graphics = temp.createGraphics();
         graphics.drawImage(image, 0, 0, width, height, null);
         graphics.dispose();
         int[] pixels = new int[width * height];
         temp.getRGB(0, 0, width, height, pixels, 0, width);
-        byte[] result = new byte[width * height];
+        return dither ? pixelsToBytesDithered(pixels, width, height) : pixelsToBytes(pixels);
+    }
+
+    public static byte[] pixelsToBytes(int[] pixels) {
+        byte[] result = new byte[pixels.length];
         for (int i = 0; i < pixels.length; i++) {
-            result[i] = matchColor(new Color(pixels[i]));
+            int argb = pixels[i];
+            result[i] = (argb >>> 24) < 128 ? 0 : matchColor((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF);
+        }
+        return result;
+    }
+
+    /**
+     * Converts pixels to map colors using Floyd-Steinberg dithering, spreading each pixel's color error onto its unprocessed neighbours.
+     * This gives much smoother gradients than plain nearest-color matching, given the limited map palette.
+     */
+    public static byte[] pixelsToBytesDithered(int[] pixels, int width, int height) {
+        byte[] result = new byte[pixels.length];
+        // Error carried for the current and next row, 3 channels per pixel, with a pixel of padding on either side.
+        int[] currentError = new int[(width + 2) * 3];
+        int[] nextError = new int[(width + 2) * 3];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                int argb = pixels[i];
+                if ((argb >>> 24) < 128) {
+                    result[i] = 0;
+                    continue;
+                }
+                int e = (x + 1) * 3;
+                int r = clampChannel(((argb >> 16) & 0xFF) + currentError[e] / 16);
+                int g = clampChannel(((argb >> 8) & 0xFF) + currentError[e + 1] / 16);
+                int b = clampChannel((argb & 0xFF) + currentError[e + 2] / 16);
+                byte matched = matchColor(r, g, b);
+                result[i] = matched;
+                Color actual = bukkitColors[matched & 0xFF];
+                int errR = r - actual.getRed(), errG = g - actual.getGreen(), errB = b - actual.getBlue();
+                currentError[e + 3] += errR * 7;
+                currentError[e + 4] += errG * 7;
+                currentError[e + 5] += errB * 7;
+                nextError[e - 3] += errR * 3;
+                nextError[e - 2] += errG * 3;
+                nextError[e - 1] += errB * 3;
+                nextError[e] += errR * 5;
+                nextError[e + 1] += errG * 5;
+                nextError[e + 2] += errB * 5;
+                nextError[e + 3] += errR;
+                nextError[e + 4] += errG;
+                nextError[e + 5] += errB;
+            }
+            int[] swap = currentError;
+            currentError = nextError;
+            nextError = swap;
+            Arrays.fill(nextError, 0);
         }
         return result;
     }
 
-    public static HashMap<Color, Byte> colorCache = new HashMap<>(1024);
+    private static int clampChannel(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+
+    /**
+     * Lookup table of RGB colors (at 6 bits per channel) to map palette colors, filled in lazily as colors are first seen.
+     * A value of 0 means not yet computed, as 0 is the transparent color and so is never a match result.
+     */
+    public static final byte[] colorLookup = new byte[1 << 18];
 
     public static byte matchColor(Color color) {
         if (color.getAlpha() < 128) {
             return 0;
         }
-        Byte result = colorCache.get(color);
-        if (result != null) {
+        return matchColor(color.getRed(), color.getGreen(), color.getBlue());
+    }
+
+    public static byte matchColor(int r, int g, int b) {
+        int key = ((r >> 2) << 12) | ((g >> 2) << 6) | (b >> 2);
+        byte result = colorLookup[key];
+        if (result != 0) {
             return result;
         }
+        // Match against the center of the 6-bit bucket, so the result doesn't depend on which color was seen first
+        Color color = new Color(((r >> 2) << 2) | 2, ((g >> 2) << 2) | 2, ((b >> 2) << 2) | 2);
         int index = 0;
         double best = -1;
         for (int i = 4; i < bukkitColors.length; i++) {
@@ -182,11 +254,9 @@ public class MapImage extends MapObject {
                 index = i;
             }
         }
-        byte gotten = (byte) (index < 128 ? index : -129 + (index - 127));
-        if (colorCache.size() < 1024 * 16) {
-            colorCache.put(color, gotten);
-        }
-        return gotten;
+        result = (byte) (index < 128 ? index : -129 + (index - 127));
+        colorLookup[key] = result;
+        return result;
     }
 
     public static double getDistance(Color c1, Color c2) {
@@ -50,10 +50,10 @@ public class CustomNBT {
         if (itemStack == null || itemStack.getType() == Material.AIR) {
             return null;
         }
-        CompoundTag compoundTag = NMSHandler.itemHelper.getNbtData(itemStack);
+        Tag attributesTag = NMSHandler.itemHelper.getNbtTag(itemStack, KEY_ATTRIBUTES);
         List<CompoundTag> attribs = new ArrayList<>();
-        if (compoundTag.getValue().containsKey(KEY_ATTRIBUTES)) {
-            List<Tag> temp = (List<Tag>) compoundTag.getValue().get(KEY_ATTRIBUTES).getValue();
+        if (attributesTag != null) {
+            List<Tag> temp = (List<Tag>) attributesTag.getValue();
             for (Tag tag : temp) {
                 attribs.add((CompoundTag) tag);
             }
@@ -184,10 +184,10 @@ public class CustomNBT {
         if (itemStack == null || itemStack.getType() == Material.AIR) {
             return null;
         }
-        CompoundTag compoundTag = NMSHandler.itemHelper.getNbtData(itemStack);
+        Tag materialsTag = NMSHandler.itemHelper.getNbtTag(itemStack, key);
         List<Material> materials = new ArrayList<>();
-        if (compoundTag.getValue().containsKey(key)) {
-            List<StringTag> temp = (List<StringTag>) compoundTag.getValue().get(key).getValue();
+        if (materialsTag != null) {
+            List<StringTag> temp = (List<StringTag>) materialsTag.getValue();
             for (StringTag tag : temp) {
                 materials.add(Material.matchMaterial(tag.getValue()));
             }
@@ -270,30 +270,15 @@ public class CustomNBT {
         if (itemStack == null || itemStack.getType() == Material.AIR) {
             return false;
         }
-        CompoundTag compoundTag = NMSHandler.itemHelper.getNbtData(itemStack);
-        CompoundTag denizenTag;
-        if (compoundTag.getValue().containsKey(basekey)) {
-            denizenTag = (CompoundTag) compoundTag.getValue().get(basekey);
-        }
-        else {
-            return false;
-        }
-        return denizenTag.getValue().containsKey(CoreUtilities.toLowerCase(key));
+        return NMSHandler.itemHelper.getNbtTag(itemStack, basekey, CoreUtilities.toLowerCase(key)) != null;
     }
 
     public static String getCustomNBT(ItemStack itemStack, String key, String basekey) {
         if (itemStack == null || itemStack.getType() == Material.AIR || key == null) {
             return null;
         }
-        CompoundTag compoundTag = NMSHandler.itemHelper.getNbtData(itemStack);
-        if (compoundTag.getValue().containsKey(basekey)) {
-            CompoundTag denizenTag = (CompoundTag) compoundTag.getValue().get(basekey);
-            String lowerKey = CoreUtilities.toLowerCase(key);
-            if (denizenTag.containsKey(lowerKey)) {
-                return denizenTag.getString(lowerKey);
-            }
-        }
-        return null;
+        // Present but not a string reads as empty
+        return NMSHandler.itemHelper.getNbtStringOrDefault(itemStack, "", basekey, CoreUtilities.toLowerCase(key));
     }
 
     public static List<String> listNBT(ItemStack itemStack, String basekey) {
@@ -301,10 +286,9 @@ public class CustomNBT {
         if (itemStack == null || itemStack.getType() == Material.AIR) {
             return nbt;
         }
-        CompoundTag compoundTag = NMSHandler.itemHelper.getNbtData(itemStack);
-        if (compoundTag.getValue().containsKey(basekey)) {
-            CompoundTag denizenTag = (CompoundTag) compoundTag.getValue().get(basekey);
-            nbt.addAll(denizenTag.getValue().keySet());
+        Tag denizenTag = NMSHandler.itemHelper.getNbtTag(itemStack, basekey);
+        if (denizenTag instanceof CompoundTag) {
+            nbt.addAll(((CompoundTag) denizenTag).getValue().keySet());
         }
         return nbt;
     }
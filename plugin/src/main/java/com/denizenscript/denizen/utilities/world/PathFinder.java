@@ -1,41 +1,489 @@
 package com.denizenscript.denizen.utilities.world;
 
+import com.denizenscript.denizen.Denizen;
 import com.denizenscript.denizen.objects.LocationTag;
+import com.denizenscript.denizen.utilities.blocks.BlockCursor;
+import com.denizenscript.denizencore.utilities.CoreUtilities;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
-import net.citizensnpcs.api.astar.AStarMachine;
-import net.citizensnpcs.api.astar.pathfinder.*;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Location;
-import org.bukkit.util.Vector;
+import org.bukkit.Material;
+import org.bukkit.Tag;
+import org.bukkit.World;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
 
 /**
- * TODO: Potentially a separate implementation?
+ * A* path finder for walking entities.
+ * Synchronous searches read the live world directly. Asynchronous searches capture the needed chunks as snapshots on the main thread first, so the search itself can run on any thread.
+ * Positions are packed into longs (see BlockCursor.pack), and each thread reuses its own search storage between runs.
+ * Paths found asynchronously are cached briefly, as the same waypoints tend to be requested repeatedly. A cached path is only reused if every point on it is still passable.
+ * Walkability follows the same rules as the Citizens block examiner this replaced: a point needs solid ground below and room for an entity's feet and head,
+ * doors, trapdoors, and carpets can be walked through, water can be waded through (at extra cost) but not swum across,
+ * fences, walls and fence gates are 1.5 blocks tall so can't be stepped up onto, and slabs are treated as full blocks.
  */
 public class PathFinder {
 
-    public static AStarMachine ASTAR = AStarMachine.createWithDefaultStorage();
+    public static final int MAX_RANGE = 100;
 
-    public static List<LocationTag> getPath(Location start, Location dest) {
-        VectorGoal goal = new VectorGoal(dest, 1);
-        Path plan = (Path) ASTAR.runFully(goal, new VectorNode(goal, start, new ChunkBlockSource(start, 100), new MinecraftBlockExaminer()), 50000);
-        if (plan == null) {
-            Debug.verboseLog("PathFinder: No path found from " + start + " to " + dest + " (return null)");
-            return new ArrayList<>();
+    public static final int MAX_ITERATIONS = 50000;
+
+    /**
+     * How far beyond the box around the start and destination chunks are captured, to leave room for detours.
+     */
+    public static final int CAPTURE_MARGIN = 32;
+
+    public static final long CACHE_DURATION_MS = 5000;
+
+    public static final int MAX_CACHED_PATHS = 256;
+
+    public static class CachedPath {
+
+        public long time;
+
+        public long[] path;
+    }
+
+    public static class PathKey {
+
+        public UUID world;
+
+        public long start, end;
+
+        public PathKey(UUID world, long start, long end) {
+            this.world = world;
+            this.start = start;
+            this.end = end;
         }
-        if (plan.isComplete()) {
-            Debug.verboseLog("PathFinder: path from " + start + " to " + dest + " is instantly completed");
-            return new ArrayList<>();
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof PathKey)) {
+                return false;
+            }
+            PathKey key = (PathKey) other;
+            return start == key.start && end == key.end && world.equals(key.world);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(start) * 31 + Long.hashCode(end);
+        }
+    }
+
+    /**
+     * Recently found paths. Main thread only.
+     */
+    public static final LinkedHashMap<PathKey, CachedPath> pathCache = new LinkedHashMap<PathKey, CachedPath>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PathKey, CachedPath> eldest) {
+            return size() > MAX_CACHED_PATHS;
+        }
+    };
+
+    public static final ThreadLocal<PathSearch> searchPool = ThreadLocal.withInitial(PathSearch::new);
+
+    /**
+     * Read-only block access for a search. Positions that can't be read (unloaded, or outside the world height) return null, which is impassable.
+     */
+    public interface BlockSource {
+
+        Material getType(int x, int y, int z);
+    }
+
+    /**
+     * Block access that reads the live world. Only usable on the main thread. Unloaded chunks are never loaded.
+     */
+    public static class LiveBlockSource implements BlockSource {
+
+        public World world;
+
+        public int minY, maxY;
+
+        public long lastChunkKey;
+
+        public Chunk lastChunk;
+
+        public LiveBlockSource(World world) {
+            this.world = world;
+            minY = world.getMinHeight();
+            maxY = world.getMaxHeight() - 1;
         }
-        else {
-            List<LocationTag> path = new ArrayList<>();
-            while (!plan.isComplete()) {
-                Vector v = plan.getCurrentVector();
-                path.add(new LocationTag(start.getWorld(), v.getX(), v.getY(), v.getZ()));
-                plan.update(null);
+
+        @Override
+        public Material getType(int x, int y, int z) {
+            if (y < minY || y > maxY) {
+                return null;
+            }
+            int chunkX = x >> 4, chunkZ = z >> 4;
+            long key = SnapshotBlockSource.chunkKey(chunkX, chunkZ);
+            if (lastChunk == null || lastChunkKey != key) {
+                if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                    return null;
+                }
+                lastChunk = world.getChunkAt(chunkX, chunkZ);
+                lastChunkKey = key;
+            }
+            return lastChunk.getBlock(x & 15, y, z & 15).getType();
+        }
+    }
+
+    /**
+     * Read-only block access backed by chunk snapshots. Positions outside the captured chunks read as null (impassable).
+     */
+    public static class SnapshotBlockSource implements BlockSource {
+
+        public Long2ObjectOpenHashMap<ChunkSnapshot> chunks = new Long2ObjectOpenHashMap<>();
+
+        public int minY, maxY;
+
+        public static SnapshotBlockSource capture(Location start, Location dest) {
+            SnapshotBlockSource source = new SnapshotBlockSource();
+            World world = start.getWorld();
+            source.minY = world.getMinHeight();
+            source.maxY = world.getMaxHeight() - 1;
+            int minX = Math.max(Math.min(start.getBlockX(), dest.getBlockX()) - CAPTURE_MARGIN, start.getBlockX() - MAX_RANGE);
+            int maxX = Math.min(Math.max(start.getBlockX(), dest.getBlockX()) + CAPTURE_MARGIN, start.getBlockX() + MAX_RANGE);
+            int minZ = Math.max(Math.min(start.getBlockZ(), dest.getBlockZ()) - CAPTURE_MARGIN, start.getBlockZ() - MAX_RANGE);
+            int maxZ = Math.min(Math.max(start.getBlockZ(), dest.getBlockZ()) + CAPTURE_MARGIN, start.getBlockZ() + MAX_RANGE);
+            for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+                for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                    if (world.isChunkLoaded(chunkX, chunkZ)) {
+                        source.chunks.put(chunkKey(chunkX, chunkZ), world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false));
+                    }
+                }
+            }
+            return source;
+        }
+
+        public static long chunkKey(int chunkX, int chunkZ) {
+            return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+        }
+
+        @Override
+        public Material getType(int x, int y, int z) {
+            if (y < minY || y > maxY) {
+                return null;
+            }
+            ChunkSnapshot snapshot = chunks.get(chunkKey(x >> 4, z >> 4));
+            if (snapshot == null) {
+                return null;
+            }
+            return snapshot.getBlockType(x & 15, y, z & 15);
+        }
+    }
+
+    public static final boolean[] WALK_THROUGH = new boolean[Material.values().length], TALL = new boolean[Material.values().length];
+
+    static {
+        for (Material material : Material.values()) {
+            if (material.isLegacy() || !material.isBlock()) {
+                continue;
+            }
+            WALK_THROUGH[material.ordinal()] = material == Material.LADDER || Tag.DOORS.isTagged(material) || Tag.TRAPDOORS.isTagged(material) || material.name().endsWith("_CARPET");
+            TALL[material.ordinal()] = Tag.FENCES.isTagged(material) || Tag.WALLS.isTagged(material) || Tag.FENCE_GATES.isTagged(material);
+        }
+    }
+
+    public static boolean isLiquid(Material material) {
+        return material == Material.WATER || material == Material.LAVA || material == Material.BUBBLE_COLUMN;
+    }
+
+    public static boolean canStandIn(Material material) {
+        return material != null && material != Material.LAVA && (!material.isSolid() || WALK_THROUGH[material.ordinal()]);
+    }
+
+    public static boolean canStandOn(Material material) {
+        return material != null && material.isSolid() && material != Material.CACTUS && material != Material.MAGMA_BLOCK && material != Material.SWEET_BERRY_BUSH;
+    }
+
+    /**
+     * Returns true for blocks more than a block tall (fences, walls, and fence gates), which can't be stepped up onto.
+     */
+    public static boolean isTall(Material material) {
+        return material != null && TALL[material.ordinal()];
+    }
+
+    /**
+     * Reusable A* storage. Only touched by the thread that owns it.
+     */
+    public static class PathSearch {
+
+        public Long2DoubleOpenHashMap costs = new Long2DoubleOpenHashMap();
+
+        public Long2LongOpenHashMap parents = new Long2LongOpenHashMap();
+
+        public LongOpenHashSet closed = new LongOpenHashSet();
+
+        public int openSize = 0;
+
+        public long[] openPositions = new long[256];
+
+        public double[] openScores = new double[256];
+
+        public BlockSource source;
+
+        public boolean isPassable(int x, int y, int z) {
+            return canStandIn(source.getType(x, y, z)) && canStandIn(source.getType(x, y + 1, z)) && canStandOn(source.getType(x, y - 1, z));
+        }
+
+        /**
+         * Returns the extra cost of moving through a passable point: slow or slippery ground, cobwebs, and wading through water.
+         */
+        public double getExtraCost(int x, int y, int z) {
+            Material in = source.getType(x, y, z), above = source.getType(x, y + 1, z), below = source.getType(x, y - 1, z);
+            if (in == Material.COBWEB || above == Material.COBWEB || below == Material.SOUL_SAND || below == Material.ICE || isLiquid(in) || isLiquid(above)) {
+                return 1;
+            }
+            return 0;
+        }
+
+        public void pushOpen(long position, double score) {
+            if (openSize == openPositions.length) {
+                openPositions = Arrays.copyOf(openPositions, openSize * 2);
+                openScores = Arrays.copyOf(openScores, openSize * 2);
+            }
+            int index = openSize++;
+            while (index > 0) {
+                int parent = (index - 1) >> 1;
+                if (openScores[parent] <= score) {
+                    break;
+                }
+                openPositions[index] = openPositions[parent];
+                openScores[index] = openScores[parent];
+                index = parent;
+            }
+            openPositions[index] = position;
+            openScores[index] = score;
+        }
+
+        public long popOpen() {
+            long result = openPositions[0];
+            long lastPosition = openPositions[--openSize];
+            double lastScore = openScores[openSize];
+            int index = 0;
+            while (true) {
+                int child = index * 2 + 1;
+                if (child >= openSize) {
+                    break;
+                }
+                if (child + 1 < openSize && openScores[child + 1] < openScores[child]) {
+                    child++;
+                }
+                if (openScores[child] >= lastScore) {
+                    break;
+                }
+                openPositions[index] = openPositions[child];
+                openScores[index] = openScores[child];
+                index = child;
+            }
+            openPositions[index] = lastPosition;
+            openScores[index] = lastScore;
+            return result;
+        }
+
+        public void reset() {
+            costs.clear();
+            parents.clear();
+            closed.clear();
+            openSize = 0;
+            source = null;
+        }
+
+        /**
+         * Returns the path from start to goal (both inclusive) as packed positions, an empty array if the start already satisfies the goal, or null if no path was found.
+         */
+        public long[] search(BlockSource source, int startX, int startY, int startZ, int goalX, int goalY, int goalZ) {
+            this.source = source;
+            try {
+                long start = BlockCursor.pack(startX, startY, startZ);
+                if (isGoal(startX, startY, startZ, goalX, goalY, goalZ)) {
+                    return new long[0];
+                }
+                costs.put(start, 0);
+                pushOpen(start, heuristic(startX, startY, startZ, goalX, goalY, goalZ));
+                int iterations = 0;
+                while (openSize > 0 && iterations++ < MAX_ITERATIONS) {
+                    long current = popOpen();
+                    if (!closed.add(current)) {
+                        continue;
+                    }
+                    int x = BlockCursor.unpackX(current), y = BlockCursor.unpackY(current), z = BlockCursor.unpackZ(current);
+                    if (isGoal(x, y, z, goalX, goalY, goalZ)) {
+                        return buildPath(start, current);
+                    }
+                    double currentCost = costs.get(current);
+                    for (int dx = -1; dx <= 1; dx++) {
+                        for (int dy = -1; dy <= 1; dy++) {
+                            for (int dz = -1; dz <= 1; dz++) {
+                                if (dx == 0 && dy == 0 && dz == 0) {
+                                    continue;
+                                }
+                                int nx = x + dx, ny = y + dy, nz = z + dz;
+                                if (Math.abs(nx - startX) > MAX_RANGE || Math.abs(nz - startZ) > MAX_RANGE) {
+                                    continue;
+                                }
+                                long next = BlockCursor.pack(nx, ny, nz);
+                                if (closed.contains(next) || !isPassable(nx, ny, nz)) {
+                                    continue;
+                                }
+                                if (dy == 1 && isTall(source.getType(nx, ny - 1, nz))) {
+                                    continue;
+                                }
+                                double cost = currentCost + Math.sqrt(dx * dx + dy * dy + dz * dz) + getExtraCost(nx, ny, nz);
+                                if (costs.containsKey(next) && costs.get(next) <= cost) {
+                                    continue;
+                                }
+                                costs.put(next, cost);
+                                parents.put(next, current);
+                                pushOpen(next, cost + heuristic(nx, ny, nz, goalX, goalY, goalZ));
+                            }
+                        }
+                    }
+                }
+                return null;
+            }
+            finally {
+                reset();
+            }
+        }
+
+        public long[] buildPath(long start, long end) {
+            LongArrayList reversed = new LongArrayList();
+            long current = end;
+            reversed.add(current);
+            while (current != start) {
+                current = parents.get(current);
+                reversed.add(current);
+            }
+            long[] path = new long[reversed.size()];
+            for (int i = 0; i < path.length; i++) {
+                path[i] = reversed.getLong(path.length - 1 - i);
             }
             return path;
         }
     }
+
+    public static boolean isGoal(int x, int y, int z, int goalX, int goalY, int goalZ) {
+        int dx = x - goalX, dy = y - goalY, dz = z - goalZ;
+        return dx * dx + dy * dy + dz * dz <= 1;
+    }
+
+    public static double heuristic(int x, int y, int z, int goalX, int goalY, int goalZ) {
+        int dx = x - goalX, dy = y - goalY, dz = z - goalZ;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    public static PathKey keyFor(Location start, Location dest) {
+        return new PathKey(start.getWorld().getUID(), BlockCursor.pack(start.getBlockX(), start.getBlockY(), start.getBlockZ()), BlockCursor.pack(dest.getBlockX(), dest.getBlockY(), dest.getBlockZ()));
+    }
+
+    /**
+     * Returns a recently found path, if it's still walkable in the live world. Must be called on the main thread.
+     */
+    public static long[] getCachedPath(PathKey key, World world) {
+        CachedPath cached = pathCache.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (CoreUtilities.monotonicMillis() - cached.time > CACHE_DURATION_MS || !isStillPassable(world, cached.path)) {
+            pathCache.remove(key);
+            return null;
+        }
+        return cached.path;
+    }
+
+    /**
+     * Returns true if no block along the path has changed in a way that blocks it. The start is skipped, as the entity may be standing somewhere a path couldn't lead to.
+     */
+    public static boolean isStillPassable(World world, long[] path) {
+        if (path.length == 0) {
+            return true;
+        }
+        PathSearch checker = new PathSearch();
+        checker.source = new LiveBlockSource(world);
+        for (int i = 1; i < path.length; i++) {
+            long position = path[i];
+            if (!checker.isPassable(BlockCursor.unpackX(position), BlockCursor.unpackY(position), BlockCursor.unpackZ(position))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void cachePath(PathKey key, long[] path) {
+        CachedPath cached = new CachedPath();
+        cached.time = CoreUtilities.monotonicMillis();
+        cached.path = path;
+        pathCache.put(key, cached);
+    }
+
+    public static long[] search(BlockSource source, Location start, Location dest) {
+        return searchPool.get().search(source, start.getBlockX(), start.getBlockY(), start.getBlockZ(), dest.getBlockX(), dest.getBlockY(), dest.getBlockZ());
+    }
+
+    public static List<LocationTag> toLocations(World world, Location start, Location dest, long[] path) {
+        List<LocationTag> result = new ArrayList<>();
+        if (path == null) {
+            Debug.verboseLog("PathFinder: No path found from " + start + " to " + dest + " (return null)");
+            return result;
+        }
+        if (path.length == 0) {
+            Debug.verboseLog("PathFinder: path from " + start + " to " + dest + " is instantly completed");
+            return result;
+        }
+        for (long position : path) {
+            result.add(new LocationTag(world, BlockCursor.unpackX(position), BlockCursor.unpackY(position), BlockCursor.unpackZ(position)));
+        }
+        return result;
+    }
+
+    /**
+     * Finds a path immediately, on the calling thread, reading the live world. Must be called on the main thread.
+     */
+    public static List<LocationTag> getPath(Location start, Location dest) {
+        return toLocations(start.getWorld(), start, dest, search(new LiveBlockSource(start.getWorld()), start, dest));
+    }
+
+    /**
+     * Captures the needed chunks, then finds a path off the main thread, and calls back on the main thread. Must be called on the main thread.
+     */
+    public static void getPathAsync(Location start, Location dest, Consumer<List<LocationTag>> callback) {
+        PathKey key = keyFor(start, dest);
+        long[] cachedPath = getCachedPath(key, start.getWorld());
+        if (cachedPath != null) {
+            callback.accept(toLocations(start.getWorld(), start, dest, cachedPath));
+            return;
+        }
+        SnapshotBlockSource source = SnapshotBlockSource.capture(start, dest);
+        Bukkit.getScheduler().runTaskAsynchronously(Denizen.getInstance(), () -> {
+            long[] path = null;
+            try {
+                path = search(source, start, dest);
+            }
+            catch (Throwable ex) {
+                Debug.echoError(ex);
+            }
+            final long[] result = path;
+            Bukkit.getScheduler().runTask(Denizen.getInstance(), () -> {
+                if (result != null) {
+                    cachePath(key, result);
+                }
+                callback.accept(toLocations(start.getWorld(), start, dest, result));
+            });
+        });
+    }
 }
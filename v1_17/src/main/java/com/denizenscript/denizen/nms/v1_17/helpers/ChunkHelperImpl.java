@@ -14,14 +14,18 @@ import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.biome.Biome;
 import net.minecraft.world.level.chunk.ChunkBiomeContainer;
 import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
 import net.minecraft.world.level.levelgen.Heightmap;
+import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.Chunk;
 import org.bukkit.craftbukkit.v1_17_R1.CraftChunk;
 import org.bukkit.craftbukkit.v1_17_R1.CraftWorld;
+import org.bukkit.craftbukkit.v1_17_R1.util.CraftMagicNumbers;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
+import java.util.BitSet;
 
 public class ChunkHelperImpl implements ChunkHelper {
 
@@ -118,4 +122,16 @@ public class ChunkHelperImpl implements ChunkHelper {
         }
         nmsChunk.markUnsaved();
     }
+
+    @Override
+    public boolean[] getSectionsMaybeContaining(Chunk chunk, BitSet materials) {
+        LevelChunkSection[] sections = ((CraftChunk) chunk).getHandle().getSections();
+        boolean[] result = new boolean[sections.length];
+        boolean airMatches = materials.get(Material.AIR.ordinal());
+        for (int i = 0; i < sections.length; i++) {
+            LevelChunkSection section = sections[i];
+            result[i] = LevelChunkSection.isEmpty(section) ? airMatches : section.maybeHas(state -> materials.get(CraftMagicNumbers.getMaterial(state.getBlock()).ordinal()));
+        }
+        return result;
+    }
 }
@@ -338,6 +338,11 @@ public class Handler extends NMSHandler {
         return ((CraftPersistentDataContainer) container).getRaw().containsKey(key);
     }
 
+    @Override
+    public Object containerGetRaw(PersistentDataContainer container, String key) {
+        return ((CraftPersistentDataContainer) container).getRaw().get(key);
+    }
+
     @Override
     public String containerGetString(PersistentDataContainer container, String key) {
         net.minecraft.nbt.Tag base = ((CraftPersistentDataContainer) container).getRaw().get(key);
@@ -21,9 +21,11 @@ import org.bukkit.World;
 import org.bukkit.Chunk;
 import org.bukkit.craftbukkit.v1_18_R2.CraftChunk;
 import org.bukkit.craftbukkit.v1_18_R2.CraftWorld;
+import org.bukkit.craftbukkit.v1_18_R2.util.CraftMagicNumbers;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
+import java.util.BitSet;
 
 public class ChunkHelperImpl implements ChunkHelper {
 
@@ -115,4 +117,14 @@ public class ChunkHelperImpl implements ChunkHelper {
             datapaletteblock.release();
         }
     }
+
+    @Override
+    public boolean[] getSectionsMaybeContaining(Chunk chunk, BitSet materials) {
+        LevelChunkSection[] sections = ((CraftChunk) chunk).getHandle().getSections();
+        boolean[] result = new boolean[sections.length];
+        for (int i = 0; i < sections.length; i++) {
+            result[i] = sections[i].getStates().maybeHas(state -> materials.get(CraftMagicNumbers.getMaterial(state.getBlock()).ordinal()));
+        }
+        return result;
+    }
 }
@@ -25,6 +25,7 @@ import net.minecraft.util.InclusiveRange;
 import net.minecraft.util.RandomSource;
 import net.minecraft.util.random.SimpleWeightedRandomList;
 import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.ai.village.poi.PoiTypes;
 import net.minecraft.world.level.BaseSpawner;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.SpawnData;
@@ -34,9 +35,11 @@ import net.minecraft.world.level.block.state.BlockBehaviour;
 import net.minecraft.world.level.block.state.properties.NoteBlockInstrument;
 import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.chunk.ChunkStatus;
+import net.minecraft.world.level.chunk.LevelChunk;
 import net.minecraft.world.level.material.PushReaction;
 import org.bukkit.*;
 import org.bukkit.block.*;
+import org.bukkit.block.data.BlockData;
 import org.bukkit.craftbukkit.v1_19_R3.CraftChunk;
 import org.bukkit.craftbukkit.v1_19_R3.CraftServer;
 import org.bukkit.craftbukkit.v1_19_R3.CraftWorld;
@@ -366,4 +369,44 @@ public class BlockHelperImpl implements BlockHelper {
             PacketHelperImpl.send(player, tagsPacket);
         }
     }
+
+    @Override
+    public void setBlocksInSection(World world, int chunkX, int sectionY, int chunkZ, short[] positions, BlockData[] data, int count) {
+        ServerLevel level = ((CraftWorld) world).getHandle();
+        LevelChunk chunk = level.getChunk(chunkX, chunkZ);
+        int baseX = chunkX << 4, baseY = sectionY << 4, baseZ = chunkZ << 4;
+        for (int i = 0; i < count; i++) {
+            int packed = positions[i];
+            BlockPos pos = new BlockPos(baseX + (packed & 15), baseY + ((packed >> 8) & 15), baseZ + ((packed >> 4) & 15));
+            net.minecraft.world.level.block.state.BlockState newState = ((CraftBlockData) data[i]).getState();
+            net.minecraft.world.level.block.state.BlockState oldState = chunk.getBlockState(pos);
+            if (oldState == newState) {
+                continue;
+            }
+            if (!isPlainBlock(oldState) || !isPlainBlock(newState)) {
+                // Block entities and points of interest need the full level logic to be created, removed, and tracked
+                world.getBlockAt(pos.getX(), pos.getY(), pos.getZ()).setBlockData(data[i], false);
+                continue;
+            }
+            // This also updates the chunk's heightmaps, and the section's empty status in the light engine
+            chunk.setBlockState(pos, newState, false, false);
+            // The chunk holder batches these into a single section update packet per tick
+            level.getChunkSource().blockChanged(pos);
+            if (hasDifferentLight(chunk, pos, oldState, newState)) {
+                level.getChunkSource().getLightEngine().checkBlock(pos);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the block state has no block entity and isn't a point of interest, so can be set directly in the chunk.
+     */
+    public static boolean isPlainBlock(net.minecraft.world.level.block.state.BlockState state) {
+        return !state.hasBlockEntity() && !PoiTypes.hasPoi(state);
+    }
+
+    public static boolean hasDifferentLight(LevelChunk chunk, BlockPos pos, net.minecraft.world.level.block.state.BlockState oldState, net.minecraft.world.level.block.state.BlockState newState) {
+        return oldState.getLightEmission() != newState.getLightEmission() || oldState.getLightBlock(chunk, pos) != newState.getLightBlock(chunk, pos)
+                || oldState.useShapeForLightOcclusion() || newState.useShapeForLightOcclusion();
+    }
 }
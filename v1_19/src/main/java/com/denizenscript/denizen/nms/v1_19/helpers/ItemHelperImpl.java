@@ -250,6 +250,79 @@ public class ItemHelperImpl extends ItemHelper {
         return CraftItemStack.asBukkitCopy(nmsItemStack);
     }
 
+    public static final Field CRAFTITEMSTACK_HANDLE = ReflectionHelper.getFields(CraftItemStack.class).get("handle");
+
+    /**
+     * Returns the item's NMS tag, read directly from the live NMS item where there is one, otherwise from a copy. Must not be modified.
+     */
+    public static net.minecraft.nbt.CompoundTag getReadOnlyTag(ItemStack itemStack) {
+        if (itemStack instanceof CraftItemStack) {
+            try {
+                net.minecraft.world.item.ItemStack handle = (net.minecraft.world.item.ItemStack) CRAFTITEMSTACK_HANDLE.get(itemStack);
+                return handle == null ? null : handle.getTag();
+            }
+            catch (Throwable ex) {
+                Debug.echoError(ex);
+            }
+        }
+        net.minecraft.world.item.ItemStack nmsItemStack = CraftItemStack.asNMSCopy(itemStack);
+        return nmsItemStack == null ? null : nmsItemStack.getTag();
+    }
+
+    public static net.minecraft.nbt.Tag getNMSTagAt(ItemStack itemStack, String[] path) {
+        net.minecraft.nbt.Tag current = getReadOnlyTag(itemStack);
+        for (String key : path) {
+            if (!(current instanceof net.minecraft.nbt.CompoundTag)) {
+                return null;
+            }
+            current = ((net.minecraft.nbt.CompoundTag) current).get(key);
+        }
+        return current;
+    }
+
+    @Override
+    public Tag getNbtTag(ItemStack itemStack, String... path) {
+        net.minecraft.nbt.Tag tag = getNMSTagAt(itemStack, path);
+        if (tag == null) {
+            return null;
+        }
+        if (tag instanceof net.minecraft.nbt.CompoundTag) {
+            return CompoundTagImpl.fromNMSTag((net.minecraft.nbt.CompoundTag) tag);
+        }
+        net.minecraft.nbt.CompoundTag wrapper = new net.minecraft.nbt.CompoundTag();
+        wrapper.put("value", tag);
+        return CompoundTagImpl.fromNMSTag(wrapper).getValue().get("value");
+    }
+
+    @Override
+    public String getNbtString(ItemStack itemStack, String... path) {
+        net.minecraft.nbt.Tag tag = getNMSTagAt(itemStack, path);
+        return tag instanceof net.minecraft.nbt.StringTag ? tag.getAsString() : null;
+    }
+
+    @Override
+    public String getNbtStringOrDefault(ItemStack itemStack, String nonStringValue, String... path) {
+        net.minecraft.nbt.Tag tag = getNMSTagAt(itemStack, path);
+        if (tag == null) {
+            return null;
+        }
+        return tag instanceof net.minecraft.nbt.StringTag ? tag.getAsString() : nonStringValue;
+    }
+
+    @Override
+    public String[] getNbtStrings(ItemStack itemStack, String... keys) {
+        String[] result = new String[keys.length];
+        net.minecraft.nbt.CompoundTag root = getReadOnlyTag(itemStack);
+        if (root == null) {
+            return result;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            net.minecraft.nbt.Tag tag = root.get(keys[i]);
+            result[i] = tag instanceof net.minecraft.nbt.StringTag ? tag.getAsString() : null;
+        }
+        return result;
+    }
+
     @Override
     public CompoundTag getNbtData(ItemStack itemStack) {
         net.minecraft.world.item.ItemStack nmsItemStack = CraftItemStack.asNMSCopy(itemStack);
@@ -346,7 +419,7 @@ public class ItemHelperImpl extends ItemHelper {
         else {
             ListTag tagList = new ListTag();
             for (String line : lore) {
-                tagList.add(net.minecraft.nbt.StringTag.valueOf(FormattedTextHelper.componentToJson(FormattedTextHelper.parse(line, ChatColor.WHITE))));
+                tagList.add(net.minecraft.nbt.StringTag.valueOf(FormattedTextHelper.parseToJson(line, ChatColor.WHITE)));
             }
             display.put("Lore", tagList);
         }
@@ -11,6 +11,7 @@ import com.denizenscript.denizen.utilities.Utilities;
 import com.denizenscript.denizen.utilities.maps.MapImage;
 import com.denizenscript.denizen.utilities.packets.NetworkInterceptHelper;
 import com.denizenscript.denizencore.objects.core.ColorTag;
+import com.denizenscript.denizencore.objects.core.MapTag;
 import com.denizenscript.denizencore.utilities.ReflectionHelper;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
 import io.netty.buffer.Unpooled;
@@ -297,6 +298,11 @@ public class PacketHelperImpl implements PacketHelper {
         return sent ? netMan.packetsSent : netMan.packetsReceived;
     }
 
+    @Override
+    public MapTag getPacketHandlerTimings() {
+        return DenizenNetworkManagerImpl.getHandlerTimings();
+    }
+
     @Override
     public void setMapData(MapCanvas canvas, byte[] bytes, int x, int y, MapImage image) {
         if (x > 127 || y > 127) {
@@ -308,7 +314,8 @@ public class PacketHelperImpl implements PacketHelper {
             return;
         }
         try {
-            boolean anyChanged = false;
+            // Track the bounds of the pixels that actually changed, so only that region gets resent
+            int minX = 128, minY = 128, maxX = -1, maxY = -1;
             byte[] buffer = (byte[]) CANVAS_GET_BUFFER.invoke(canvas);
             for (int x2 = x < 0 ? -x : 0; x2 < width; ++x2) {
                 for (int y2 = y < 0 ? -y : 0; y2 < height; ++y2) {
@@ -317,16 +324,18 @@ public class PacketHelperImpl implements PacketHelper {
                         int index = (y2 + y) * 128 + (x2 + x);
                         if (buffer[index] != p) {
                             buffer[index] = p;
-                            anyChanged = true;
+                            minX = Math.min(minX, x2 + x);
+                            minY = Math.min(minY, y2 + y);
+                            maxX = Math.max(maxX, x2 + x);
+                            maxY = Math.max(maxY, y2 + y);
                         }
                     }
                 }
             }
-            if (anyChanged) {
-                // Flag the whole image as dirty
+            if (maxX >= 0) {
                 MapItemSavedData map = (MapItemSavedData) MAPVIEW_WORLDMAP.get(canvas.getMapView());
-                map.setColorsDirty(Math.max(x, 0), Math.max(y, 0));
-                map.setColorsDirty(width + x - 1, height + y - 1);
+                map.setColorsDirty(minX, minY);
+                map.setColorsDirty(maxX, maxY);
             }
         }
         catch (Throwable ex) {
@@ -4,8 +4,14 @@ import com.denizenscript.denizen.events.player.PlayerReceivesPacketScriptEvent;
 import com.denizenscript.denizen.nms.NMSHandler;
 import com.denizenscript.denizen.nms.v1_20.ReflectionMappingsInfo;
 import com.denizenscript.denizen.nms.v1_20.impl.network.handlers.packet.*;
+import com.denizenscript.denizen.scripts.commands.player.DisguiseCommand;
 import com.denizenscript.denizen.utilities.Settings;
+import com.denizenscript.denizen.utilities.blocks.FakeBlock;
+import com.denizenscript.denizen.utilities.entity.EntityAttachmentHelper;
+import com.denizenscript.denizen.utilities.entity.HideEntitiesHelper;
 import com.denizenscript.denizen.utilities.packets.NetworkInterceptCodeGen;
+import com.denizenscript.denizencore.objects.core.ElementTag;
+import com.denizenscript.denizencore.objects.core.MapTag;
 import com.denizenscript.denizencore.utilities.CoreUtilities;
 import com.denizenscript.denizencore.utilities.ReflectionHelper;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
@@ -32,10 +38,13 @@ import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
 import java.net.SocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 
 public class DenizenNetworkManagerImpl extends Connection {
@@ -57,10 +66,101 @@ public class DenizenNetworkManagerImpl extends Connection {
         Packet<ClientGamePacketListener> handlePacket(DenizenNetworkManagerImpl networkManager, T packet) throws Exception;
     }
 
-    public static final Map<Class<? extends Packet<ClientGamePacketListener>>, List<PacketHandler<?>>> packetHandlers = new HashMap<>();
+    /**
+     * A group of packet handlers that all depend on the same feature, with a quick check for whether that feature is in use at all.
+     */
+    public static class HandlerCategory {
+
+        public final String name;
+
+        /**
+         * Returns false when nothing is currently using this category, meaning its handlers would leave every packet unchanged. Null if always active.
+         */
+        public final BooleanSupplier isActive;
+
+        public HandlerCategory(String name, BooleanSupplier isActive) {
+            this.name = name;
+            this.isActive = isActive;
+        }
+    }
+
+    public static class RegisteredPacketHandler {
+
+        public final String name;
+
+        public final HandlerCategory category;
+
+        public final PacketHandler<Packet<ClientGamePacketListener>> handler;
+
+        /**
+         * Packets are sent from many threads at once, so these are updated concurrently.
+         */
+        public final LongAdder calls = new LongAdder(), totalNanos = new LongAdder();
+
+        public RegisteredPacketHandler(String name, HandlerCategory category, PacketHandler<Packet<ClientGamePacketListener>> handler) {
+            this.name = name;
+            this.category = category;
+            this.handler = handler;
+        }
+    }
+
+    public static final RegisteredPacketHandler[] NO_HANDLERS = new RegisteredPacketHandler[0];
+
+    public static final Map<Class<?>, Integer> packetClassIds = new HashMap<>();
+
+    /**
+     * Handlers for each registered packet class, indexed by that class's ID in {@link #packetClassIds}.
+     */
+    public static RegisteredPacketHandler[][] packetHandlers = new RegisteredPacketHandler[0][];
+
+    /**
+     * Caches each packet class's ID (or -1 if it has no handlers), so dispatch doesn't need a map lookup per packet.
+     * All handlers must be registered before the first packet is sent.
+     */
+    public static final ClassValue<Integer> packetClassIdCache = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return packetClassIds.getOrDefault(type, -1);
+        }
+    };
+
+    public static HandlerCategory registeringCategory;
+
+    public static void registerHandlers(HandlerCategory category, Runnable registrar) {
+        registeringCategory = category;
+        try {
+            registrar.run();
+        }
+        finally {
+            registeringCategory = null;
+        }
+    }
 
     public static <T extends Packet<ClientGamePacketListener>> void registerPacketHandler(Class<T> packetClass, PacketHandler<T> handler) {
-        packetHandlers.computeIfAbsent(packetClass, k -> new ArrayList<>()).add(handler);
+        int id = packetClassIds.computeIfAbsent(packetClass, k -> packetClassIds.size());
+        if (id >= packetHandlers.length) {
+            packetHandlers = Arrays.copyOf(packetHandlers, id + 1);
+            packetHandlers[id] = NO_HANDLERS;
+        }
+        String name = (registeringCategory == null ? "other" : registeringCategory.name) + "/" + packetClass.getSimpleName();
+        RegisteredPacketHandler[] handlers = Arrays.copyOf(packetHandlers[id], packetHandlers[id].length + 1);
+        handlers[handlers.length - 1] = new RegisteredPacketHandler(name, registeringCategory, (PacketHandler<Packet<ClientGamePacketListener>>) handler);
+        packetHandlers[id] = handlers;
+    }
+
+    public static MapTag getHandlerTimings() {
+        MapTag result = new MapTag();
+        for (RegisteredPacketHandler[] handlers : packetHandlers) {
+            for (RegisteredPacketHandler handler : handlers) {
+                MapTag timing = new MapTag();
+                long calls = handler.calls.sum(), totalNanos = handler.totalNanos.sum();
+                timing.putObject("calls", new ElementTag(calls));
+                timing.putObject("total_nanos", new ElementTag(totalNanos));
+                timing.putObject("average_nanos", new ElementTag(calls == 0 ? 0 : totalNanos / calls));
+                result.putObject(handler.name, timing);
+            }
+        }
+        return result;
     }
 
     public static <T extends Packet<ClientGamePacketListener>> void registerPacketHandler(Class<T> packetClass, BiConsumer<DenizenNetworkManagerImpl, T> handler) {
@@ -74,6 +174,7 @@ public class DenizenNetworkManagerImpl extends Connection {
     public final DenizenPacketListenerImpl packetListener;
     public final ServerPlayer player;
     public int packetsSent, packetsReceived;
+    public final HideEntitiesHelper.ViewerVisibility entityVisibility = new HideEntitiesHelper.ViewerVisibility();
 
     public DenizenNetworkManagerImpl(ServerPlayer entityPlayer, Connection oldManager) {
         super(getProtocolDirection(oldManager));
@@ -273,19 +374,33 @@ public class DenizenNetworkManagerImpl extends Connection {
         }
         packetsSent++;
         if (packet instanceof ClientboundBundlePacket bundlePacket) {
-            List<Packet<ClientGamePacketListener>> processedPackets = new ArrayList<>();
-            boolean anyChange = false;
+            // Only build a new list once a sub-packet actually changes, as most bundles pass through untouched
+            List<Packet<ClientGamePacketListener>> processedPackets = null;
+            int index = 0, kept = 0;
             for (Packet<ClientGamePacketListener> subPacket : bundlePacket.subPackets()) {
                 Packet<ClientGamePacketListener> processed = processPacketHandlersFor(subPacket);
-                anyChange = anyChange || processed != subPacket;
+                if (processed != subPacket && processedPackets == null) {
+                    processedPackets = new ArrayList<>();
+                    int copied = 0;
+                    for (Packet<ClientGamePacketListener> unchanged : bundlePacket.subPackets()) {
+                        if (copied++ == index) {
+                            break;
+                        }
+                        processedPackets.add(unchanged);
+                    }
+                }
                 if (processed != null) {
-                    processedPackets.add(processed);
+                    kept++;
+                    if (processedPackets != null) {
+                        processedPackets.add(processed);
+                    }
                 }
+                index++;
             }
-            if (processedPackets.isEmpty()) {
+            if (kept == 0) {
                 return;
             }
-            if (anyChange) {
+            if (processedPackets != null) {
                 packet = new ClientboundBundlePacket(processedPackets);
             }
         }
@@ -300,19 +415,26 @@ public class DenizenNetworkManagerImpl extends Connection {
     }
 
     public Packet<ClientGamePacketListener> processPacketHandlersFor(Packet<ClientGamePacketListener> packet) {
-        List<PacketHandler<?>> packetHandlers = DenizenNetworkManagerImpl.packetHandlers.get(packet.getClass());
-        if (packetHandlers != null) {
-            for (PacketHandler<?> _packetHandler : packetHandlers) {
-                PacketHandler<Packet<ClientGamePacketListener>> packetHandler = (PacketHandler<Packet<ClientGamePacketListener>>) _packetHandler;
+        int id = packetClassIdCache.get(packet.getClass());
+        if (id != -1) {
+            for (RegisteredPacketHandler packetHandler : packetHandlers[id]) {
+                if (packetHandler.category != null && packetHandler.category.isActive != null && !packetHandler.category.isActive.getAsBoolean()) {
+                    continue;
+                }
                 Packet<ClientGamePacketListener> processed;
+                long start = System.nanoTime();
                 try {
-                    processed = packetHandler.handlePacket(this, packet);
+                    processed = packetHandler.handler.handlePacket(this, packet);
                 }
                 catch (Exception ex) {
                     Debug.echoError("Packet handler for " + packet.getClass().getCanonicalName() + " threw an exception:");
                     Debug.echoError(ex);
                     continue;
                 }
+                finally {
+                    packetHandler.totalNanos.add(System.nanoTime() - start);
+                    packetHandler.calls.increment();
+                }
                 if (processed == null) {
                     if (NMSHandler.debugPackets) {
                         doPacketOutput("DENIED PACKET - " + packet.getClass().getCanonicalName() + " DENIED FROM SEND TO " + player.getScoreboardName());
@@ -332,20 +454,20 @@ public class DenizenNetworkManagerImpl extends Connection {
     }
 
     static {
-        ActionBarEventPacketHandlers.registerHandlers();
-        AttachPacketHandlers.registerHandlers();
-        BlockLightPacketHandlers.registerHandlers();
-        DenizenPacketHandlerPacketHandlers.registerHandlers();
-        DisguisePacketHandlers.registerHandlers();
-        EntityMetadataPacketHandlers.registerHandlers();
-        FakeBlocksPacketHandlers.registerHandlers();
-        FakeEquipmentPacketHandlers.registerHandlers();
-        FakePlayerPacketHandlers.registerHandlers();
-        HiddenEntitiesPacketHandlers.registerHandlers();
-        HideParticlesPacketHandlers.registerHandlers();
-        PlayerHearsSoundEventPacketHandlers.registerHandlers();
-        ProfileMirrorPacketHandlers.registerHandlers();
-        TablistUpdateEventPacketHandlers.registerHandlers();
+        registerHandlers(new HandlerCategory("action_bar_event", null), ActionBarEventPacketHandlers::registerHandlers);
+        registerHandlers(new HandlerCategory("attachments", () -> !EntityAttachmentHelper.toEntityToData.isEmpty()), AttachPacketHandlers::registerHandlers);
+        registerHandlers(new HandlerCategory("block_light", null), BlockLightPacketHandlers::registerHandlers);
+        registerHandlers(new HandlerCategory("denizen_packet_handler", null), DenizenPacketHandlerPacketHandlers::registerHandlers);
+        registerHandlers(new HandlerCategory("disguises", () -> !DisguiseCommand.disguises.isEmpty()), DisguisePacketHandlers::registerHandlers);
+        registerHandlers(new HandlerCategory("entity_metadata", null), EntityMetadataPacketHandlers::registerHandlers);
+        registerHandlers(new HandlerCategory("fake_blocks", () -> !FakeBlock.blocks.isEmpty()), FakeBlocksPacketHandlers::registerHandlers);
+        registerHandlers(new HandlerCategory("fake_equipment", null), FakeEquipmentPacketHandlers::registerHandlers);
+        registerHandlers(new HandlerCategory("fake_player", null), FakePlayerPacketHandlers::registerHandlers);
+        registerHandlers(new HandlerCategory("hidden_entities", HideEntitiesHelper::hasAnyHides), HiddenEntitiesPacketHandlers::registerHandlers);
+        registerHandlers(new HandlerCategory("hide_particles", null), HideParticlesPacketHandlers::registerHandlers);
+        registerHandlers(new HandlerCategory("player_hears_sound_event", null), PlayerHearsSoundEventPacketHandlers::registerHandlers);
+        registerHandlers(new HandlerCategory("profile_mirror", null), ProfileMirrorPacketHandlers::registerHandlers);
+        registerHandlers(new HandlerCategory("tablist_update_event", null), TablistUpdateEventPacketHandlers::registerHandlers);
     }
 
     @Override
@@ -2,24 +2,20 @@ package com.denizenscript.denizen.nms.v1_20.impl.network.handlers;
 
 import com.denizenscript.denizen.Denizen;
 import com.denizenscript.denizen.nms.v1_20.ReflectionMappingsInfo;
-import com.denizenscript.denizen.objects.LocationTag;
+import com.denizenscript.denizen.objects.MaterialTag;
+import com.denizenscript.denizen.utilities.blocks.ChunkCoordinate;
 import com.denizenscript.denizen.utilities.blocks.FakeBlock;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
 import com.denizenscript.denizencore.utilities.ReflectionHelper;
 import io.netty.buffer.Unpooled;
-import net.minecraft.core.Registry;
-import net.minecraft.core.registries.Registries;
 import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.network.protocol.game.ClientboundLevelChunkPacketData;
 import net.minecraft.network.protocol.game.ClientboundLevelChunkWithLightPacket;
-import net.minecraft.world.level.biome.Biome;
-import net.minecraft.world.level.biome.Biomes;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.PalettedContainer;
 import org.bukkit.World;
-import org.bukkit.craftbukkit.v1_20_R1.CraftWorld;
 import org.bukkit.craftbukkit.v1_20_R1.block.data.CraftBlockData;
 
 import java.lang.invoke.MethodHandle;
@@ -27,8 +23,10 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 
 public class FakeBlockHelper {
 
@@ -44,16 +42,12 @@ public class FakeBlockHelper {
         return ((CraftBlockData) block.material.getModernData()).getState();
     }
 
-    public static boolean anyBlocksInSection(List<FakeBlock> blocks, int y) {
-        int minY = y << 4;
-        int maxY = (y << 4) + 16;
-        for (FakeBlock block : blocks) {
-            int blockY = block.location.getBlockY();
-            if (blockY >= minY && blockY < maxY) {
-                return true;
-            }
-        }
-        return false;
+    /**
+     * Returns the block's fake state, or null if the block was cancelled (which can happen while a packet thread still holds an older set of section entries).
+     */
+    public static BlockState getNMSStateOrNull(FakeBlock block) {
+        MaterialTag material = block.material;
+        return material == null ? null : ((CraftBlockData) material.getModernData()).getState();
     }
 
     public static Field PAPER_CHUNK_READY;
@@ -82,74 +76,184 @@ public class FakeBlockHelper {
         }
     }
 
-    public static ClientboundLevelChunkWithLightPacket handleMapChunkPacket(World world, ClientboundLevelChunkWithLightPacket originalPacket, int chunkX, int chunkZ, List<FakeBlock> blocks) {
+    /**
+     * A rewritten chunk packet, kept so that other players with an identical set of fake blocks in the same chunk can reuse it.
+     * Never modified once created - an updated rewrite replaces the entry.
+     */
+    public static class CachedRewrite {
+
+        public final ClientboundLevelChunkWithLightPacket originalPacket;
+
+        public final byte[] originalData;
+
+        public final long[] signature;
+
+        public final byte[] rewrittenData;
+
+        public final ClientboundLevelChunkWithLightPacket result;
+
+        public CachedRewrite(ClientboundLevelChunkWithLightPacket originalPacket, byte[] originalData, long[] signature, byte[] rewrittenData, ClientboundLevelChunkWithLightPacket result) {
+            this.originalPacket = originalPacket;
+            this.originalData = originalData;
+            this.signature = signature;
+            this.rewrittenData = rewrittenData;
+            this.result = result;
+        }
+    }
+
+    public static final int MAX_CACHED_REWRITES = 128;
+
+    /**
+     * Read and written from packet threads, so all access (including get, which reorders an access-ordered map) must synchronize on the map.
+     */
+    public static final LinkedHashMap<ChunkCoordinate, CachedRewrite> rewriteCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ChunkCoordinate, CachedRewrite> eldest) {
+            return size() > MAX_CACHED_REWRITES;
+        }
+    };
+
+    public static Field CHUNKDATA_BUFFER = ReflectionHelper.getFields(ClientboundLevelChunkPacketData.class).getFirstOfType(byte[].class);
+
+    /**
+     * Skips over a serialized PalettedContainer, given the highest bits-per-entry value that still uses an indirect (listed) palette for its strategy.
+     */
+    public static void skipPalettedContainer(FriendlyByteBuf buf, int maxIndirectBits) {
+        int bits = buf.readUnsignedByte();
+        if (bits == 0) {
+            buf.readVarInt();
+        }
+        else if (bits <= maxIndirectBits) {
+            int paletteSize = buf.readVarInt();
+            for (int i = 0; i < paletteSize; i++) {
+                buf.readVarInt();
+            }
+        }
+        int longs = buf.readVarInt();
+        buf.skipBytes(longs * 8);
+    }
+
+    public static final int STATES_MAX_INDIRECT_BITS = 8, BIOMES_MAX_INDIRECT_BITS = 3;
+
+    /**
+     * Returns a copy of the packet's block entity list, without those at positions covered by fake blocks.
+     * Always built from the current packet rather than cached, as block entity contents (sign text, etc) can change without the block data changing.
+     */
+    public static List filterBlockEntities(ClientboundLevelChunkPacketData originalData, FakeBlock.SectionEntries[] sections, int minChunkY) throws IllegalAccessException {
+        List blockEntities = new ArrayList((List) CHUNKDATA_BLOCK_ENTITIES.get(originalData));
+        ListIterator iterator = blockEntities.listIterator();
+        while (iterator.hasNext()) {
+            Object blockEnt = iterator.next();
+            int xz = CHUNKDATA_BLOCKENTITYINFO_PACKEDXZ.getInt(blockEnt);
+            int y = CHUNKDATA_BLOCKENTITYINFO_Y.getInt(blockEnt);
+            int sectionIndex = (y >> 4) - minChunkY;
+            if (sectionIndex >= 0 && sectionIndex < sections.length && sections[sectionIndex] != null && sections[sectionIndex].get(((y & 15) << 8) | (xz & 255)) != null) {
+                iterator.remove();
+            }
+        }
+        return blockEntities;
+    }
+
+    public static ClientboundLevelChunkWithLightPacket handleMapChunkPacket(World world, ClientboundLevelChunkWithLightPacket originalPacket, int chunkX, int chunkZ, FakeBlock.FakeChunk fakeChunk) {
         try {
+            int minChunkY = world.getMinHeight() >> 4;
+            int maxChunkY = world.getMaxHeight() >> 4;
+            FakeBlock.SectionEntries[] sections = new FakeBlock.SectionEntries[maxChunkY - minChunkY];
+            long[] signature = new long[fakeChunk.blockCount];
+            int signatureLength = 0;
+            for (int sectionIndex = 0; sectionIndex < sections.length; sectionIndex++) {
+                FakeBlock.FakeBlockSection section = fakeChunk.getSection(sectionIndex + minChunkY);
+                if (section == null) {
+                    continue;
+                }
+                // Take the section's entries once, as the main thread may replace them while this packet is processed
+                FakeBlock.SectionEntries entries = section.entries;
+                if (entries.count == 0) {
+                    continue;
+                }
+                if (signatureLength + entries.count > signature.length) {
+                    signature = Arrays.copyOf(signature, signatureLength + entries.count);
+                }
+                sections[sectionIndex] = entries;
+                // Section positions are kept sorted, so the signature comes out sorted too
+                for (int i = 0; i < entries.count; i++) {
+                    BlockState state = getNMSStateOrNull(entries.blocks[i]);
+                    signature[signatureLength++] = ((long) ((sectionIndex << 12) | entries.positions[i]) << 32) | (state == null ? 0xFFFFFFFFL : Block.getId(state));
+                }
+            }
+            signature = Arrays.copyOf(signature, signatureLength);
+            ClientboundLevelChunkPacketData originalData = originalPacket.getChunkData();
+            byte[] originalBytes = (byte[]) CHUNKDATA_BUFFER.get(originalData);
+            ChunkCoordinate coord = new ChunkCoordinate(chunkX, chunkZ, world.getName());
+            CachedRewrite cached;
+            synchronized (rewriteCache) {
+                cached = rewriteCache.get(coord);
+            }
+            if (cached != null && Arrays.equals(cached.signature, signature)) {
+                if (cached.originalPacket == originalPacket) {
+                    return cached.result;
+                }
+                if (Arrays.equals(cached.originalData, originalBytes)) {
+                    // Same block data in a different packet (so possibly different light data or block entities) - reuse just the rewritten block data
+                    ClientboundLevelChunkWithLightPacket duplicateCorePacket = new ClientboundLevelChunkWithLightPacket(DenizenNetworkManagerImpl.copyPacket(originalPacket));
+                    copyPacketPaperPatch(duplicateCorePacket, originalPacket);
+                    ClientboundLevelChunkPacketData packet = duplicateCorePacket.getChunkData();
+                    CHUNKDATA_BLOCK_ENTITIES.set(packet, filterBlockEntities(originalData, sections, minChunkY));
+                    CHUNKDATA_BUFFER_SETTER.invoke(packet, cached.rewrittenData);
+                    synchronized (rewriteCache) {
+                        rewriteCache.put(coord, new CachedRewrite(originalPacket, originalBytes, signature, cached.rewrittenData, duplicateCorePacket));
+                    }
+                    return duplicateCorePacket;
+                }
+            }
             ClientboundLevelChunkWithLightPacket duplicateCorePacket = new ClientboundLevelChunkWithLightPacket(DenizenNetworkManagerImpl.copyPacket(originalPacket));
             copyPacketPaperPatch(duplicateCorePacket, originalPacket);
-            FriendlyByteBuf copier = new FriendlyByteBuf(Unpooled.buffer());
-            originalPacket.getChunkData().write(copier);
-            ClientboundLevelChunkPacketData packet = new ClientboundLevelChunkPacketData(copier, chunkX, chunkZ);
-            FriendlyByteBuf serial = originalPacket.getChunkData().getReadBuffer();
+            ClientboundLevelChunkPacketData packet = duplicateCorePacket.getChunkData();
+            CHUNKDATA_BLOCK_ENTITIES.set(packet, filterBlockEntities(originalData, sections, minChunkY));
+            FriendlyByteBuf serial = originalData.getReadBuffer();
             FriendlyByteBuf outputSerial = new FriendlyByteBuf(Unpooled.buffer(serial.readableBytes()));
-            List blockEntities = new ArrayList((List) CHUNKDATA_BLOCK_ENTITIES.get(originalPacket.getChunkData()));
-            CHUNKDATA_BLOCK_ENTITIES.set(packet, blockEntities);
-            ListIterator iterator = blockEntities.listIterator();
-            while (iterator.hasNext()) {
-                Object blockEnt = iterator.next();
-                int xz = CHUNKDATA_BLOCKENTITYINFO_PACKEDXZ.getInt(blockEnt);
-                int y = CHUNKDATA_BLOCKENTITYINFO_Y.getInt(blockEnt);
-                int x = (chunkX << 4) + ((xz >> 4) & 15);
-                int z = (chunkZ << 4) + (xz & 15);
-                for (FakeBlock block : blocks) {
-                    LocationTag loc = block.location;
-                    if (loc.getBlockX() == x && loc.getBlockY() == y && loc.getBlockZ() == z && block.material != null) {
-                        iterator.remove();
-                        break;
-                    }
+            for (FakeBlock.SectionEntries section : sections) {
+                int sectionStart = serial.readerIndex();
+                if (section == null) {
+                    // Untouched section, copy its raw bytes over as-is
+                    serial.skipBytes(2);
+                    skipPalettedContainer(serial, STATES_MAX_INDIRECT_BITS);
+                    skipPalettedContainer(serial, BIOMES_MAX_INDIRECT_BITS);
+                    outputSerial.writeBytes(serial, sectionStart, serial.readerIndex() - sectionStart);
+                    continue;
                 }
-            }
-            int worldMinY = world.getMinHeight();
-            int worldMaxY = world.getMaxHeight();
-            int minChunkY = worldMinY >> 4;
-            int maxChunkY = worldMaxY >> 4;
-            Registry<Biome> biomeRegistry = ((CraftWorld) world).getHandle().registryAccess().registryOrThrow(Registries.BIOME);
-            for (int y = minChunkY; y < maxChunkY; y++) {
                 int blockCount = serial.readShort();
                 // reflected constructors as workaround for spigot remapper bug - Mojang "IdMap" became Spigot "IRegistry" but should be "Registry"
                 PalettedContainer<BlockState> states = (PalettedContainer<BlockState>) PALETTEDCONTAINER_CTOR.newInstance(Block.BLOCK_STATE_REGISTRY, Blocks.AIR.defaultBlockState(), PalettedContainer.Strategy.SECTION_STATES);
                 states.read(serial);
-                PalettedContainer<Biome> biomes = (PalettedContainer<Biome>) PALETTEDCONTAINER_CTOR.newInstance(biomeRegistry, biomeRegistry.getOrThrow(Biomes.PLAINS), PalettedContainer.Strategy.SECTION_BIOMES);
-                biomes.read(serial);
-                if (anyBlocksInSection(blocks, y)) {
-                    int minY = y << 4;
-                    int maxY = (y << 4) + 16;
-                    for (FakeBlock block : blocks) {
-                        int blockY = block.location.getBlockY();
-                        if (blockY >= minY && blockY < maxY && block.material != null) {
-                            int blockX = block.location.getBlockX();
-                            int blockZ = block.location.getBlockZ();
-                            blockX -= (blockX >> 4) * 16;
-                            blockY -= (blockY >> 4) * 16;
-                            blockZ -= (blockZ >> 4) * 16;
-                            BlockState oldState = states.get(blockX, blockY, blockZ);
-                            BlockState newState = getNMSState(block);
-                            if (oldState.isAir() && !newState.isAir()) {
-                                blockCount++;
-                            }
-                            else if (newState.isAir() && !oldState.isAir()) {
-                                blockCount--;
-                            }
-                            states.set(blockX, blockY, blockZ, newState);
-                        }
+                for (int i = 0; i < section.count; i++) {
+                    int packed = section.positions[i];
+                    int blockX = (packed >> 4) & 15, blockY = (packed >> 8) & 15, blockZ = packed & 15;
+                    BlockState newState = getNMSStateOrNull(section.blocks[i]);
+                    if (newState == null) {
+                        continue;
+                    }
+                    BlockState oldState = states.get(blockX, blockY, blockZ);
+                    if (oldState.isAir() && !newState.isAir()) {
+                        blockCount++;
                     }
+                    else if (newState.isAir() && !oldState.isAir()) {
+                        blockCount--;
+                    }
+                    states.set(blockX, blockY, blockZ, newState);
                 }
                 outputSerial.writeShort(blockCount);
                 states.write(outputSerial);
-                biomes.write(outputSerial);
+                // Biomes are never changed, so copy them over raw rather than decoding them
+                int biomesStart = serial.readerIndex();
+                skipPalettedContainer(serial, BIOMES_MAX_INDIRECT_BITS);
+                outputSerial.writeBytes(serial, biomesStart, serial.readerIndex() - biomesStart);
             }
-            byte[] outputBytes = outputSerial.array();
+            byte[] outputBytes = Arrays.copyOf(outputSerial.array(), outputSerial.writerIndex());
             CHUNKDATA_BUFFER_SETTER.invoke(packet, outputBytes);
-            CHUNKPACKET_CHUNKDATA_SETTER.invoke(duplicateCorePacket, packet);
+            synchronized (rewriteCache) {
+                rewriteCache.put(coord, new CachedRewrite(originalPacket, originalBytes, signature, outputBytes, duplicateCorePacket));
+            }
             return duplicateCorePacket;
         }
         catch (Throwable ex) {
@@ -15,6 +15,8 @@ import org.bukkit.craftbukkit.v1_20_R1.entity.CraftEntity;
 import org.bukkit.util.Vector;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
 
 public class AttachPacketHandlers {
 
@@ -41,7 +43,23 @@ public class AttachPacketHandlers {
 
     public static Vector VECTOR_ZERO = new Vector(0, 0, 0);
 
-    public static void tryProcessMovePacketForAttach(DenizenNetworkManagerImpl networkManager, ClientboundMoveEntityPacket packet, Entity e) throws IllegalAccessException {
+    /**
+     * Sends the packets generated for attached entities while processing a single original packet to the viewer, together as one bundle.
+     * The list is local to each processed packet, as packets for different viewers (or even the same viewer) can be processed on multiple threads at once.
+     */
+    public static void flushAttachPackets(DenizenNetworkManagerImpl networkManager, List<Packet<ClientGamePacketListener>> pending) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (pending.size() == 1) {
+            networkManager.oldManager.send(pending.get(0));
+        }
+        else {
+            networkManager.oldManager.send(new ClientboundBundlePacket(pending));
+        }
+    }
+
+    public static void tryProcessMovePacketForAttach(DenizenNetworkManagerImpl networkManager, List<Packet<ClientGamePacketListener>> pending, ClientboundMoveEntityPacket packet, Entity e) throws IllegalAccessException {
         EntityAttachmentHelper.EntityAttachedToMap attList = EntityAttachmentHelper.toEntityToData.get(e.getUUID());
         if (attList != null) {
             for (EntityAttachmentHelper.PlayerAttachMap attMap : attList.attachedToMap.values()) {
@@ -89,18 +107,17 @@ public class AttachPacketHandlers {
                             newYaw = EntityAttachmentHelper.adaptedCompressedAngle(newYaw, att.positionalOffset.getYaw());
                             pitch = EntityAttachmentHelper.adaptedCompressedAngle(pitch, att.positionalOffset.getPitch());
                         }
-                        Vector goalPosition = att.fixedForOffset(new Vector(e.getX(), e.getY(), e.getZ()), e.getYRot(), e.getXRot());
+                        Vector goalPosition = att.fixedForOffset(e.getX(), e.getY(), e.getZ(), e.getYRot(), e.getXRot());
                         Vector oldPos = att.visiblePositions.get(networkManager.player.getUUID());
                         boolean forceTele = false;
                         if (oldPos == null) {
                             oldPos = att.attached.getLocation().toVector();
                             forceTele = true;
                         }
-                        Vector moveNeeded = goalPosition.clone().subtract(oldPos);
-                        att.visiblePositions.put(networkManager.player.getUUID(), goalPosition.clone());
-                        int offX = (int) (moveNeeded.getX() * (32 * 128));
-                        int offY = (int) (moveNeeded.getY() * (32 * 128));
-                        int offZ = (int) (moveNeeded.getZ() * (32 * 128));
+                        int offX = (int) ((goalPosition.getX() - oldPos.getX()) * (32 * 128));
+                        int offY = (int) ((goalPosition.getY() - oldPos.getY()) * (32 * 128));
+                        int offZ = (int) ((goalPosition.getZ() - oldPos.getZ()) * (32 * 128));
+                        att.visiblePositions.put(networkManager.player.getUUID(), goalPosition);
                         if ((isRotate && att.offsetRelative) || forceTele || offX < Short.MIN_VALUE || offX > Short.MAX_VALUE
                                 || offY < Short.MIN_VALUE || offY > Short.MAX_VALUE
                                 || offZ < Short.MIN_VALUE || offZ > Short.MAX_VALUE) {
@@ -114,7 +131,7 @@ public class AttachPacketHandlers {
                             if (NMSHandler.debugPackets) {
                                 DenizenNetworkManagerImpl.doPacketOutput("Attach Move-Tele Packet: " + newTeleportPacket.getClass().getCanonicalName() + " for " + att.attached.getUUID() + " sent to " + networkManager.player.getScoreboardName() + " with original yaw " + yaw + " adapted to " + newYaw);
                             }
-                            networkManager.oldManager.send(newTeleportPacket);
+                            pending.add(newTeleportPacket);
                         }
                         else {
                             POS_X_PACKENT.setShort(pNew, (short) Mth.clamp(offX, Short.MIN_VALUE, Short.MAX_VALUE));
@@ -127,26 +144,26 @@ public class AttachPacketHandlers {
                             if (NMSHandler.debugPackets) {
                                 DenizenNetworkManagerImpl.doPacketOutput("Attach Move Packet: " + pNew.getClass().getCanonicalName() + " for " + att.attached.getUUID() + " sent to " + networkManager.player.getScoreboardName() + " with original yaw " + yaw + " adapted to " + newYaw);
                             }
-                            networkManager.oldManager.send(pNew);
+                            pending.add(pNew);
                         }
                     }
                     else {
                         if (NMSHandler.debugPackets) {
                             DenizenNetworkManagerImpl.doPacketOutput("Attach Replica-Move Packet: " + pNew.getClass().getCanonicalName() + " for " + att.attached.getUUID() + " sent to " + networkManager.player.getScoreboardName());
                         }
-                        networkManager.oldManager.send(pNew);
+                        pending.add(pNew);
                     }
                 }
             }
         }
         if (e.passengers != null && !e.passengers.isEmpty()) {
             for (Entity ent : e.passengers) {
-                tryProcessMovePacketForAttach(networkManager, packet, ent);
+                tryProcessMovePacketForAttach(networkManager, pending, packet, ent);
             }
         }
     }
 
-    public static void tryProcessRotateHeadPacketForAttach(DenizenNetworkManagerImpl networkManager, ClientboundRotateHeadPacket packet, Entity e) throws IllegalAccessException {
+    public static void tryProcessRotateHeadPacketForAttach(DenizenNetworkManagerImpl networkManager, List<Packet<ClientGamePacketListener>> pending, ClientboundRotateHeadPacket packet, Entity e) throws IllegalAccessException {
         EntityAttachmentHelper.EntityAttachedToMap attList = EntityAttachmentHelper.toEntityToData.get(e.getUUID());
         if (attList != null) {
             for (EntityAttachmentHelper.PlayerAttachMap attMap : attList.attachedToMap.values()) {
@@ -164,18 +181,18 @@ public class AttachPacketHandlers {
                     if (NMSHandler.debugPackets) {
                         DenizenNetworkManagerImpl.doPacketOutput("Head Rotation Packet: " + pNew.getClass().getCanonicalName() + " for " + att.attached.getUUID() + " sent to " + networkManager.player.getScoreboardName());
                     }
-                    networkManager.oldManager.send(pNew);
+                    pending.add(pNew);
                 }
             }
         }
         if (e.passengers != null && !e.passengers.isEmpty()) {
             for (Entity ent : e.passengers) {
-                tryProcessRotateHeadPacketForAttach(networkManager, packet, ent);
+                tryProcessRotateHeadPacketForAttach(networkManager, pending, packet, ent);
             }
         }
     }
 
-    public static void tryProcessVelocityPacketForAttach(DenizenNetworkManagerImpl networkManager, ClientboundSetEntityMotionPacket packet, Entity e) throws IllegalAccessException {
+    public static void tryProcessVelocityPacketForAttach(DenizenNetworkManagerImpl networkManager, List<Packet<ClientGamePacketListener>> pending, ClientboundSetEntityMotionPacket packet, Entity e) throws IllegalAccessException {
         EntityAttachmentHelper.EntityAttachedToMap attList = EntityAttachmentHelper.toEntityToData.get(e.getUUID());
         if (attList != null) {
             for (EntityAttachmentHelper.PlayerAttachMap attMap : attList.attachedToMap.values()) {
@@ -186,18 +203,18 @@ public class AttachPacketHandlers {
                     if (NMSHandler.debugPackets) {
                         DenizenNetworkManagerImpl.doPacketOutput("Attach Velocity Packet: " + pNew.getClass().getCanonicalName() + " for " + att.attached.getUUID() + " sent to " + networkManager.player.getScoreboardName());
                     }
-                    networkManager.oldManager.send(pNew);
+                    pending.add(pNew);
                 }
             }
         }
         if (e.passengers != null && !e.passengers.isEmpty()) {
             for (Entity ent : e.passengers) {
-                tryProcessVelocityPacketForAttach(networkManager, packet, ent);
+                tryProcessVelocityPacketForAttach(networkManager, pending, packet, ent);
             }
         }
     }
 
-    public static void tryProcessTeleportPacketForAttach(DenizenNetworkManagerImpl networkManager, ClientboundTeleportEntityPacket packet, Entity e, Vector relative) throws IllegalAccessException {
+    public static void tryProcessTeleportPacketForAttach(DenizenNetworkManagerImpl networkManager, List<Packet<ClientGamePacketListener>> pending, ClientboundTeleportEntityPacket packet, Entity e, Vector relative) throws IllegalAccessException {
         EntityAttachmentHelper.EntityAttachedToMap attList = EntityAttachmentHelper.toEntityToData.get(e.getUUID());
         if (attList != null) {
             for (EntityAttachmentHelper.PlayerAttachMap attMap : attList.attachedToMap.values()) {
@@ -235,13 +252,13 @@ public class AttachPacketHandlers {
                         }
                     }
                     att.visiblePositions.put(networkManager.player.getUUID(), resultPos.clone());
-                    networkManager.oldManager.send(pNew);
+                    pending.add(pNew);
                 }
             }
         }
         if (e.passengers != null && !e.passengers.isEmpty()) {
             for (Entity ent : e.passengers) {
-                tryProcessTeleportPacketForAttach(networkManager, packet, ent, new Vector(ent.getX() - e.getX(), ent.getY() - e.getY(), ent.getZ() - e.getZ()));
+                tryProcessTeleportPacketForAttach(networkManager, pending, packet, ent, new Vector(ent.getX() - e.getX(), ent.getY() - e.getY(), ent.getZ() - e.getZ()));
             }
         }
     }
@@ -250,6 +267,7 @@ public class AttachPacketHandlers {
         if (EntityAttachmentHelper.toEntityToData.isEmpty()) {
             return packet;
         }
+        List<Packet<ClientGamePacketListener>> pending = new ArrayList<>(2);
         try {
             if (packet instanceof ClientboundMoveEntityPacket moveEntityPacket) {
                 Entity e = moveEntityPacket.getEntity(networkManager.player.level());
@@ -257,7 +275,7 @@ public class AttachPacketHandlers {
                     return packet;
                 }
                 if (!e.isPassenger()) {
-                    tryProcessMovePacketForAttach(networkManager, moveEntityPacket, e);
+                    tryProcessMovePacketForAttach(networkManager, pending, moveEntityPacket, e);
                 }
                 return EntityAttachmentHelper.denyOriginalPacketSend(networkManager.player.getUUID(), e.getUUID()) ? null : packet;
             }
@@ -266,7 +284,7 @@ public class AttachPacketHandlers {
                 if (e == null) {
                     return packet;
                 }
-                tryProcessRotateHeadPacketForAttach(networkManager, rotateHeadPacket, e);
+                tryProcessRotateHeadPacketForAttach(networkManager, pending, rotateHeadPacket, e);
                 return EntityAttachmentHelper.denyOriginalPacketSend(networkManager.player.getUUID(), e.getUUID()) ? null : packet;
             }
             else if (packet instanceof ClientboundSetEntityMotionPacket setEntityMotionPacket) {
@@ -275,7 +293,7 @@ public class AttachPacketHandlers {
                 if (e == null) {
                     return packet;
                 }
-                tryProcessVelocityPacketForAttach(networkManager, setEntityMotionPacket, e);
+                tryProcessVelocityPacketForAttach(networkManager, pending, setEntityMotionPacket, e);
                 return EntityAttachmentHelper.denyOriginalPacketSend(networkManager.player.getUUID(), e.getUUID()) ? null : packet;
             }
             else if (packet instanceof ClientboundTeleportEntityPacket teleportEntityPacket) {
@@ -284,7 +302,7 @@ public class AttachPacketHandlers {
                 if (e == null) {
                     return packet;
                 }
-                tryProcessTeleportPacketForAttach(networkManager, teleportEntityPacket, e, VECTOR_ZERO);
+                tryProcessTeleportPacketForAttach(networkManager, pending, teleportEntityPacket, e, VECTOR_ZERO);
                 return EntityAttachmentHelper.denyOriginalPacketSend(networkManager.player.getUUID(), e.getUUID()) ? null : packet;
             }
             else if (packet instanceof ClientboundRemoveEntitiesPacket removeEntitiesPacket) {
@@ -307,6 +325,9 @@ public class AttachPacketHandlers {
         catch (Exception ex) {
             Debug.echoError(ex);
         }
+        finally {
+            flushAttachPackets(networkManager, pending);
+        }
         return packet;
     }
 }
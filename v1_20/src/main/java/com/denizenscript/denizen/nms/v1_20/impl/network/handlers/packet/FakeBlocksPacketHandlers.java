@@ -3,8 +3,6 @@ package com.denizenscript.denizen.nms.v1_20.impl.network.handlers.packet;
 import com.denizenscript.denizen.nms.v1_20.ReflectionMappingsInfo;
 import com.denizenscript.denizen.nms.v1_20.impl.network.handlers.DenizenNetworkManagerImpl;
 import com.denizenscript.denizen.nms.v1_20.impl.network.handlers.FakeBlockHelper;
-import com.denizenscript.denizen.objects.LocationTag;
-import com.denizenscript.denizen.utilities.blocks.ChunkCoordinate;
 import com.denizenscript.denizen.utilities.blocks.FakeBlock;
 import com.denizenscript.denizencore.utilities.ReflectionHelper;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
@@ -16,7 +14,6 @@ import net.minecraft.world.level.block.state.BlockState;
 
 import java.lang.reflect.Field;
 import java.util.Arrays;
-import java.util.List;
 
 public class FakeBlocksPacketHandlers {
 
@@ -42,12 +39,11 @@ public class FakeBlocksPacketHandlers {
                 }
                 int chunkX = ((ClientboundLevelChunkWithLightPacket) packet).getX();
                 int chunkZ = ((ClientboundLevelChunkWithLightPacket) packet).getZ();
-                ChunkCoordinate chunkCoord = new ChunkCoordinate(chunkX, chunkZ, networkManager.player.level().getWorld().getName());
-                List<FakeBlock> blocks = FakeBlock.getFakeBlocksFor(networkManager.player.getUUID(), chunkCoord);
-                if (blocks == null || blocks.isEmpty()) {
+                FakeBlock.FakeChunk fakeChunk = map.getChunk(networkManager.player.level().getWorld(), chunkX, chunkZ);
+                if (fakeChunk == null) {
                     return packet;
                 }
-                ClientboundLevelChunkWithLightPacket newPacket = FakeBlockHelper.handleMapChunkPacket(networkManager.player.getBukkitEntity().getWorld(), (ClientboundLevelChunkWithLightPacket) packet, chunkX, chunkZ, blocks);
+                ClientboundLevelChunkWithLightPacket newPacket = FakeBlockHelper.handleMapChunkPacket(networkManager.player.getBukkitEntity().getWorld(), (ClientboundLevelChunkWithLightPacket) packet, chunkX, chunkZ, fakeChunk);
                 return newPacket;
             }
             else if (packet instanceof ClientboundSectionBlocksUpdatePacket) {
@@ -56,37 +52,39 @@ public class FakeBlocksPacketHandlers {
                     return packet;
                 }
                 SectionPos coord = (SectionPos) SECTIONPOS_MULTIBLOCKCHANGE.get(packet);
-                ChunkCoordinate coordinateDenizen = new ChunkCoordinate(coord.getX(), coord.getZ(), networkManager.player.level().getWorld().getName());
-                if (!map.byChunk.containsKey(coordinateDenizen)) {
+                FakeBlock.FakeChunk fakeChunk = map.getChunk(networkManager.player.level().getWorld(), coord.getX(), coord.getZ());
+                FakeBlock.FakeBlockSection section = fakeChunk == null ? null : fakeChunk.getSection(coord.getY());
+                if (section == null) {
                     return packet;
                 }
-                ClientboundSectionBlocksUpdatePacket newPacket = new ClientboundSectionBlocksUpdatePacket(DenizenNetworkManagerImpl.copyPacket(packet));
-                LocationTag location = new LocationTag(networkManager.player.level().getWorld(), 0, 0, 0);
-                short[] originalOffsetArray = (short[])OFFSETARRAY_MULTIBLOCKCHANGE.get(newPacket);
-                BlockState[] originalDataArray = (BlockState[])BLOCKARRAY_MULTIBLOCKCHANGE.get(newPacket);
-                short[] offsetArray = Arrays.copyOf(originalOffsetArray, originalOffsetArray.length);
-                BlockState[] dataArray = Arrays.copyOf(originalDataArray, originalDataArray.length);
-                OFFSETARRAY_MULTIBLOCKCHANGE.set(newPacket, offsetArray);
-                BLOCKARRAY_MULTIBLOCKCHANGE.set(newPacket, dataArray);
-                for (int i = 0; i < offsetArray.length; i++) {
-                    short offset = offsetArray[i];
-                    BlockPos pos = coord.relativeToBlockPos(offset);
-                    location.setX(pos.getX());
-                    location.setY(pos.getY());
-                    location.setZ(pos.getZ());
-                    FakeBlock block = map.byLocation.get(location);
-                    if (block != null) {
-                        dataArray[i] = FakeBlockHelper.getNMSState(block);
+                short[] originalOffsetArray = (short[]) OFFSETARRAY_MULTIBLOCKCHANGE.get(packet);
+                BlockState[] dataArray = null;
+                for (int i = 0; i < originalOffsetArray.length; i++) {
+                    short offset = originalOffsetArray[i];
+                    FakeBlock block = section.get(FakeBlock.packSectionPosition(SectionPos.sectionRelativeX(offset), SectionPos.sectionRelativeY(offset), SectionPos.sectionRelativeZ(offset)));
+                    BlockState state = block == null ? null : FakeBlockHelper.getNMSStateOrNull(block);
+                    if (state != null) {
+                        if (dataArray == null) {
+                            BlockState[] originalDataArray = (BlockState[]) BLOCKARRAY_MULTIBLOCKCHANGE.get(packet);
+                            dataArray = Arrays.copyOf(originalDataArray, originalDataArray.length);
+                        }
+                        dataArray[i] = state;
                     }
                 }
+                if (dataArray == null) {
+                    return packet;
+                }
+                ClientboundSectionBlocksUpdatePacket newPacket = new ClientboundSectionBlocksUpdatePacket(DenizenNetworkManagerImpl.copyPacket(packet));
+                OFFSETARRAY_MULTIBLOCKCHANGE.set(newPacket, Arrays.copyOf(originalOffsetArray, originalOffsetArray.length));
+                BLOCKARRAY_MULTIBLOCKCHANGE.set(newPacket, dataArray);
                 return newPacket;
             }
             else if (packet instanceof ClientboundBlockUpdatePacket) {
                 BlockPos pos = ((ClientboundBlockUpdatePacket) packet).getPos();
-                LocationTag loc = new LocationTag(networkManager.player.level().getWorld(), pos.getX(), pos.getY(), pos.getZ());
-                FakeBlock block = FakeBlock.getFakeBlockFor(networkManager.player.getUUID(), loc);
-                if (block != null) {
-                    ClientboundBlockUpdatePacket newPacket = new ClientboundBlockUpdatePacket(((ClientboundBlockUpdatePacket) packet).getPos(), FakeBlockHelper.getNMSState(block));
+                FakeBlock block = FakeBlock.getFakeBlockFor(networkManager.player.getUUID(), networkManager.player.level().getWorld(), pos.getX(), pos.getY(), pos.getZ());
+                BlockState state = block == null ? null : FakeBlockHelper.getNMSStateOrNull(block);
+                if (state != null) {
+                    ClientboundBlockUpdatePacket newPacket = new ClientboundBlockUpdatePacket(((ClientboundBlockUpdatePacket) packet).getPos(), state);
                     return newPacket;
                 }
             }
@@ -95,8 +93,7 @@ public class FakeBlocksPacketHandlers {
                 /*
                 ClientboundBlockChangedAckPacket origPack = (ClientboundBlockChangedAckPacket) packet;
                 BlockPos pos = origPack.pos();
-                LocationTag loc = new LocationTag(player.getLevel().getWorld(), pos.getX(), pos.getY(), pos.getZ());
-                FakeBlock block = FakeBlock.getFakeBlockFor(player.getUUID(), loc);
+                FakeBlock block = FakeBlock.getFakeBlockFor(player.getUUID(), player.getLevel().getWorld(), pos.getX(), pos.getY(), pos.getZ());
                 if (block != null) {
                     ClientboundBlockChangedAckPacket newPacket = new ClientboundBlockChangedAckPacket(origPack.pos(), FakeBlockHelper.getNMSState(block), origPack.action(), false);
                     oldManager.send(newPacket, genericfuturelistener);
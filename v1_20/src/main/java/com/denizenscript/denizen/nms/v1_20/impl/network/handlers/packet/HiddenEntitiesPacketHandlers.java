@@ -2,12 +2,15 @@ package com.denizenscript.denizen.nms.v1_20.impl.network.handlers.packet;
 
 import com.denizenscript.denizen.nms.v1_20.impl.network.handlers.DenizenNetworkManagerImpl;
 import com.denizenscript.denizen.utilities.entity.HideEntitiesHelper;
+import com.denizenscript.denizencore.utilities.ReflectionHelper;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
 import net.minecraft.network.protocol.Packet;
 import net.minecraft.network.protocol.game.*;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.entity.Entity;
 
+import java.lang.reflect.Field;
+
 public class HiddenEntitiesPacketHandlers {
 
     public static void registerHandlers() {
@@ -22,6 +25,8 @@ public class HiddenEntitiesPacketHandlers {
         DenizenNetworkManagerImpl.registerPacketHandler(ClientboundTeleportEntityPacket.class, HiddenEntitiesPacketHandlers::processHiddenEntitiesForPacket);
     }
 
+    public static Field MOVE_ENTITY_ID = ReflectionHelper.getFields(ClientboundMoveEntityPacket.class).getFirstOfType(int.class);
+
     public static boolean isHidden(ServerPlayer player, Entity entity) {
         return entity != null && HideEntitiesHelper.playerShouldHide(player.getBukkitEntity().getUniqueId(), entity.getBukkitEntity());
     }
@@ -32,7 +37,6 @@ public class HiddenEntitiesPacketHandlers {
         }
         try {
             int ider = -1;
-            Entity e = null;
             if (packet instanceof ClientboundAddPlayerPacket) {
                 ider = ((ClientboundAddPlayerPacket) packet).getEntityId();
             }
@@ -43,7 +47,7 @@ public class HiddenEntitiesPacketHandlers {
                 ider = ((ClientboundAddExperienceOrbPacket) packet).getId();
             }
             else if (packet instanceof ClientboundMoveEntityPacket) {
-                e = ((ClientboundMoveEntityPacket) packet).getEntity(networkManager.player.level());
+                ider = MOVE_ENTITY_ID.getInt(packet);
             }
             else if (packet instanceof ClientboundSetEntityDataPacket) {
                 ider = ((ClientboundSetEntityDataPacket) packet).id();
@@ -54,13 +58,22 @@ public class HiddenEntitiesPacketHandlers {
             else if (packet instanceof ClientboundTeleportEntityPacket) {
                 ider = ((ClientboundTeleportEntityPacket) packet).getId();
             }
-            if (e == null && ider != -1) {
-                e = networkManager.player.level().getEntity(ider);
+            if (ider == -1) {
+                return packet;
             }
-            if (e != null) {
-                if (isHidden(networkManager.player, e)) {
-                    return null;
+            int version = HideEntitiesHelper.visibilityVersion;
+            int state = networkManager.entityVisibility.getState(ider);
+            if (state == -1) {
+                Entity e = networkManager.player.level().getEntity(ider);
+                if (e == null) {
+                    return packet;
                 }
+                boolean hidden = isHidden(networkManager.player, e);
+                networkManager.entityVisibility.record(ider, hidden, version);
+                return hidden ? null : packet;
+            }
+            if (state == 1) {
+                return null;
             }
         }
         catch (Exception ex) {